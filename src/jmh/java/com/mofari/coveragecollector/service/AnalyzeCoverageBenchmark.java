@@ -0,0 +1,84 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import com.mofari.coveragecollector.observability.Tracer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReportGeneratorService.analyzeCoverage：从class目录读取并分析所有class
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzeCoverageBenchmark {
+
+    @Param({"500", "2000"})
+    public int classes;
+
+    @Param({"16", "64"})
+    public int probes;
+
+    private Path root;
+    private ReportGeneratorService reportGeneratorService;
+    private ExecutionDataStore executionDataStore;
+    private List<String> classDirectories;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("jmh_analyze_");
+        SyntheticCorpus corpus = SyntheticCorpus.generate(root, classes, probes);
+        executionDataStore = corpus.executionData(new Random(42L), 0.5);
+        classDirectories = Collections.singletonList(corpus.getClassDirectory().toString());
+        reportGeneratorService = newReportGeneratorService();
+    }
+
+    @Benchmark
+    public IBundleCoverage analyzeCoverage() throws IOException {
+        return reportGeneratorService.analyzeCoverage("bench-app", executionDataStore, classDirectories,
+                ClassFileService.ClassFilter.ALL, "bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(root);
+    }
+
+    static ReportGeneratorService newReportGeneratorService() {
+        CoverageConfig coverageConfig = new CoverageConfig();
+        ClassFileService classFileService = new ClassFileService();
+        ReflectionTestUtils.setField(classFileService, "coverageConfig", coverageConfig);
+        ReportGeneratorService reportGeneratorService = new ReportGeneratorService();
+        ReflectionTestUtils.setField(reportGeneratorService, "coverageConfig", coverageConfig);
+        ReflectionTestUtils.setField(reportGeneratorService, "classFileService", classFileService);
+        ReflectionTestUtils.setField(reportGeneratorService, "coverageMetrics", new CoverageMetrics(new SimpleMeterRegistry(), new Tracer()));
+        return reportGeneratorService;
+    }
+}
@@ -0,0 +1,168 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import com.mofari.coveragecollector.observability.Tracer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.mofari.coveragecollector.util.ExecDataMerger;
+import com.mofari.coveragecollector.util.ParallelExecDataMerger;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfoStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * DumpMergeService.mergeDumpFiles：合并一个tag下 nodes * dumps 个原始dump文件。
+ * mergeWithExecutionDataStore 是JaCoCo自带读写方式的基线，对比 -prof gc 的 gc.alloc.rate.norm；
+ * mergeWithParallelExecDataMerger 按 parallelism 个线程分组并行读取（与 mergeWithExecDataMerger 对比扩展性）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DumpMergeBenchmark {
+
+    private static final String APP_NAME = "bench-app";
+    private static final String TAG = "bench";
+
+    @Param({"2000"})
+    public int classes;
+
+    @Param({"32"})
+    public int probes;
+
+    @Param({"4"})
+    public int nodes;
+
+    @Param({"5", "25"})
+    public int dumps;
+
+    @Param({"4"})
+    public int parallelism;
+
+    private Path root;
+    private DumpMergeService dumpMergeService;
+    private String mergedFile;
+    private List<File> dumpFiles;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("jmh_merge_");
+        SyntheticCorpus corpus = SyntheticCorpus.generate(root, classes, probes);
+        Path dumpDirectory = root.resolve("dumps");
+        Path tagDirectory = dumpDirectory.resolve(APP_NAME).resolve(TAG);
+        corpus.writeDumps(tagDirectory, nodes, dumps, 0.3, 42L);
+        dumpFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.list(tagDirectory)) {
+            files.sorted().forEach(file -> dumpFiles.add(file.toFile()));
+        }
+
+        CoverageConfig coverageConfig = new CoverageConfig();
+        coverageConfig.setDumpDirectory(dumpDirectory.toString());
+        DumpIndexService dumpIndexService = new DumpIndexService();
+        ReflectionTestUtils.setField(dumpIndexService, "objectMapper", new ObjectMapper());
+        TagLockManager tagLockManager = new TagLockManager(64);
+        ReflectionTestUtils.setField(tagLockManager, "coverageConfig", coverageConfig);
+        dumpMergeService = new DumpMergeService();
+        ReflectionTestUtils.setField(dumpMergeService, "coverageConfig", coverageConfig);
+        ReflectionTestUtils.setField(dumpMergeService, "dumpIndexService", dumpIndexService);
+        ReflectionTestUtils.setField(dumpMergeService, "tagLockManager", tagLockManager);
+        ReflectionTestUtils.setField(dumpMergeService, "coverageMetrics", new CoverageMetrics(new SimpleMeterRegistry(), new Tracer()));
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @Benchmark
+    public String mergeDumpFiles() throws Exception {
+        mergedFile = dumpMergeService.mergeDumpFiles(APP_NAME, null, TAG);
+        return mergedFile;
+    }
+
+    @Benchmark
+    public byte[] mergeWithExecutionDataStore() throws IOException {
+        ExecutionDataStore executionDataStore = new ExecutionDataStore();
+        SessionInfoStore sessionInfoStore = new SessionInfoStore();
+        for (File dumpFile : dumpFiles) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(dumpFile))) {
+                ExecutionDataReader reader = new ExecutionDataReader(in);
+                reader.setExecutionDataVisitor(executionDataStore);
+                reader.setSessionInfoVisitor(sessionInfoStore);
+                reader.read();
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExecutionDataWriter writer = new ExecutionDataWriter(out);
+        sessionInfoStore.accept(writer);
+        executionDataStore.accept(writer);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] mergeWithExecDataMerger() throws IOException {
+        ExecDataMerger merger = new ExecDataMerger(classes);
+        for (File dumpFile : dumpFiles) {
+            merger.merge(dumpFile);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        merger.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] mergeWithParallelExecDataMerger() throws IOException {
+        ExecDataMerger merger = ParallelExecDataMerger.merge(dumpFiles, pool, 2, classes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        merger.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 合并结果不作为下一次合并的输入（只合并原始dump），删除只是为了不占满临时目录
+     */
+    @TearDown(Level.Invocation)
+    public void deleteMergedFile() throws IOException {
+        if (mergedFile != null) {
+            Files.deleteIfExists(Paths.get(mergedFile));
+            mergedFile = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        dumpMergeService.shutdown();
+        SyntheticCorpus.delete(root);
+    }
+}
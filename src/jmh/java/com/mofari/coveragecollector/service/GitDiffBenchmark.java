@@ -0,0 +1,100 @@
+package com.mofari.coveragecollector.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GitDiffService.getChangedLines：在合成的git仓库上执行diff并解析变更行（包含git进程本身的开销）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GitDiffBenchmark {
+
+    @Param({"100", "1000"})
+    public int files;
+
+    @Param({"200"})
+    public int linesPerFile;
+
+    /**
+     * 每隔多少行修改一行
+     */
+    @Param({"5"})
+    public int changeEvery;
+
+    private Path repository;
+    private GitDiffService gitDiffService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = Files.createTempDirectory("jmh_git_");
+        git("init", "-q");
+        writeSources(false);
+        git("add", "-A");
+        git("-c", "user.name=bench", "-c", "user.email=bench@localhost", "commit", "-q", "-m", "base");
+        git("tag", "base");
+        writeSources(true);
+        git("-c", "user.name=bench", "-c", "user.email=bench@localhost", "commit", "-q", "-a", "-m", "new");
+        git("tag", "new");
+        gitDiffService = new GitDiffService();
+    }
+
+    @Benchmark
+    public Map<String, Set<Integer>> getChangedLines() throws Exception {
+        return gitDiffService.getChangedLines(repository.toString(), "base", "new");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(repository);
+    }
+
+    private void writeSources(boolean changed) throws IOException {
+        for (int f = 0; f < files; f++) {
+            Path file = repository.resolve("src/main/java/bench/p" + (f / 50) + "/Synthetic" + f + ".java");
+            Files.createDirectories(file.getParent());
+            List<String> lines = new ArrayList<>(linesPerFile);
+            for (int line = 1; line <= linesPerFile; line++) {
+                boolean modified = changed && line % changeEvery == 0;
+                lines.add("    int value" + line + " = " + (modified ? line * 2 : line) + ";");
+            }
+            Files.write(file, lines, StandardCharsets.UTF_8);
+        }
+    }
+
+    private void git(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(repository.toFile()).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IOException("git " + String.join(" ", args) + " failed in " + repository);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.model.incremental.IncrementalCoverageReport;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.report.DirectorySourceFileLocator;
+import org.jacoco.report.IReportVisitor;
+import org.jacoco.report.xml.XMLFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 增量报告的渲染阶段：parseJaCoCoXmlAndFilter（解析JaCoCo XML并按变更行过滤）和 convertReportToJson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementalReportBenchmark {
+
+    @Param({"500", "2000"})
+    public int classes;
+
+    @Param({"32"})
+    public int probes;
+
+    /**
+     * 每隔多少行取一行作为变更行
+     */
+    @Param({"3"})
+    public int changeEvery;
+
+    private Path root;
+    private ReportGeneratorService reportGeneratorService;
+    private File xmlFile;
+    private Map<String, Set<Integer>> changedLines;
+    private IncrementalCoverageReport report;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("jmh_incremental_");
+        SyntheticCorpus corpus = SyntheticCorpus.generate(root, classes, probes);
+        ExecutionDataStore executionDataStore = corpus.executionData(new Random(42L), 0.5);
+        reportGeneratorService = AnalyzeCoverageBenchmark.newReportGeneratorService();
+        IBundleCoverage bundle = reportGeneratorService.analyzeCoverage("bench-app", executionDataStore,
+                Collections.singletonList(corpus.getClassDirectory().toString()), ClassFileService.ClassFilter.ALL, "bench");
+
+        xmlFile = root.resolve("jacoco.xml").toFile();
+        try (OutputStream out = Files.newOutputStream(xmlFile.toPath())) {
+            IReportVisitor visitor = new XMLFormatter().createVisitor(out);
+            visitor.visitInfo(Collections.emptyList(), executionDataStore.getContents());
+            visitor.visitBundle(bundle, new DirectorySourceFileLocator(root.toFile(), SyntheticCorpus.SOURCE_ENCODING, 4));
+            visitor.visitEnd();
+        }
+        changedLines = corpus.changedLines(changeEvery);
+        report = parseJaCoCoXmlAndFilter();
+    }
+
+    @Benchmark
+    public IncrementalCoverageReport parseJaCoCoXmlAndFilter() throws Exception {
+        return reportGeneratorService.parseJaCoCoXmlAndFilter(xmlFile, changedLines, "bench-app", "base", "bench");
+    }
+
+    @Benchmark
+    public String convertReportToJson() {
+        return reportGeneratorService.convertReportToJson(report);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        SyntheticCorpus.delete(root);
+    }
+}
@@ -0,0 +1,198 @@
+package com.mofari.coveragecollector.service;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试用的合成class和执行数据。
+ * 每个class由若干个带一个分支的静态方法组成（每个方法2个探针、3行），按固定种子生成，结果可复现。
+ */
+final class SyntheticCorpus {
+
+    static final String SOURCE_ENCODING = "UTF-8";
+
+    private static final int CLASSES_PER_PACKAGE = 50;
+    private static final int LINES_PER_METHOD = 3;
+
+    private final Path classDirectory;
+    private final List<ClassEntry> classes;
+
+    private SyntheticCorpus(Path classDirectory, List<ClassEntry> classes) {
+        this.classDirectory = classDirectory;
+        this.classes = classes;
+    }
+
+    /**
+     * 在root/classes下生成class文件
+     * @param classCount class数量
+     * @param probesPerClass 每个class的探针数（向上取偶数）
+     */
+    static SyntheticCorpus generate(Path root, int classCount, int probesPerClass) throws IOException {
+        Path classDirectory = root.resolve("classes");
+        int methods = Math.max(1, (probesPerClass + 1) / 2);
+        List<ClassEntry> classes = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            String className = "bench/p" + (i / CLASSES_PER_PACKAGE) + "/Synthetic" + i;
+            byte[] bytes = classBytes(className, methods);
+            Path file = classDirectory.resolve(className + ".class");
+            Files.createDirectories(file.getParent());
+            Files.write(file, bytes);
+            classes.add(new ClassEntry(className, CRC64.classId(bytes), probeCount(bytes), methods * LINES_PER_METHOD));
+        }
+        return new SyntheticCorpus(classDirectory, classes);
+    }
+
+    Path getClassDirectory() {
+        return classDirectory;
+    }
+
+    int getClassCount() {
+        return classes.size();
+    }
+
+    /**
+     * 每个探针以hitRatio的概率命中
+     */
+    ExecutionDataStore executionData(Random random, double hitRatio) {
+        ExecutionDataStore store = new ExecutionDataStore();
+        for (ClassEntry entry : classes) {
+            boolean[] probes = new boolean[entry.probeCount];
+            for (int p = 0; p < probes.length; p++) {
+                probes[p] = random.nextDouble() < hitRatio;
+            }
+            store.put(new ExecutionData(entry.classId, entry.className, probes));
+        }
+        return store;
+    }
+
+    /**
+     * 按多节点收集的命名方式写出 nodes * dumpsPerNode 个dump文件
+     */
+    void writeDumps(Path tagDirectory, int nodes, int dumpsPerNode, double hitRatio, long seed) throws IOException {
+        Files.createDirectories(tagDirectory);
+        Random random = new Random(seed);
+        int sequence = 0;
+        for (int node = 0; node < nodes; node++) {
+            for (int dump = 0; dump < dumpsPerNode; dump++, sequence++) {
+                String fileName = String.format("jacoco_node%d_20240101_%06d_000.exec", node, sequence);
+                try (OutputStream out = Files.newOutputStream(tagDirectory.resolve(fileName))) {
+                    ExecutionDataWriter writer = new ExecutionDataWriter(out);
+                    writer.visitSessionInfo(new SessionInfo("node" + node + "-" + dump, sequence, sequence + 1));
+                    executionData(random, hitRatio).accept(writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 每个源文件中每隔every行取一行作为变更行，路径为JaCoCo格式
+     */
+    Map<String, Set<Integer>> changedLines(int every) {
+        Map<String, Set<Integer>> changedLines = new HashMap<>();
+        for (ClassEntry entry : classes) {
+            Set<Integer> lines = new HashSet<>();
+            for (int line = 1; line <= entry.lineCount; line += every) {
+                lines.add(line);
+            }
+            changedLines.put(entry.className + ".java", lines);
+        }
+        return changedLines;
+    }
+
+    static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * static int mN(int x) { if (x > 0) return 1; return 0; }，每个方法占3行
+     */
+    private static byte[] classBytes(String className, int methods) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, "java/lang/Object", null);
+        writer.visitSource(className.substring(className.lastIndexOf('/') + 1) + ".java", null);
+        for (int m = 0; m < methods; m++) {
+            int line = m * LINES_PER_METHOD + 1;
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m" + m, "(I)I", null, null);
+            method.visitCode();
+            Label condition = new Label();
+            Label positive = new Label();
+            Label otherwise = new Label();
+            method.visitLabel(condition);
+            method.visitLineNumber(line, condition);
+            method.visitVarInsn(Opcodes.ILOAD, 0);
+            method.visitJumpInsn(Opcodes.IFLE, otherwise);
+            method.visitLabel(positive);
+            method.visitLineNumber(line + 1, positive);
+            method.visitInsn(Opcodes.ICONST_1);
+            method.visitInsn(Opcodes.IRETURN);
+            method.visitLabel(otherwise);
+            method.visitLineNumber(line + 2, otherwise);
+            method.visitInsn(Opcodes.ICONST_0);
+            method.visitInsn(Opcodes.IRETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static int probeCount(byte[] classBytes) {
+        int[] count = new int[1];
+        new ClassReader(classBytes).accept(new ClassProbesAdapter(new ClassProbesVisitor() {
+            @Override
+            public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return null;
+            }
+
+            @Override
+            public void visitTotalProbeCount(int total) {
+                count[0] = total;
+            }
+        }, false), 0);
+        return count[0];
+    }
+
+    private static final class ClassEntry {
+        private final String className;
+        private final long classId;
+        private final int probeCount;
+        private final int lineCount;
+
+        private ClassEntry(String className, long classId, int probeCount, int lineCount) {
+            this.className = className;
+            this.classId = classId;
+            this.probeCount = probeCount;
+            this.lineCount = lineCount;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.mofari.coveragecollector.config;
 
-import com.mofari.coveragecollector.util.SourceClassFinder;
+import com.mofari.coveragecollector.util.ProjectLayoutScanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -8,12 +8,14 @@ import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static com.mofari.coveragecollector.util.SourceClassFinder.findDirectories;
 
 @Component
 @ConfigurationProperties(prefix = "coverage")
@@ -21,6 +23,11 @@ public class CoverageConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(CoverageConfig.class);
 
+    /**
+     * 自动扫描的项目目录结构缓存，key为项目根目录
+     */
+    private final Map<Path, ProjectLayoutScanner.Layout> layoutCache = new ConcurrentHashMap<>();
+
     /**
      * JaCoCo agent的地址
      */
@@ -56,6 +63,11 @@ public class CoverageConfig {
      */
     private String dumpDirectory = "./dump-files";
 
+    /**
+     * 索引文件（源文件/class索引等）保存目录根路径
+     */
+    private String indexDirectory = "./coverage-index";
+
     /**
      * 多应用配置
      */
@@ -72,6 +84,61 @@ public class CoverageConfig {
      */
     private SonarConfig sonar = new SonarConfig();
 
+    /**
+     * dump文件自动保留与压缩策略（可在applications.<app>.retention中按应用覆盖）
+     */
+    private RetentionConfig retention = new RetentionConfig();
+
+    /**
+     * 分析时的class过滤规则（可在applications.<app>.class-filter中按应用覆盖）
+     */
+    private ClassFilterConfig classFilter = new ClassFilterConfig();
+
+    /**
+     * 报告渲染时的源码缓存
+     */
+    private SourceCacheConfig sourceCache = new SourceCacheConfig();
+
+    /**
+     * 覆盖率趋势存储
+     */
+    private TrendConfig trend = new TrendConfig();
+
+    /**
+     * 测试会话覆盖率
+     */
+    private SessionConfig session = new SessionConfig();
+
+    /**
+     * 分析前的classId校验
+     */
+    private VerificationConfig verification = new VerificationConfig();
+
+    /**
+     * 请求级的阶段耗时追踪
+     */
+    private TracingConfig tracing = new TracingConfig();
+
+    /**
+     * JFR录制
+     */
+    private JfrConfig jfr = new JfrConfig();
+
+    /**
+     * dump文件合并
+     */
+    private MergeConfig merge = new MergeConfig();
+
+    /**
+     * 线程模型：虚拟线程和并发收集
+     */
+    private ThreadsConfig threads = new ThreadsConfig();
+
+    /**
+     * 后台任务进度推送
+     */
+    private ProgressConfig progress = new ProgressConfig();
+
     /**
      * 获取应用配置
      */
@@ -83,6 +150,28 @@ public class CoverageConfig {
         return new ApplicationConfig();
     }
 
+    /**
+     * 获取应用的dump保留策略，应用未单独配置时使用全局策略
+     */
+    public RetentionConfig getRetentionConfig(String appName) {
+        ApplicationConfig config = applications.get(appName);
+        if (config != null && config.getRetention() != null) {
+            return config.getRetention();
+        }
+        return retention;
+    }
+
+    /**
+     * 获取应用的class过滤规则，应用未单独配置时使用全局规则
+     */
+    public ClassFilterConfig getClassFilterConfig(String appName) {
+        ApplicationConfig config = applications.get(appName);
+        if (config != null && config.getClassFilter() != null) {
+            return config.getClassFilter();
+        }
+        return classFilter;
+    }
+
     /**
      * 获取应用配置，支持appName+tag，根目录为~/project/appname-tag/
      * @param appName 应用名
@@ -114,17 +203,37 @@ public class CoverageConfig {
             config.setClassDirectories(clsDirs);
             logger.info("应用 {} 使用配置文件中的源码和class路径，相对根目录 {}", appName, appRoot);
         } else {
-            // 自动扫描所有模块
-            logger.info("应用 {} 未配置源码/class路径，自动扫描 {} 下所有模块", appName, appRoot);
-            File appDir = new File(appRoot);
-            List<String> discoveredSourceDirs = findDirectories(appDir, "src/main/java");
-            List<String> discoveredClassDirs = findDirectories(appDir, "target/classes");
-            config.setSourceDirectories(discoveredSourceDirs);
+            // 自动扫描所有模块（结果按项目根目录缓存，目录有变化时重新扫描）
+            ProjectLayoutScanner.Layout layout = scanProjectLayout(Paths.get(appRoot));
+            List<String> discoveredClassDirs = layout.getClassDirectories();
+            if (discoveredClassDirs.isEmpty()) {
+                // 没有编译输出目录时，直接使用打包产物（jar/war/fat jar），分析时按entry读取，无需解压
+                discoveredClassDirs = layout.getArchives();
+                logger.debug("应用 {} 未找到target/classes，使用打包产物: {}", appName, discoveredClassDirs);
+            }
+            config.setSourceDirectories(layout.getSourceDirectories());
             config.setClassDirectories(discoveredClassDirs);
         }
         return config;
     }
 
+    /**
+     * 获取项目目录结构，缓存的结果在访问过的目录都未变化时直接复用
+     */
+    private ProjectLayoutScanner.Layout scanProjectLayout(Path appRoot) {
+        ProjectLayoutScanner.Layout layout = layoutCache.get(appRoot);
+        if (layout != null && layout.isUpToDate()) {
+            return layout;
+        }
+        long start = System.currentTimeMillis();
+        layout = ProjectLayoutScanner.scan(appRoot);
+        layoutCache.put(appRoot, layout);
+        logger.info("扫描项目目录 {} 完成，访问 {} 个目录，耗时 {} ms，源码目录 {} 个，class目录 {} 个",
+                appRoot, layout.getVisitedDirectoryCount(), System.currentTimeMillis() - start,
+                layout.getSourceDirectories().size(), layout.getClassDirectories().size());
+        return layout;
+    }
+
     /**
      * 递归查找指定模式的目录
      */
@@ -204,6 +313,8 @@ public class CoverageConfig {
         private String clusterName;             // Optional: For multi-node identification and Nacos discovery
         private List<String> sourceDirectories = new ArrayList<>();
         private List<String> classDirectories = new ArrayList<>();
+        private RetentionConfig retention;      // Optional: overrides the global dump retention policy
+        private ClassFilterConfig classFilter;  // Optional: overrides the global class filter
 
         // Getters and Setters
         public String getName() {
@@ -253,6 +364,430 @@ public class CoverageConfig {
         public void setClassDirectories(List<String> classDirectories) {
             this.classDirectories = classDirectories;
         }
+
+        public RetentionConfig getRetention() {
+            return retention;
+        }
+
+        public void setRetention(RetentionConfig retention) {
+            this.retention = retention;
+        }
+
+        public ClassFilterConfig getClassFilter() {
+            return classFilter;
+        }
+
+        public void setClassFilter(ClassFilterConfig classFilter) {
+            this.classFilter = classFilter;
+        }
+    }
+
+    /**
+     * 分析class时的包过滤规则，语法与JaCoCo agent的includes/excludes相同（类名用.分隔，支持*和?）
+     */
+    public static class ClassFilterConfig {
+        private List<String> includes = new ArrayList<>();  // 为空表示应用自身的class全部分析
+        private List<String> excludes = new ArrayList<>();
+        private boolean scanNestedLibraries = true;         // 是否扫描fat jar/war中的BOOT-INF/lib、WEB-INF/lib（仅在配置了includes时生效）
+
+        public List<String> getIncludes() {
+            return includes;
+        }
+
+        public void setIncludes(List<String> includes) {
+            this.includes = includes;
+        }
+
+        public List<String> getExcludes() {
+            return excludes;
+        }
+
+        public void setExcludes(List<String> excludes) {
+            this.excludes = excludes;
+        }
+
+        public boolean isScanNestedLibraries() {
+            return scanNestedLibraries;
+        }
+
+        public void setScanNestedLibraries(boolean scanNestedLibraries) {
+            this.scanNestedLibraries = scanNestedLibraries;
+        }
+    }
+
+    /**
+     * 源码内容缓存配置
+     */
+    public static class SourceCacheConfig {
+        private long maxBytes = 64L * 1024 * 1024;  // 缓存的源码占用内存上限（按字符串的UTF-16字节数计），0表示不缓存
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    /**
+     * 覆盖率趋势存储配置
+     */
+    public static class TrendConfig {
+        private boolean enabled = true;         // 默认开启：旧的原始dump会被折叠并删除，见README 8.1
+        private String directory = "./coverage-trend";  // 趋势数据目录（历史数据，不可重建，不要放在索引目录中）
+        private boolean recordOnCollect = true;         // 收集dump后在后台分析并记录一个数据点
+        private boolean recordFiles = true;             // 是否记录文件级数据点（关闭后只记录应用和包）
+        private int defaultMaxPoints = 200;             // 查询未指定maxPoints时返回的最大点数
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public boolean isRecordOnCollect() {
+            return recordOnCollect;
+        }
+
+        public void setRecordOnCollect(boolean recordOnCollect) {
+            this.recordOnCollect = recordOnCollect;
+        }
+
+        public boolean isRecordFiles() {
+            return recordFiles;
+        }
+
+        public void setRecordFiles(boolean recordFiles) {
+            this.recordFiles = recordFiles;
+        }
+
+        public int getDefaultMaxPoints() {
+            return defaultMaxPoints;
+        }
+
+        public void setDefaultMaxPoints(int defaultMaxPoints) {
+            this.defaultMaxPoints = defaultMaxPoints;
+        }
+    }
+
+    /**
+     * classId校验配置
+     */
+    public static class VerificationConfig {
+        private boolean enabled = true;             // 生成报告/快照前校验dump中的classId，不一致时记录警告
+        private boolean failOnMismatch = false;     // 有覆盖率因classId不一致而丢失时直接失败，不再分析和生成报告
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isFailOnMismatch() {
+            return failOnMismatch;
+        }
+
+        public void setFailOnMismatch(boolean failOnMismatch) {
+            this.failOnMismatch = failOnMismatch;
+        }
+    }
+
+    /**
+     * 阶段耗时追踪配置
+     */
+    public static class TracingConfig {
+        private boolean enabled = true;                     // 为每个API请求记录各阶段/各节点的span
+        private boolean includeTimings = true;              // 在返回的JSON中附带timings耗时明细
+        private boolean export = true;                      // 请求结束后把trace写成Chrome trace-event格式的文件
+        private String directory = "./coverage-traces";     // trace文件目录，可以直接拖进 chrome://tracing 或 ui.perfetto.dev 查看
+        private int maxFiles = 500;                         // 目录中最多保留的trace文件数，超出时删除最早的
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isIncludeTimings() {
+            return includeTimings;
+        }
+
+        public void setIncludeTimings(boolean includeTimings) {
+            this.includeTimings = includeTimings;
+        }
+
+        public boolean isExport() {
+            return export;
+        }
+
+        public void setExport(boolean export) {
+            this.export = export;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getMaxFiles() {
+            return maxFiles;
+        }
+
+        public void setMaxFiles(int maxFiles) {
+            this.maxFiles = maxFiles;
+        }
+    }
+
+    /**
+     * JFR录制配置
+     */
+    public static class JfrConfig {
+        private String directory = "./coverage-jfr";  // 录制文件目录
+        private String settings = "profile";          // 默认使用的JFR预置配置：default 或 profile
+        private int maxDurationMinutes = 30;          // 录制最长时间，忘记停止时到时自动停止并写出文件
+        private int maxSizeMb = 256;                  // 录制数据的最大体积
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public String getSettings() {
+            return settings;
+        }
+
+        public void setSettings(String settings) {
+            this.settings = settings;
+        }
+
+        public int getMaxDurationMinutes() {
+            return maxDurationMinutes;
+        }
+
+        public void setMaxDurationMinutes(int maxDurationMinutes) {
+            this.maxDurationMinutes = maxDurationMinutes;
+        }
+
+        public int getMaxSizeMb() {
+            return maxSizeMb;
+        }
+
+        public void setMaxSizeMb(int maxSizeMb) {
+            this.maxSizeMb = maxSizeMb;
+        }
+    }
+
+    /**
+     * dump文件合并配置
+     */
+    public static class MergeConfig {
+        private int parallelism = 0;   // 并行读取和合并的线程数，0表示CPU核数，1表示顺序合并
+        private int filesPerTask = 4;  // 每个并行任务顺序读取的文件数，文件数不超过该值时不并行
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getFilesPerTask() {
+            return filesPerTask;
+        }
+
+        public void setFilesPerTask(int filesPerTask) {
+            this.filesPerTask = filesPerTask;
+        }
+    }
+
+    /**
+     * 线程配置
+     */
+    public static class ThreadsConfig {
+        private boolean virtual = false;              // 在JDK 21+上用虚拟线程处理请求和节点dump，旧JDK上忽略
+        private int collectionTimeoutSeconds = 300;   // 一次多节点收集的截止时间，超时未完成的节点记为失败
+        private int collectionThreads = 16;           // 不使用虚拟线程时，节点dump的平台线程池大小
+
+        public boolean isVirtual() {
+            return virtual;
+        }
+
+        public void setVirtual(boolean virtual) {
+            this.virtual = virtual;
+        }
+
+        public int getCollectionTimeoutSeconds() {
+            return collectionTimeoutSeconds;
+        }
+
+        public void setCollectionTimeoutSeconds(int collectionTimeoutSeconds) {
+            this.collectionTimeoutSeconds = collectionTimeoutSeconds;
+        }
+
+        public int getCollectionThreads() {
+            return collectionThreads;
+        }
+
+        public void setCollectionThreads(int collectionThreads) {
+            this.collectionThreads = collectionThreads;
+        }
+    }
+
+    /**
+     * 后台任务进度配置
+     */
+    public static class ProgressConfig {
+        private long intervalMillis = 500;        // 进度推送间隔，间隔内的多次更新合并为一次
+        private int emitterTimeoutSeconds = 60;   // 单个SSE连接的最长时间，到时关闭由客户端重连，避免代理超时
+        private int retentionMinutes = 30;        // 任务结束后结果保留的时间
+        private int jobThreads = 4;               // 不使用虚拟线程时，同时执行的后台任务数
+        private int maxPendingJobs = 16;          // 未结束（执行中和排队中）的任务数上限，超过时拒绝提交（429）
+        private int maxRetainedJobs = 200;        // 保留的已结束任务数上限，超过时先移除最早结束的
+
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        public void setIntervalMillis(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        public int getEmitterTimeoutSeconds() {
+            return emitterTimeoutSeconds;
+        }
+
+        public void setEmitterTimeoutSeconds(int emitterTimeoutSeconds) {
+            this.emitterTimeoutSeconds = emitterTimeoutSeconds;
+        }
+
+        public int getRetentionMinutes() {
+            return retentionMinutes;
+        }
+
+        public void setRetentionMinutes(int retentionMinutes) {
+            this.retentionMinutes = retentionMinutes;
+        }
+
+        public int getJobThreads() {
+            return jobThreads;
+        }
+
+        public void setJobThreads(int jobThreads) {
+            this.jobThreads = jobThreads;
+        }
+
+        public int getMaxPendingJobs() {
+            return maxPendingJobs;
+        }
+
+        public void setMaxPendingJobs(int maxPendingJobs) {
+            this.maxPendingJobs = maxPendingJobs;
+        }
+
+        public int getMaxRetainedJobs() {
+            return maxRetainedJobs;
+        }
+
+        public void setMaxRetainedJobs(int maxRetainedJobs) {
+            this.maxRetainedJobs = maxRetainedJobs;
+        }
+    }
+
+    /**
+     * 测试会话覆盖率配置
+     */
+    public static class SessionConfig {
+        private String directory = "./coverage-sessions";  // 会话数据目录（每个会话的探针数据，不可重建，不要放在索引目录中）
+        private int maxCachedIndexes = 8;                   // 内存中保留的会话倒排索引数量（每个应用/集群/tag一个）
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getMaxCachedIndexes() {
+            return maxCachedIndexes;
+        }
+
+        public void setMaxCachedIndexes(int maxCachedIndexes) {
+            this.maxCachedIndexes = maxCachedIndexes;
+        }
+    }
+
+    /**
+     * dump文件保留与压缩策略
+     */
+    public static class RetentionConfig {
+        private boolean enabled = true;         // 默认开启：旧的原始dump会被折叠并删除，见README 8.1
+        private int keepRawFiles = 10;          // 每个tag保留的最新原始dump数量，更早的合并为一个checkpoint
+        private int keepMergedFiles = 2;        // 每个tag保留的最新合并文件数量
+        private long maxAgeHours = 0;           // 超过该时长的原始dump合并进checkpoint、合并文件删除，0表示不限制
+        private long maxBytesPerApp = 0;        // 单个应用dump目录的磁盘预算，0表示不限制
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getKeepRawFiles() {
+            return keepRawFiles;
+        }
+
+        public void setKeepRawFiles(int keepRawFiles) {
+            this.keepRawFiles = keepRawFiles;
+        }
+
+        public int getKeepMergedFiles() {
+            return keepMergedFiles;
+        }
+
+        public void setKeepMergedFiles(int keepMergedFiles) {
+            this.keepMergedFiles = keepMergedFiles;
+        }
+
+        public long getMaxAgeHours() {
+            return maxAgeHours;
+        }
+
+        public void setMaxAgeHours(long maxAgeHours) {
+            this.maxAgeHours = maxAgeHours;
+        }
+
+        public long getMaxBytesPerApp() {
+            return maxBytesPerApp;
+        }
+
+        public void setMaxBytesPerApp(long maxBytesPerApp) {
+            this.maxBytesPerApp = maxBytesPerApp;
+        }
     }
 
     /**
@@ -345,6 +880,14 @@ public class CoverageConfig {
         this.dumpDirectory = dumpDirectory;
     }
 
+    public String getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    public void setIndexDirectory(String indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
     public Map<String, ApplicationConfig> getApplications() {
         return applications;
     }
@@ -368,4 +911,92 @@ public class CoverageConfig {
     public void setSonar(SonarConfig sonar) {
         this.sonar = sonar;
     }
+
+    public ClassFilterConfig getClassFilter() {
+        return classFilter;
+    }
+
+    public void setClassFilter(ClassFilterConfig classFilter) {
+        this.classFilter = classFilter;
+    }
+
+    public RetentionConfig getRetention() {
+        return retention;
+    }
+
+    public void setRetention(RetentionConfig retention) {
+        this.retention = retention;
+    }
+
+    public SourceCacheConfig getSourceCache() {
+        return sourceCache;
+    }
+
+    public void setSourceCache(SourceCacheConfig sourceCache) {
+        this.sourceCache = sourceCache;
+    }
+
+    public TrendConfig getTrend() {
+        return trend;
+    }
+
+    public void setTrend(TrendConfig trend) {
+        this.trend = trend;
+    }
+
+    public SessionConfig getSession() {
+        return session;
+    }
+
+    public void setSession(SessionConfig session) {
+        this.session = session;
+    }
+
+    public VerificationConfig getVerification() {
+        return verification;
+    }
+
+    public void setVerification(VerificationConfig verification) {
+        this.verification = verification;
+    }
+
+    public TracingConfig getTracing() {
+        return tracing;
+    }
+
+    public void setTracing(TracingConfig tracing) {
+        this.tracing = tracing;
+    }
+
+    public JfrConfig getJfr() {
+        return jfr;
+    }
+
+    public void setJfr(JfrConfig jfr) {
+        this.jfr = jfr;
+    }
+
+    public MergeConfig getMerge() {
+        return merge;
+    }
+
+    public void setMerge(MergeConfig merge) {
+        this.merge = merge;
+    }
+
+    public ThreadsConfig getThreads() {
+        return threads;
+    }
+
+    public void setThreads(ThreadsConfig threads) {
+        this.threads = threads;
+    }
+
+    public ProgressConfig getProgress() {
+        return progress;
+    }
+
+    public void setProgress(ProgressConfig progress) {
+        this.progress = progress;
+    }
 }
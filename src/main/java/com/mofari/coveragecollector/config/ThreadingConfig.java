@@ -0,0 +1,32 @@
+package com.mofari.coveragecollector.config;
+
+import com.mofari.coveragecollector.util.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * coverage.threads.virtual=true 时让Tomcat每个请求使用一个虚拟线程，
+ * 阻塞在agent socket、Nacos、git/sonar子进程和Sonar轮询上的请求不再占用平台线程
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "coverage.threads", name = "virtual", havingValue = "true")
+public class ThreadingConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadingConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        if (!VirtualThreads.isAvailable()) {
+            logger.warn("coverage.threads.virtual=true，但当前JVM ({}) 不支持虚拟线程，继续使用Tomcat线程池",
+                    System.getProperty("java.version"));
+            return protocolHandler -> { };
+        }
+        logger.info("HTTP请求使用虚拟线程处理");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-vt-"));
+    }
+}
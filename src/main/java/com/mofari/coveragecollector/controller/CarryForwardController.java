@@ -0,0 +1,83 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.service.CarryForwardService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 覆盖率沿用接口：新tag部署后把旧tag积累的覆盖率带过来
+ */
+@RestController
+@RequestMapping("/api/coverage/carry-forward")
+public class CarryForwardController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarryForwardController.class);
+
+    @Autowired
+    private CarryForwardService carryForwardService;
+
+    /**
+     * 把旧tag合并后的覆盖率沿用到新tag
+     * @param appName 应用名称
+     * @param clusterName 集群名（可选）
+     * @param oldTag 旧版本标签
+     * @param newTag 新版本标签
+     * @param baseRef 旧版本的git引用
+     * @param newRef 新版本的git引用
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> carryForward(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String oldTag,
+            @RequestParam String newTag,
+            @RequestParam String baseRef,
+            @RequestParam String newRef) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            CarryForwardService.CarryForwardResult result =
+                    carryForwardService.carryForward(appName, clusterName, oldTag, newTag, baseRef, newRef);
+
+            response.put("success", true);
+            response.put("message", "覆盖率已沿用到新版本");
+            response.put("appName", appName);
+            response.put("clusterName", clusterName);
+            response.put("oldTag", oldTag);
+            response.put("tag", newTag);
+            response.put("dumpFilePath", result.getOutputFile());
+            response.put("identicalClasses", result.getIdenticalClasses());
+            response.put("remappedClasses", result.getRemappedClasses());
+            response.put("remappedProbes", result.getRemappedProbes());
+            response.put("skippedClasses", result.getSkippedClasses());
+            response.put("durationMs", result.getDurationMs());
+
+            return ResponseEntity.ok(response);
+
+        } catch (FileNotFoundException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", newTag);
+            return ResponseEntity.status(404).body(response);
+        } catch (Exception e) {
+            logger.error("沿用覆盖率失败", e);
+
+            response.put("success", false);
+            response.put("message", "沿用覆盖率失败: " + e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", newTag);
+
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.mofari.coveragecollector.controller;
 
+import com.mofari.coveragecollector.service.DumpCompactionService;
 import com.mofari.coveragecollector.service.DumpMergeService;
 import com.mofari.coveragecollector.service.JaCoCoClientService;
 import com.mofari.coveragecollector.service.ReportGeneratorService;
 import com.mofari.coveragecollector.service.MultiNodeCoverageService;
 import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.ProgressTracker;
 import com.mofari.coveragecollector.model.incremental.IncrementalCoverageReport;
 import com.mofari.coveragecollector.model.incremental.FileCoverage;
 import com.mofari.coveragecollector.model.FullCoverageReport;
+import com.mofari.coveragecollector.model.verification.ClassIdVerification;
 import com.mofari.coveragecollector.service.SonarQubeIntegrationService.SonarAnalysisResult;
 
 import org.slf4j.Logger;
@@ -19,8 +22,10 @@ import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/coverage")
@@ -40,9 +45,15 @@ public class CoverageController {
     @Autowired
     private MultiNodeCoverageService multiNodeCoverageService;
     
+    @Autowired
+    private DumpCompactionService dumpCompactionService;
+    
     @Autowired
     private CoverageConfig coverageConfig;
     
+    @Autowired
+    private ProgressTracker progressTracker;
+    
     /**
      * 收集覆盖率数据
      * @param appName 应用名称
@@ -63,6 +74,9 @@ public class CoverageController {
         try {
             logger.info("收到覆盖率收集请求，应用: {}, 标签: {}", appName, tag);
             String dumpFilePath = jaCoCoClientService.collectCoverageData(appName, tag, agentHost, agentPort);
+            if (coverageConfig.getTrend().isEnabled() && coverageConfig.getTrend().isRecordOnCollect()) {
+                reportGeneratorService.refreshSnapshotAsync(appName, null, tag);
+            }
             
             response.put("success", true);
             response.put("message", "覆盖率数据收集成功");
@@ -234,41 +248,7 @@ public class CoverageController {
         String operationSummary = String.format("Nacos-driven collection for app '%s', cluster '%s', tag '%s'", appName, clusterName, tag);
 
         try {
-            logger.info("Unified collect-and-report request (Nacos-driven): {}", operationSummary);
-            
-            MultiNodeCoverageService.MultiNodeCollectionResult collectionResult =
-                    multiNodeCoverageService.collectFromAllNodes(appName, clusterName, tag);
-            
-            if (collectionResult.getTotalNodes() == 0) {
-                throw new RuntimeException("No application instances found in Nacos for " + operationSummary + ". Cannot perform collection.");
-            }
-            if (collectionResult.getSuccessCount() == 0) {
-                 throw new RuntimeException("Coverage collection failed for all " + collectionResult.getTotalNodes() + " discovered Nacos instance(s) for " + operationSummary + ".");
-            }
-            if (collectionResult.getFailedCount() > 0) {
-                logger.warn("Multi-node collection partially succeeded for {}. Succeeded: {}, Failed: {}. Proceeding with report.", 
-                            operationSummary, collectionResult.getSuccessCount(), collectionResult.getFailedCount());
-            }
-            response.put("collectionDetails", collectionResult);
-            
-            logger.info("Generating full report for {}. mergeDumps: {}", operationSummary, mergeAllDumps);
-            FullCoverageReport coverageReport = reportGeneratorService.generateReport(appName, clusterName, tag, null, mergeAllDumps);
-            logger.info("Full report generated: {}", coverageReport.getReportPath());
-            
-            response.put("success", true);
-            response.put("message", "Coverage collection (Nacos) and full report generation successful. " + operationSummary);
-            response.put("appName", appName);
-            response.put("clusterName", clusterName);
-            response.put("tag", tag);
-            response.put("reportPath", coverageReport.getReportPath());
-            response.put("mergedDumpsInReport", mergeAllDumps);
-            response.put("coverageStats", new HashMap<String, Object>() {{
-                put("totalLineCount", coverageReport.getTotalLineCount());
-                put("coveredLineCount", coverageReport.getCoveredLineCount());
-                put("lineCoveragePercentage", coverageReport.getLineCoveragePercentage());
-            }});
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(collectAndReport(appName, clusterName, tag, mergeAllDumps));
             
         } catch (Exception e) {
             logger.error("Unified collect-and-report (Nacos-driven) failed for {}. Error: {}", operationSummary, e.getMessage(), e);
@@ -281,6 +261,125 @@ public class CoverageController {
         }
     }
     
+    /**
+     * 多节点收集并生成全量报告，同步接口和后台任务共用
+     */
+    private Map<String, Object> collectAndReport(String appName, String clusterName, String tag, boolean mergeAllDumps) throws Exception {
+        Map<String, Object> response = new HashMap<>();
+        String operationSummary = String.format("Nacos-driven collection for app '%s', cluster '%s', tag '%s'", appName, clusterName, tag);
+        logger.info("Unified collect-and-report request (Nacos-driven): {}", operationSummary);
+        
+        MultiNodeCoverageService.MultiNodeCollectionResult collectionResult =
+                multiNodeCoverageService.collectFromAllNodes(appName, clusterName, tag);
+        
+        if (collectionResult.getTotalNodes() == 0) {
+            throw new RuntimeException("No application instances found in Nacos for " + operationSummary + ". Cannot perform collection.");
+        }
+        if (collectionResult.getSuccessCount() == 0) {
+             throw new RuntimeException("Coverage collection failed for all " + collectionResult.getTotalNodes() + " discovered Nacos instance(s) for " + operationSummary + ".");
+        }
+        if (collectionResult.getFailedCount() > 0) {
+            logger.warn("Multi-node collection partially succeeded for {}. Succeeded: {}, Failed: {}. Proceeding with report.", 
+                        operationSummary, collectionResult.getSuccessCount(), collectionResult.getFailedCount());
+        }
+        response.put("collectionDetails", collectionResult);
+        
+        logger.info("Generating full report for {}. mergeDumps: {}", operationSummary, mergeAllDumps);
+        FullCoverageReport coverageReport = reportGeneratorService.generateReport(appName, clusterName, tag, null, mergeAllDumps);
+        logger.info("Full report generated: {}", coverageReport.getReportPath());
+        
+        response.put("success", true);
+        response.put("message", "Coverage collection (Nacos) and full report generation successful. " + operationSummary);
+        response.put("appName", appName);
+        response.put("clusterName", clusterName);
+        response.put("tag", tag);
+        response.put("reportPath", coverageReport.getReportPath());
+        response.put("mergedDumpsInReport", mergeAllDumps);
+        response.put("coverageStats", new HashMap<String, Object>() {{
+            put("totalLineCount", coverageReport.getTotalLineCount());
+            put("coveredLineCount", coverageReport.getCoveredLineCount());
+            put("lineCoveragePercentage", coverageReport.getLineCoveragePercentage());
+        }});
+        
+        return response;
+    }
+    
+    /**
+     * 以后台任务执行 /collect-and-report，立即返回任务ID；进度通过 GET /api/jobs/{jobId}/events（SSE）或 GET /api/jobs/{jobId} 获取
+     */
+    @PostMapping("/jobs/collect-and-report")
+    public ResponseEntity<Map<String, Object>> submitCollectAndReport(
+            @RequestParam String appName,
+            @RequestParam String clusterName,
+            @RequestParam String tag,
+            @RequestParam(value = "mergeAllDumps", defaultValue = "false") boolean mergeAllDumps) {
+        
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("appName", appName);
+        parameters.put("clusterName", clusterName);
+        parameters.put("tag", tag);
+        parameters.put("mergeAllDumps", mergeAllDumps);
+        ProgressTracker.Job job;
+        try {
+            job = progressTracker.submit("collect-and-report", parameters,
+                    () -> collectAndReport(appName, clusterName, tag, mergeAllDumps));
+        } catch (RejectedExecutionException e) {
+            return jobRejected(e, appName, tag);
+        }
+        return jobAccepted(job, appName, tag);
+    }
+    
+    /**
+     * 以后台任务执行 /sonar-reports/full，立即返回任务ID
+     */
+    @PostMapping("/jobs/sonar-reports/full")
+    public ResponseEntity<Map<String, Object>> submitFullReportWithSonar(
+            @RequestParam String projectKey,
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam(required = false) String specificDumpFilePath,
+            @RequestParam(defaultValue = "false") boolean mergeAllDumps) {
+        
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("projectKey", projectKey);
+        parameters.put("appName", appName);
+        parameters.put("clusterName", clusterName);
+        parameters.put("tag", tag);
+        parameters.put("specificDumpFilePath", specificDumpFilePath);
+        parameters.put("mergeAllDumps", mergeAllDumps);
+        ProgressTracker.Job job;
+        try {
+            job = progressTracker.submit("sonar-reports/full", parameters,
+                    () -> reportGeneratorService.generateFullReportWithSonar(projectKey, appName, clusterName, tag, specificDumpFilePath, mergeAllDumps));
+        } catch (RejectedExecutionException e) {
+            return jobRejected(e, appName, tag);
+        }
+        return jobAccepted(job, appName, tag);
+    }
+    
+    private ResponseEntity<Map<String, Object>> jobAccepted(ProgressTracker.Job job, String appName, String tag) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "任务已提交");
+        response.put("appName", appName);
+        response.put("tag", tag);
+        response.put("jobId", job.getId());
+        response.put("statusUrl", "/api/jobs/" + job.getId());
+        response.put("eventsUrl", "/api/jobs/" + job.getId() + "/events");
+        return ResponseEntity.status(202).body(response);
+    }
+    
+    private ResponseEntity<Map<String, Object>> jobRejected(RejectedExecutionException e, String appName, String tag) {
+        logger.warn("后台任务提交被拒绝，应用: {}, 标签: {}: {}", appName, tag, e.getMessage());
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", e.getMessage());
+        response.put("appName", appName);
+        response.put("tag", tag);
+        return ResponseEntity.status(429).body(response);
+    }
+    
     /**
      * 合并dump文件
      * @param appName 应用名称
@@ -403,6 +502,89 @@ public class CoverageController {
         }
     }
     
+    /**
+     * 立即对应用执行dump保留与压缩策略（后台也会定时执行）
+     * @param appName 应用名称
+     * @return 响应结果
+     */
+    @PostMapping("/compact-dumps")
+    public ResponseEntity<Map<String, Object>> compactDumpFiles(@RequestParam String appName) {
+        
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            logger.info("收到dump压缩请求，应用: {}", appName);
+            
+            DumpCompactionService.CompactionResult result = dumpCompactionService.compactApplication(appName);
+            
+            response.put("success", true);
+            response.put("message", "dump文件压缩完成");
+            response.put("appName", appName);
+            response.put("tagCount", result.getTagCount());
+            response.put("foldedFiles", result.getFoldedFiles());
+            response.put("checkpoints", result.getCheckpoints());
+            response.put("deletedMergedFiles", result.getDeletedMergedFiles());
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            logger.error("压缩dump文件失败", e);
+            
+            response.put("success", false);
+            response.put("message", "压缩dump文件失败: " + e.getMessage());
+            response.put("appName", appName);
+            
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+    
+    /**
+     * 校验dump中的classId与当前class文件是否一致，列出因class文件不一致而丢失的覆盖率
+     * @param appName 应用名称
+     * @param clusterName 集群名（可选）
+     * @param tag 版本标签
+     * @param dumpFilePath 指定的dump文件（可选）
+     * @param mergeAllDumps 是否合并所有dump文件
+     * @param failOnMismatch 有覆盖率丢失时返回409
+     * @return 响应结果
+     */
+    @GetMapping("/verify")
+    public ResponseEntity<Map<String, Object>> verifyClassIds(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam(required = false) String dumpFilePath,
+            @RequestParam(defaultValue = "true") boolean mergeAllDumps,
+            @RequestParam(defaultValue = "false") boolean failOnMismatch) {
+        
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            ClassIdVerification verification = reportGeneratorService.verifyClassIds(appName, clusterName, tag, dumpFilePath, mergeAllDumps);
+            boolean failed = failOnMismatch && verification.hasLostCoverage();
+            
+            response.put("success", !failed);
+            response.put("message", verification.getMismatchedClasses() == 0 ? "classId校验通过"
+                    : "有" + verification.getMismatchedClasses() + "个class与dump中的classId不一致");
+            response.put("appName", appName);
+            response.put("clusterName", clusterName);
+            response.put("tag", tag);
+            response.put("verification", verification);
+            
+            return failed ? ResponseEntity.status(409).body(response) : ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            logger.error("校验classId失败", e);
+            
+            response.put("success", false);
+            response.put("message", "校验classId失败: " + e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", tag);
+            
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+    
     /**
      * 获取服务状态
      * @return 响应结果
@@ -421,6 +603,7 @@ public class CoverageController {
                 "app-tag-organization", 
                 "dump-file-merging", 
                 "automatic-cleanup",
+                "automatic-compaction",
                 "multi-node-support",
                 "nacos-integration",
                 "auto-path-discovery"
@@ -512,6 +695,9 @@ public class CoverageController {
             // 使用真实的多节点收集服务
             MultiNodeCoverageService.MultiNodeCollectionResult result = 
                     multiNodeCoverageService.collectFromAllNodes(appName, clusterName, tag);
+            if (result.getSuccessCount() > 0 && coverageConfig.getTrend().isEnabled() && coverageConfig.getTrend().isRecordOnCollect()) {
+                reportGeneratorService.refreshSnapshotAsync(appName, clusterName, tag);
+            }
             
             response.put("success", true);
             response.put("message", "多节点覆盖率数据收集完成");
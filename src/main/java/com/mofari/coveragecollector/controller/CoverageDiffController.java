@@ -0,0 +1,86 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.service.CoverageDiffService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 覆盖率差异接口：比较两个tag或两次收集之间的覆盖率变化
+ */
+@RestController
+@RequestMapping("/api/coverage/diff")
+public class CoverageDiffController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageDiffController.class);
+
+    @Autowired
+    private CoverageDiffService coverageDiffService;
+
+    /**
+     * 比较覆盖率，结果按文件（LINES）或class（PROBES）流式输出
+     * @param appName 应用名称
+     * @param clusterName 集群名（可选）
+     * @param baseTag 旧版本标签
+     * @param newTag 新版本标签，比较同一tag的两次收集时与baseTag相同
+     * @param baseRef 旧版本的git引用（可选，与newRef同时指定时按git diff映射行号）
+     * @param newRef 新版本的git引用（可选）
+     * @param baseDumpFilePath 旧版本使用的dump文件（可选，默认使用baseTag合并后的数据）
+     * @param newDumpFilePath 新版本使用的dump文件（可选）
+     * @param mode LINES 按行比较快照，PROBES 直接比较探针
+     * @param includeUnchanged 是否输出没有变化的文件/class
+     */
+    @GetMapping
+    public ResponseEntity<?> diff(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String baseTag,
+            @RequestParam String newTag,
+            @RequestParam(required = false) String baseRef,
+            @RequestParam(required = false) String newRef,
+            @RequestParam(required = false) String baseDumpFilePath,
+            @RequestParam(required = false) String newDumpFilePath,
+            @RequestParam(defaultValue = "LINES") CoverageDiffService.Mode mode,
+            @RequestParam(defaultValue = "false") boolean includeUnchanged) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            CoverageDiffService.CoverageDiff diff = coverageDiffService.prepare(appName, clusterName, baseTag, newTag,
+                    baseRef, newRef, baseDumpFilePath, newDumpFilePath, mode);
+            StreamingResponseBody body = out -> coverageDiffService.write(diff, includeUnchanged, out);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", newTag);
+            return ResponseEntity.badRequest().body(response);
+        } catch (FileNotFoundException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", newTag);
+            return ResponseEntity.status(404).body(response);
+        } catch (Exception e) {
+            logger.error("比较覆盖率失败", e);
+
+            response.put("success", false);
+            response.put("message", "比较覆盖率失败: " + e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", newTag);
+
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+import com.mofari.coveragecollector.service.CoverageSnapshotService;
+import com.mofari.coveragecollector.service.ReportGeneratorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于覆盖率快照的查询接口。
+ * 快照在dump数据或class文件变化后的第一次查询（或生成完整报告）时生成，之后的查询直接读取快照。
+ */
+@RestController
+@RequestMapping("/api/coverage/snapshot")
+public class CoverageSnapshotController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageSnapshotController.class);
+
+    @Autowired
+    private ReportGeneratorService reportGeneratorService;
+
+    /**
+     * 快照汇总
+     * @param appName 应用名称
+     * @param clusterName 集群名（可选）
+     * @param tag 版本标签
+     * @param dumpFilePath dump文件路径（可选）
+     * @param mergeAllDumps 是否合并同tag下的所有dump文件
+     * @return 应用整体的覆盖率计数
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getSummary(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam(required = false) String dumpFilePath,
+            @RequestParam(defaultValue = "false") boolean mergeAllDumps) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            CoverageSnapshot snapshot = reportGeneratorService.getCoverageSnapshot(appName, clusterName, tag, dumpFilePath, mergeAllDumps);
+
+            response.put("success", true);
+            putSnapshotInfo(response, snapshot);
+            response.put("packageCount", snapshot.getPackageNames().size());
+            response.put("fileCount", snapshot.getFiles().size());
+            response.put("coverageStats", counters(snapshot.getInstructions(), snapshot.getBranches(), snapshot.getLines(), snapshot.getMethods()));
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            return error(response, "获取覆盖率快照失败", e, appName, tag);
+        }
+    }
+
+    /**
+     * 单个源文件的覆盖率
+     * @param path 包路径形式的文件路径，如 com/foo/Bar.java
+     * @param includeLines 是否返回每一行的覆盖情况
+     */
+    @GetMapping("/file")
+    public ResponseEntity<Map<String, Object>> getFile(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam String path,
+            @RequestParam(defaultValue = "false") boolean includeLines,
+            @RequestParam(required = false) String dumpFilePath,
+            @RequestParam(defaultValue = "false") boolean mergeAllDumps) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            CoverageSnapshot snapshot = reportGeneratorService.getCoverageSnapshot(appName, clusterName, tag, dumpFilePath, mergeAllDumps);
+            SourceFileSnapshot file = snapshot.getFile(path);
+            if (file == null) {
+                return notFound(response, "快照中没有该源文件: " + path, appName, tag);
+            }
+
+            response.put("success", true);
+            putSnapshotInfo(response, snapshot);
+            response.putAll(fileSummary(file));
+            if (includeLines) {
+                response.put("lines", lines(file, 0, Integer.MAX_VALUE));
+            }
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            return error(response, "获取文件覆盖率失败", e, appName, tag);
+        }
+    }
+
+    /**
+     * 包的覆盖率，包括包下每个源文件的汇总
+     * @param packageName 包名，如 com/foo 或 com.foo
+     */
+    @GetMapping("/package")
+    public ResponseEntity<Map<String, Object>> getPackage(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam String packageName,
+            @RequestParam(required = false) String dumpFilePath,
+            @RequestParam(defaultValue = "false") boolean mergeAllDumps) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            CoverageSnapshot snapshot = reportGeneratorService.getCoverageSnapshot(appName, clusterName, tag, dumpFilePath, mergeAllDumps);
+            List<SourceFileSnapshot> files = snapshot.getPackageFiles(packageName);
+            if (files.isEmpty()) {
+                return notFound(response, "快照中没有该包: " + packageName, appName, tag);
+            }
+
+            CoverageCounter instructions = new CoverageCounter();
+            CoverageCounter branches = new CoverageCounter();
+            CoverageCounter lines = new CoverageCounter();
+            CoverageCounter methods = new CoverageCounter();
+            List<Map<String, Object>> fileSummaries = new ArrayList<>();
+            for (SourceFileSnapshot file : files) {
+                instructions.add(file.getInstructions());
+                branches.add(file.getBranches());
+                lines.add(file.getLines());
+                methods.add(file.getMethods());
+                fileSummaries.add(fileSummary(file));
+            }
+
+            response.put("success", true);
+            putSnapshotInfo(response, snapshot);
+            response.put("packageName", files.get(0).getPackageName());
+            response.put("coverageStats", counters(instructions, branches, lines, methods));
+            response.put("files", fileSummaries);
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            return error(response, "获取包覆盖率失败", e, appName, tag);
+        }
+    }
+
+    /**
+     * 源文件某个行范围内每一行的覆盖情况（只返回有指令的行）
+     * @param path 包路径形式的文件路径，如 com/foo/Bar.java
+     * @param fromLine 起始行（包含）
+     * @param toLine 结束行（包含）
+     */
+    @GetMapping("/lines")
+    public ResponseEntity<Map<String, Object>> getLines(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam String path,
+            @RequestParam(defaultValue = "1") int fromLine,
+            @RequestParam(defaultValue = "2147483647") int toLine,
+            @RequestParam(required = false) String dumpFilePath,
+            @RequestParam(defaultValue = "false") boolean mergeAllDumps) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            CoverageSnapshot snapshot = reportGeneratorService.getCoverageSnapshot(appName, clusterName, tag, dumpFilePath, mergeAllDumps);
+            SourceFileSnapshot file = snapshot.getFile(path);
+            if (file == null) {
+                return notFound(response, "快照中没有该源文件: " + path, appName, tag);
+            }
+
+            response.put("success", true);
+            putSnapshotInfo(response, snapshot);
+            response.put("filePath", file.getPath());
+            response.put("fromLine", fromLine);
+            response.put("toLine", toLine);
+            response.put("lines", lines(file, fromLine, toLine));
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            return error(response, "获取行覆盖率失败", e, appName, tag);
+        }
+    }
+
+    private static void putSnapshotInfo(Map<String, Object> response, CoverageSnapshot snapshot) {
+        response.put("appName", snapshot.getAppName());
+        response.put("clusterName", snapshot.getClusterName());
+        response.put("tag", snapshot.getTag());
+        response.put("snapshotCreatedAt", snapshot.getCreatedAt());
+        response.put("reportPath", snapshot.getReportPath());
+    }
+
+    private static Map<String, Object> fileSummary(SourceFileSnapshot file) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("filePath", file.getPath());
+        summary.put("coverageStats", counters(file.getInstructions(), file.getBranches(), file.getLines(), file.getMethods()));
+        return summary;
+    }
+
+    private static Map<String, Object> counters(CoverageCounter instructions, CoverageCounter branches,
+                                                CoverageCounter lines, CoverageCounter methods) {
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("instructions", instructions);
+        counters.put("branches", branches);
+        counters.put("lines", lines);
+        counters.put("methods", methods);
+        counters.put("lineCoveragePercentage", lines.getPercentage());
+        return counters;
+    }
+
+    private static List<Map<String, Object>> lines(SourceFileSnapshot file, int fromLine, int toLine) {
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (int i = file.lowerBound(fromLine); i < file.getLineCount() && file.getLineNumber(i) <= toLine; i++) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("lineNumber", file.getLineNumber(i));
+            line.put("status", CoverageSnapshotService.toLineStatus(file.getMissedInstructions(i), file.getCoveredInstructions(i)).name());
+            line.put("coveredInstructions", file.getCoveredInstructions(i));
+            line.put("missedInstructions", file.getMissedInstructions(i));
+            line.put("coveredBranches", file.getCoveredBranches(i));
+            line.put("missedBranches", file.getMissedBranches(i));
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static ResponseEntity<Map<String, Object>> notFound(Map<String, Object> response, String message, String appName, String tag) {
+        response.put("success", false);
+        response.put("message", message);
+        response.put("appName", appName);
+        response.put("tag", tag);
+        return ResponseEntity.status(404).body(response);
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(Map<String, Object> response, String message, Exception e,
+                                                             String appName, String tag) {
+        logger.error(message, e);
+        response.put("success", false);
+        response.put("message", message + ": " + e.getMessage());
+        response.put("appName", appName);
+        response.put("tag", tag);
+        return ResponseEntity.status(500).body(response);
+    }
+}
@@ -0,0 +1,173 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.model.incremental.FileCoverage;
+import com.mofari.coveragecollector.model.incremental.IncrementalCoverageReport;
+import com.mofari.coveragecollector.service.MultiNodeCoverageService;
+import com.mofari.coveragecollector.service.NacosDiscoveryService;
+import com.mofari.coveragecollector.service.ReportGeneratorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 流式接口：结果一产生就写给客户端，而不是等全部完成后返回一个完整的Map。
+ * 先是每个节点的收集结果（按完成顺序），再是收集汇总；增量报告接着逐个文件输出覆盖率，最后是报告汇总。
+ * <p>
+ * 每条消息是一个带 event 字段的JSON对象（node / collection / file / report / error），
+ * Accept 为 text/event-stream 时按SSE输出，为 application/stream+json 时每行一个JSON（NDJSON）。
+ * 文件按客户端的读取速度逐条序列化写出，响应体不会在服务端整体缓存。
+ * 开始输出后HTTP状态已经是200，之后的失败以 error 消息结束流。
+ */
+@RestController
+@RequestMapping(value = "/api/coverage/stream", produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE})
+public class CoverageStreamController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageStreamController.class);
+
+    @Autowired
+    private MultiNodeCoverageService multiNodeCoverageService;
+
+    @Autowired
+    private ReportGeneratorService reportGeneratorService;
+
+    /**
+     * 从Nacos发现的所有节点收集覆盖率，逐个输出节点结果，最后输出收集汇总
+     * @param appName 应用名称
+     * @param clusterName 集群名称
+     * @param tag 版本标签
+     * @param reset dump后是否重置agent
+     */
+    @PostMapping("/collect")
+    public Flux<Map<String, Object>> collect(
+            @RequestParam String appName,
+            @RequestParam String clusterName,
+            @RequestParam String tag,
+            @RequestParam(defaultValue = "false") boolean reset) {
+
+        return collectNodes(appName, clusterName, tag, reset, new AtomicReference<>())
+                .onErrorResume(e -> errorEvent("多节点覆盖率收集失败", e));
+    }
+
+    /**
+     * 收集并生成增量覆盖率报告：节点结果、收集汇总、每个文件的增量覆盖率、报告汇总
+     * @param appName 应用名称
+     * @param clusterName 集群名称
+     * @param tag 版本标签（作为newRef）
+     * @param baseRef 基准Git引用
+     */
+    @PostMapping("/collect-and-report-incremental")
+    public Flux<Map<String, Object>> collectAndReportIncremental(
+            @RequestParam String appName,
+            @RequestParam String clusterName,
+            @RequestParam String tag,
+            @RequestParam String baseRef) {
+
+        AtomicReference<MultiNodeCoverageService.MultiNodeCollectionResult> collection = new AtomicReference<>();
+        Flux<Map<String, Object>> report = Mono.fromCallable(() -> {
+                    MultiNodeCoverageService.MultiNodeCollectionResult result = collection.get();
+                    if (result.getTotalNodes() == 0) {
+                        throw new IllegalStateException("Nacos中没有找到应用实例: " + appName + "/" + clusterName);
+                    }
+                    if (result.getSuccessCount() == 0) {
+                        throw new IllegalStateException("所有 " + result.getTotalNodes() + " 个节点收集失败");
+                    }
+                    return reportGeneratorService.generateIncrementalReport(appName, clusterName, tag, baseRef, tag, null, true);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(incremental -> Flux.fromIterable(incremental.getFiles())
+                        .map(CoverageStreamController::fileEvent)
+                        .concatWith(Mono.fromSupplier(() -> reportEvent(incremental))));
+
+        return collectNodes(appName, clusterName, tag, false, collection)
+                .concatWith(report)
+                .onErrorResume(e -> errorEvent("收集并生成增量覆盖率报告失败", e));
+    }
+
+    /**
+     * 在弹性线程上执行阻塞的多节点收集，节点完成时立即输出；收集结束后输出汇总并把结果放入 result
+     */
+    private Flux<Map<String, Object>> collectNodes(String appName, String clusterName, String tag, boolean reset,
+                                                   AtomicReference<MultiNodeCoverageService.MultiNodeCollectionResult> result) {
+        return Flux.<Map<String, Object>>create(sink -> {
+            try {
+                MultiNodeCoverageService.MultiNodeCollectionResult collected = multiNodeCoverageService.collectFromAllNodes(
+                        appName, clusterName, tag, reset, (instance, dumpFilePath, error) -> sink.next(nodeEvent(instance, dumpFilePath, error)));
+                result.set(collected);
+                sink.next(collectionEvent(collected));
+                sink.complete();
+            } catch (Exception e) {
+                sink.error(e);
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static Map<String, Object> nodeEvent(NacosDiscoveryService.ApplicationInstance instance, String dumpFilePath, Throwable error) {
+        Map<String, Object> event = event("node");
+        event.put("nodeId", instance.getNodeId());
+        event.put("endpoint", instance.getIp() + ":" + instance.getJacocoPort());
+        event.put("success", error == null);
+        if (error == null) {
+            event.put("dumpFilePath", dumpFilePath);
+        } else {
+            event.put("message", error.getMessage());
+        }
+        return event;
+    }
+
+    private static Map<String, Object> collectionEvent(MultiNodeCoverageService.MultiNodeCollectionResult result) {
+        Map<String, Object> event = event("collection");
+        event.put("appName", result.getAppName());
+        event.put("clusterName", result.getClusterName());
+        event.put("tag", result.getTag());
+        event.put("totalNodes", result.getTotalNodes());
+        event.put("successCount", result.getSuccessCount());
+        event.put("failedCount", result.getFailedCount());
+        event.put("failedNodes", result.getFailedNodes());
+        event.put("mergedAllNodeDumpFilePath", result.getMergedAllNodeDumpFilePath());
+        return event;
+    }
+
+    private static Map<String, Object> fileEvent(FileCoverage file) {
+        Map<String, Object> event = event("file");
+        event.put("filePath", file.getFilePath());
+        event.put("summary", file.getSummary());
+        event.put("changedLineDetails", file.getChangedLineDetails());
+        return event;
+    }
+
+    private static Map<String, Object> reportEvent(IncrementalCoverageReport report) {
+        Map<String, Object> event = event("report");
+        event.put("success", true);
+        event.put("appName", report.getAppName());
+        event.put("clusterName", report.getClusterName());
+        event.put("tag", report.getTag());
+        event.put("baseRef", report.getBaseRef());
+        event.put("reportPath", report.getReportPath());
+        event.put("fileCount", report.getFiles().size());
+        event.put("overallStats", report.getOverallStats());
+        return event;
+    }
+
+    private static Flux<Map<String, Object>> errorEvent(String message, Throwable e) {
+        logger.error(message, e);
+        Map<String, Object> event = event("error");
+        event.put("success", false);
+        event.put("message", message + ": " + e.getMessage());
+        return Flux.just(event);
+    }
+
+    private static Map<String, Object> event(String type) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("event", type);
+        return event;
+    }
+}
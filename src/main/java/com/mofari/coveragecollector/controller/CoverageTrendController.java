@@ -0,0 +1,92 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.service.CoverageTrendService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 覆盖率趋势查询接口
+ */
+@RestController
+@RequestMapping("/api/coverage/trend")
+public class CoverageTrendController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageTrendController.class);
+
+    @Autowired
+    private CoverageTrendService coverageTrendService;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    /**
+     * 查询覆盖率趋势
+     * @param appName 应用名称
+     * @param clusterName 集群名（可选）
+     * @param tag 版本标签
+     * @param scope 范围：APP、PACKAGE、FILE
+     * @param name 包名（PACKAGE）或文件路径（FILE，如 com/foo/Bar.java）
+     * @param from 起始时间戳，毫秒（可选）
+     * @param to 结束时间戳，毫秒（可选）
+     * @param maxPoints 最多返回的点数（可选，超过时降采样）
+     * @return 按时间升序的数据点
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getTrend(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam(defaultValue = "APP") CoverageTrendService.Scope scope,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false) Integer maxPoints) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            if (scope != CoverageTrendService.Scope.APP && !StringUtils.hasText(name)) {
+                response.put("success", false);
+                response.put("message", "scope为" + scope + "时必须指定name");
+                response.put("appName", appName);
+                response.put("tag", tag);
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            int limit = maxPoints != null ? maxPoints : coverageConfig.getTrend().getDefaultMaxPoints();
+            CoverageTrendService.TrendQueryResult result =
+                    coverageTrendService.query(appName, clusterName, tag, scope, name, from, to, limit);
+
+            response.put("success", true);
+            response.put("appName", appName);
+            response.put("clusterName", clusterName);
+            response.put("tag", tag);
+            response.put("scope", scope);
+            response.put("name", name);
+            response.put("totalPoints", result.getTotalPoints());
+            response.put("pointCount", result.getPoints().size());
+            response.put("points", result.getPoints());
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            logger.error("查询覆盖率趋势失败", e);
+
+            response.put("success", false);
+            response.put("message", "查询覆盖率趋势失败: " + e.getMessage());
+            response.put("appName", appName);
+            response.put("tag", tag);
+
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+}
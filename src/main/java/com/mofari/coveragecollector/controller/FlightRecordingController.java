@@ -0,0 +1,124 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.observability.FlightRecordingService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JFR录制接口：在采集服务上直接录制，排查线上慢请求时不需要挂载profiler
+ */
+@RestController
+@RequestMapping("/api/diagnostics/jfr")
+public class FlightRecordingController {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecordingController.class);
+
+    @Autowired
+    private FlightRecordingService flightRecordingService;
+
+    /**
+     * 开始录制
+     * @param name 录制名称（可选）
+     * @param settings JFR预置配置 default/profile（可选，默认使用配置）
+     * @param maxDurationMinutes 最长录制分钟数，到时自动停止并写出文件（可选）
+     * @param maxSizeMb 录制数据最大体积（可选）
+     */
+    @PostMapping("/start")
+    public ResponseEntity<Map<String, Object>> start(
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String settings,
+            @RequestParam(required = false) Integer maxDurationMinutes,
+            @RequestParam(required = false) Integer maxSizeMb) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            Map<String, Object> recording = flightRecordingService.start(name, settings, maxDurationMinutes, maxSizeMb);
+            response.put("success", true);
+            response.put("message", "JFR录制已开始");
+            response.put("recording", recording);
+            return ResponseEntity.ok(response);
+
+        } catch (UnsupportedOperationException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", "录制参数无效: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            logger.error("开始JFR录制失败", e);
+            response.put("success", false);
+            response.put("message", "开始JFR录制失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * 停止录制并写出 .jfr 文件
+     * @param id 开始录制时返回的录制ID
+     */
+    @PostMapping("/stop")
+    public ResponseEntity<Map<String, Object>> stop(@RequestParam long id) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            Map<String, Object> recording = flightRecordingService.stop(id);
+            if (recording == null) {
+                response.put("success", false);
+                response.put("message", "录制不存在: " + id);
+                return ResponseEntity.status(404).body(response);
+            }
+            response.put("success", true);
+            response.put("message", "JFR录制已停止");
+            response.put("recording", recording);
+            return ResponseEntity.ok(response);
+
+        } catch (UnsupportedOperationException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(response);
+        } catch (Exception e) {
+            logger.error("停止JFR录制失败", e);
+            response.put("success", false);
+            response.put("message", "停止JFR录制失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * 当前JVM中的录制（包括自动停止后尚未关闭的）
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> list() {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            response.put("success", true);
+            response.put("available", true);
+            response.put("recordings", flightRecordingService.list());
+            return ResponseEntity.ok(response);
+
+        } catch (UnsupportedOperationException e) {
+            response.put("success", false);
+            response.put("available", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(response);
+        } catch (Exception e) {
+            logger.error("获取JFR录制列表失败", e);
+            response.put("success", false);
+            response.put("message", "获取JFR录制列表失败: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+}
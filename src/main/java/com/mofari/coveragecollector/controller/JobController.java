@@ -0,0 +1,51 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.observability.ProgressTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 后台任务的进度：轮询当前状态，或通过SSE接收进度事件（progress / completed / failed）
+ */
+@RestController
+@RequestMapping("/api/jobs")
+public class JobController {
+
+    @Autowired
+    private ProgressTracker progressTracker;
+
+    /**
+     * 任务当前状态，结束后包含结果
+     * @param jobId 提交任务时返回的ID
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> status(@PathVariable String jobId) {
+        ProgressTracker.Job job = progressTracker.get(jobId);
+        if (job == null) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "任务不存在或已过期: " + jobId);
+            return ResponseEntity.status(404).body(response);
+        }
+        return ResponseEntity.ok(job.snapshot());
+    }
+
+    /**
+     * 进度事件流：连接后立即收到当前进度，之后收到变化，任务结束时收到 completed 或 failed 后关闭。
+     * 连接超过 coverage.progress.emitter-timeout-seconds 后由服务端关闭，EventSource 会自动重连
+     * @param jobId 提交任务时返回的ID
+     */
+    @GetMapping("/{jobId}/events")
+    public ResponseEntity<SseEmitter> events(@PathVariable String jobId) {
+        ProgressTracker.Job job = progressTracker.get(jobId);
+        if (job == null) {
+            return ResponseEntity.status(404).build();
+        }
+        return ResponseEntity.ok(progressTracker.subscribe(job));
+    }
+}
@@ -0,0 +1,212 @@
+package com.mofari.coveragecollector.controller;
+
+import com.mofari.coveragecollector.model.session.SessionHits;
+import com.mofari.coveragecollector.model.session.TestSession;
+import com.mofari.coveragecollector.service.TestSessionService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 测试会话覆盖率接口：开始/结束会话，查询覆盖了指定行或变更行的会话
+ */
+@RestController
+@RequestMapping("/api/coverage/sessions")
+public class TestSessionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(TestSessionController.class);
+
+    @Autowired
+    private TestSessionService testSessionService;
+
+    /**
+     * 开始会话：dump并重置agent，之后的执行都归属该会话
+     * @param appName 应用名称
+     * @param clusterName 集群名（可选，指定时收集集群所有节点）
+     * @param tag 版本标签
+     * @param name 会话名称，如用例编号
+     * @param agentHost 单节点模式的agent地址（可选）
+     * @param agentPort 单节点模式的agent端口（可选）
+     */
+    @PostMapping("/start")
+    public ResponseEntity<Map<String, Object>> startSession(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam String name,
+            @RequestParam(required = false) String agentHost,
+            @RequestParam(required = false) Integer agentPort) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            TestSession session = testSessionService.startSession(appName, clusterName, tag, name, agentHost, agentPort);
+
+            response.put("success", true);
+            response.put("message", "测试会话已开始");
+            response.put("appName", appName);
+            response.put("tag", tag);
+            response.put("session", session);
+
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return badRequest(response, e.getMessage(), appName, tag);
+        } catch (Exception e) {
+            logger.error("开始测试会话失败", e);
+            return serverError(response, "开始测试会话失败: " + e.getMessage(), appName, tag);
+        }
+    }
+
+    /**
+     * 结束当前会话：dump并重置agent，保存会话期间的探针
+     */
+    @PostMapping("/end")
+    public ResponseEntity<Map<String, Object>> endSession(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            TestSession session = testSessionService.endSession(appName, clusterName, tag);
+
+            response.put("success", true);
+            response.put("message", "测试会话已结束");
+            response.put("appName", appName);
+            response.put("tag", tag);
+            response.put("session", session);
+
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return badRequest(response, e.getMessage(), appName, tag);
+        } catch (Exception e) {
+            logger.error("结束测试会话失败", e);
+            return serverError(response, "结束测试会话失败: " + e.getMessage(), appName, tag);
+        }
+    }
+
+    /**
+     * 列出tag下的所有会话
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> listSessions(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            List<TestSession> sessions = testSessionService.listSessions(appName, clusterName, tag);
+
+            response.put("success", true);
+            response.put("appName", appName);
+            response.put("clusterName", clusterName);
+            response.put("tag", tag);
+            response.put("count", sessions.size());
+            response.put("sessions", sessions);
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            logger.error("查询测试会话失败", e);
+            return serverError(response, "查询测试会话失败: " + e.getMessage(), appName, tag);
+        }
+    }
+
+    /**
+     * 查询覆盖了源文件中指定行的会话
+     * @param path 源文件路径，如 com/foo/Bar.java
+     * @param lines 行号，逗号分隔
+     */
+    @GetMapping("/hits")
+    public ResponseEntity<Map<String, Object>> getLineHits(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam String path,
+            @RequestParam List<Integer> lines) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            Set<Integer> lineSet = new HashSet<>(lines);
+            SessionHits hits = testSessionService.findSessionsForLines(appName, clusterName, tag,
+                    Collections.singletonMap(path, lineSet));
+            return ok(response, hits, appName, clusterName, tag);
+
+        } catch (Exception e) {
+            logger.error("查询行覆盖会话失败", e);
+            return serverError(response, "查询行覆盖会话失败: " + e.getMessage(), appName, tag);
+        }
+    }
+
+    /**
+     * 查询覆盖了两个git引用之间变更行的会话，用于选择需要回归的用例
+     */
+    @GetMapping("/impacted")
+    public ResponseEntity<Map<String, Object>> getImpactedSessions(
+            @RequestParam String appName,
+            @RequestParam(required = false) String clusterName,
+            @RequestParam String tag,
+            @RequestParam String baseRef,
+            @RequestParam String newRef) {
+
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            SessionHits hits = testSessionService.findImpactedSessions(appName, clusterName, tag, baseRef, newRef);
+            response.put("baseRef", baseRef);
+            response.put("newRef", newRef);
+            return ok(response, hits, appName, clusterName, tag);
+
+        } catch (Exception e) {
+            logger.error("查询受变更影响的会话失败", e);
+            return serverError(response, "查询受变更影响的会话失败: " + e.getMessage(), appName, tag);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> ok(Map<String, Object> response, SessionHits hits,
+                                                   String appName, String clusterName, String tag) {
+        response.put("success", true);
+        response.put("appName", appName);
+        response.put("clusterName", clusterName);
+        response.put("tag", tag);
+        response.put("totalSessions", hits.getTotalSessions());
+        response.put("candidateSessions", hits.getCandidateSessions());
+        response.put("sessions", hits.getSessions());
+        response.put("files", hits.getFiles());
+        return ResponseEntity.ok(response);
+    }
+
+    private ResponseEntity<Map<String, Object>> badRequest(Map<String, Object> response, String message,
+                                                           String appName, String tag) {
+        response.put("success", false);
+        response.put("message", message);
+        response.put("appName", appName);
+        response.put("tag", tag);
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    private ResponseEntity<Map<String, Object>> serverError(Map<String, Object> response, String message,
+                                                            String appName, String tag) {
+        response.put("success", false);
+        response.put("message", message);
+        response.put("appName", appName);
+        response.put("tag", tag);
+        return ResponseEntity.status(500).body(response);
+    }
+}
@@ -0,0 +1,91 @@
+package com.mofari.coveragecollector.model;
+
+/**
+ * dump文件目录索引中的单条记录
+ */
+public class DumpFileInfo {
+    private String fileName;
+    private String nodeId;      // 节点标识（ip中的.替换为_），单节点收集或合并文件为null
+    private String timestamp;   // 文件名中的时间戳 yyyyMMdd_HHmmss_SSS，未找到时为空字符串
+    private long size;
+    private int classCount = -1; // 文件中的class数量，-1表示未知（索引重建时发现的文件）
+    private boolean merged;
+    private boolean checkpoint; // 由自动压缩生成的checkpoint，参与合并，按原始dump文件对待
+    private boolean carryForward; // 从旧tag沿用的覆盖率，参与合并，不被压缩折叠或按数量清理
+    private boolean verified;   // 文件结构已确认完整（本服务原子写入，或已通过校验）
+
+    public DumpFileInfo() {
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public void setClassCount(int classCount) {
+        this.classCount = classCount;
+    }
+
+    public boolean isMerged() {
+        return merged;
+    }
+
+    public void setMerged(boolean merged) {
+        this.merged = merged;
+    }
+
+    public boolean isCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(boolean checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public boolean isCarryForward() {
+        return carryForward;
+    }
+
+    public void setCarryForward(boolean carryForward) {
+        this.carryForward = carryForward;
+    }
+
+    public boolean isVerified() {
+        return verified;
+    }
+
+    public void setVerified(boolean verified) {
+        this.verified = verified;
+    }
+}
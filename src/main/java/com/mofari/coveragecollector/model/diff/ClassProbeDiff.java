@@ -0,0 +1,96 @@
+package com.mofari.coveragecollector.model.diff;
+
+/**
+ * 一个class在两份执行数据之间的探针变化
+ */
+public class ClassProbeDiff {
+    public static final String STATUS_ADDED = "ADDED";
+    public static final String STATUS_REMOVED = "REMOVED";
+    public static final String STATUS_CHANGED = "CHANGED";
+    public static final String STATUS_UNCHANGED = "UNCHANGED";
+
+    private String className;
+    private String baseClassId;     // 十六进制classId，该侧没有这个class时为null
+    private String newClassId;
+    private String status;          // classId相同为UNCHANGED，同名但classId不同（class有修改）为CHANGED，探针无法逐个比较
+    private int probeCount;
+    private int baseCoveredProbes;
+    private int newCoveredProbes;
+    private int gainedProbes;       // 之前未命中、现在命中的探针（仅UNCHANGED）
+    private int lostProbes;         // 之前命中、现在未命中的探针（仅UNCHANGED）
+
+    public ClassProbeDiff() {
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public void setClassName(String className) {
+        this.className = className;
+    }
+
+    public String getBaseClassId() {
+        return baseClassId;
+    }
+
+    public void setBaseClassId(String baseClassId) {
+        this.baseClassId = baseClassId;
+    }
+
+    public String getNewClassId() {
+        return newClassId;
+    }
+
+    public void setNewClassId(String newClassId) {
+        this.newClassId = newClassId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getProbeCount() {
+        return probeCount;
+    }
+
+    public void setProbeCount(int probeCount) {
+        this.probeCount = probeCount;
+    }
+
+    public int getBaseCoveredProbes() {
+        return baseCoveredProbes;
+    }
+
+    public void setBaseCoveredProbes(int baseCoveredProbes) {
+        this.baseCoveredProbes = baseCoveredProbes;
+    }
+
+    public int getNewCoveredProbes() {
+        return newCoveredProbes;
+    }
+
+    public void setNewCoveredProbes(int newCoveredProbes) {
+        this.newCoveredProbes = newCoveredProbes;
+    }
+
+    public int getGainedProbes() {
+        return gainedProbes;
+    }
+
+    public void setGainedProbes(int gainedProbes) {
+        this.gainedProbes = gainedProbes;
+    }
+
+    public int getLostProbes() {
+        return lostProbes;
+    }
+
+    public void setLostProbes(int lostProbes) {
+        this.lostProbes = lostProbes;
+    }
+}
@@ -0,0 +1,110 @@
+package com.mofari.coveragecollector.model.diff;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个源文件在两个版本（或两次收集）之间的覆盖率变化。行号均为新版本中的行号
+ */
+public class FileCoverageDiff {
+    public static final String STATUS_ADDED = "ADDED";
+    public static final String STATUS_REMOVED = "REMOVED";
+    public static final String STATUS_MODIFIED = "MODIFIED";
+    public static final String STATUS_UNCHANGED = "UNCHANGED";
+
+    private String path;                // 新版本中的路径，删除的文件为旧路径
+    private String basePath;            // 重命名时旧版本中的路径，否则为null
+    private String status;              // ADDED、REMOVED、MODIFIED 或 UNCHANGED（代码没有变化）
+    private CoverageCounter baseLines;
+    private CoverageCounter newLines;
+    private double lineCoverageDelta;   // 行覆盖率变化（百分点）
+    private List<Integer> gainedLines = new ArrayList<>(); // 代码未变、之前未覆盖、现在覆盖的行
+    private List<Integer> lostLines = new ArrayList<>();   // 代码未变、之前覆盖、现在未覆盖的行
+    private int newCodeLines;           // 新增或修改的可执行行数
+    private int newCodeCoveredLines;    // 其中被覆盖的行数
+
+    public FileCoverageDiff() {
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getBasePath() {
+        return basePath;
+    }
+
+    public void setBasePath(String basePath) {
+        this.basePath = basePath;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public CoverageCounter getBaseLines() {
+        return baseLines;
+    }
+
+    public void setBaseLines(CoverageCounter baseLines) {
+        this.baseLines = baseLines;
+    }
+
+    public CoverageCounter getNewLines() {
+        return newLines;
+    }
+
+    public void setNewLines(CoverageCounter newLines) {
+        this.newLines = newLines;
+    }
+
+    public double getLineCoverageDelta() {
+        return lineCoverageDelta;
+    }
+
+    public void setLineCoverageDelta(double lineCoverageDelta) {
+        this.lineCoverageDelta = lineCoverageDelta;
+    }
+
+    public List<Integer> getGainedLines() {
+        return gainedLines;
+    }
+
+    public void setGainedLines(List<Integer> gainedLines) {
+        this.gainedLines = gainedLines;
+    }
+
+    public List<Integer> getLostLines() {
+        return lostLines;
+    }
+
+    public void setLostLines(List<Integer> lostLines) {
+        this.lostLines = lostLines;
+    }
+
+    public int getNewCodeLines() {
+        return newCodeLines;
+    }
+
+    public void setNewCodeLines(int newCodeLines) {
+        this.newCodeLines = newCodeLines;
+    }
+
+    public int getNewCodeCoveredLines() {
+        return newCodeCoveredLines;
+    }
+
+    public void setNewCodeCoveredLines(int newCodeCoveredLines) {
+        this.newCodeCoveredLines = newCodeCoveredLines;
+    }
+}
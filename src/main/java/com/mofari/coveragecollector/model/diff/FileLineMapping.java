@@ -0,0 +1,87 @@
+package com.mofari.coveragecollector.model.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个文件在两个版本之间的行号映射，由 git diff --unified=0 的hunk构成。
+ * 不在任何hunk中的行没有变化，只是随前面的增删整体偏移。
+ */
+public class FileLineMapping {
+    private String oldPath;     // 旧版本中的路径，新增文件为null
+    private String newPath;     // 新版本中的路径，删除文件为null
+    private final List<int[]> hunks = new ArrayList<>(); // {oldStart, oldCount, newStart, newCount}，按行号升序
+
+    public FileLineMapping(String oldPath, String newPath) {
+        this.oldPath = oldPath;
+        this.newPath = newPath;
+    }
+
+    /**
+     * 追加一个hunk，必须按git输出的顺序（行号升序）追加
+     */
+    public void addHunk(int oldStart, int oldCount, int newStart, int newCount) {
+        hunks.add(new int[]{oldStart, oldCount, newStart, newCount});
+    }
+
+    /**
+     * @return 旧版本的行在新版本中的行号，该行被修改或删除时返回-1
+     */
+    public int toNewLine(int oldLine) {
+        int offset = 0;
+        for (int[] hunk : hunks) {
+            int oldStart = hunk[0];
+            int oldCount = hunk[1];
+            if (oldCount == 0) {
+                // 纯新增：插入在oldStart这一行之后
+                if (oldStart >= oldLine) {
+                    break;
+                }
+            } else {
+                if (oldLine < oldStart) {
+                    break;
+                }
+                if (oldLine < oldStart + oldCount) {
+                    return -1;
+                }
+            }
+            offset += hunk[3] - oldCount;
+        }
+        return oldLine + offset;
+    }
+
+    /**
+     * @return 新版本的行是否为新增或修改的行
+     */
+    public boolean isChangedInNew(int newLine) {
+        for (int[] hunk : hunks) {
+            if (newLine < hunk[2]) {
+                return false;
+            }
+            if (newLine < hunk[2] + hunk[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getOldPath() {
+        return oldPath;
+    }
+
+    public void setOldPath(String oldPath) {
+        this.oldPath = oldPath;
+    }
+
+    public String getNewPath() {
+        return newPath;
+    }
+
+    public void setNewPath(String newPath) {
+        this.newPath = newPath;
+    }
+
+    public int getHunkCount() {
+        return hunks.size();
+    }
+}
@@ -0,0 +1,51 @@
+package com.mofari.coveragecollector.model.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 行到会话的命中结果
+ */
+public class SessionHits {
+    private Map<String, Map<Integer, List<String>>> files = new TreeMap<>(); // 文件路径 -> 行号 -> 命中该行的会话
+    private List<String> sessions = new ArrayList<>();  // 命中任一查询行的会话
+    private int totalSessions;                          // tag下已完成的会话数
+    private int candidateSessions;                      // 经classId倒排索引筛选后需要分析的会话数
+
+    public SessionHits() {
+    }
+
+    public Map<String, Map<Integer, List<String>>> getFiles() {
+        return files;
+    }
+
+    public void setFiles(Map<String, Map<Integer, List<String>>> files) {
+        this.files = files;
+    }
+
+    public List<String> getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(List<String> sessions) {
+        this.sessions = sessions;
+    }
+
+    public int getTotalSessions() {
+        return totalSessions;
+    }
+
+    public void setTotalSessions(int totalSessions) {
+        this.totalSessions = totalSessions;
+    }
+
+    public int getCandidateSessions() {
+        return candidateSessions;
+    }
+
+    public void setCandidateSessions(int candidateSessions) {
+        this.candidateSessions = candidateSessions;
+    }
+}
@@ -0,0 +1,124 @@
+package com.mofari.coveragecollector.model.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 测试会话：会话开始时重置agent，结束时dump，期间的探针单独保存，用于回答"哪些用例覆盖了这一行"
+ */
+public class TestSession {
+    public static final String STATUS_ACTIVE = "ACTIVE";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+
+    private String sessionId;       // 会话名加开始时间，如 login-case_20240101_120000_000
+    private String name;
+    private String appName;
+    private String clusterName;     // 多节点模式的集群名，单节点为null
+    private String tag;
+    private String status;          // ACTIVE 或 COMPLETED
+    private String agentHost;       // 单节点模式指定的agent地址（可选），结束会话时沿用
+    private Integer agentPort;
+    private long startedAt;
+    private long endedAt;
+    private int classCount;         // 会话期间有探针命中的class数量
+    private List<String> failedNodes = new ArrayList<>(); // 开始或结束时收集失败的节点，这些节点的数据可能包含会话外的执行
+
+    public TestSession() {
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getAgentHost() {
+        return agentHost;
+    }
+
+    public void setAgentHost(String agentHost) {
+        this.agentHost = agentHost;
+    }
+
+    public Integer getAgentPort() {
+        return agentPort;
+    }
+
+    public void setAgentPort(Integer agentPort) {
+        this.agentPort = agentPort;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getEndedAt() {
+        return endedAt;
+    }
+
+    public void setEndedAt(long endedAt) {
+        this.endedAt = endedAt;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public void setClassCount(int classCount) {
+        this.classCount = classCount;
+    }
+
+    public List<String> getFailedNodes() {
+        return failedNodes;
+    }
+
+    public void setFailedNodes(List<String> failedNodes) {
+        this.failedNodes = failedNodes;
+    }
+}
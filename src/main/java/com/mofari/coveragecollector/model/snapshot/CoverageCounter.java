@@ -0,0 +1,42 @@
+package com.mofari.coveragecollector.model.snapshot;
+
+/**
+ * 覆盖率计数器（未覆盖/已覆盖数量）
+ */
+public class CoverageCounter {
+    private int missed;
+    private int covered;
+
+    public CoverageCounter() {
+    }
+
+    public CoverageCounter(int missed, int covered) {
+        this.missed = missed;
+        this.covered = covered;
+    }
+
+    public void add(CoverageCounter other) {
+        this.missed += other.missed;
+        this.covered += other.covered;
+    }
+
+    public int getMissed() {
+        return missed;
+    }
+
+    public int getCovered() {
+        return covered;
+    }
+
+    public int getTotal() {
+        return missed + covered;
+    }
+
+    /**
+     * @return 覆盖率百分比，保留两位小数
+     */
+    public double getPercentage() {
+        int total = getTotal();
+        return total > 0 ? Math.round((double) covered / total * 10000.0) / 100.0 : 0.0;
+    }
+}
@@ -0,0 +1,149 @@
+package com.mofari.coveragecollector.model.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一个应用某个集群/tag的覆盖率快照，由一次完整分析生成，之后的查询直接读取快照。
+ * dumpFingerprint 和 classStamp 记录生成快照时使用的dump数据和class文件，二者都不变时快照有效。
+ */
+public class CoverageSnapshot {
+
+    private String appName;
+    private String clusterName;
+    private String tag;
+    private String dumpFingerprint;
+    private String classStamp;
+    private String reportPath;      // 同时生成的完整报告目录，没有时为null
+    private long createdAt;
+
+    private CoverageCounter instructions = new CoverageCounter();
+    private CoverageCounter branches = new CoverageCounter();
+    private CoverageCounter lines = new CoverageCounter();
+    private CoverageCounter methods = new CoverageCounter();
+
+    private final Map<String, SourceFileSnapshot> files = new TreeMap<>();
+    private final Map<String, List<SourceFileSnapshot>> packages = new TreeMap<>();
+
+    public void addFile(SourceFileSnapshot file) {
+        files.put(file.getPath(), file);
+        packages.computeIfAbsent(file.getPackageName(), k -> new ArrayList<>()).add(file);
+    }
+
+    /**
+     * @param path 如 com/foo/Bar.java
+     * @return 文件快照，不存在时返回null
+     */
+    public SourceFileSnapshot getFile(String path) {
+        return files.get(path);
+    }
+
+    public Collection<SourceFileSnapshot> getFiles() {
+        return Collections.unmodifiableCollection(files.values());
+    }
+
+    /**
+     * @param packageName 包路径，如 com/foo（也接受 com.foo）
+     * @return 包下的源文件，包不存在时返回空列表
+     */
+    public List<SourceFileSnapshot> getPackageFiles(String packageName) {
+        List<SourceFileSnapshot> packageFiles = packages.get(packageName.replace('.', '/'));
+        return packageFiles != null ? Collections.unmodifiableList(packageFiles) : Collections.<SourceFileSnapshot>emptyList();
+    }
+
+    public Collection<String> getPackageNames() {
+        return Collections.unmodifiableSet(packages.keySet());
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getDumpFingerprint() {
+        return dumpFingerprint;
+    }
+
+    public void setDumpFingerprint(String dumpFingerprint) {
+        this.dumpFingerprint = dumpFingerprint;
+    }
+
+    public String getClassStamp() {
+        return classStamp;
+    }
+
+    public void setClassStamp(String classStamp) {
+        this.classStamp = classStamp;
+    }
+
+    public String getReportPath() {
+        return reportPath;
+    }
+
+    public void setReportPath(String reportPath) {
+        this.reportPath = reportPath;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public CoverageCounter getInstructions() {
+        return instructions;
+    }
+
+    public void setInstructions(CoverageCounter instructions) {
+        this.instructions = instructions;
+    }
+
+    public CoverageCounter getBranches() {
+        return branches;
+    }
+
+    public void setBranches(CoverageCounter branches) {
+        this.branches = branches;
+    }
+
+    public CoverageCounter getLines() {
+        return lines;
+    }
+
+    public void setLines(CoverageCounter lines) {
+        this.lines = lines;
+    }
+
+    public CoverageCounter getMethods() {
+        return methods;
+    }
+
+    public void setMethods(CoverageCounter methods) {
+        this.methods = methods;
+    }
+}
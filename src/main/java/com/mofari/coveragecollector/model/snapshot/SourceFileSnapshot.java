@@ -0,0 +1,126 @@
+package com.mofari.coveragecollector.model.snapshot;
+
+import java.util.Arrays;
+
+/**
+ * 快照中单个源文件的覆盖率：文件级计数器以及每个有指令的行的计数。
+ * 行数据按行号升序存放在并列数组中，按行号查找使用二分查找。
+ */
+public class SourceFileSnapshot {
+
+    // 与 org.jacoco.core.analysis.ICounter 的状态值一致
+    public static final byte STATUS_NOT_COVERED = 1;
+    public static final byte STATUS_FULLY_COVERED = 2;
+    public static final byte STATUS_PARTLY_COVERED = 3;
+
+    private final String packageName;
+    private final String fileName;
+    private final CoverageCounter instructions;
+    private final CoverageCounter branches;
+    private final CoverageCounter lines;
+    private final CoverageCounter methods;
+
+    private final int[] lineNumbers;
+    private final byte[] lineStatuses;
+    private final int[] missedInstructions;
+    private final int[] coveredInstructions;
+    private final int[] missedBranches;
+    private final int[] coveredBranches;
+
+    public SourceFileSnapshot(String packageName, String fileName,
+                              CoverageCounter instructions, CoverageCounter branches,
+                              CoverageCounter lines, CoverageCounter methods,
+                              int[] lineNumbers, byte[] lineStatuses,
+                              int[] missedInstructions, int[] coveredInstructions,
+                              int[] missedBranches, int[] coveredBranches) {
+        this.packageName = packageName;
+        this.fileName = fileName;
+        this.instructions = instructions;
+        this.branches = branches;
+        this.lines = lines;
+        this.methods = methods;
+        this.lineNumbers = lineNumbers;
+        this.lineStatuses = lineStatuses;
+        this.missedInstructions = missedInstructions;
+        this.coveredInstructions = coveredInstructions;
+        this.missedBranches = missedBranches;
+        this.coveredBranches = coveredBranches;
+    }
+
+    /**
+     * @return 包路径形式的文件路径，如 com/foo/Bar.java，与增量报告中的路径一致
+     */
+    public String getPath() {
+        return packageName.isEmpty() ? fileName : packageName + "/" + fileName;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public CoverageCounter getInstructions() {
+        return instructions;
+    }
+
+    public CoverageCounter getBranches() {
+        return branches;
+    }
+
+    public CoverageCounter getLines() {
+        return lines;
+    }
+
+    public CoverageCounter getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return 有指令的行数
+     */
+    public int getLineCount() {
+        return lineNumbers.length;
+    }
+
+    /**
+     * @return 行在并列数组中的下标，该行没有指令时返回负数
+     */
+    public int indexOfLine(int lineNumber) {
+        return Arrays.binarySearch(lineNumbers, lineNumber);
+    }
+
+    /**
+     * @return 第一个行号不小于 lineNumber 的行的下标
+     */
+    public int lowerBound(int lineNumber) {
+        int index = Arrays.binarySearch(lineNumbers, lineNumber);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    public int getLineNumber(int index) {
+        return lineNumbers[index];
+    }
+
+    public byte getLineStatus(int index) {
+        return lineStatuses[index];
+    }
+
+    public int getMissedInstructions(int index) {
+        return missedInstructions[index];
+    }
+
+    public int getCoveredInstructions(int index) {
+        return coveredInstructions[index];
+    }
+
+    public int getMissedBranches(int index) {
+        return missedBranches[index];
+    }
+
+    public int getCoveredBranches(int index) {
+        return coveredBranches[index];
+    }
+}
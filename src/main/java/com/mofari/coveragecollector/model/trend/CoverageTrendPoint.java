@@ -0,0 +1,80 @@
+package com.mofari.coveragecollector.model.trend;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+
+/**
+ * 覆盖率趋势中的一个数据点：某一时刻某个范围（应用/包/文件）的计数器
+ */
+public class CoverageTrendPoint {
+    private long timestamp;
+    private String source;          // 数据点来源，如 REPORT、SNAPSHOT
+    private CoverageCounter instructions;
+    private CoverageCounter branches;
+    private CoverageCounter lines;
+    private CoverageCounter methods;
+
+    public CoverageTrendPoint() {
+    }
+
+    public CoverageTrendPoint(long timestamp, String source, CoverageCounter instructions, CoverageCounter branches,
+                              CoverageCounter lines, CoverageCounter methods) {
+        this.timestamp = timestamp;
+        this.source = source;
+        this.instructions = instructions;
+        this.branches = branches;
+        this.lines = lines;
+        this.methods = methods;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public CoverageCounter getInstructions() {
+        return instructions;
+    }
+
+    public void setInstructions(CoverageCounter instructions) {
+        this.instructions = instructions;
+    }
+
+    public CoverageCounter getBranches() {
+        return branches;
+    }
+
+    public void setBranches(CoverageCounter branches) {
+        this.branches = branches;
+    }
+
+    public CoverageCounter getLines() {
+        return lines;
+    }
+
+    public void setLines(CoverageCounter lines) {
+        this.lines = lines;
+    }
+
+    public CoverageCounter getMethods() {
+        return methods;
+    }
+
+    public void setMethods(CoverageCounter methods) {
+        this.methods = methods;
+    }
+
+    public double getLineCoveragePercentage() {
+        return lines != null ? lines.getPercentage() : 0.0;
+    }
+}
@@ -0,0 +1,64 @@
+package com.mofari.coveragecollector.model.verification;
+
+/**
+ * dump中的class与磁盘上的class文件不一致：同名class的classId（class文件的CRC64）不同
+ */
+public class ClassIdMismatch {
+    private String className;
+    private String sourcePath;
+    private String execClassId;         // dump中的classId（十六进制）
+    private String classFileClassId;    // 磁盘上class文件的classId（十六进制）
+    private int probeCount;
+    private int hitProbes;              // dump中命中的探针数，分析时这些覆盖率全部丢失
+
+    public ClassIdMismatch() {
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public void setClassName(String className) {
+        this.className = className;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public void setSourcePath(String sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    public String getExecClassId() {
+        return execClassId;
+    }
+
+    public void setExecClassId(String execClassId) {
+        this.execClassId = execClassId;
+    }
+
+    public String getClassFileClassId() {
+        return classFileClassId;
+    }
+
+    public void setClassFileClassId(String classFileClassId) {
+        this.classFileClassId = classFileClassId;
+    }
+
+    public int getProbeCount() {
+        return probeCount;
+    }
+
+    public void setProbeCount(int probeCount) {
+        this.probeCount = probeCount;
+    }
+
+    public int getHitProbes() {
+        return hitProbes;
+    }
+
+    public void setHitProbes(int hitProbes) {
+        this.hitProbes = hitProbes;
+    }
+}
@@ -0,0 +1,92 @@
+package com.mofari.coveragecollector.model.verification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * dump中执行数据与class文件的classId校验结果
+ */
+public class ClassIdVerification {
+    private int totalClasses;           // dump中匹配class过滤规则的class数
+    private int matchedClasses;         // classId与磁盘上的class文件一致
+    private int mismatchedClasses;      // 同名class的classId不一致（class文件与agent插桩时的版本不同）
+    private int unknownClasses;         // 磁盘上没有同名class（未部署到分析目录或被过滤）
+    private int lostCoverageClasses;    // classId不一致且有探针命中的class，分析时覆盖率为0
+    private long lostHitProbes;
+    private List<ClassIdMismatch> mismatches = new ArrayList<>(); // 按命中探针数降序
+    private long durationMs;
+
+    public ClassIdVerification() {
+    }
+
+    /**
+     * @return 是否有覆盖率因为classId不一致而丢失
+     */
+    public boolean hasLostCoverage() {
+        return lostCoverageClasses > 0;
+    }
+
+    public int getTotalClasses() {
+        return totalClasses;
+    }
+
+    public void setTotalClasses(int totalClasses) {
+        this.totalClasses = totalClasses;
+    }
+
+    public int getMatchedClasses() {
+        return matchedClasses;
+    }
+
+    public void setMatchedClasses(int matchedClasses) {
+        this.matchedClasses = matchedClasses;
+    }
+
+    public int getMismatchedClasses() {
+        return mismatchedClasses;
+    }
+
+    public void setMismatchedClasses(int mismatchedClasses) {
+        this.mismatchedClasses = mismatchedClasses;
+    }
+
+    public int getUnknownClasses() {
+        return unknownClasses;
+    }
+
+    public void setUnknownClasses(int unknownClasses) {
+        this.unknownClasses = unknownClasses;
+    }
+
+    public int getLostCoverageClasses() {
+        return lostCoverageClasses;
+    }
+
+    public void setLostCoverageClasses(int lostCoverageClasses) {
+        this.lostCoverageClasses = lostCoverageClasses;
+    }
+
+    public long getLostHitProbes() {
+        return lostHitProbes;
+    }
+
+    public void setLostHitProbes(long lostHitProbes) {
+        this.lostHitProbes = lostHitProbes;
+    }
+
+    public List<ClassIdMismatch> getMismatches() {
+        return mismatches;
+    }
+
+    public void setMismatches(List<ClassIdMismatch> mismatches) {
+        this.mismatches = mismatches;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
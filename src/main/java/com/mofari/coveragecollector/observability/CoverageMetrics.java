@@ -0,0 +1,242 @@
+package com.mofari.coveragecollector.observability;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.jfr.CoverageEvents;
+import com.mofari.coveragecollector.observability.jfr.StageEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 覆盖率流水线各阶段的指标，统一按 stage / app / outcome 打标签，通过 /actuator/prometheus 暴露。
+ * <ul>
+ *     <li>coverage.stage.duration：各阶段耗时（固定分桶的直方图，可以用histogram_quantile计算分位数）</li>
+ *     <li>coverage.bytes.written：写出的dump/合并文件/报告字节数</li>
+ *     <li>coverage.analysis.classes、coverage.analysis.throughput：分析的class数和每秒分析的class数</li>
+ *     <li>coverage.node.collections：多节点收集时各节点的成功/失败次数</li>
+ * </ul>
+ * 每个计时的阶段同时是当前请求trace中的一个span（见 {@link Tracer}），也是一个JFR事件（见 {@link CoverageEvents}），
+ * 指标、耗时明细和JFR录制使用同一组阶段名。
+ * <p>
+ * app 标签只使用配置中声明的应用和在Nacos中发现过实例的应用，其余（包括请求参数中随意填写的应用名）
+ * 一律记为 unknown，避免指标序列数随请求参数无限增长。span和JFR事件中仍记录原始应用名。
+ */
+@Component
+public class CoverageMetrics {
+
+    public static final String STAGE_AGENT_DUMP = "agent_dump";
+    public static final String STAGE_MULTI_NODE_COLLECT = "multi_node_collect";
+    public static final String STAGE_MERGE = "merge";
+    public static final String STAGE_ANALYSIS = "analysis";
+    public static final String STAGE_REPORT = "report";
+    public static final String STAGE_INCREMENTAL_REPORT = "incremental_report";
+    public static final String STAGE_GIT_DIFF = "git_diff";
+    public static final String STAGE_SONAR = "sonar";
+    public static final String STAGE_XML_REPORT = "xml_report";
+    public static final String STAGE_HTML_REPORT = "html_report";
+    public static final String STAGE_JSON_WRITE = "json_write";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FAILURE = "failure";
+
+    private static final String UNKNOWN_APP = "unknown";
+
+    /**
+     * 固定的直方图分桶（从几毫秒的dump到几分钟的Sonar扫描），每个 stage/app/outcome 只有这些桶
+     */
+    private static final Duration[] DURATION_BUCKETS = {
+            Duration.ofMillis(10), Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250),
+            Duration.ofMillis(500), Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5),
+            Duration.ofSeconds(10), Duration.ofSeconds(30), Duration.ofMinutes(1), Duration.ofMinutes(2),
+            Duration.ofMinutes(5), Duration.ofMinutes(10)
+    };
+
+    private static final ThreadLocal<Stage> CURRENT_STAGE = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+
+    private final Tracer tracer;
+
+    private final CoverageConfig coverageConfig;
+
+    // 在Nacos中发现过实例的应用，数量以注册中心中的服务数为上限
+    private final Set<String> discoveredApps = ConcurrentHashMap.newKeySet();
+
+    public CoverageMetrics(MeterRegistry registry, Tracer tracer, CoverageConfig coverageConfig) {
+        this.registry = registry;
+        this.tracer = tracer;
+        this.coverageConfig = coverageConfig;
+    }
+
+    /**
+     * 服务发现找到应用的实例后调用，此后该应用的指标使用自己的 app 标签
+     */
+    public void appDiscovered(String appName) {
+        if (StringUtils.hasText(appName)) {
+            discoveredApps.add(appName);
+        }
+    }
+
+    /**
+     * 开始一个阶段的计时，同时在当前trace中开始同名的span、开始对应的JFR事件。
+     * 返回的阶段用 try-with-resources 包住，成功时在块末尾调用 {@link Stage#success()}，
+     * 未标记成功就关闭（块内抛出异常）时记为失败
+     */
+    public Stage start(String stage, String appName) {
+        Tracer.Span span = tracer.span(stage);
+        if (StringUtils.hasText(appName)) {
+            span.attribute("app", appName);
+        }
+        Stage started = new Stage(stage, appName, Timer.start(registry), span, CoverageEvents.begin(stage, appName), CURRENT_STAGE.get());
+        CURRENT_STAGE.set(started);
+        ProgressTracker.current().stage(stage);
+        return started;
+    }
+
+    /**
+     * 当前线程最内层进行中的阶段，供阶段内部的代码补充属性（如合并的探针数），没有时返回null
+     */
+    public static Stage currentStage() {
+        return CURRENT_STAGE.get();
+    }
+
+    /**
+     * 记录一次调用的耗时，异常原样抛出并记为失败
+     */
+    public <T> T record(String stage, String appName, Callable<T> call) throws Exception {
+        try (Stage timer = start(stage, appName)) {
+            T result = call.call();
+            timer.success();
+            return result;
+        }
+    }
+
+    public void bytesWritten(String stage, String appName, long bytes) {
+        DistributionSummary.builder("coverage.bytes.written")
+                .description("Bytes written per dump, merged file or report")
+                .baseUnit("bytes")
+                .tag("stage", stage)
+                .tag("app", app(appName))
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void classesAnalyzed(String appName, int classCount, long durationNanos) {
+        Counter.builder("coverage.analysis.classes")
+                .description("Classes analysed")
+                .tag("app", app(appName))
+                .register(registry)
+                .increment(classCount);
+        if (durationNanos > 0) {
+            DistributionSummary.builder("coverage.analysis.throughput")
+                    .description("Classes analysed per second in a single analysis")
+                    .baseUnit("classes_per_second")
+                    .tag("app", app(appName))
+                    .register(registry)
+                    .record(classCount * (double) TimeUnit.SECONDS.toNanos(1) / durationNanos);
+        }
+    }
+
+    public void nodeCollected(String appName, boolean success) {
+        Counter.builder("coverage.node.collections")
+                .description("Per-node collections during multi-node collection")
+                .tag("app", app(appName))
+                .tag("outcome", success ? OUTCOME_SUCCESS : OUTCOME_FAILURE)
+                .register(registry)
+                .increment();
+    }
+
+    private Timer stageTimer(String stage, String appName, String outcome) {
+        return Timer.builder("coverage.stage.duration")
+                .description("Duration of a coverage pipeline stage")
+                .tag("stage", stage)
+                .tag("app", app(appName))
+                .tag("outcome", outcome)
+                .serviceLevelObjectives(DURATION_BUCKETS)
+                .register(registry);
+    }
+
+    private String app(String appName) {
+        if (!StringUtils.hasText(appName)) {
+            return UNKNOWN_APP;
+        }
+        if (discoveredApps.contains(appName)
+                || (coverageConfig.getApplications() != null && coverageConfig.getApplications().containsKey(appName))
+                || (coverageConfig.getJacocoPortsMap() != null && coverageConfig.getJacocoPortsMap().containsKey(appName))) {
+            return appName;
+        }
+        return UNKNOWN_APP;
+    }
+
+    /**
+     * 进行中的阶段，close时记录耗时、结束span并提交JFR事件
+     */
+    public class Stage implements AutoCloseable {
+        private final String stage;
+        private final String appName;
+        private final Timer.Sample sample;
+        private final Tracer.Span span;
+        private final StageEvent event;
+        private final Stage previous;
+        private boolean succeeded;
+        private boolean closed;
+
+        private Stage(String stage, String appName, Timer.Sample sample, Tracer.Span span, StageEvent event, Stage previous) {
+            this.stage = stage;
+            this.appName = appName;
+            this.sample = sample;
+            this.span = span;
+            this.event = event;
+            this.previous = previous;
+        }
+
+        public boolean is(String stageName) {
+            return stage.equals(stageName);
+        }
+
+        /**
+         * 给span和JFR事件附加属性（如节点、字节数），不会成为指标标签
+         */
+        public Stage attribute(String key, Object value) {
+            span.attribute(key, value);
+            event.attribute(key, value);
+            return this;
+        }
+
+        /**
+         * 标记阶段成功，应在 try 块的最后调用
+         */
+        public Stage success() {
+            succeeded = true;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            String outcome = succeeded ? OUTCOME_SUCCESS : OUTCOME_FAILURE;
+            sample.stop(stageTimer(stage, appName, outcome));
+            event.finish(succeeded);
+            span.attribute("outcome", outcome).close();
+            if (CURRENT_STAGE.get() == this) {
+                if (previous != null) {
+                    CURRENT_STAGE.set(previous);
+                } else {
+                    CURRENT_STAGE.remove();
+                }
+            }
+        }
+    }
+}
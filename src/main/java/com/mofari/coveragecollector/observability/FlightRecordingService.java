@@ -0,0 +1,84 @@
+package com.mofari.coveragecollector.observability;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.jfr.CoverageEvents;
+import com.mofari.coveragecollector.observability.jfr.FlightRecordings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在采集服务自身上开始/停止JFR录制，录制中包含覆盖率流水线的自定义事件（com.mofari.coverage.*）
+ */
+@Service
+public class FlightRecordingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecordingService.class);
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    public boolean isAvailable() {
+        return CoverageEvents.isAvailable();
+    }
+
+    /**
+     * 开始录制
+     * @param name 录制名称，为空时按时间生成
+     * @param settings JFR预置配置：default（开销约1%）或 profile（约2%，包含方法采样和分配）
+     * @param maxDurationMinutes 最长录制时间，到时自动停止并写出文件，为空时使用配置
+     * @param maxSizeMb 录制数据的最大体积，为空时使用配置
+     */
+    public Map<String, Object> start(String name, String settings, Integer maxDurationMinutes, Integer maxSizeMb) throws Exception {
+        checkAvailable();
+        CoverageConfig.JfrConfig config = coverageConfig.getJfr();
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        String recordingName = StringUtils.hasText(name) ? name : "coverage_" + timestamp;
+        String recordingSettings = StringUtils.hasText(settings) ? settings : config.getSettings();
+        int minutes = maxDurationMinutes != null ? maxDurationMinutes : config.getMaxDurationMinutes();
+        int sizeMb = maxSizeMb != null ? maxSizeMb : config.getMaxSizeMb();
+        if (minutes <= 0 || sizeMb <= 0) {
+            throw new IllegalArgumentException("maxDurationMinutes和maxSizeMb必须大于0");
+        }
+        File destination = new File(config.getDirectory(),
+                timestamp + "_" + recordingName.replaceAll("[^A-Za-z0-9._-]", "_") + ".jfr");
+        Map<String, Object> recording = FlightRecordings.start(recordingName, recordingSettings,
+                Duration.ofMinutes(minutes), sizeMb * 1024L * 1024L, destination);
+        logger.info("Started JFR recording {} ({} settings, at most {} min) to {}",
+                recording.get("id"), recordingSettings, minutes, destination.getAbsolutePath());
+        return recording;
+    }
+
+    /**
+     * 停止录制并写出 .jfr 文件，可以用JDK Mission Control或 jfr print --events 'com.mofari.coverage.*' 查看
+     * @return 录制信息，录制不存在时返回null
+     */
+    public Map<String, Object> stop(long id) {
+        checkAvailable();
+        Map<String, Object> recording = FlightRecordings.stop(id);
+        if (recording != null) {
+            logger.info("Stopped JFR recording {}, written to {}", id, recording.get("file"));
+        }
+        return recording;
+    }
+
+    public List<Map<String, Object>> list() {
+        checkAvailable();
+        return FlightRecordings.list();
+    }
+
+    private void checkAvailable() {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("当前JVM不支持Java Flight Recorder（需要JDK 8u262+或JDK 11+）");
+        }
+    }
+}
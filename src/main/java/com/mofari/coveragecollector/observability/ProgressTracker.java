@@ -0,0 +1,396 @@
+package com.mofari.coveragecollector.observability;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.util.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长时间运行的操作（收集并生成报告、Sonar分析）作为后台任务执行，进度通过SSE推送或轮询查询。
+ * <p>
+ * 任务在自己的线程上运行，期间 {@link #current()} 返回该任务的进度，各服务在已有的阶段中更新计数
+ * （节点收集、文件合并、class分析、HTML页面渲染、Sonar任务状态），不需要把进度对象逐层传递。
+ * 计数可能来自其他线程（节点dump、并行合并），需要在任务线程上先取得 {@link #current()} 再交给子任务。
+ * 进度按固定间隔合并推送，任务结束时立即推送结果。
+ * 未结束的任务数超过 coverage.progress.max-pending-jobs 时拒绝提交；已结束的任务按保留时间和
+ * coverage.progress.max-retained-jobs 清理，内存中的任务数有上限。
+ */
+@Component
+public class ProgressTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressTracker.class);
+
+    public static final String NODES = "nodes";
+    public static final String FAILED_NODES = "failedNodes";
+    public static final String MERGED_FILES = "mergedFiles";
+    public static final String ANALYZED_CLASSES = "analyzedClasses";
+    public static final String RENDERED_PAGES = "renderedPages";
+    public static final String SONAR_TASK = "sonarTask";
+
+    public static final String EVENT_PROGRESS = "progress";
+    public static final String EVENT_COMPLETED = "completed";
+    public static final String EVENT_FAILED = "failed";
+
+    private static final ThreadLocal<Job> CURRENT_JOB = new ThreadLocal<>();
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "coverage-progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ExecutorService jobExecutor;
+
+    private boolean publishing;
+
+    /**
+     * 当前线程正在执行的任务的进度，不在任务中时返回空操作的进度
+     */
+    public static Progress current() {
+        Job job = CURRENT_JOB.get();
+        return job != null ? job : Progress.NOOP;
+    }
+
+    /**
+     * 提交后台任务
+     * @param operation 操作名称
+     * @param parameters 请求参数，随进度一起返回
+     * @param work 任务内容，返回值作为任务结果
+     * @throws RejectedExecutionException 未结束的任务数已达上限
+     */
+    public Job submit(String operation, Map<String, Object> parameters, Callable<?> work) {
+        int maxPendingJobs = coverageConfig.getProgress().getMaxPendingJobs();
+        if (pendingJobs.incrementAndGet() > maxPendingJobs && maxPendingJobs > 0) {
+            pendingJobs.decrementAndGet();
+            throw new RejectedExecutionException("后台任务数已达上限 " + maxPendingJobs + "，请稍后重试");
+        }
+        Job job = new Job(UUID.randomUUID().toString().replace("-", ""), operation, parameters);
+        jobs.put(job.id, job);
+        pruneFinishedJobs();
+        startPublishing();
+        try {
+            getJobExecutor().execute(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            pendingJobs.decrementAndGet();
+            throw e;
+        }
+        return job;
+    }
+
+    public Job get(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * 订阅任务的进度：立即推送当前进度，之后按间隔推送变化；任务已结束时推送结果后关闭。
+     * 当前进度在任务锁内推送，保证先于任务结束时的结果事件到达。
+     * 连接在 coverage.progress.emitter-timeout-seconds 后关闭，客户端重连即可继续接收
+     */
+    public SseEmitter subscribe(Job job) {
+        SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(coverageConfig.getProgress().getEmitterTimeoutSeconds()));
+        emitter.onCompletion(() -> job.emitters.remove(emitter));
+        emitter.onTimeout(() -> job.emitters.remove(emitter));
+        emitter.onError(e -> job.emitters.remove(emitter));
+        synchronized (job) {
+            if (job.isFinished()) {
+                sendFinal(job, emitter);
+                return emitter;
+            }
+            if (send(job, emitter, EVENT_PROGRESS, job.snapshot())) {
+                job.emitters.add(emitter);
+            }
+        }
+        return emitter;
+    }
+
+    private void run(Job job, Callable<?> work) {
+        CURRENT_JOB.set(job);
+        try {
+            Object result = work.call();
+            job.finish(result, null);
+        } catch (Exception e) {
+            logger.error("Job {} ({}) failed", job.id, job.operation, e);
+            job.finish(null, e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            CURRENT_JOB.remove();
+            pendingJobs.decrementAndGet();
+        }
+        List<SseEmitter> emitters;
+        synchronized (job) {
+            emitters = new ArrayList<>(job.emitters);
+            job.emitters.clear();
+        }
+        for (SseEmitter emitter : emitters) {
+            sendFinal(job, emitter);
+        }
+    }
+
+    /**
+     * 推送有变化的进度。检查和发送都在任务锁内，任务结束与取出订阅者也要拿这把锁，
+     * 因此进度事件不会晚于结果事件到达
+     */
+    private void publish() {
+        pruneFinishedJobs();
+        for (Job job : jobs.values()) {
+            synchronized (job) {
+                if (job.isFinished()) {
+                    continue;
+                }
+                long version = job.version.get();
+                if (version == job.publishedVersion || job.emitters.isEmpty()) {
+                    continue;
+                }
+                job.publishedVersion = version;
+                Map<String, Object> snapshot = job.snapshot();
+                for (SseEmitter emitter : job.emitters) {
+                    send(job, emitter, EVENT_PROGRESS, snapshot);
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除超过保留时间的已结束任务，已结束的任务仍超过上限时再移除最早结束的
+     */
+    private void pruneFinishedJobs() {
+        CoverageConfig.ProgressConfig config = coverageConfig.getProgress();
+        long retentionMillis = TimeUnit.MINUTES.toMillis(config.getRetentionMinutes());
+        long now = System.currentTimeMillis();
+        List<Job> finished = new ArrayList<>();
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (!job.isFinished()) {
+                continue;
+            }
+            if (now - job.finishedAt > retentionMillis) {
+                it.remove();
+            } else {
+                finished.add(job);
+            }
+        }
+        int excess = finished.size() - Math.max(0, config.getMaxRetainedJobs());
+        if (excess > 0) {
+            finished.sort(Comparator.comparingLong(job -> job.finishedAt));
+            for (int i = 0; i < excess; i++) {
+                jobs.remove(finished.get(i).id);
+            }
+        }
+    }
+
+    private void sendFinal(Job job, SseEmitter emitter) {
+        if (send(job, emitter, job.error == null ? EVENT_COMPLETED : EVENT_FAILED, job.snapshot())) {
+            emitter.complete();
+        }
+    }
+
+    private boolean send(Job job, SseEmitter emitter, String event, Map<String, Object> data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).id(String.valueOf(job.version.get())).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开，等待重连
+            job.emitters.remove(emitter);
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private synchronized void startPublishing() {
+        if (!publishing) {
+            long interval = Math.max(50, coverageConfig.getProgress().getIntervalMillis());
+            publisher.scheduleWithFixedDelay(() -> {
+                try {
+                    publish();
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to publish job progress", e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+            publishing = true;
+        }
+    }
+
+    private synchronized ExecutorService getJobExecutor() {
+        if (jobExecutor == null) {
+            jobExecutor = VirtualThreads.newExecutor(coverageConfig.getThreads().isVirtual(), "coverage-job-",
+                    coverageConfig.getProgress().getJobThreads());
+        }
+        return jobExecutor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        publisher.shutdownNow();
+        if (jobExecutor != null) {
+            jobExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 任务进度：阶段、计数（可带总数）和状态文本，均可从任意线程更新
+     */
+    public static class Progress {
+
+        static final Progress NOOP = new Progress();
+
+        Progress() {
+        }
+
+        /**
+         * 当前阶段
+         */
+        public void stage(String stage) {
+        }
+
+        /**
+         * 计数加1
+         */
+        public void increment(String counter) {
+            add(counter, 1);
+        }
+
+        public void add(String counter, long delta) {
+        }
+
+        /**
+         * 增加计数的总数（同一任务中可能多次合并，总数累加）
+         */
+        public void addTotal(String counter, long delta) {
+        }
+
+        /**
+         * 状态文本，如Sonar后台任务的状态
+         */
+        public void status(String key, String value) {
+        }
+    }
+
+    /**
+     * 一个后台任务
+     */
+    public static final class Job extends Progress {
+        private final String id;
+        private final String operation;
+        private final Map<String, Object> parameters;
+        private final long startedAt = System.currentTimeMillis();
+        private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final Map<String, AtomicLong> totals = new ConcurrentHashMap<>();
+        private final Map<String, String> statuses = new ConcurrentHashMap<>();
+        private final AtomicLong version = new AtomicLong();
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        private volatile String stage;
+        private volatile long finishedAt;
+        private volatile Object result;
+        private volatile String error;
+        private long publishedVersion;
+
+        private Job(String id, String operation, Map<String, Object> parameters) {
+            this.id = id;
+            this.operation = operation;
+            this.parameters = parameters;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public boolean isFinished() {
+            return finishedAt != 0;
+        }
+
+        @Override
+        public void stage(String stage) {
+            this.stage = stage;
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void add(String counter, long delta) {
+            counters.computeIfAbsent(counter, key -> new AtomicLong()).addAndGet(delta);
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void addTotal(String counter, long delta) {
+            totals.computeIfAbsent(counter, key -> new AtomicLong()).addAndGet(delta);
+            counters.computeIfAbsent(counter, key -> new AtomicLong());
+            version.incrementAndGet();
+        }
+
+        @Override
+        public void status(String key, String value) {
+            statuses.put(key, value);
+            version.incrementAndGet();
+        }
+
+        private synchronized void finish(Object result, String error) {
+            this.result = result;
+            this.error = error;
+            this.finishedAt = System.currentTimeMillis();
+            version.incrementAndGet();
+        }
+
+        /**
+         * 任务的当前状态；结束后包含结果或错误信息
+         */
+        public Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("jobId", id);
+            snapshot.put("operation", operation);
+            snapshot.put("parameters", parameters);
+            snapshot.put("state", !isFinished() ? "RUNNING" : error == null ? "SUCCEEDED" : "FAILED");
+            snapshot.put("stage", stage);
+            snapshot.put("elapsedMs", (isFinished() ? finishedAt : System.currentTimeMillis()) - startedAt);
+            Map<String, Object> progress = new LinkedHashMap<>();
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                Map<String, Object> value = new LinkedHashMap<>();
+                value.put("done", counter.getValue().get());
+                AtomicLong total = totals.get(counter.getKey());
+                if (total != null) {
+                    value.put("total", total.get());
+                }
+                progress.put(counter.getKey(), value);
+            }
+            snapshot.put("progress", progress);
+            snapshot.put("status", new LinkedHashMap<>(statuses));
+            if (isFinished()) {
+                if (error == null) {
+                    snapshot.put("result", result);
+                } else {
+                    snapshot.put("error", error);
+                }
+            }
+            return snapshot;
+        }
+    }
+}
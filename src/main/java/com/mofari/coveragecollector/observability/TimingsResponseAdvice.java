@@ -0,0 +1,52 @@
+package com.mofari.coveragecollector.observability;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 给返回Map的API响应附加 timings 字段：本次请求各阶段、各节点的耗时明细（见 {@link Tracer#timings}）
+ */
+@ControllerAdvice
+public class TimingsResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    public static final String TIMINGS_FIELD = "timings";
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        CoverageConfig.TracingConfig config = coverageConfig.getTracing();
+        if (!config.isEnabled() || !config.isIncludeTimings() || !(body instanceof Map)
+                || !(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        Object root = ((ServletServerHttpRequest) request).getServletRequest().getAttribute(TracingFilter.ROOT_SPAN_ATTRIBUTE);
+        if (!(root instanceof Tracer.Span)) {
+            return body;
+        }
+        // 复制一份，不修改控制器返回的（可能不可变的）Map
+        Map<String, Object> withTimings = new LinkedHashMap<>((Map<String, Object>) body);
+        withTimings.put(TIMINGS_FIELD, Tracer.timings((Tracer.Span) root));
+        return withTimings;
+    }
+}
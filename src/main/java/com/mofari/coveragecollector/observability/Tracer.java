@@ -0,0 +1,363 @@
+package com.mofari.coveragecollector.observability;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 轻量的请求级追踪：每个API请求是一条trace，流水线各阶段、各节点是其中嵌套的span。
+ * <p>
+ * 当前span保存在ThreadLocal中，span关闭时恢复上一层；没有进行中的trace时（后台任务、定时任务）
+ * {@link #span(String)} 返回空操作的span，不产生任何开销。在其他线程中执行的子任务可以用
+ * {@link #span(Span, String)} 显式指定父span。
+ * <p>
+ * trace结束后可以转成响应中的timings明细，也可以导出为Chrome trace-event格式的文件。
+ * 导出在后台线程上进行，不阻塞请求：文件不做fsync（trace只用于排查，丢失最后几条无关紧要），
+ * 队列满时直接丢弃，旧文件每导出一批才清理一次。
+ */
+@Component
+public class Tracer {
+
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+    private static final String TRACE_FILE_SUFFIX = ".trace.json";
+
+    private static final ThreadLocal<Span> CURRENT_SPAN = new ThreadLocal<>();
+
+    private static final int EXPORT_QUEUE_CAPACITY = 256;
+
+    private final ThreadPoolExecutor exporter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(EXPORT_QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "trace-export");
+                thread.setDaemon(true);
+                return thread;
+            }, (runnable, executor) -> logger.debug("Trace export queue is full, dropping trace"));
+
+    // 已导出的文件数，只在导出线程上访问；第一次导出时清理一次，之后每隔一批清理一次
+    private long exportCount;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 在当前线程开始一条新的trace，返回根span
+     */
+    public Span begin(String name) {
+        Span root = new Span(new Trace(), null, name, CURRENT_SPAN.get());
+        CURRENT_SPAN.set(root);
+        return root;
+    }
+
+    /**
+     * 在当前span下开始一个子span，当前线程没有trace时返回空操作的span
+     */
+    public Span span(String name) {
+        Span parent = CURRENT_SPAN.get();
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        return span(parent, name);
+    }
+
+    /**
+     * 在指定的父span下开始一个子span（父span可以属于其他线程）
+     */
+    public Span span(Span parent, String name) {
+        if (parent == null || parent == Span.NOOP) {
+            return Span.NOOP;
+        }
+        Span span = new Span(parent.trace, parent, name, CURRENT_SPAN.get());
+        CURRENT_SPAN.set(span);
+        return span;
+    }
+
+    /**
+     * 当前线程正在进行的span，没有时返回空操作的span
+     */
+    public Span currentSpan() {
+        Span span = CURRENT_SPAN.get();
+        return span != null ? span : Span.NOOP;
+    }
+
+    /**
+     * 结束根span，按配置把trace交给后台线程导出
+     */
+    public void end(Span root) {
+        if (root == Span.NOOP) {
+            return;
+        }
+        root.close();
+        CoverageConfig.TracingConfig config = coverageConfig.getTracing();
+        if (config.isExport()) {
+            long now = System.nanoTime();
+            exporter.execute(() -> {
+                try {
+                    export(root, new File(config.getDirectory()), config.getMaxFiles(), now);
+                } catch (IOException e) {
+                    logger.warn("Failed to export trace {}: {}", root.trace.id, e.getMessage());
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        exporter.shutdown();
+    }
+
+    /**
+     * trace的耗时明细：各span相对根span开始的偏移和耗时（毫秒），进行中的span按当前时间计算
+     */
+    public static Map<String, Object> timings(Span root) {
+        Map<String, Object> timings = new LinkedHashMap<>();
+        if (root == Span.NOOP) {
+            return timings;
+        }
+        long now = System.nanoTime();
+        timings.put("traceId", root.trace.id);
+        timings.put("totalMs", millis(root.endOr(now) - root.startNanos));
+        List<Map<String, Object>> spans = new ArrayList<>();
+        for (Span child : root.children()) {
+            spans.add(toTiming(child, root.startNanos, now));
+        }
+        timings.put("spans", spans);
+        return timings;
+    }
+
+    private static Map<String, Object> toTiming(Span span, long originNanos, long now) {
+        Map<String, Object> timing = new LinkedHashMap<>();
+        timing.put("name", span.name);
+        timing.put("startMs", millis(span.startNanos - originNanos));
+        timing.put("durationMs", millis(span.endOr(now) - span.startNanos));
+        Map<String, Object> attributes = span.attributes();
+        if (!attributes.isEmpty()) {
+            timing.put("attributes", attributes);
+        }
+        List<Span> children = span.children();
+        if (!children.isEmpty()) {
+            List<Map<String, Object>> childTimings = new ArrayList<>(children.size());
+            for (Span child : children) {
+                childTimings.add(toTiming(child, originNanos, now));
+            }
+            timing.put("children", childTimings);
+        }
+        return timing;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    /**
+     * 以Chrome trace-event格式（"X"完整事件，时间单位微秒）写出trace，每导出 maxFiles/10 个文件清理一次超出数量的旧文件
+     * @param now 请求结束的时间，仍在进行的span按此时间截止
+     */
+    void export(Span root, File directory, int maxFiles, long now) throws IOException {
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date(root.trace.startMillis));
+        File traceFile = new File(directory, timestamp + "_" + root.trace.id + TRACE_FILE_SUFFIX);
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create trace directory " + directory.getAbsolutePath());
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(traceFile))) {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            generator.writeStringField("displayTimeUnit", "ms");
+            generator.writeObjectFieldStart("otherData");
+            generator.writeStringField("traceId", root.trace.id);
+            generator.writeStringField("name", root.name);
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("traceEvents");
+            writeEvents(generator, root, root.trace.startNanos, now);
+            for (Span span : collectThreadNames(root, new LinkedHashMap<>()).values()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", "thread_name");
+                generator.writeStringField("ph", "M");
+                generator.writeNumberField("pid", 1);
+                generator.writeNumberField("tid", span.threadId);
+                generator.writeObjectFieldStart("args");
+                generator.writeStringField("name", span.threadName);
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.flush();
+        }
+        logger.debug("Trace {} exported to {}", root.trace.id, traceFile.getAbsolutePath());
+        if (maxFiles > 0 && exportCount++ % Math.max(1, maxFiles / 10) == 0) {
+            prune(directory, maxFiles);
+        }
+    }
+
+    private void writeEvents(JsonGenerator generator, Span span, long originNanos, long now) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("name", span.name);
+        generator.writeStringField("cat", "coverage");
+        generator.writeStringField("ph", "X");
+        generator.writeNumberField("ts", TimeUnit.NANOSECONDS.toMicros(span.startNanos - originNanos));
+        generator.writeNumberField("dur", TimeUnit.NANOSECONDS.toMicros(span.endOr(now) - span.startNanos));
+        generator.writeNumberField("pid", 1);
+        generator.writeNumberField("tid", span.threadId);
+        Map<String, Object> attributes = span.attributes();
+        if (!attributes.isEmpty()) {
+            generator.writeFieldName("args");
+            objectMapper.writeValue(generator, attributes);
+        }
+        generator.writeEndObject();
+        for (Span child : span.children()) {
+            writeEvents(generator, child, originNanos, now);
+        }
+    }
+
+    private static Map<Long, Span> collectThreadNames(Span span, Map<Long, Span> byThread) {
+        byThread.putIfAbsent(span.threadId, span);
+        for (Span child : span.children()) {
+            collectThreadNames(child, byThread);
+        }
+        return byThread;
+    }
+
+    private static void prune(File directory, int maxFiles) {
+        File[] traceFiles = directory.listFiles((dir, name) -> name.endsWith(TRACE_FILE_SUFFIX));
+        if (maxFiles <= 0 || traceFiles == null || traceFiles.length <= maxFiles) {
+            return;
+        }
+        // 文件名以时间戳开头，按名字排序即按时间排序
+        Arrays.sort(traceFiles);
+        for (int i = 0; i < traceFiles.length - maxFiles; i++) {
+            if (!traceFiles[i].delete()) {
+                logger.debug("Failed to delete old trace file {}", traceFiles[i]);
+            }
+        }
+    }
+
+    private static final class Trace {
+        private final String id = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+        private final long startMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+    }
+
+    /**
+     * trace中的一个阶段，try-with-resources关闭时记录结束时间并恢复当前线程的上一层span
+     */
+    public static class Span implements AutoCloseable {
+
+        static final Span NOOP = new Span();
+
+        private final Trace trace;
+        private final String name;
+        private final Span previous;
+        private final Thread thread;
+        private final long threadId;
+        private final String threadName;
+        private final long startNanos;
+        private volatile long endNanos;
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+        private final List<Span> children = new ArrayList<>();
+
+        private Span() {
+            this.trace = null;
+            this.name = null;
+            this.previous = null;
+            this.thread = null;
+            this.threadId = 0;
+            this.threadName = null;
+            this.startNanos = 0;
+        }
+
+        private Span(Trace trace, Span parent, String name, Span previous) {
+            this.trace = trace;
+            this.name = name;
+            this.previous = previous;
+            this.thread = Thread.currentThread();
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.startNanos = System.nanoTime();
+            if (parent != null) {
+                parent.addChild(this);
+            }
+        }
+
+        public Span attribute(String key, Object value) {
+            if (trace != null && value != null) {
+                synchronized (attributes) {
+                    attributes.put(key, value);
+                }
+            }
+            return this;
+        }
+
+        public boolean isRecording() {
+            return trace != null;
+        }
+
+        public String getTraceId() {
+            return trace != null ? trace.id : null;
+        }
+
+        @Override
+        public void close() {
+            if (trace == null || endNanos != 0) {
+                return;
+            }
+            endNanos = System.nanoTime();
+            if (Thread.currentThread() == thread && CURRENT_SPAN.get() == this) {
+                if (previous != null) {
+                    CURRENT_SPAN.set(previous);
+                } else {
+                    CURRENT_SPAN.remove();
+                }
+            }
+        }
+
+        private void addChild(Span child) {
+            synchronized (children) {
+                children.add(child);
+            }
+        }
+
+        private List<Span> children() {
+            synchronized (children) {
+                return children.isEmpty() ? Collections.<Span>emptyList() : new ArrayList<>(children);
+            }
+        }
+
+        private Map<String, Object> attributes() {
+            synchronized (attributes) {
+                return attributes.isEmpty() ? Collections.<String, Object>emptyMap() : new LinkedHashMap<>(attributes);
+            }
+        }
+
+        private long endOr(long now) {
+            long end = endNanos;
+            return end != 0 ? end : now;
+        }
+    }
+}
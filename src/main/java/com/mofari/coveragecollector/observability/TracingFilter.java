@@ -0,0 +1,52 @@
+package com.mofari.coveragecollector.observability;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 每个 /api/ 请求开始一条trace，请求结束时导出；trace id 通过 X-Trace-Id 响应头返回，与导出的文件名对应
+ */
+@Component
+public class TracingFilter extends OncePerRequestFilter {
+
+    /**
+     * 根span保存在请求属性中，供 {@link TimingsResponseAdvice} 生成耗时明细
+     */
+    public static final String ROOT_SPAN_ATTRIBUTE = TracingFilter.class.getName() + ".rootSpan";
+
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private Tracer tracer;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !coverageConfig.getTracing().isEnabled() || !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Tracer.Span root = tracer.begin(request.getMethod() + " " + request.getRequestURI());
+        root.attribute("method", request.getMethod()).attribute("path", request.getRequestURI());
+        request.setAttribute(ROOT_SPAN_ATTRIBUTE, root);
+        response.setHeader(TRACE_ID_HEADER, root.getTraceId());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            root.attribute("status", response.getStatus());
+            tracer.end(root);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.mofari.coveragecollector.observability.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 覆盖率流水线的自定义JFR事件入口。
+ * <p>
+ * 编译目标是Java 8，运行时可能没有 jdk.jfr（8u262之前的JDK 8），所以只有检测到JFR可用时才会加载事件类；
+ * 不可用时所有阶段都使用空操作事件。没有进行中的录制时，事件只有一次 begin/end 的开销，不会提交。
+ */
+public final class CoverageEvents {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageEvents.class);
+
+    /**
+     * 事件名前缀，录制配置中可以用 com.mofari.coverage.AgentDump#enabled=false 单独关闭某类事件
+     */
+    public static final String EVENT_PREFIX = "com.mofari.coverage.";
+
+    private static final boolean AVAILABLE = detect();
+
+    private CoverageEvents() {
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * 开始一个阶段的事件
+     */
+    public static StageEvent begin(String stage, String appName) {
+        if (!AVAILABLE) {
+            return StageEvent.NOOP;
+        }
+        return StageEvents.begin(stage, appName);
+    }
+
+    private static boolean detect() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return FlightRecordings.isFlightRecorderAvailable();
+        } catch (ClassNotFoundException | LinkageError e) {
+            logger.info("Java Flight Recorder is not available in this runtime; coverage JFR events are disabled");
+            return false;
+        }
+    }
+}
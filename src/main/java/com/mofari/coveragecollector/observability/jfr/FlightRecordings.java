@@ -0,0 +1,108 @@
+package com.mofari.coveragecollector.observability.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对 jdk.jfr 录制API的封装，方法签名中不出现JFR类型，只在 {@link CoverageEvents#isAvailable()} 时调用
+ */
+public final class FlightRecordings {
+
+    private FlightRecordings() {
+    }
+
+    public static boolean isFlightRecorderAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    /**
+     * 按预置配置（default/profile）开始录制，到达最长时长后自动停止并写出到destination
+     */
+    public static Map<String, Object> start(String name, String settings, Duration maxDuration, long maxSizeBytes, File destination)
+            throws IOException {
+        Configuration configuration = null;
+        for (Configuration candidate : Configuration.getConfigurations()) {
+            if (candidate.getName().equals(settings)) {
+                configuration = candidate;
+            }
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("Unknown JFR settings: " + settings + " (use default or profile)");
+        }
+        Recording recording = new Recording(configuration);
+        try {
+            recording.setName(name);
+            recording.setToDisk(true);
+            recording.setDuration(maxDuration);
+            recording.setMaxSize(maxSizeBytes);
+            Files.createDirectories(destination.getParentFile().toPath());
+            recording.setDestination(destination.toPath());
+            recording.start();
+        } catch (IOException | RuntimeException e) {
+            recording.close();
+            throw e;
+        }
+        return describe(recording);
+    }
+
+    /**
+     * 停止录制并写出文件；已自动停止的录制直接返回已写出的文件
+     * @return 录制信息，没有该录制时返回null
+     */
+    public static Map<String, Object> stop(long id) {
+        Recording recording = find(id);
+        if (recording == null) {
+            return null;
+        }
+        if (recording.getState() == RecordingState.RUNNING || recording.getState() == RecordingState.DELAYED) {
+            recording.stop();
+        }
+        Map<String, Object> info = describe(recording);
+        recording.close();
+        return info;
+    }
+
+    public static List<Map<String, Object>> list() {
+        List<Map<String, Object>> recordings = new ArrayList<>();
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            recordings.add(describe(recording));
+        }
+        return recordings;
+    }
+
+    private static Recording find(long id) {
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getId() == id) {
+                return recording;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Object> describe(Recording recording) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("id", recording.getId());
+        info.put("name", recording.getName());
+        info.put("state", recording.getState().name());
+        info.put("startTime", recording.getStartTime() != null ? recording.getStartTime().toString() : null);
+        info.put("stopTime", recording.getStopTime() != null ? recording.getStopTime().toString() : null);
+        info.put("maxDurationSeconds", recording.getDuration() != null ? recording.getDuration().getSeconds() : null);
+        if (recording.getDestination() != null) {
+            File file = recording.getDestination().toFile();
+            info.put("file", file.getAbsolutePath());
+            info.put("fileSize", file.length());
+        }
+        return info;
+    }
+}
@@ -0,0 +1,27 @@
+package com.mofari.coveragecollector.observability.jfr;
+
+/**
+ * 一个流水线阶段对应的JFR事件。接口本身不引用 jdk.jfr，运行时没有JFR时使用 {@link #NOOP}
+ */
+public interface StageEvent {
+
+    StageEvent NOOP = new StageEvent() {
+        @Override
+        public void attribute(String key, Object value) {
+        }
+
+        @Override
+        public void finish(boolean success) {
+        }
+    };
+
+    /**
+     * 按阶段属性名（node、classes、bytes等）填充事件字段，事件没有的属性忽略
+     */
+    void attribute(String key, Object value);
+
+    /**
+     * 结束计时，正在录制且超过阈值时提交事件
+     */
+    void finish(boolean success);
+}
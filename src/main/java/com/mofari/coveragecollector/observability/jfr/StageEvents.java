@@ -0,0 +1,227 @@
+package com.mofari.coveragecollector.observability.jfr;
+
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 各阶段的JFR事件类型，只在 {@link CoverageEvents#isAvailable()} 时加载
+ */
+final class StageEvents {
+
+    private StageEvents() {
+    }
+
+    static StageEvent begin(String stage, String appName) {
+        CoverageEvent event;
+        switch (stage) {
+            case CoverageMetrics.STAGE_AGENT_DUMP:
+                event = new AgentDumpEvent();
+                break;
+            case CoverageMetrics.STAGE_MERGE:
+                event = new MergeEvent();
+                break;
+            case CoverageMetrics.STAGE_ANALYSIS:
+                event = new ClassAnalysisEvent();
+                break;
+            case CoverageMetrics.STAGE_GIT_DIFF:
+                event = new GitDiffEvent();
+                break;
+            case CoverageMetrics.STAGE_XML_REPORT:
+                event = new ReportWriteEvent("xml");
+                break;
+            case CoverageMetrics.STAGE_HTML_REPORT:
+                event = new ReportWriteEvent("html");
+                break;
+            case CoverageMetrics.STAGE_JSON_WRITE:
+                event = new ReportWriteEvent("json");
+                break;
+            default:
+                event = new PipelineStageEvent(stage);
+                break;
+        }
+        event.app = appName;
+        event.begin();
+        return event;
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    @Category({"Coverage Collector"})
+    @StackTrace(false)
+    abstract static class CoverageEvent extends Event implements StageEvent {
+
+        @Label("Application")
+        String app;
+
+        @Label("Success")
+        boolean success;
+
+        @Override
+        public void attribute(String key, Object value) {
+        }
+
+        @Override
+        public void finish(boolean success) {
+            end();
+            if (shouldCommit()) {
+                this.success = success;
+                commit();
+            }
+        }
+    }
+
+    @Name(CoverageEvents.EVENT_PREFIX + "AgentDump")
+    @Label("Agent Dump")
+    @Description("Dump of one JaCoCo agent over the tcpserver protocol")
+    static class AgentDumpEvent extends CoverageEvent {
+
+        @Label("Node")
+        String node;
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Classes")
+        int classes;
+
+        @Label("Bytes Received")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+
+        @Override
+        public void attribute(String key, Object value) {
+            switch (key) {
+                case "node":
+                    node = String.valueOf(value);
+                    break;
+                case "endpoint":
+                    endpoint = String.valueOf(value);
+                    break;
+                case "classes":
+                    classes = (int) asLong(value);
+                    break;
+                case "bytes":
+                    bytes = asLong(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Name(CoverageEvents.EVENT_PREFIX + "Merge")
+    @Label("Dump Merge")
+    @Description("Merge of several exec files into one")
+    static class MergeEvent extends CoverageEvent {
+
+        @Label("Files")
+        int files;
+
+        @Label("Classes")
+        int classes;
+
+        @Label("Probes")
+        long probes;
+
+        @Label("Bytes Written")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+
+        @Override
+        public void attribute(String key, Object value) {
+            switch (key) {
+                case "files":
+                    files = (int) asLong(value);
+                    break;
+                case "classes":
+                    classes = (int) asLong(value);
+                    break;
+                case "probes":
+                    probes = asLong(value);
+                    break;
+                case "bytes":
+                    bytes = asLong(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Name(CoverageEvents.EVENT_PREFIX + "ClassAnalysis")
+    @Label("Class Analysis")
+    @Description("JaCoCo analysis of the class files against the execution data")
+    static class ClassAnalysisEvent extends CoverageEvent {
+
+        @Label("Classes")
+        int classes;
+
+        @Override
+        public void attribute(String key, Object value) {
+            if ("classes".equals(key)) {
+                classes = (int) asLong(value);
+            }
+        }
+    }
+
+    @Name(CoverageEvents.EVENT_PREFIX + "GitDiff")
+    @Label("Git Diff")
+    @Description("git diff between two refs of the application project")
+    static class GitDiffEvent extends CoverageEvent {
+
+        @Label("Changed Files")
+        int files;
+
+        @Override
+        public void attribute(String key, Object value) {
+            if ("files".equals(key)) {
+                files = (int) asLong(value);
+            }
+        }
+    }
+
+    @Name(CoverageEvents.EVENT_PREFIX + "ReportWrite")
+    @Label("Report Write")
+    @Description("Rendering of an XML/HTML report or writing of an incremental JSON report")
+    static class ReportWriteEvent extends CoverageEvent {
+
+        @Label("Format")
+        String format;
+
+        @Label("Bytes Written")
+        @DataAmount(DataAmount.BYTES)
+        long bytes;
+
+        ReportWriteEvent(String format) {
+            this.format = format;
+        }
+
+        @Override
+        public void attribute(String key, Object value) {
+            if ("bytes".equals(key)) {
+                bytes = asLong(value);
+            }
+        }
+    }
+
+    @Name(CoverageEvents.EVENT_PREFIX + "PipelineStage")
+    @Label("Pipeline Stage")
+    @Description("Enclosing pipeline stages: multi-node collection, full/incremental report, Sonar")
+    static class PipelineStageEvent extends CoverageEvent {
+
+        @Label("Stage")
+        String stage;
+
+        PipelineStageEvent(String stage) {
+            this.stage = stage;
+        }
+    }
+}
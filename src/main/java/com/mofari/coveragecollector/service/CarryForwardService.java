@@ -0,0 +1,540 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.DumpFileInfo;
+import com.mofari.coveragecollector.model.diff.FileLineMapping;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import com.mofari.coveragecollector.util.Probes;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.IFrame;
+import org.jacoco.core.internal.flow.LabelInfo;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 把旧tag积累的覆盖率带到新tag。
+ * JaCoCo按classId合并，class重新编译后classId变化，旧数据在新tag中全部失效。这里对新tag的每个class：
+ * classId与旧tag相同（字节码未变）的直接沿用探针；字节码有变化的，按git diff把旧tag中完全覆盖且未修改的行
+ * 映射到新行号，只置位那些覆盖的行全部属于这些行的探针，保证不会把未执行过的代码标记为覆盖。
+ * 结果写入新tag的dump目录 jacoco_carryforward_from_&lt;oldTag&gt;_&lt;时间戳&gt;.exec，和普通dump一起参与合并，
+ * 压缩和按数量清理都不会处理它。
+ */
+@Service
+public class CarryForwardService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarryForwardService.class);
+
+    private static final String TIMESTAMP_FORMAT = "yyyyMMdd_HHmmss_SSS";
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private ReportGeneratorService reportGeneratorService;
+
+    @Autowired
+    private SourceClassIndexService sourceClassIndexService;
+
+    @Autowired
+    private ClassFileService classFileService;
+
+    @Autowired
+    private DumpIndexService dumpIndexService;
+
+    @Autowired
+    private TagLockManager tagLockManager;
+
+    /**
+     * 把旧tag合并后的覆盖率带到新tag，重复执行会覆盖上一次的结果
+     * @param baseRef 旧tag对应的git引用
+     * @param newRef 新tag对应的git引用
+     */
+    public CarryForwardResult carryForward(String appName, String clusterName, String oldTag, String newTag,
+                                           String baseRef, String newRef) throws Exception {
+        long start = System.currentTimeMillis();
+        ExecutionDataStore oldData = reportGeneratorService.loadTagExecutionData(appName, clusterName, oldTag, null);
+        CoverageSnapshot oldSnapshot = reportGeneratorService.getCoverageSnapshot(appName, clusterName, oldTag, null, true);
+        Map<String, FileLineMapping> mappingsByNew = new HashMap<>();
+        for (FileLineMapping mapping : reportGeneratorService.getLineMappings(appName, newTag, baseRef, newRef)) {
+            if (mapping.getNewPath() != null) {
+                mappingsByNew.put(mapping.getNewPath(), mapping);
+            }
+        }
+
+        List<String> classDirs = coverageConfig.discoverApplicationPaths(appName, newTag).getClassDirectories();
+        SourceClassIndexService.SourceClassIndex newIndex = sourceClassIndexService.getIndex(appName, newTag, classDirs);
+        CarryForwardResult result = new CarryForwardResult();
+        ExecutionDataStore carried = new ExecutionDataStore();
+        Map<String, BitSet> carryLinesBySource = new HashMap<>();
+        Set<String> remapCandidates = new HashSet<>();
+
+        for (SourceClassIndexService.IndexEntry entry : newIndex.getEntries()) {
+            ExecutionData oldClassData = oldData.get(entry.getClassId());
+            if (oldClassData != null) {
+                // 字节码相同，探针一一对应
+                if (oldClassData.hasHits()) {
+                    carried.put(new ExecutionData(entry.getClassId(), entry.getClassName(), oldClassData.getProbes().clone()));
+                    result.identicalClasses++;
+                }
+                continue;
+            }
+            String sourcePath = entry.getSourcePath();
+            BitSet carryLines = carryLinesBySource.get(sourcePath);
+            if (carryLines == null) {
+                carryLines = carryLines(oldSnapshot, sourcePath, mappingsByNew.get(sourcePath));
+                carryLinesBySource.put(sourcePath, carryLines);
+            }
+            if (!carryLines.isEmpty()) {
+                remapCandidates.add(entry.getClassName());
+            }
+        }
+
+        if (!remapCandidates.isEmpty()) {
+            classFileService.forEachClass(classDirs, classFileService.filterFor(appName).restrictTo(newIndex.getLocations(remapCandidates)),
+                    (className, classBytes, location) -> {
+                        BitSet carryLines = carryLinesBySource.get(newIndex.getSourcePath(className));
+                        long classId = CRC64.classId(classBytes);
+                        boolean[] probes = carryProbes(className, classId, classBytes, carryLines);
+                        int hits = Probes.countHits(probes);
+                        if (hits > 0) {
+                            carried.put(new ExecutionData(classId, className, probes));
+                            result.remappedClasses++;
+                            result.remappedProbes += hits;
+                        } else {
+                            result.skippedClasses++;
+                        }
+                    });
+        }
+
+        Path tagDir = dumpDirectory(appName, clusterName, newTag);
+        String prefix = DumpIndexService.CARRY_FORWARD_FILE_PREFIX + oldTag + "_";
+        File outputFile = tagDir.resolve(prefix + new SimpleDateFormat(TIMESTAMP_FORMAT).format(start) + ".exec").toFile();
+        // 写锁：发布新结果的同时删除同一旧tag上一次的沿用结果
+        try (TagLockManager.LockHandle ignored = tagLockManager.writeLock(appName, clusterName, newTag)) {
+            AtomicFileWriter.write(outputFile, out -> {
+                ExecutionDataWriter writer = new ExecutionDataWriter(out);
+                writer.visitSessionInfo(new SessionInfo("carryforward-" + oldTag, start, System.currentTimeMillis()));
+                carried.accept(writer);
+            });
+            dumpIndexService.register(outputFile, carried.getContents().size());
+            for (DumpFileInfo info : dumpIndexService.listFiles(tagDir, false)) {
+                if (info.isCarryForward() && !info.getFileName().equals(outputFile.getName())
+                        && info.getFileName().equals(prefix + info.getTimestamp() + ".exec")) {
+                    File previous = tagDir.resolve(info.getFileName()).toFile();
+                    if (previous.delete() || !previous.exists()) {
+                        dumpIndexService.unregister(previous);
+                    } else {
+                        logger.warn("Failed to delete previous carry-forward file: {}", previous.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        result.outputFile = outputFile.getAbsolutePath();
+        result.durationMs = System.currentTimeMillis() - start;
+        logger.info("Carried coverage of {} forward to {} for app {}: {} identical classes, {} remapped classes ({} probes), {} skipped in {} ms",
+                oldTag, newTag, appName, result.identicalClasses, result.remappedClasses, result.remappedProbes,
+                result.skippedClasses, result.durationMs);
+        return result;
+    }
+
+    /**
+     * 旧tag中完全覆盖、且在新版本中未修改的行，使用新版本的行号
+     */
+    private static BitSet carryLines(CoverageSnapshot oldSnapshot, String newPath, FileLineMapping mapping) {
+        BitSet lines = new BitSet();
+        String oldPath = mapping != null ? mapping.getOldPath() : newPath;
+        SourceFileSnapshot oldFile = oldPath != null ? oldSnapshot.getFile(oldPath) : null;
+        if (oldFile == null) {
+            return lines;
+        }
+        for (int i = 0; i < oldFile.getLineCount(); i++) {
+            if (oldFile.getLineStatus(i) != SourceFileSnapshot.STATUS_FULLY_COVERED) {
+                continue;
+            }
+            int line = mapping != null ? mapping.toNewLine(oldFile.getLineNumber(i)) : oldFile.getLineNumber(i);
+            if (line >= 0) {
+                lines.set(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 新class中可以沿用的探针：单独置位该探针时覆盖的行全部属于可沿用的行。
+     * 一次遍历字节码得到每个探针覆盖的指令及其行号。JaCoCo的过滤器还会忽略或合并部分指令，这里不做过滤，
+     * 被忽略的指令的行号也要求可沿用，结果只会更保守；选中的探针再用JaCoCo完整分析一次作校验，不一致时退回逐个探针分析
+     */
+    static boolean[] carryProbes(String className, long classId, byte[] classBytes, BitSet carryLines) throws IOException {
+        boolean[] result = selectProbes(classBytes, carryLines);
+        if (Probes.countHits(result) == 0 || coversOnly(analyze(className, classId, classBytes, result), carryLines)) {
+            return result;
+        }
+        logger.debug("Probe selection of {} does not match JaCoCo analysis, analyzing probes one by one", className);
+        return carryProbesOneByOne(className, classId, classBytes, carryLines);
+    }
+
+    static boolean[] selectProbes(byte[] classBytes, BitSet carryLines) {
+        ProbeSelector selector = new ProbeSelector(carryLines);
+        new ClassReader(classBytes).accept(new ClassProbesAdapter(selector, false), 0);
+        return selector.probes;
+    }
+
+    /**
+     * 逐个探针分析新class：单独置位该探针时覆盖的行全部属于可沿用的行，才置位该探针
+     */
+    static boolean[] carryProbesOneByOne(String className, long classId, byte[] classBytes, BitSet carryLines)
+            throws IOException {
+        int probeCount = probeCount(classBytes);
+        boolean[] result = new boolean[probeCount];
+        boolean[] probes = new boolean[probeCount];
+        for (int p = 0; p < probeCount; p++) {
+            probes[p] = true;
+            result[p] = coversOnly(analyze(className, classId, classBytes, probes), carryLines);
+            probes[p] = false;
+        }
+        return result;
+    }
+
+    private static CoverageBuilder analyze(String className, long classId, byte[] classBytes, boolean[] probes)
+            throws IOException {
+        ExecutionDataStore store = new ExecutionDataStore();
+        store.put(new ExecutionData(classId, className, probes));
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        new Analyzer(store, coverageBuilder).analyzeClass(classBytes, className);
+        return coverageBuilder;
+    }
+
+    private static boolean coversOnly(CoverageBuilder coverageBuilder, BitSet carryLines) {
+        boolean coversAny = false;
+        for (IClassCoverage classCoverage : coverageBuilder.getClasses()) {
+            if (classCoverage.getFirstLine() == ISourceNode.UNKNOWN_LINE) {
+                return false; // 没有行号信息时无法判断
+            }
+            for (int line = classCoverage.getFirstLine(); line <= classCoverage.getLastLine(); line++) {
+                if (classCoverage.getLine(line).getInstructionCounter().getCoveredCount() > 0) {
+                    if (!carryLines.get(line)) {
+                        return false;
+                    }
+                    coversAny = true;
+                }
+            }
+        }
+        return coversAny;
+    }
+
+    private static int probeCount(byte[] classBytes) {
+        int[] count = new int[1];
+        new ClassReader(classBytes).accept(new ClassProbesAdapter(new ClassProbesVisitor() {
+            @Override
+            public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return null;
+            }
+
+            @Override
+            public void visitTotalProbeCount(int total) {
+                count[0] = total;
+            }
+        }, false), 0);
+        return count[0];
+    }
+
+    /**
+     * 按JaCoCo构建指令的规则为每个方法建立指令的前驱链：顺序执行的下一条指令和跳转目标以来源为前驱，
+     * 不可顺序到达的标签处断开。命中一个探针时，插入探针处的指令沿前驱链向前都算执行过，
+     * 这些指令的行号全部属于可沿用的行时选中该探针
+     */
+    private static class ProbeSelector extends ClassProbesVisitor {
+        private final BitSet carryLines;
+        private final BitSet selected = new BitSet();
+        private boolean[] probes = new boolean[0];
+
+        ProbeSelector(BitSet carryLines) {
+            this.carryLines = carryLines;
+        }
+
+        @Override
+        public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            return new MethodSelector();
+        }
+
+        @Override
+        public void visitTotalProbeCount(int total) {
+            probes = new boolean[total];
+            for (int p = selected.nextSetBit(0); p >= 0 && p < total; p = selected.nextSetBit(p + 1)) {
+                probes[p] = true;
+            }
+        }
+
+        private static class Insn {
+            final int line;
+            Insn predecessor;
+            int visitedBy = -1;
+
+            Insn(int line) {
+                this.line = line;
+            }
+        }
+
+        private class MethodSelector extends MethodProbesVisitor {
+            private final Map<Label, Insn> labelInsns = new HashMap<>();
+            private final List<Label> pendingLabels = new ArrayList<>();
+            private final List<Insn> jumpSources = new ArrayList<>();
+            private final List<Label> jumpTargets = new ArrayList<>();
+            private final Map<Integer, Insn> probeInsns = new HashMap<>();
+            private int currentLine = ISourceNode.UNKNOWN_LINE;
+            private Insn current;
+
+            @Override
+            public void visitLabel(Label label) {
+                pendingLabels.add(label);
+                if (!LabelInfo.isSuccessor(label)) {
+                    current = null;
+                }
+            }
+
+            @Override
+            public void visitLineNumber(int line, Label start) {
+                currentLine = line;
+            }
+
+            private void addInsn() {
+                Insn insn = new Insn(currentLine);
+                for (Label label : pendingLabels) {
+                    labelInsns.put(label, insn);
+                }
+                pendingLabels.clear();
+                if (current != null) {
+                    insn.predecessor = current;
+                }
+                current = insn;
+            }
+
+            private void addJump(Label target) {
+                jumpSources.add(current);
+                jumpTargets.add(target);
+            }
+
+            private void addProbe(int probeId) {
+                if (current != null) {
+                    probeInsns.put(probeId, current);
+                }
+            }
+
+            @Override
+            public void visitInsn(int opcode) {
+                addInsn();
+            }
+
+            @Override
+            public void visitIntInsn(int opcode, int operand) {
+                addInsn();
+            }
+
+            @Override
+            public void visitVarInsn(int opcode, int var) {
+                addInsn();
+            }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) {
+                addInsn();
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                addInsn();
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                addInsn();
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                               Object... bootstrapMethodArguments) {
+                addInsn();
+            }
+
+            @Override
+            public void visitJumpInsn(int opcode, Label label) {
+                addInsn();
+                addJump(label);
+            }
+
+            @Override
+            public void visitLdcInsn(Object value) {
+                addInsn();
+            }
+
+            @Override
+            public void visitIincInsn(int var, int increment) {
+                addInsn();
+            }
+
+            @Override
+            public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                visitSwitch(dflt, labels, false);
+            }
+
+            @Override
+            public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                visitSwitch(dflt, labels, false);
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+                addInsn();
+            }
+
+            @Override
+            public void visitProbe(int probeId) {
+                addProbe(probeId);
+                current = null;
+            }
+
+            @Override
+            public void visitJumpInsnWithProbe(int opcode, Label label, int probeId, IFrame frame) {
+                addInsn();
+                addProbe(probeId);
+            }
+
+            @Override
+            public void visitInsnWithProbe(int opcode, int probeId) {
+                addInsn();
+                addProbe(probeId);
+            }
+
+            @Override
+            public void visitTableSwitchInsnWithProbes(int min, int max, Label dflt, Label[] labels, IFrame frame) {
+                visitSwitch(dflt, labels, true);
+            }
+
+            @Override
+            public void visitLookupSwitchInsnWithProbes(Label dflt, int[] keys, Label[] labels, IFrame frame) {
+                visitSwitch(dflt, labels, true);
+            }
+
+            private void visitSwitch(Label dflt, Label[] labels, boolean withProbes) {
+                addInsn();
+                visitSwitchTarget(dflt, withProbes);
+                for (Label label : labels) {
+                    visitSwitchTarget(label, withProbes);
+                }
+            }
+
+            private void visitSwitchTarget(Label label, boolean withProbes) {
+                int probeId = withProbes ? LabelInfo.getProbeId(label) : LabelInfo.NO_PROBE;
+                if (probeId == LabelInfo.NO_PROBE) {
+                    addJump(label);
+                } else {
+                    addProbe(probeId);
+                }
+            }
+
+            @Override
+            public void visitEnd() {
+                // 跳转在所有指令之后连接，和JaCoCo一样覆盖顺序执行得到的前驱
+                for (int i = 0; i < jumpSources.size(); i++) {
+                    Insn target = labelInsns.get(jumpTargets.get(i));
+                    if (target != null && jumpSources.get(i) != null) {
+                        target.predecessor = jumpSources.get(i);
+                    }
+                }
+                for (Map.Entry<Integer, Insn> probe : probeInsns.entrySet()) {
+                    int probeId = probe.getKey();
+                    boolean coversAny = false;
+                    boolean coversOnly = true;
+                    for (Insn insn = probe.getValue(); insn != null && insn.visitedBy != probeId; insn = insn.predecessor) {
+                        insn.visitedBy = probeId;
+                        if (insn.line == ISourceNode.UNKNOWN_LINE) {
+                            continue;
+                        }
+                        if (!carryLines.get(insn.line)) {
+                            coversOnly = false;
+                            break;
+                        }
+                        coversAny = true;
+                    }
+                    if (coversAny && coversOnly) {
+                        selected.set(probeId);
+                    }
+                }
+            }
+        }
+    }
+
+    private Path dumpDirectory(String appName, String clusterName, String tag) {
+        Path basePath = Paths.get(coverageConfig.getDumpDirectory(), appName);
+        return StringUtils.hasText(clusterName) ? basePath.resolve(clusterName).resolve(tag) : basePath.resolve(tag);
+    }
+
+    /**
+     * 沿用结果
+     */
+    public static class CarryForwardResult {
+        private String outputFile;
+        private int identicalClasses;   // 字节码未变、直接沿用探针的class
+        private int remappedClasses;    // 字节码有变化、按行映射沿用了部分探针的class
+        private int remappedProbes;
+        private int skippedClasses;     // 有可沿用的行但没有探针满足条件的class
+        private long durationMs;
+
+        public String getOutputFile() {
+            return outputFile;
+        }
+
+        public int getIdenticalClasses() {
+            return identicalClasses;
+        }
+
+        public int getRemappedClasses() {
+            return remappedClasses;
+        }
+
+        public int getRemappedProbes() {
+            return remappedProbes;
+        }
+
+        public int getSkippedClasses() {
+            return skippedClasses;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.runtime.WildcardMatcher;
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 从class目录、jar、war以及Spring Boot fat jar中读取class文件。
+ * 归档文件直接按entry读取，不再解压到磁盘；归档的entry索引按路径缓存，
+ * 文件的修改时间或大小变化时自动失效。fat jar/war中嵌套的依赖jar只在配置了includes时扫描，
+ * 且不包含任何匹配class的依赖jar会被整体跳过。class目录中的jar/war（如 lib/*.jar）与目录中的class一起读取。
+ */
+@Service
+public class ClassFileService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassFileService.class);
+
+    private static final int MAX_CACHED_ARCHIVES = 64;
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String[] APPLICATION_CLASS_PREFIXES = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+    private static final String[] LIBRARY_PREFIXES = {"BOOT-INF/lib/", "WEB-INF/lib/"};
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    private final Map<Path, ArchiveIndex> archiveIndexes = Collections.synchronizedMap(
+            new LinkedHashMap<Path, ArchiveIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, ArchiveIndex> eldest) {
+                    return size() > MAX_CACHED_ARCHIVES;
+                }
+            });
+
+    /**
+     * class文件回调
+     */
+    @FunctionalInterface
+    public interface ClassConsumer {
+        /**
+         * @param className class的内部名称，如 com/foo/Bar$1
+         * @param classBytes class文件内容
+         * @param location class所在位置，用于错误信息
+         */
+        void accept(String className, byte[] classBytes, String location) throws IOException;
+    }
+
+    /**
+     * 获取应用配置的class过滤规则
+     */
+    public ClassFilter filterFor(String appName) {
+        CoverageConfig.ClassFilterConfig config = coverageConfig.getClassFilterConfig(appName);
+        return new ClassFilter(config.getIncludes(), config.getExcludes(), config.isScanNestedLibraries());
+    }
+
+    /**
+     * 用JaCoCo Analyzer分析所有位置中匹配过滤规则的class
+     * @return 分析的class数量
+     */
+    public int analyzeAll(Analyzer analyzer, List<String> locations, ClassFilter filter) throws IOException {
+        return forEachClass(locations, filter, (className, classBytes, location) -> analyzer.analyzeClass(classBytes, location));
+    }
+
+    /**
+     * 遍历所有位置（class目录、单个class文件、jar/war/zip）中匹配过滤规则的class。
+     * 过滤器限定了class及其位置时直接读取这些位置，不再遍历locations
+     * @return 访问的class数量
+     */
+    public int forEachClass(List<String> locations, ClassFilter filter, ClassConsumer consumer) throws IOException {
+        if (filter.classLocations != null) {
+            return visitLocations(filter.classLocations, consumer);
+        }
+        int count = 0;
+        if (locations == null) {
+            return count;
+        }
+        for (String location : locations) {
+            File file = new File(location);
+            if (file.isDirectory()) {
+                count += visitDirectory(file.toPath(), filter, consumer);
+            } else if (file.isFile() && isArchive(file.getName())) {
+                count += visitArchive(file, filter, consumer);
+            } else if (file.isFile() && file.getName().endsWith(CLASS_SUFFIX)) {
+                byte[] classBytes = Files.readAllBytes(file.toPath());
+                String className = new ClassReader(classBytes).getClassName();
+                if (filter.matches(className)) {
+                    consumer.accept(className, classBytes, file.getPath());
+                    count++;
+                }
+            } else {
+                logger.warn("Class location not found, skipping: {}", location);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 判断文件名是否为支持的归档格式
+     */
+    public static boolean isArchive(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".jar") || lower.endsWith(".war") || lower.endsWith(".zip");
+    }
+
+    /**
+     * 遍历目录中的class文件和jar/war（如 lib/*.jar、展开的 WEB-INF/lib），与 Analyzer.analyzeAll 对目录的处理相同。
+     * class名称取自class文件本身，目录不是classpath根目录（如配置成模块目录）时过滤规则同样有效
+     */
+    private int visitDirectory(Path dir, ClassFilter filter, ClassConsumer consumer) throws IOException {
+        int count = 0;
+        int archives = 0;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            Iterator<Path> files = walk.filter(Files::isRegularFile).iterator();
+            while (files.hasNext()) {
+                Path file = files.next();
+                String fileName = file.getFileName().toString();
+                if (isArchive(fileName)) {
+                    count += visitArchive(file.toFile(), filter, consumer);
+                    archives++;
+                    continue;
+                }
+                if (!fileName.endsWith(CLASS_SUFFIX)) {
+                    continue;
+                }
+                String relative = dir.relativize(file).toString().replace(File.separatorChar, '/');
+                if (isSkipped(relative)) {
+                    continue;
+                }
+                byte[] classBytes = Files.readAllBytes(file);
+                String className = new ClassReader(classBytes).getClassName();
+                if (isSkipped(className) || !filter.matches(className)) {
+                    continue;
+                }
+                consumer.accept(className, classBytes, file.toString());
+                count++;
+            }
+        }
+        logger.debug("Visited {} classes in directory {} ({} archives)", count, dir, archives);
+        return count;
+    }
+
+    private int visitArchive(File archive, ClassFilter filter, ClassConsumer consumer) throws IOException {
+        ArchiveIndex index = indexFor(archive);
+        int count = 0;
+        int skippedLibraries = 0;
+        try (ZipFile zip = new ZipFile(archive)) {
+            for (ClassEntry classEntry : index.classEntries) {
+                if (!filter.matches(classEntry.className)) {
+                    continue;
+                }
+                ZipEntry entry = zip.getEntry(classEntry.entryName);
+                if (entry == null) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    consumer.accept(classEntry.className, StreamUtils.copyToByteArray(in), archive.getPath() + "@" + classEntry.entryName);
+                }
+                count++;
+            }
+            if (filter.scansLibraries()) {
+                for (NestedArchive library : index.libraries) {
+                    if (!library.mayContain(zip, filter)) {
+                        skippedLibraries++;
+                        continue;
+                    }
+                    count += visitNestedArchive(zip, library, filter, consumer, archive.getPath());
+                }
+            }
+        }
+        logger.debug("Visited {} classes in archive {}, skipped {} nested libraries without matching classes",
+                count, archive.getPath(), skippedLibraries);
+        return count;
+    }
+
+    private int visitNestedArchive(ZipFile zip, NestedArchive library, ClassFilter filter,
+                                   ClassConsumer consumer, String archivePath) throws IOException {
+        int count = 0;
+        ZipEntry libraryEntry = zip.getEntry(library.entryName);
+        if (libraryEntry == null) {
+            return count;
+        }
+        try (ZipInputStream in = new ZipInputStream(zip.getInputStream(libraryEntry))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(CLASS_SUFFIX) || isSkipped(name)) {
+                    continue;
+                }
+                String className = name.substring(0, name.length() - CLASS_SUFFIX.length());
+                if (filter.matches(className)) {
+                    consumer.accept(className, StreamUtils.copyToByteArray(in), archivePath + "@" + library.entryName + "@" + name);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 直接读取指定位置的class，位置即遍历时回调给出的location：class文件路径、归档@entry 或 归档@嵌套jar@entry。
+     * 同一归档只打开一次，同一嵌套jar只顺序读取一次
+     * @param classLocations class内部名称到位置的映射
+     */
+    private int visitLocations(Map<String, String> classLocations, ClassConsumer consumer) throws IOException {
+        Map<String, Map<String, String>> entriesByArchive = new LinkedHashMap<>();
+        int count = 0;
+        for (Map.Entry<String, String> classLocation : classLocations.entrySet()) {
+            String location = classLocation.getValue();
+            int separator = archiveSeparator(location);
+            if (separator >= 0) {
+                entriesByArchive.computeIfAbsent(location.substring(0, separator), k -> new LinkedHashMap<>())
+                        .put(location.substring(separator + 1), classLocation.getKey());
+                continue;
+            }
+            Path file = Paths.get(location);
+            if (!Files.isRegularFile(file)) {
+                logger.warn("Class file not found, skipping: {}", location);
+                continue;
+            }
+            consumer.accept(classLocation.getKey(), Files.readAllBytes(file), location);
+            count++;
+        }
+        for (Map.Entry<String, Map<String, String>> archive : entriesByArchive.entrySet()) {
+            count += visitArchiveEntries(new File(archive.getKey()), archive.getValue(), consumer);
+        }
+        return count;
+    }
+
+    private int visitArchiveEntries(File archive, Map<String, String> classNamesByEntry, ClassConsumer consumer) throws IOException {
+        if (!archive.isFile()) {
+            logger.warn("Class archive not found, skipping {} classes: {}", classNamesByEntry.size(), archive.getPath());
+            return 0;
+        }
+        int count = 0;
+        Map<String, Map<String, String>> entriesByLibrary = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive)) {
+            for (Map.Entry<String, String> classEntry : classNamesByEntry.entrySet()) {
+                String entryName = classEntry.getKey();
+                int separator = archiveSeparator(entryName);
+                if (separator >= 0) {
+                    entriesByLibrary.computeIfAbsent(entryName.substring(0, separator), k -> new HashMap<>())
+                            .put(entryName.substring(separator + 1), classEntry.getValue());
+                    continue;
+                }
+                ZipEntry entry = zip.getEntry(entryName);
+                if (entry == null) {
+                    logger.warn("Class entry not found, skipping: {}@{}", archive.getPath(), entryName);
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    consumer.accept(classEntry.getValue(), StreamUtils.copyToByteArray(in), archive.getPath() + "@" + entryName);
+                }
+                count++;
+            }
+            for (Map.Entry<String, Map<String, String>> library : entriesByLibrary.entrySet()) {
+                ZipEntry libraryEntry = zip.getEntry(library.getKey());
+                if (libraryEntry == null) {
+                    logger.warn("Nested library not found, skipping: {}@{}", archive.getPath(), library.getKey());
+                    continue;
+                }
+                Map<String, String> wanted = library.getValue();
+                try (ZipInputStream in = new ZipInputStream(zip.getInputStream(libraryEntry))) {
+                    ZipEntry entry;
+                    while (!wanted.isEmpty() && (entry = in.getNextEntry()) != null) {
+                        String className = wanted.remove(entry.getName());
+                        if (className != null) {
+                            consumer.accept(className, StreamUtils.copyToByteArray(in),
+                                    archive.getPath() + "@" + library.getKey() + "@" + entry.getName());
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * location中归档路径之后的@的位置，不是归档中的class时返回-1
+     */
+    private static int archiveSeparator(String location) {
+        for (int i = location.indexOf('@'); i >= 0; i = location.indexOf('@', i + 1)) {
+            if (isArchive(location.substring(0, i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取归档的entry索引，文件修改时间或大小变化后重新建立
+     */
+    private ArchiveIndex indexFor(File archive) throws IOException {
+        Path key = archive.toPath().toAbsolutePath().normalize();
+        long lastModified = archive.lastModified();
+        long size = archive.length();
+        ArchiveIndex index = archiveIndexes.get(key);
+        if (index != null && index.lastModified == lastModified && index.size == size) {
+            return index;
+        }
+        index = buildIndex(archive, lastModified, size);
+        archiveIndexes.put(key, index);
+        return index;
+    }
+
+    private static ArchiveIndex buildIndex(File archive, long lastModified, long size) throws IOException {
+        List<ZipEntry> entries = new ArrayList<>();
+        String applicationPrefix = null;
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> enumeration = zip.entries();
+            while (enumeration.hasMoreElements()) {
+                ZipEntry entry = enumeration.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                entries.add(entry);
+                if (applicationPrefix == null) {
+                    applicationPrefix = matchPrefix(entry.getName(), APPLICATION_CLASS_PREFIXES);
+                }
+            }
+        }
+
+        // fat jar/war只取BOOT-INF/classes、WEB-INF/classes下的应用class，普通jar取根目录下的所有class
+        List<ClassEntry> classEntries = new ArrayList<>();
+        List<NestedArchive> libraries = new ArrayList<>();
+        for (ZipEntry entry : entries) {
+            String name = entry.getName();
+            if (name.endsWith(CLASS_SUFFIX)) {
+                String prefix = applicationPrefix == null ? "" : matchPrefix(name, APPLICATION_CLASS_PREFIXES);
+                if (prefix != null) {
+                    String relative = name.substring(prefix.length());
+                    if (!isSkipped(relative)) {
+                        classEntries.add(new ClassEntry(name, relative.substring(0, relative.length() - CLASS_SUFFIX.length())));
+                    }
+                }
+            } else if (name.endsWith(".jar") && matchPrefix(name, LIBRARY_PREFIXES) != null) {
+                libraries.add(new NestedArchive(name));
+            }
+        }
+        logger.info("Indexed archive {}: {} application classes, {} nested libraries", archive.getPath(), classEntries.size(), libraries.size());
+        return new ArchiveIndex(lastModified, size, classEntries, libraries);
+    }
+
+    private static String matchPrefix(String entryName, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (entryName.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * module-info和多版本jar中的class不参与分析，否则会与主版本的同名class冲突
+     */
+    private static boolean isSkipped(String relativeName) {
+        return relativeName.startsWith("META-INF/") || relativeName.endsWith("module-info.class")
+                || relativeName.equals("module-info");
+    }
+
+    /**
+     * class过滤规则，语法与JaCoCo agent的includes/excludes相同
+     */
+    public static final class ClassFilter {
+        public static final ClassFilter ALL = new ClassFilter(null, null, false);
+
+        private final WildcardMatcher includes;
+        private final WildcardMatcher excludes;
+        private final boolean scanNestedLibraries;
+        private final Set<String> classNames; // 非null时只接受集合中的class（内部名称）
+        private final Map<String, String> classLocations; // 非null时直接读取这些位置的class，见 restrictTo
+
+        public ClassFilter(List<String> includes, List<String> excludes, boolean scanNestedLibraries) {
+            this(includes == null || includes.isEmpty() ? null : new WildcardMatcher(String.join(":", includes)),
+                    excludes == null || excludes.isEmpty() ? null : new WildcardMatcher(String.join(":", excludes)),
+                    scanNestedLibraries, null);
+        }
+
+        private ClassFilter(WildcardMatcher includes, WildcardMatcher excludes, boolean scanNestedLibraries,
+                            Map<String, String> classLocations) {
+            this.includes = includes;
+            this.excludes = excludes;
+            this.scanNestedLibraries = scanNestedLibraries;
+            this.classLocations = classLocations;
+            this.classNames = classLocations != null ? classLocations.keySet() : null;
+        }
+
+        /**
+         * 只读取指定的class，用于增量报告等只分析变更的class的场景，不再遍历class目录
+         * @param classLocations class内部名称到位置的映射，位置取自源文件/class索引（即遍历时回调给出的location）
+         */
+        public ClassFilter restrictTo(Map<String, String> classLocations) {
+            return new ClassFilter(includes, excludes, scanNestedLibraries,
+                    Collections.unmodifiableMap(new LinkedHashMap<>(classLocations)));
+        }
+
+        /**
+         * @param className class的内部名称（/分隔）
+         */
+        public boolean matches(String className) {
+            if (classNames != null && !classNames.contains(className)) {
+                return false;
+            }
+            if (includes == null && excludes == null) {
+                return true;
+            }
+            String name = className.replace('/', '.');
+            return (includes == null || includes.matches(name)) && (excludes == null || !excludes.matches(name));
+        }
+
+        /**
+         * 没有配置includes时不扫描嵌套依赖，否则会把所有第三方库都纳入分析
+         */
+        boolean scansLibraries() {
+            return scanNestedLibraries && includes != null;
+        }
+    }
+
+    private static final class ArchiveIndex {
+        private final long lastModified;
+        private final long size;
+        private final List<ClassEntry> classEntries;
+        private final List<NestedArchive> libraries;
+
+        ArchiveIndex(long lastModified, long size, List<ClassEntry> classEntries, List<NestedArchive> libraries) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.classEntries = classEntries;
+            this.libraries = libraries;
+        }
+    }
+
+    private static final class ClassEntry {
+        private final String entryName;
+        private final String className;
+
+        ClassEntry(String entryName, String className) {
+            this.entryName = entryName;
+            this.className = className;
+        }
+    }
+
+    /**
+     * 嵌套的依赖jar，class名称列表在第一次需要时读取并缓存
+     */
+    private static final class NestedArchive {
+        private final String entryName;
+        private volatile String[] classNames;
+
+        NestedArchive(String entryName) {
+            this.entryName = entryName;
+        }
+
+        boolean mayContain(ZipFile zip, ClassFilter filter) throws IOException {
+            for (String className : classNames(zip)) {
+                if (filter.matches(className)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String[] classNames(ZipFile zip) throws IOException {
+            String[] names = classNames;
+            if (names != null) {
+                return names;
+            }
+            synchronized (this) {
+                if (classNames == null) {
+                    List<String> found = new ArrayList<>();
+                    ZipEntry libraryEntry = zip.getEntry(entryName);
+                    if (libraryEntry != null) {
+                        try (ZipInputStream in = new ZipInputStream(zip.getInputStream(libraryEntry))) {
+                            ZipEntry entry;
+                            while ((entry = in.getNextEntry()) != null) {
+                                String name = entry.getName();
+                                if (!entry.isDirectory() && name.endsWith(CLASS_SUFFIX) && !isSkipped(name)) {
+                                    found.add(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+                                }
+                            }
+                        }
+                    }
+                    classNames = found.toArray(new String[0]);
+                }
+                return classNames;
+            }
+        }
+    }
+}
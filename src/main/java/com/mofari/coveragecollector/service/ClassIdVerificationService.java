@@ -0,0 +1,64 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.model.verification.ClassIdMismatch;
+import com.mofari.coveragecollector.model.verification.ClassIdVerification;
+import com.mofari.coveragecollector.util.Probes;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 校验dump中的classId与磁盘上class文件的CRC64是否一致。
+ * class文件与agent插桩时的版本不同时，JaCoCo分析会静默地把这些class的覆盖率算作0；
+ * 这里只遍历一次执行数据，在源文件/class索引中按class名称查找classId，不需要重新读取class文件。
+ */
+@Service
+public class ClassIdVerificationService {
+
+    /**
+     * @param executionDataStore 待校验的执行数据
+     * @param index 分析目录中class的索引（classId由class文件内容计算）
+     * @param filter 应用的class过滤规则，不匹配的class不参与校验
+     */
+    public ClassIdVerification verify(ExecutionDataStore executionDataStore, SourceClassIndexService.SourceClassIndex index,
+                                      ClassFileService.ClassFilter filter) {
+        long start = System.currentTimeMillis();
+        ClassIdVerification verification = new ClassIdVerification();
+        List<ClassIdMismatch> mismatches = verification.getMismatches();
+        for (ExecutionData data : executionDataStore.getContents()) {
+            if (!filter.matches(data.getName())) {
+                continue;
+            }
+            verification.setTotalClasses(verification.getTotalClasses() + 1);
+            if (index.containsClassId(data.getId())) {
+                verification.setMatchedClasses(verification.getMatchedClasses() + 1);
+                continue;
+            }
+            Long classFileId = index.getClassId(data.getName());
+            if (classFileId == null) {
+                verification.setUnknownClasses(verification.getUnknownClasses() + 1);
+                continue;
+            }
+            int hitProbes = Probes.countHits(data.getProbes());
+            ClassIdMismatch mismatch = new ClassIdMismatch();
+            mismatch.setClassName(data.getName());
+            mismatch.setSourcePath(index.getSourcePath(data.getName()));
+            mismatch.setExecClassId(Long.toHexString(data.getId()));
+            mismatch.setClassFileClassId(Long.toHexString(classFileId));
+            mismatch.setProbeCount(data.getProbes().length);
+            mismatch.setHitProbes(hitProbes);
+            mismatches.add(mismatch);
+            verification.setMismatchedClasses(verification.getMismatchedClasses() + 1);
+            if (hitProbes > 0) {
+                verification.setLostCoverageClasses(verification.getLostCoverageClasses() + 1);
+                verification.setLostHitProbes(verification.getLostHitProbes() + hitProbes);
+            }
+        }
+        mismatches.sort((a, b) -> b.getHitProbes() != a.getHitProbes()
+                ? Integer.compare(b.getHitProbes(), a.getHitProbes()) : a.getClassName().compareTo(b.getClassName()));
+        verification.setDurationMs(System.currentTimeMillis() - start);
+        return verification;
+    }
+}
@@ -0,0 +1,58 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.util.CollectionScope;
+import com.mofari.coveragecollector.util.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 执行节点dump等阻塞收集任务：虚拟线程模式下每个任务一个虚拟线程，否则使用固定大小的平台线程池。
+ * 任务通过 {@link #openScope()} 在带截止时间的 {@link CollectionScope} 内提交。
+ */
+@Component
+public class CollectionExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionExecutor.class);
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    private ExecutorService executor;
+
+    /**
+     * 打开一个收集作用域，截止时间为 coverage.threads.collection-timeout-seconds
+     */
+    public <T> CollectionScope<T> openScope() {
+        return new CollectionScope<>(getExecutor(), coverageConfig.getThreads().getCollectionTimeoutSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * 是否使用虚拟线程执行收集任务
+     */
+    public boolean isVirtual() {
+        return coverageConfig.getThreads().isVirtual() && VirtualThreads.isAvailable();
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            CoverageConfig.ThreadsConfig config = coverageConfig.getThreads();
+            executor = VirtualThreads.newExecutor(config.isVirtual(), "coverage-collect-", config.getCollectionThreads());
+            logger.info("收集任务使用{}", isVirtual() ? "虚拟线程" : config.getCollectionThreads() + " 个平台线程");
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
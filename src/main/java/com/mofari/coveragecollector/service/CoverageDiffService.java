@@ -0,0 +1,412 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.model.diff.ClassProbeDiff;
+import com.mofari.coveragecollector.model.diff.FileCoverageDiff;
+import com.mofari.coveragecollector.model.diff.FileLineMapping;
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+import com.mofari.coveragecollector.util.Probes;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 两个tag（或同一tag两次收集）之间的覆盖率差异，不生成报告。
+ * LINES 模式比较两份覆盖率快照的逐行覆盖位图，提供git引用时按diff的hunk把旧版本行号映射到新版本；
+ * PROBES 模式直接比较两份执行数据中classId相同的class的探针。结果按文件/class逐条流式输出JSON。
+ */
+@Service
+public class CoverageDiffService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageDiffService.class);
+
+    /**
+     * 比较方式
+     */
+    public enum Mode {
+        LINES,
+        PROBES
+    }
+
+    @Autowired
+    private ReportGeneratorService reportGeneratorService;
+
+    @Autowired
+    private ClassFileService classFileService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 准备比较所需的数据。快照分析、dump读取和git diff都在这里完成，出错时可以返回普通的错误响应；
+     * 之后由 {@link #write} 流式输出结果
+     * @param baseRef 旧版本的git引用（可选，与newRef同时指定时按diff映射行号，否则按相同行号比较）
+     * @param baseDumpFilePath 旧版本使用的dump文件（可选，默认为baseTag合并后的数据）
+     */
+    public CoverageDiff prepare(String appName, String clusterName, String baseTag, String newTag, String baseRef, String newRef,
+                                String baseDumpFilePath, String newDumpFilePath, Mode mode) throws IOException, InterruptedException {
+        if (StringUtils.hasText(baseRef) != StringUtils.hasText(newRef)) {
+            throw new IllegalArgumentException("baseRef和newRef需要同时指定");
+        }
+        long start = System.currentTimeMillis();
+        CoverageDiff diff = new CoverageDiff(appName, clusterName, baseTag, newTag, mode);
+        if (mode == Mode.PROBES) {
+            diff.baseData = reportGeneratorService.loadTagExecutionData(appName, clusterName, baseTag, baseDumpFilePath);
+            diff.newData = reportGeneratorService.loadTagExecutionData(appName, clusterName, newTag, newDumpFilePath);
+        } else {
+            diff.baseSnapshot = StringUtils.hasText(baseDumpFilePath)
+                    ? reportGeneratorService.analyzeDumpSnapshot(appName, clusterName, baseTag, baseDumpFilePath)
+                    : reportGeneratorService.getCoverageSnapshot(appName, clusterName, baseTag, null, true);
+            diff.newSnapshot = StringUtils.hasText(newDumpFilePath)
+                    ? reportGeneratorService.analyzeDumpSnapshot(appName, clusterName, newTag, newDumpFilePath)
+                    : reportGeneratorService.getCoverageSnapshot(appName, clusterName, newTag, null, true);
+            if (StringUtils.hasText(baseRef)) {
+                diff.lineMappings = reportGeneratorService.getLineMappings(appName, newTag, baseRef, newRef);
+                diff.lineMapping = true;
+            }
+        }
+        logger.info("Prepared {} coverage diff for app: {}, {} -> {} in {} ms", mode, appName, baseTag, newTag,
+                System.currentTimeMillis() - start);
+        return diff;
+    }
+
+    /**
+     * 把比较结果写为JSON：先写请求信息，再逐条写有变化的文件/class，最后写汇总
+     * @param includeUnchanged 是否输出没有变化的文件/class
+     */
+    public void write(CoverageDiff diff, boolean includeUnchanged, OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.writeStartObject();
+        generator.writeBooleanField("success", true);
+        generator.writeStringField("appName", diff.appName);
+        generator.writeStringField("clusterName", diff.clusterName);
+        generator.writeStringField("baseTag", diff.baseTag);
+        generator.writeStringField("newTag", diff.newTag);
+        generator.writeStringField("mode", diff.mode.name());
+        if (diff.mode == Mode.PROBES) {
+            writeProbeDiff(diff, includeUnchanged, generator);
+        } else {
+            generator.writeBooleanField("lineMapping", diff.lineMapping);
+            writeLineDiff(diff, includeUnchanged, generator);
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private void writeLineDiff(CoverageDiff diff, boolean includeUnchanged, JsonGenerator generator) throws IOException {
+        Map<String, FileLineMapping> mappingsByOld = new HashMap<>();
+        Map<String, FileLineMapping> mappingsByNew = new HashMap<>();
+        for (FileLineMapping mapping : diff.lineMappings) {
+            if (mapping.getOldPath() != null) {
+                mappingsByOld.put(mapping.getOldPath(), mapping);
+            }
+            if (mapping.getNewPath() != null) {
+                mappingsByNew.put(mapping.getNewPath(), mapping);
+            }
+        }
+
+        int filesCompared = 0;
+        int filesReported = 0;
+        int gainedLines = 0;
+        int lostLines = 0;
+        int newCodeLines = 0;
+        int newCodeCoveredLines = 0;
+        Set<String> matchedBasePaths = new HashSet<>();
+        generator.writeArrayFieldStart("files");
+        for (SourceFileSnapshot newFile : diff.newSnapshot.getFiles()) {
+            FileLineMapping mapping = mappingsByNew.get(newFile.getPath());
+            String basePath = mapping != null ? mapping.getOldPath() : newFile.getPath();
+            SourceFileSnapshot baseFile = basePath != null ? diff.baseSnapshot.getFile(basePath) : null;
+            if (baseFile != null) {
+                matchedBasePaths.add(basePath);
+            }
+            FileCoverageDiff fileDiff = diffFile(baseFile, newFile, mapping);
+            filesCompared++;
+            gainedLines += fileDiff.getGainedLines().size();
+            lostLines += fileDiff.getLostLines().size();
+            newCodeLines += fileDiff.getNewCodeLines();
+            newCodeCoveredLines += fileDiff.getNewCodeCoveredLines();
+            if (includeUnchanged || hasChanges(fileDiff)) {
+                generator.writeObject(fileDiff);
+                filesReported++;
+            }
+        }
+        for (SourceFileSnapshot baseFile : diff.baseSnapshot.getFiles()) {
+            if (matchedBasePaths.contains(baseFile.getPath())) {
+                continue;
+            }
+            FileCoverageDiff fileDiff = diffFile(baseFile, null, mappingsByOld.get(baseFile.getPath()));
+            filesCompared++;
+            generator.writeObject(fileDiff);
+            filesReported++;
+        }
+        generator.writeEndArray();
+
+        generator.writeObjectFieldStart("summary");
+        generator.writeNumberField("filesCompared", filesCompared);
+        generator.writeNumberField("filesReported", filesReported);
+        generator.writeObjectField("baseLines", diff.baseSnapshot.getLines());
+        generator.writeObjectField("newLines", diff.newSnapshot.getLines());
+        generator.writeNumberField("lineCoverageDelta",
+                round(diff.newSnapshot.getLines().getPercentage() - diff.baseSnapshot.getLines().getPercentage()));
+        generator.writeNumberField("gainedLines", gainedLines);
+        generator.writeNumberField("lostLines", lostLines);
+        generator.writeNumberField("newCodeLines", newCodeLines);
+        generator.writeNumberField("newCodeCoveredLines", newCodeCoveredLines);
+        generator.writeEndObject();
+    }
+
+    /**
+     * 比较一个文件两侧的覆盖位图。旧版本的行先映射到新版本行号，被修改或删除的行不参与比较
+     * @param baseFile 旧版本文件，新增文件为null
+     * @param newFile 新版本文件，删除文件为null
+     * @param mapping 行号映射，文件没有变化时为null
+     */
+    static FileCoverageDiff diffFile(SourceFileSnapshot baseFile, SourceFileSnapshot newFile, FileLineMapping mapping) {
+        BitSet mappedExecutable = new BitSet();
+        BitSet mappedCovered = new BitSet();
+        if (baseFile != null) {
+            for (int i = 0; i < baseFile.getLineCount(); i++) {
+                int line = mapping != null ? mapping.toNewLine(baseFile.getLineNumber(i)) : baseFile.getLineNumber(i);
+                if (line < 0) {
+                    continue;
+                }
+                mappedExecutable.set(line);
+                if (baseFile.getCoveredInstructions(i) > 0) {
+                    mappedCovered.set(line);
+                }
+            }
+        }
+        BitSet newExecutable = new BitSet();
+        BitSet newCovered = new BitSet();
+        int newCodeLines = 0;
+        int newCodeCoveredLines = 0;
+        if (newFile != null) {
+            for (int i = 0; i < newFile.getLineCount(); i++) {
+                int line = newFile.getLineNumber(i);
+                boolean covered = newFile.getCoveredInstructions(i) > 0;
+                newExecutable.set(line);
+                if (covered) {
+                    newCovered.set(line);
+                }
+                if (baseFile == null || (mapping != null && mapping.isChangedInNew(line))) {
+                    newCodeLines++;
+                    if (covered) {
+                        newCodeCoveredLines++;
+                    }
+                }
+            }
+        }
+
+        BitSet gained = (BitSet) newCovered.clone();
+        gained.and(mappedExecutable);
+        gained.andNot(mappedCovered);
+        BitSet lost = (BitSet) mappedCovered.clone();
+        lost.and(newExecutable);
+        lost.andNot(newCovered);
+
+        FileCoverageDiff fileDiff = new FileCoverageDiff();
+        fileDiff.setPath(newFile != null ? newFile.getPath() : baseFile.getPath());
+        if (baseFile != null && newFile != null && !baseFile.getPath().equals(newFile.getPath())) {
+            fileDiff.setBasePath(baseFile.getPath());
+        }
+        if (baseFile == null) {
+            fileDiff.setStatus(FileCoverageDiff.STATUS_ADDED);
+        } else if (newFile == null) {
+            fileDiff.setStatus(FileCoverageDiff.STATUS_REMOVED);
+        } else if (mapping != null) {
+            fileDiff.setStatus(FileCoverageDiff.STATUS_MODIFIED);
+        } else {
+            fileDiff.setStatus(FileCoverageDiff.STATUS_UNCHANGED);
+        }
+        CoverageCounter baseLines = baseFile != null ? baseFile.getLines() : new CoverageCounter();
+        CoverageCounter newLines = newFile != null ? newFile.getLines() : new CoverageCounter();
+        fileDiff.setBaseLines(baseLines);
+        fileDiff.setNewLines(newLines);
+        fileDiff.setLineCoverageDelta(round(newLines.getPercentage() - baseLines.getPercentage()));
+        fileDiff.setGainedLines(toList(gained));
+        fileDiff.setLostLines(toList(lost));
+        fileDiff.setNewCodeLines(newCodeLines);
+        fileDiff.setNewCodeCoveredLines(newCodeCoveredLines);
+        return fileDiff;
+    }
+
+    private static boolean hasChanges(FileCoverageDiff fileDiff) {
+        return !FileCoverageDiff.STATUS_UNCHANGED.equals(fileDiff.getStatus())
+                || !fileDiff.getGainedLines().isEmpty() || !fileDiff.getLostLines().isEmpty()
+                || fileDiff.getBaseLines().getCovered() != fileDiff.getNewLines().getCovered()
+                || fileDiff.getBaseLines().getMissed() != fileDiff.getNewLines().getMissed();
+    }
+
+    private void writeProbeDiff(CoverageDiff diff, boolean includeUnchanged, JsonGenerator generator) throws IOException {
+        ClassFileService.ClassFilter filter = classFileService.filterFor(diff.appName);
+        Map<String, ExecutionData> baseByName = new HashMap<>();
+        for (ExecutionData data : diff.baseData.getContents()) {
+            baseByName.put(data.getName(), data);
+        }
+        List<ExecutionData> newContents = new ArrayList<>(diff.newData.getContents());
+        newContents.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        int classesCompared = 0;
+        int classesReported = 0;
+        long gainedProbes = 0;
+        long lostProbes = 0;
+        Set<String> seenNames = new HashSet<>();
+        generator.writeArrayFieldStart("classes");
+        for (ExecutionData newData : newContents) {
+            if (!filter.matches(newData.getName())) {
+                continue;
+            }
+            seenNames.add(newData.getName());
+            ExecutionData baseData = diff.baseData.get(newData.getId());
+            if (baseData == null) {
+                baseData = baseByName.get(newData.getName());
+            }
+            ClassProbeDiff classDiff = diffClass(baseData, newData);
+            classesCompared++;
+            gainedProbes += classDiff.getGainedProbes();
+            lostProbes += classDiff.getLostProbes();
+            if (includeUnchanged || hasChanges(classDiff)) {
+                generator.writeObject(classDiff);
+                classesReported++;
+            }
+        }
+        List<ExecutionData> removed = new ArrayList<>();
+        for (ExecutionData baseData : diff.baseData.getContents()) {
+            if (!seenNames.contains(baseData.getName()) && filter.matches(baseData.getName())) {
+                removed.add(baseData);
+            }
+        }
+        removed.sort((a, b) -> a.getName().compareTo(b.getName()));
+        for (ExecutionData baseData : removed) {
+            ClassProbeDiff classDiff = diffClass(baseData, null);
+            classesCompared++;
+            if (includeUnchanged || hasChanges(classDiff)) {
+                generator.writeObject(classDiff);
+                classesReported++;
+            }
+        }
+        generator.writeEndArray();
+
+        generator.writeObjectFieldStart("summary");
+        generator.writeNumberField("classesCompared", classesCompared);
+        generator.writeNumberField("classesReported", classesReported);
+        generator.writeNumberField("gainedProbes", gainedProbes);
+        generator.writeNumberField("lostProbes", lostProbes);
+        generator.writeEndObject();
+    }
+
+    /**
+     * 比较一个class两侧的探针；classId不同时class已修改，探针位置没有对应关系，只统计各自的命中数
+     */
+    static ClassProbeDiff diffClass(ExecutionData baseData, ExecutionData newData) {
+        ClassProbeDiff classDiff = new ClassProbeDiff();
+        ExecutionData named = newData != null ? newData : baseData;
+        classDiff.setClassName(named.getName());
+        classDiff.setProbeCount(named.getProbes().length);
+        if (baseData != null) {
+            classDiff.setBaseClassId(Long.toHexString(baseData.getId()));
+            classDiff.setBaseCoveredProbes(Probes.countHits(baseData.getProbes()));
+        }
+        if (newData != null) {
+            classDiff.setNewClassId(Long.toHexString(newData.getId()));
+            classDiff.setNewCoveredProbes(Probes.countHits(newData.getProbes()));
+        }
+        if (baseData == null) {
+            classDiff.setStatus(ClassProbeDiff.STATUS_ADDED);
+        } else if (newData == null) {
+            classDiff.setStatus(ClassProbeDiff.STATUS_REMOVED);
+        } else if (baseData.getId() != newData.getId()) {
+            classDiff.setStatus(ClassProbeDiff.STATUS_CHANGED);
+        } else {
+            classDiff.setStatus(ClassProbeDiff.STATUS_UNCHANGED);
+            boolean[] baseProbes = baseData.getProbes();
+            boolean[] newProbes = newData.getProbes();
+            int gained = 0;
+            int lost = 0;
+            for (int i = 0; i < newProbes.length; i++) {
+                if (newProbes[i] != baseProbes[i]) {
+                    if (newProbes[i]) {
+                        gained++;
+                    } else {
+                        lost++;
+                    }
+                }
+            }
+            classDiff.setGainedProbes(gained);
+            classDiff.setLostProbes(lost);
+        }
+        return classDiff;
+    }
+
+    private static boolean hasChanges(ClassProbeDiff classDiff) {
+        if (ClassProbeDiff.STATUS_UNCHANGED.equals(classDiff.getStatus())) {
+            return classDiff.getGainedProbes() > 0 || classDiff.getLostProbes() > 0;
+        }
+        // 两侧都没有命中的新增/删除/修改class只是加载了，不算覆盖率变化
+        return classDiff.getBaseCoveredProbes() > 0 || classDiff.getNewCoveredProbes() > 0;
+    }
+
+
+    private static List<Integer> toList(BitSet lines) {
+        if (lines.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Integer> list = new ArrayList<>(lines.cardinality());
+        for (int line = lines.nextSetBit(0); line >= 0; line = lines.nextSetBit(line + 1)) {
+            list.add(line);
+        }
+        return list;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    /**
+     * 准备好的比较数据
+     */
+    public static class CoverageDiff {
+        private final String appName;
+        private final String clusterName;
+        private final String baseTag;
+        private final String newTag;
+        private final Mode mode;
+        private CoverageSnapshot baseSnapshot;
+        private CoverageSnapshot newSnapshot;
+        private List<FileLineMapping> lineMappings = Collections.emptyList();
+        private boolean lineMapping;
+        private ExecutionDataStore baseData;
+        private ExecutionDataStore newData;
+
+        CoverageDiff(String appName, String clusterName, String baseTag, String newTag, Mode mode) {
+            this.appName = appName;
+            this.clusterName = clusterName;
+            this.baseTag = baseTag;
+            this.newTag = newTag;
+            this.mode = mode;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.incremental.FileCoverage;
+import com.mofari.coveragecollector.model.incremental.FileCoverageSummary;
+import com.mofari.coveragecollector.model.incremental.IncrementalCoverageReport;
+import com.mofari.coveragecollector.model.incremental.LineCoverageDetail;
+import com.mofari.coveragecollector.model.incremental.LineCoverageStatus;
+import com.mofari.coveragecollector.model.incremental.OverallCoverageStats;
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import com.mofari.coveragecollector.util.CoverageSnapshotCodec;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ILine;
+import org.jacoco.core.analysis.IPackageCoverage;
+import org.jacoco.core.analysis.ISourceFileCoverage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 覆盖率快照的生成、持久化和查询。
+ * 完整分析后把每个源文件、每一行的计数器保存为二进制快照（索引目录下 app/[cluster/]tag/coverage-snapshot.bin），
+ * 之后按文件、包、行范围的查询以及增量报告都直接读取快照，不再重新加载dump和分析class。
+ */
+@Service
+public class CoverageSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageSnapshotService.class);
+
+    private static final String SNAPSHOT_FILE_NAME = "coverage-snapshot.bin";
+    private static final int MAX_CACHED_SNAPSHOTS = 16;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private CoverageTrendService coverageTrendService;
+
+    private final Map<String, CoverageSnapshot> snapshots = Collections.synchronizedMap(
+            new LinkedHashMap<String, CoverageSnapshot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CoverageSnapshot> eldest) {
+                    return size() > MAX_CACHED_SNAPSHOTS;
+                }
+            });
+
+    /**
+     * 查找仍然有效的快照
+     * @param dumpFingerprint 当前dump数据的指纹
+     * @param classStamp 当前class文件的修改戳
+     * @return 指纹和修改戳都一致的快照，没有时返回null
+     */
+    public CoverageSnapshot find(String appName, String clusterName, String tag, String dumpFingerprint, String classStamp) {
+        String key = cacheKey(appName, clusterName, tag);
+        CoverageSnapshot snapshot = snapshots.get(key);
+        if (snapshot == null) {
+            snapshot = load(appName, clusterName, tag);
+            if (snapshot != null) {
+                snapshots.put(key, snapshot);
+            }
+        }
+        if (snapshot != null && dumpFingerprint.equals(snapshot.getDumpFingerprint())
+                && classStamp.equals(snapshot.getClassStamp())) {
+            return snapshot;
+        }
+        return null;
+    }
+
+    /**
+     * 根据分析结果生成快照并持久化
+     * @param reportPath 同时生成的完整报告目录，没有时传null
+     */
+    public CoverageSnapshot save(String appName, String clusterName, String tag, String dumpFingerprint, String classStamp,
+                                 IBundleCoverage bundle, String reportPath) {
+        long start = System.currentTimeMillis();
+        CoverageSnapshot snapshot = build(bundle);
+        snapshot.setAppName(appName);
+        snapshot.setClusterName(clusterName);
+        snapshot.setTag(tag);
+        snapshot.setDumpFingerprint(dumpFingerprint);
+        snapshot.setClassStamp(classStamp);
+        snapshot.setReportPath(reportPath);
+        snapshot.setCreatedAt(System.currentTimeMillis());
+
+        File file = snapshotFile(appName, clusterName, tag).toFile();
+        try {
+            AtomicFileWriter.write(file, out -> CoverageSnapshotCodec.write(snapshot, out));
+            logger.info("Coverage snapshot for {}/{}/{} saved: {} files, {} bytes in {} ms", appName, clusterName, tag,
+                    snapshot.getFiles().size(), file.length(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            // 快照只是加速手段，写入失败时仍然返回内存中的结果
+            logger.warn("Failed to persist coverage snapshot {}", file.getAbsolutePath(), e);
+        }
+        snapshots.put(cacheKey(appName, clusterName, tag), snapshot);
+        coverageTrendService.record(snapshot, reportPath != null ? "REPORT" : "SNAPSHOT");
+        return snapshot;
+    }
+
+    /**
+     * 用快照中的行数据计算增量覆盖率，统计规则与解析JaCoCo XML时相同
+     * @param changedLinesMap 变更文件（包路径形式）到变更行号的映射
+     * @return 只包含files和overallStats的增量报告
+     */
+    public IncrementalCoverageReport filterChangedLines(CoverageSnapshot snapshot, Map<String, Set<Integer>> changedLinesMap) {
+        IncrementalCoverageReport report = new IncrementalCoverageReport();
+        List<FileCoverage> fileCoverages = new ArrayList<>();
+        OverallCoverageStats overallStats = new OverallCoverageStats();
+
+        for (Map.Entry<String, Set<Integer>> entry : changedLinesMap.entrySet()) {
+            SourceFileSnapshot file = snapshot.getFile(entry.getKey());
+            if (file == null) {
+                continue;
+            }
+            Set<Integer> changedLinesInFile = entry.getValue();
+            FileCoverage fileCoverage = new FileCoverage(entry.getKey());
+            FileCoverageSummary fileSummary = new FileCoverageSummary();
+            fileSummary.setTotalChangedLinesInFile(changedLinesInFile.size());
+
+            for (int i = 0; i < file.getLineCount(); i++) {
+                int lineNumber = file.getLineNumber(i);
+                if (!changedLinesInFile.contains(lineNumber)) {
+                    continue;
+                }
+                int missedInstructions = file.getMissedInstructions(i);
+                int coveredInstructions = file.getCoveredInstructions(i);
+                LineCoverageDetail lineDetail = new LineCoverageDetail(lineNumber);
+                lineDetail.setMissedInstructions(missedInstructions);
+                lineDetail.setCoveredInstructions(coveredInstructions);
+                LineCoverageStatus status = toLineStatus(missedInstructions, coveredInstructions);
+                lineDetail.setStatus(status);
+                if (status == LineCoverageStatus.COVERED) {
+                    fileSummary.incrementCovered();
+                    overallStats.incrementCoveredLines();
+                } else if (status == LineCoverageStatus.PARTIALLY_COVERED) {
+                    fileSummary.incrementPartiallyCovered();
+                    overallStats.incrementPartiallyCoveredLines();
+                } else {
+                    fileSummary.incrementNotCovered();
+                    overallStats.incrementUncoveredLines();
+                }
+                overallStats.incrementChangedLines();
+                fileCoverage.addChangedLineDetail(lineDetail);
+            }
+            if (!fileCoverage.getChangedLineDetails().isEmpty()) {
+                fileCoverage.setSummary(fileSummary);
+                fileCoverages.add(fileCoverage);
+            }
+        }
+        fileCoverages.sort((a, b) -> a.getFilePath().compareTo(b.getFilePath()));
+        report.setFiles(fileCoverages);
+        report.setOverallStats(overallStats);
+        return report;
+    }
+
+    /**
+     * 行的覆盖状态：指令全部覆盖为COVERED，部分覆盖为PARTIALLY_COVERED，否则为NOT_COVERED
+     */
+    public static LineCoverageStatus toLineStatus(int missedInstructions, int coveredInstructions) {
+        if (missedInstructions == 0 && coveredInstructions > 0) {
+            return LineCoverageStatus.COVERED;
+        } else if (missedInstructions > 0 && coveredInstructions > 0) {
+            return LineCoverageStatus.PARTIALLY_COVERED;
+        }
+        return LineCoverageStatus.NOT_COVERED;
+    }
+
+    static CoverageSnapshot build(IBundleCoverage bundle) {
+        CoverageSnapshot snapshot = new CoverageSnapshot();
+        snapshot.setInstructions(toCounter(bundle.getInstructionCounter()));
+        snapshot.setBranches(toCounter(bundle.getBranchCounter()));
+        snapshot.setLines(toCounter(bundle.getLineCounter()));
+        snapshot.setMethods(toCounter(bundle.getMethodCounter()));
+        for (IPackageCoverage packageCoverage : bundle.getPackages()) {
+            for (ISourceFileCoverage sourceFile : packageCoverage.getSourceFiles()) {
+                snapshot.addFile(toFileSnapshot(sourceFile));
+            }
+        }
+        return snapshot;
+    }
+
+    private static SourceFileSnapshot toFileSnapshot(ISourceFileCoverage sourceFile) {
+        int firstLine = sourceFile.getFirstLine();
+        int lastLine = sourceFile.getLastLine();
+        int lineCount = 0;
+        if (firstLine != ISourceFileCoverage.UNKNOWN_LINE) {
+            for (int nr = firstLine; nr <= lastLine; nr++) {
+                if (sourceFile.getLine(nr).getStatus() != ICounter.EMPTY) {
+                    lineCount++;
+                }
+            }
+        }
+        int[] lineNumbers = new int[lineCount];
+        byte[] statuses = new byte[lineCount];
+        int[] missedInstructions = new int[lineCount];
+        int[] coveredInstructions = new int[lineCount];
+        int[] missedBranches = new int[lineCount];
+        int[] coveredBranches = new int[lineCount];
+        int i = 0;
+        for (int nr = firstLine; i < lineCount; nr++) {
+            ILine line = sourceFile.getLine(nr);
+            if (line.getStatus() == ICounter.EMPTY) {
+                continue;
+            }
+            lineNumbers[i] = nr;
+            statuses[i] = (byte) line.getStatus();
+            missedInstructions[i] = line.getInstructionCounter().getMissedCount();
+            coveredInstructions[i] = line.getInstructionCounter().getCoveredCount();
+            missedBranches[i] = line.getBranchCounter().getMissedCount();
+            coveredBranches[i] = line.getBranchCounter().getCoveredCount();
+            i++;
+        }
+        return new SourceFileSnapshot(sourceFile.getPackageName(), sourceFile.getName(),
+                toCounter(sourceFile.getInstructionCounter()), toCounter(sourceFile.getBranchCounter()),
+                toCounter(sourceFile.getLineCounter()), toCounter(sourceFile.getMethodCounter()),
+                lineNumbers, statuses, missedInstructions, coveredInstructions, missedBranches, coveredBranches);
+    }
+
+    private static CoverageCounter toCounter(ICounter counter) {
+        return new CoverageCounter(counter.getMissedCount(), counter.getCoveredCount());
+    }
+
+    private CoverageSnapshot load(String appName, String clusterName, String tag) {
+        File file = snapshotFile(appName, clusterName, tag).toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE)) {
+            return CoverageSnapshotCodec.read(in);
+        } catch (IOException e) {
+            logger.warn("Failed to read coverage snapshot {}, it will be rebuilt", file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private Path snapshotFile(String appName, String clusterName, String tag) {
+        Path basePath = Paths.get(coverageConfig.getIndexDirectory(), appName);
+        Path tagPath = StringUtils.hasText(clusterName) ? basePath.resolve(clusterName).resolve(tag) : basePath.resolve(tag);
+        return tagPath.resolve(SNAPSHOT_FILE_NAME);
+    }
+
+    private static String cacheKey(String appName, String clusterName, String tag) {
+        return appName + "/" + (clusterName != null ? clusterName : "") + "/" + tag;
+    }
+}
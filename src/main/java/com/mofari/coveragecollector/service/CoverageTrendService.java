@@ -0,0 +1,171 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+import com.mofari.coveragecollector.model.trend.CoverageTrendPoint;
+import com.mofari.coveragecollector.util.CoverageTrendLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 覆盖率趋势存储。
+ * 每个应用的每个集群/tag一个追加写日志文件（趋势目录下 app/[cluster/]tag/coverage-trend.log），
+ * 每生成一次快照追加一帧，包含应用、每个包和每个文件的计数器；查询时按时间范围读取并按需降采样。
+ */
+@Service
+public class CoverageTrendService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoverageTrendService.class);
+
+    private static final String TREND_FILE_NAME = "coverage-trend.log";
+
+    /**
+     * 趋势的范围
+     */
+    public enum Scope {
+        APP(CoverageTrendLog.SCOPE_APP),
+        PACKAGE(CoverageTrendLog.SCOPE_PACKAGE),
+        FILE(CoverageTrendLog.SCOPE_FILE);
+
+        private final byte code;
+
+        Scope(byte code) {
+            this.code = code;
+        }
+    }
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    // 每个趋势文件最后一次记录时的dump指纹，数据没有变化时不重复记录
+    private final Map<String, String> lastRecordedFingerprints = new ConcurrentHashMap<>();
+    private final Map<String, Object> fileLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 记录快照的计数器，写入失败只记录日志
+     * @param source 数据点来源，如 REPORT、SNAPSHOT
+     */
+    public void record(CoverageSnapshot snapshot, String source) {
+        CoverageConfig.TrendConfig config = coverageConfig.getTrend();
+        if (!config.isEnabled()) {
+            return;
+        }
+        File file = trendFile(snapshot.getAppName(), snapshot.getClusterName(), snapshot.getTag()).toFile();
+        String key = file.getAbsolutePath();
+        String fingerprint = snapshot.getDumpFingerprint() + "|" + snapshot.getClassStamp();
+
+        List<CoverageTrendLog.Entry> entries = new ArrayList<>();
+        entries.add(new CoverageTrendLog.Entry(CoverageTrendLog.SCOPE_APP, "", snapshot.getInstructions(),
+                snapshot.getBranches(), snapshot.getLines(), snapshot.getMethods()));
+        for (String packageName : snapshot.getPackageNames()) {
+            CoverageCounter instructions = new CoverageCounter();
+            CoverageCounter branches = new CoverageCounter();
+            CoverageCounter lines = new CoverageCounter();
+            CoverageCounter methods = new CoverageCounter();
+            for (SourceFileSnapshot packageFile : snapshot.getPackageFiles(packageName)) {
+                instructions.add(packageFile.getInstructions());
+                branches.add(packageFile.getBranches());
+                lines.add(packageFile.getLines());
+                methods.add(packageFile.getMethods());
+            }
+            entries.add(new CoverageTrendLog.Entry(CoverageTrendLog.SCOPE_PACKAGE, packageName, instructions, branches, lines, methods));
+        }
+        if (config.isRecordFiles()) {
+            for (SourceFileSnapshot sourceFile : snapshot.getFiles()) {
+                entries.add(new CoverageTrendLog.Entry(CoverageTrendLog.SCOPE_FILE, sourceFile.getPath(), sourceFile.getInstructions(),
+                        sourceFile.getBranches(), sourceFile.getLines(), sourceFile.getMethods()));
+            }
+        }
+
+        synchronized (fileLocks.computeIfAbsent(key, k -> new Object())) {
+            if (fingerprint.equals(lastRecordedFingerprints.get(key))) {
+                logger.debug("Coverage data unchanged since last trend point, skipping: {}", key);
+                return;
+            }
+            try {
+                CoverageTrendLog.append(file, snapshot.getCreatedAt(), source, entries);
+                lastRecordedFingerprints.put(key, fingerprint);
+                logger.debug("Appended coverage trend point with {} entries to {}", entries.size(), key);
+            } catch (IOException e) {
+                logger.warn("Failed to append coverage trend point to {}", key, e);
+            }
+        }
+    }
+
+    /**
+     * 查询时间范围内的趋势
+     * @param scope 范围
+     * @param name 包名（com/foo 或 com.foo）或文件路径（com/foo/Bar.java），应用范围忽略
+     * @param from 起始时间戳（毫秒，包含），null表示不限
+     * @param to 结束时间戳（毫秒，包含），null表示不限
+     * @param maxPoints 最多返回的点数，超过时按时间均匀分桶，每桶取最后一个点
+     */
+    public TrendQueryResult query(String appName, String clusterName, String tag, Scope scope, String name,
+                                  Long from, Long to, int maxPoints) throws IOException {
+        String scopeName = scope == Scope.APP ? "" : (scope == Scope.PACKAGE ? name.replace('.', '/') : name);
+        List<CoverageTrendPoint> points = new ArrayList<>();
+        CoverageTrendLog.read(trendFile(appName, clusterName, tag).toFile(), scope.code, scopeName,
+                from != null ? from : Long.MIN_VALUE, to != null ? to : Long.MAX_VALUE, points);
+        points.sort((a, b) -> Long.compare(a.getTimestamp(), b.getTimestamp()));
+        return new TrendQueryResult(points.size(), downsample(points, maxPoints));
+    }
+
+    static List<CoverageTrendPoint> downsample(List<CoverageTrendPoint> points, int maxPoints) {
+        if (maxPoints <= 0 || points.size() <= maxPoints) {
+            return points;
+        }
+        long first = points.get(0).getTimestamp();
+        long span = points.get(points.size() - 1).getTimestamp() - first + 1;
+        TreeMap<Long, CoverageTrendPoint> buckets = new TreeMap<>();
+        for (CoverageTrendPoint point : points) {
+            long bucket = (long) ((double) (point.getTimestamp() - first) / span * maxPoints);
+            buckets.put(bucket, point); // 按时间升序遍历，桶中保留最后一个点
+        }
+        return new ArrayList<>(buckets.values());
+    }
+
+    private Path trendFile(String appName, String clusterName, String tag) {
+        Path basePath = Paths.get(coverageConfig.getTrend().getDirectory(), appName);
+        Path tagPath = StringUtils.hasText(clusterName) ? basePath.resolve(clusterName).resolve(tag) : basePath.resolve(tag);
+        return tagPath.resolve(TREND_FILE_NAME);
+    }
+
+    /**
+     * 查询结果
+     */
+    public static class TrendQueryResult {
+        private final int totalPoints;
+        private final List<CoverageTrendPoint> points;
+
+        public TrendQueryResult(int totalPoints, List<CoverageTrendPoint> points) {
+            this.totalPoints = totalPoints;
+            this.points = points;
+        }
+
+        /**
+         * @return 降采样前时间范围内的点数
+         */
+        public int getTotalPoints() {
+            return totalPoints;
+        }
+
+        public List<CoverageTrendPoint> getPoints() {
+            return points;
+        }
+    }
+}
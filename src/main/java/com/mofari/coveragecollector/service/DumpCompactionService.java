@@ -0,0 +1,289 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.DumpFileInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * dump文件自动保留与压缩。
+ * 定期把每个tag下较旧的原始dump合并为一个checkpoint文件，清理多余的合并文件，
+ * 并按应用执行磁盘预算，避免dump目录无限增长、合并输入越来越多。
+ */
+@Service
+public class DumpCompactionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DumpCompactionService.class);
+    private static final String TIMESTAMP_FORMAT = "yyyyMMdd_HHmmss_SSS";
+    private static final int MAX_TAG_DEPTH = 3; // app/tag 或 app/cluster/tag
+    private static final long LOCK_TIMEOUT_SECONDS = 30;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private DumpIndexService dumpIndexService;
+
+    @Autowired
+    private DumpMergeService dumpMergeService;
+
+    @Autowired
+    private TagLockManager tagLockManager;
+
+    /**
+     * 定时对所有应用执行保留策略
+     */
+    @Scheduled(initialDelayString = "${coverage.retention.initial-delay-ms:300000}",
+               fixedDelayString = "${coverage.retention.interval-ms:600000}")
+    public void compactAll() {
+        Path dumpRoot = Paths.get(coverageConfig.getDumpDirectory());
+        File[] appDirs = dumpRoot.toFile().listFiles(File::isDirectory);
+        if (appDirs == null) {
+            return;
+        }
+        for (File appDir : appDirs) {
+            try {
+                compactApplication(appDir.getName());
+            } catch (Exception e) {
+                logger.error("Dump compaction failed for app: {}", appDir.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 对单个应用执行保留策略
+     * @param appName 应用名称
+     * @return 压缩结果统计
+     */
+    public CompactionResult compactApplication(String appName) throws IOException {
+        CompactionResult result = new CompactionResult(appName);
+        CoverageConfig.RetentionConfig policy = coverageConfig.getRetentionConfig(appName);
+        if (!policy.isEnabled()) {
+            return result;
+        }
+        Path appDir = Paths.get(coverageConfig.getDumpDirectory(), appName);
+        List<Path> tagDirs = findTagDirectories(appDir);
+        for (Path tagDir : tagDirs) {
+            compactTag(tagDir, policy.getKeepRawFiles(), policy.getKeepMergedFiles(), policy.getMaxAgeHours(), result);
+        }
+
+        // 超出应用磁盘预算时，按tag从旧到新收紧：只保留最新一个合并文件，原始dump除每个节点最新的一个外全部折叠进checkpoint
+        if (policy.getMaxBytesPerApp() > 0) {
+            long usedBytes = totalBytes(tagDirs);
+            if (usedBytes > policy.getMaxBytesPerApp()) {
+                tagDirs.sort(Comparator.comparing(this::latestTimestamp));
+                for (Path tagDir : tagDirs) {
+                    compactTag(tagDir, 0, 1, 0, result);
+                    usedBytes = totalBytes(tagDirs);
+                    if (usedBytes <= policy.getMaxBytesPerApp()) {
+                        break;
+                    }
+                }
+                if (usedBytes > policy.getMaxBytesPerApp()) {
+                    logger.warn("Dump directory of app {} still uses {} bytes after compaction, budget is {} bytes",
+                            appName, usedBytes, policy.getMaxBytesPerApp());
+                }
+            }
+        }
+        result.setTagCount(tagDirs.size());
+        if (result.getFoldedFiles() > 0 || result.getDeletedMergedFiles() > 0) {
+            logger.info("Dump compaction for app {}: folded {} raw dumps into {} checkpoints, deleted {} merged files",
+                    appName, result.getFoldedFiles(), result.getCheckpoints(), result.getDeletedMergedFiles());
+        }
+        return result;
+    }
+
+    private void compactTag(Path tagDir, int keepRawFiles, int keepMergedFiles, long maxAgeHours, CompactionResult result) {
+        // 独占锁：压缩会删除文件，需等待该tag上的合并和报告读取结束；拿不到锁时本轮跳过该tag
+        TagLockManager.LockHandle lock;
+        try {
+            lock = tagLockManager.tryWriteLock(tagDir, LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (lock == null) {
+            logger.info("Skipping compaction of {}: tag is busy", tagDir);
+            return;
+        }
+        try (TagLockManager.LockHandle ignored = lock) {
+            compactTagLocked(tagDir, keepRawFiles, keepMergedFiles, maxAgeHours, result);
+        }
+    }
+
+    private void compactTagLocked(Path tagDir, int keepRawFiles, int keepMergedFiles, long maxAgeHours, CompactionResult result) {
+        String ageLimit = maxAgeHours > 0
+                ? new SimpleDateFormat(TIMESTAMP_FORMAT).format(System.currentTimeMillis() - maxAgeHours * 3600_000L)
+                : null;
+
+        // 1. 修复被截断的原始dump：读锁下的合并只会跳过它们
+        for (DumpFileInfo dump : dumpIndexService.listFiles(tagDir, false)) {
+            dumpMergeService.ensureComplete(tagDir.resolve(dump.getFileName()).toFile(), true);
+        }
+
+        // 2. 原始dump：保留最新的keepRawFiles个，更早的或超龄的与已有checkpoint一起折叠为新的checkpoint；沿用文件保持原样。
+        //    每个节点最新的一个原始dump始终保留，磁盘预算收紧时也不折叠
+        List<DumpFileInfo> rawFiles = dumpIndexService.listFiles(tagDir, false);
+        List<DumpFileInfo> checkpoints = rawFiles.stream().filter(DumpFileInfo::isCheckpoint).collect(Collectors.toList());
+        List<DumpFileInfo> dumps = rawFiles.stream()
+                .filter(f -> !f.isCheckpoint() && !f.isCarryForward())
+                .collect(Collectors.toList());
+        Map<String, DumpFileInfo> newestByNode = new HashMap<>();
+        for (DumpFileInfo dump : dumps) {
+            newestByNode.put(dump.getNodeId(), dump);
+        }
+        List<DumpFileInfo> toFold = new ArrayList<>();
+        for (int i = 0; i < dumps.size(); i++) {
+            DumpFileInfo dump = dumps.get(i);
+            boolean beyondKeepCount = i < dumps.size() - Math.max(0, keepRawFiles);
+            boolean expired = ageLimit != null && !dump.getTimestamp().isEmpty() && dump.getTimestamp().compareTo(ageLimit) < 0;
+            if ((beyondKeepCount || expired) && newestByNode.get(dump.getNodeId()) != dump) {
+                toFold.add(dump);
+            }
+        }
+        if (!toFold.isEmpty()) {
+            List<DumpFileInfo> inputs = new ArrayList<>(checkpoints);
+            inputs.addAll(toFold);
+            try {
+                foldIntoCheckpoint(tagDir, inputs);
+                result.setFoldedFiles(result.getFoldedFiles() + toFold.size());
+                result.setCheckpoints(result.getCheckpoints() + 1);
+            } catch (Exception e) {
+                logger.error("Failed to fold {} dump files into a checkpoint in {}", inputs.size(), tagDir, e);
+            }
+        }
+
+        // 3. 合并文件：只保留最新的keepMergedFiles个，超龄的也删除，但始终保留最新的一个
+        List<DumpFileInfo> mergedFiles = dumpIndexService.listFiles(tagDir, true);
+        for (int i = 0; i < mergedFiles.size() - 1; i++) {
+            DumpFileInfo merged = mergedFiles.get(i);
+            boolean beyondKeepCount = i < mergedFiles.size() - Math.max(1, keepMergedFiles);
+            boolean expired = ageLimit != null && merged.getTimestamp().compareTo(ageLimit) < 0;
+            if (beyondKeepCount || expired) {
+                if (deleteDumpFile(tagDir.resolve(merged.getFileName()).toFile())) {
+                    result.setDeletedMergedFiles(result.getDeletedMergedFiles() + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把输入文件合并为一个checkpoint。checkpoint先写入临时文件再原子重命名，
+     * 发布之后才删除输入文件，因此读者任何时刻都能看到完整的数据。
+     * checkpoint沿用输入中最新的时间戳，不会排到尚未折叠的新dump之前。
+     * 无法修复的损坏文件不参与合并，也不会被删除，留给人工排查。
+     */
+    private void foldIntoCheckpoint(Path tagDir, List<DumpFileInfo> inputs) throws Exception {
+        String timestamp = inputs.stream()
+                .map(DumpFileInfo::getTimestamp)
+                .max(String::compareTo)
+                .filter(ts -> !ts.isEmpty())
+                .orElseGet(() -> new SimpleDateFormat(TIMESTAMP_FORMAT).format(System.currentTimeMillis()));
+        File checkpointFile = tagDir.resolve(DumpIndexService.CHECKPOINT_FILE_PREFIX + timestamp + ".exec").toFile();
+
+        List<File> inputFiles = inputs.stream()
+                .map(info -> tagDir.resolve(info.getFileName()).toFile())
+                .filter(dumpMergeService::ensureComplete)
+                .collect(Collectors.toList());
+        if (inputFiles.isEmpty()) {
+            return;
+        }
+        int classCount = dumpMergeService.mergeFiles(inputFiles, checkpointFile);
+        dumpIndexService.register(checkpointFile, classCount);
+        logger.info("Folded {} dump files into checkpoint {}", inputFiles.size(), checkpointFile.getAbsolutePath());
+
+        for (File inputFile : inputFiles) {
+            if (!inputFile.getName().equals(checkpointFile.getName())) {
+                deleteDumpFile(inputFile);
+            }
+        }
+    }
+
+    private boolean deleteDumpFile(File dumpFile) {
+        if (dumpFile.delete() || !dumpFile.exists()) {
+            dumpIndexService.unregister(dumpFile);
+            logger.debug("Deleted dump file: {}", dumpFile.getAbsolutePath());
+            return true;
+        }
+        logger.warn("Failed to delete dump file: {}", dumpFile.getAbsolutePath());
+        return false;
+    }
+
+    /**
+     * tag目录为包含.exec文件的目录，位于 app/tag 或 app/cluster/tag
+     */
+    private List<Path> findTagDirectories(Path appDir) throws IOException {
+        if (!Files.isDirectory(appDir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> walk = Files.walk(appDir, MAX_TAG_DEPTH)) {
+            return walk.filter(Files::isDirectory)
+                    .filter(this::containsDumpFiles)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private boolean containsDumpFiles(Path dir) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.exec")) {
+            return stream.iterator().hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long totalBytes(List<Path> tagDirs) {
+        return tagDirs.stream()
+                .flatMap(dir -> dumpIndexService.listFiles(dir).stream())
+                .mapToLong(DumpFileInfo::getSize)
+                .sum();
+    }
+
+    private String latestTimestamp(Path tagDir) {
+        DumpFileInfo latest = dumpIndexService.getLatest(tagDir);
+        return latest != null ? latest.getTimestamp() : "";
+    }
+
+    /**
+     * 单个应用的压缩结果
+     */
+    public static class CompactionResult {
+        private final String appName;
+        private int tagCount;
+        private int foldedFiles;
+        private int checkpoints;
+        private int deletedMergedFiles;
+
+        public CompactionResult(String appName) {
+            this.appName = appName;
+        }
+
+        public String getAppName() { return appName; }
+        public int getTagCount() { return tagCount; }
+        public void setTagCount(int tagCount) { this.tagCount = tagCount; }
+        public int getFoldedFiles() { return foldedFiles; }
+        public void setFoldedFiles(int foldedFiles) { this.foldedFiles = foldedFiles; }
+        public int getCheckpoints() { return checkpoints; }
+        public void setCheckpoints(int checkpoints) { this.checkpoints = checkpoints; }
+        public int getDeletedMergedFiles() { return deletedMergedFiles; }
+        public void setDeletedMergedFiles(int deletedMergedFiles) { this.deletedMergedFiles = deletedMergedFiles; }
+    }
+}
@@ -0,0 +1,438 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.model.DumpFileInfo;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 每个tag目录的dump文件索引。
+ * 索引常驻内存并持久化到tag目录下的 .dump-index.json，写dump时同步更新，
+ * 查询最新文件、文件列表和清理候选时不再重复 listFiles 和正则解析。
+ * 单个文件的登记和移除只向 .dump-index.journal 追加一行，日志条数超过索引大小时才重写 .dump-index.json 并清空日志，
+ * 每次更新的摊还开销与目录中的文件数无关；加载时先读索引再重放日志，崩溃留下的不完整行被忽略。
+ * 通过对比目录的 lastModified 发现外部增删的文件，仅在目录变化时才重新扫描。
+ * 目录的修改时间只在内存中记录，并在列目录之前读取，列目录期间外部新增的文件会在下一次访问时被发现；
+ * 每个进程第一次访问某个tag时对账一次，目录与持久化的索引一致时不重写索引文件。
+ */
+@Service
+public class DumpIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DumpIndexService.class);
+
+    public static final String INDEX_FILE_NAME = ".dump-index.json";
+    public static final String JOURNAL_FILE_NAME = ".dump-index.journal";
+    public static final String MERGED_FILE_PREFIX = "jacoco_merged_";
+    public static final String CHECKPOINT_FILE_PREFIX = "jacoco_checkpoint_";
+    public static final String CARRY_FORWARD_FILE_PREFIX = "jacoco_carryforward_from_";
+
+    private static final Pattern TIMESTAMP_PATTERN = Pattern.compile("_(\\d{8}_\\d{6}_\\d{3})");
+    private static final long STALE_TEMP_FILE_AGE_MS = 3600_000L;
+    private static final int MIN_JOURNAL_ENTRIES = 256; // 日志至少积累这么多条才重写索引文件
+    private static final Pattern NODE_FILE_PATTERN = Pattern.compile("^jacoco_(.+)_\\d{8}_\\d{6}_\\d{3}\\.exec$");
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<Path, TagCatalog> catalogs = new ConcurrentHashMap<>();
+
+    /**
+     * 登记新写入（或已校验通过）的完整dump文件
+     * @param dumpFile dump文件
+     * @param classCount 文件中的class数量，未知时传-1
+     */
+    public void register(File dumpFile, int classCount) {
+        TagCatalog catalog = getCatalog(dumpFile.getParentFile().toPath());
+        if (catalog == null) {
+            return;
+        }
+        DumpFileInfo info = describe(dumpFile);
+        info.setClassCount(classCount);
+        info.setVerified(true);
+        catalog.put(info);
+        JournalEntry entry = new JournalEntry();
+        entry.setPut(info);
+        catalog.append(entry);
+    }
+
+    /**
+     * 从索引中移除dump文件（文件删除后调用）
+     */
+    public void unregister(File dumpFile) {
+        TagCatalog catalog = getCatalog(dumpFile.getParentFile().toPath());
+        if (catalog == null) {
+            return;
+        }
+        catalog.remove(dumpFile.getName());
+        JournalEntry entry = new JournalEntry();
+        entry.setRemove(dumpFile.getName());
+        catalog.append(entry);
+    }
+
+    /**
+     * 查找单个dump文件的索引记录
+     * @return 索引记录，文件不在索引中时返回null
+     */
+    public DumpFileInfo find(File dumpFile) {
+        TagCatalog catalog = getCatalog(dumpFile.getParentFile().toPath());
+        if (catalog == null) {
+            return null;
+        }
+        String key = catalog.nameToKey.get(dumpFile.getName());
+        if (key == null) {
+            return null;
+        }
+        DumpFileInfo info = catalog.rawFiles.get(key);
+        return info != null ? info : catalog.mergedFiles.get(key);
+    }
+
+    /**
+     * 按时间戳从旧到新列出tag目录下的所有dump文件
+     */
+    public List<DumpFileInfo> listFiles(Path tagDir) {
+        TagCatalog catalog = getCatalog(tagDir);
+        if (catalog == null) {
+            return Collections.emptyList();
+        }
+        List<DumpFileInfo> files = new ArrayList<>(catalog.rawFiles.values());
+        files.addAll(catalog.mergedFiles.values());
+        files.sort((f1, f2) -> sortKey(f1).compareTo(sortKey(f2)));
+        return files;
+    }
+
+    /**
+     * 按时间戳从旧到新列出tag目录下的原始dump文件或合并文件
+     */
+    public List<DumpFileInfo> listFiles(Path tagDir, boolean merged) {
+        TagCatalog catalog = getCatalog(tagDir);
+        if (catalog == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(catalog.files(merged).values());
+    }
+
+    /**
+     * 获取时间戳最新的dump文件（原始和合并文件一起比较）
+     * @return 最新的文件，不存在时返回null
+     */
+    public DumpFileInfo getLatest(Path tagDir) {
+        TagCatalog catalog = getCatalog(tagDir);
+        if (catalog == null) {
+            return null;
+        }
+        Map.Entry<String, DumpFileInfo> latestRaw = catalog.rawFiles.lastEntry();
+        Map.Entry<String, DumpFileInfo> latestMerged = catalog.mergedFiles.lastEntry();
+        if (latestRaw == null) {
+            return latestMerged != null ? latestMerged.getValue() : null;
+        }
+        if (latestMerged == null) {
+            return latestRaw.getValue();
+        }
+        return latestMerged.getKey().compareTo(latestRaw.getKey()) > 0 ? latestMerged.getValue() : latestRaw.getValue();
+    }
+
+    /**
+     * 获取超出保留数量的旧文件（从旧到新），沿用文件不计数也不会过期
+     * @param merged true表示合并文件，false表示原始dump文件
+     * @param keepCount 保留最新的文件数量
+     */
+    public List<DumpFileInfo> getExpired(Path tagDir, boolean merged, int keepCount) {
+        TagCatalog catalog = getCatalog(tagDir);
+        if (catalog == null) {
+            return Collections.emptyList();
+        }
+        List<DumpFileInfo> files = new ArrayList<>();
+        for (DumpFileInfo info : catalog.files(merged).values()) {
+            if (!info.isCarryForward()) {
+                files.add(info);
+            }
+        }
+        int expiredCount = files.size() - Math.max(0, keepCount);
+        return expiredCount > 0 ? files.subList(0, expiredCount) : Collections.emptyList();
+    }
+
+    /**
+     * 从文件名中提取时间戳字符串。
+     * @param fileName 文件名
+     * 文件名中的其他部分（如沿用文件中的旧tag）也可能形似时间戳，取最后一个。
+     * @return 提取到的时间戳字符串，如果未找到则返回空字符串（排序时视为最早的文件）
+     */
+    public static String extractTimestamp(String fileName) {
+        if (fileName == null) {
+            return "";
+        }
+        Matcher matcher = TIMESTAMP_PATTERN.matcher(fileName);
+        String timestamp = "";
+        while (matcher.find()) {
+            timestamp = matcher.group(1);
+        }
+        return timestamp;
+    }
+
+    /**
+     * 从多节点dump文件名 jacoco_{nodeId}_{timestamp}.exec 中提取节点标识
+     */
+    public static String extractNodeId(String fileName) {
+        if (fileName == null || fileName.startsWith(MERGED_FILE_PREFIX) || fileName.startsWith(CHECKPOINT_FILE_PREFIX)
+                || fileName.startsWith(CARRY_FORWARD_FILE_PREFIX)) {
+            return null;
+        }
+        Matcher matcher = NODE_FILE_PATTERN.matcher(fileName);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    private static DumpFileInfo describe(File dumpFile) {
+        String fileName = dumpFile.getName();
+        DumpFileInfo info = new DumpFileInfo();
+        info.setFileName(fileName);
+        info.setTimestamp(extractTimestamp(fileName));
+        info.setNodeId(extractNodeId(fileName));
+        info.setMerged(fileName.startsWith(MERGED_FILE_PREFIX));
+        info.setCheckpoint(fileName.startsWith(CHECKPOINT_FILE_PREFIX));
+        info.setCarryForward(fileName.startsWith(CARRY_FORWARD_FILE_PREFIX));
+        info.setSize(dumpFile.length());
+        return info;
+    }
+
+    private static String sortKey(DumpFileInfo info) {
+        return info.getTimestamp() + "/" + info.getFileName();
+    }
+
+    private TagCatalog getCatalog(Path tagDir) {
+        Path key = tagDir.toAbsolutePath().normalize();
+        if (!Files.isDirectory(key)) {
+            catalogs.remove(key);
+            return null;
+        }
+        TagCatalog catalog = catalogs.computeIfAbsent(key, this::loadCatalog);
+        catalog.refreshIfModified();
+        return catalog;
+    }
+
+    private TagCatalog loadCatalog(Path tagDir) {
+        TagCatalog catalog = new TagCatalog(tagDir);
+        File indexFile = tagDir.resolve(INDEX_FILE_NAME).toFile();
+        if (indexFile.isFile()) {
+            try {
+                PersistedIndex persisted = objectMapper.readValue(indexFile, PersistedIndex.class);
+                if (persisted.getFiles() != null) {
+                    for (DumpFileInfo info : persisted.getFiles()) {
+                        catalog.put(info);
+                    }
+                }
+                logger.debug("Loaded dump index with {} entries from {}", catalog.nameToKey.size(), indexFile.getAbsolutePath());
+            } catch (IOException e) {
+                logger.warn("Failed to read dump index {}, rebuilding from directory listing", indexFile.getAbsolutePath(), e);
+            }
+        }
+        catalog.replayJournal();
+        return catalog;
+    }
+
+    /**
+     * 单个tag目录的索引，原始文件和合并文件分开按时间戳排序
+     */
+    private final class TagCatalog {
+        private final Path tagDir;
+        private final ConcurrentSkipListMap<String, DumpFileInfo> rawFiles = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<String, DumpFileInfo> mergedFiles = new ConcurrentSkipListMap<>();
+        private final Map<String, String> nameToKey = new ConcurrentHashMap<>();
+        private volatile long directoryModified = -1L;
+        private int journalEntries;
+
+        TagCatalog(Path tagDir) {
+            this.tagDir = tagDir;
+        }
+
+        ConcurrentSkipListMap<String, DumpFileInfo> files(boolean merged) {
+            return merged ? mergedFiles : rawFiles;
+        }
+
+        synchronized void put(DumpFileInfo info) {
+            remove(info.getFileName());
+            String key = sortKey(info);
+            files(info.isMerged()).put(key, info);
+            nameToKey.put(info.getFileName(), key);
+        }
+
+        synchronized void remove(String fileName) {
+            String key = nameToKey.remove(fileName);
+            if (key != null) {
+                rawFiles.remove(key);
+                mergedFiles.remove(key);
+            }
+        }
+
+        /**
+         * 目录的修改时间变化说明有索引之外的增删，此时重新对账一次
+         */
+        void refreshIfModified() {
+            if (tagDir.toFile().lastModified() == directoryModified) {
+                return;
+            }
+            synchronized (this) {
+                File dir = tagDir.toFile();
+                // 在列目录之前取修改时间：列目录期间的外部变化会让下一次访问再对账一次，而不是被这次吸收
+                long modified = dir.lastModified();
+                if (modified == directoryModified) {
+                    return;
+                }
+                deleteStaleTempFiles(dir);
+                File[] dumpFiles = dir.listFiles((d, name) -> name.endsWith(".exec"));
+                Set<String> present = new HashSet<>();
+                boolean changed = !tagDir.resolve(INDEX_FILE_NAME).toFile().isFile();
+                if (dumpFiles != null) {
+                    for (File dumpFile : dumpFiles) {
+                        present.add(dumpFile.getName());
+                        if (!nameToKey.containsKey(dumpFile.getName())) {
+                            put(describe(dumpFile));
+                            changed = true;
+                        }
+                    }
+                }
+                for (String fileName : new ArrayList<>(nameToKey.keySet())) {
+                    if (!present.contains(fileName)) {
+                        remove(fileName);
+                        changed = true;
+                    }
+                }
+                logger.debug("Reconciled dump index for {}: {} files", tagDir, nameToKey.size());
+                if (changed) {
+                    persist();
+                }
+                directoryModified = modified;
+            }
+        }
+
+        /**
+         * 清理崩溃时遗留的临时文件；只删除足够旧的，避免误删正在写入的文件
+         */
+        private void deleteStaleTempFiles(File dir) {
+            long cutoff = System.currentTimeMillis() - STALE_TEMP_FILE_AGE_MS;
+            File[] tempFiles = dir.listFiles((d, name) -> AtomicFileWriter.isTempFile(name));
+            if (tempFiles == null) {
+                return;
+            }
+            for (File tempFile : tempFiles) {
+                if (tempFile.lastModified() < cutoff && tempFile.delete()) {
+                    logger.info("Deleted stale temp file left by an interrupted write: {}", tempFile.getAbsolutePath());
+                }
+            }
+        }
+
+        /**
+         * 追加一条更新记录；日志比索引本身还长时重写索引文件
+         */
+        synchronized void append(JournalEntry entry) {
+            Path journal = tagDir.resolve(JOURNAL_FILE_NAME);
+            try {
+                byte[] line = (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+                Files.write(journal, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                journalEntries++;
+            } catch (IOException e) {
+                logger.warn("Failed to append to dump index journal {}, rewriting the index", journal, e);
+                persist();
+                return;
+            }
+            if (journalEntries > Math.max(MIN_JOURNAL_ENTRIES, nameToKey.size())) {
+                persist();
+            }
+        }
+
+        /**
+         * 在已加载的索引上重放日志。每条记录按文件名覆盖，重放已包含在索引中的记录结果不变；
+         * 遇到无法解析的行（崩溃时写了一半）即停止
+         */
+        synchronized void replayJournal() {
+            Path journal = tagDir.resolve(JOURNAL_FILE_NAME);
+            if (!Files.isRegularFile(journal)) {
+                return;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JournalEntry entry;
+                    try {
+                        entry = objectMapper.readValue(line, JournalEntry.class);
+                    } catch (IOException e) {
+                        logger.warn("Ignoring unreadable dump index journal entry in {}", journal);
+                        break;
+                    }
+                    if (entry.getPut() != null) {
+                        put(entry.getPut());
+                    } else if (entry.getRemove() != null) {
+                        remove(entry.getRemove());
+                    }
+                    journalEntries++;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to read dump index journal {}", journal, e);
+            }
+        }
+
+        /**
+         * 重写完整的索引文件并清空日志
+         */
+        synchronized void persist() {
+            PersistedIndex persisted = new PersistedIndex();
+            List<DumpFileInfo> files = new ArrayList<>(rawFiles.values());
+            files.addAll(mergedFiles.values());
+            persisted.setFiles(files);
+            Path indexFile = tagDir.resolve(INDEX_FILE_NAME);
+            try {
+                AtomicFileWriter.write(indexFile.toFile(), out -> objectMapper.writeValue(out, persisted));
+                Files.deleteIfExists(tagDir.resolve(JOURNAL_FILE_NAME));
+                journalEntries = 0;
+            } catch (IOException e) {
+                logger.warn("Failed to persist dump index {}", indexFile, e);
+            }
+        }
+    }
+
+    /**
+     * 索引日志中的一条记录：登记（put）或移除（remove）一个文件
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class JournalEntry {
+        private DumpFileInfo put;
+        private String remove;
+
+        public DumpFileInfo getPut() { return put; }
+        public void setPut(DumpFileInfo put) { this.put = put; }
+        public String getRemove() { return remove; }
+        public void setRemove(String remove) { this.remove = remove; }
+    }
+
+    /**
+     * 持久化到磁盘的索引结构；旧版本写入的 directoryModified 等字段读取时忽略
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class PersistedIndex {
+        private List<DumpFileInfo> files;
+
+        public List<DumpFileInfo> getFiles() { return files; }
+        public void setFiles(List<DumpFileInfo> files) { this.files = files; }
+    }
+}
@@ -1,21 +1,31 @@
 package com.mofari.coveragecollector.service;
 
 import com.mofari.coveragecollector.config.CoverageConfig;
-import org.jacoco.core.data.ExecutionDataStore;
-import org.jacoco.core.data.SessionInfoStore;
+import com.mofari.coveragecollector.model.DumpFileInfo;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import com.mofari.coveragecollector.observability.ProgressTracker;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import com.mofari.coveragecollector.util.ExecDataMerger;
+import com.mofari.coveragecollector.util.ExecFileValidator;
+import com.mofari.coveragecollector.util.ParallelExecDataMerger;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.jacoco.core.data.ISessionInfoVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PreDestroy;
+
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,6 +36,17 @@ public class DumpMergeService {
     @Autowired
     private CoverageConfig coverageConfig;
     
+    @Autowired
+    private DumpIndexService dumpIndexService;
+    
+    @Autowired
+    private TagLockManager tagLockManager;
+    
+    @Autowired
+    private CoverageMetrics coverageMetrics;
+    
+    private ForkJoinPool mergePool;
+    
     private Path getDumpDirectoryPath(String appName, String clusterName, String tag) {
         Path basePath = Paths.get(coverageConfig.getDumpDirectory(), appName);
         if (StringUtils.hasText(clusterName)) {
@@ -46,67 +67,229 @@ public class DumpMergeService {
         logger.info("开始合并dump文件，应用: {}, 环境: {}, 标签: {}", appName, clusterName, tag);
         
         // 获取tag目录下的所有dump文件
-        File tagDir = getDumpDirectoryPath(appName, clusterName, tag).toFile();
+        Path tagDirPath = getDumpDirectoryPath(appName, clusterName, tag);
+        File tagDir = tagDirPath.toFile();
         if (!tagDir.exists() || !tagDir.isDirectory()) {
             throw new FileNotFoundException("目录不存在: " + tagDir.getAbsolutePath());
         }
         
-        File[] dumpFiles = tagDir.listFiles((dir, name) -> name.endsWith(".exec") && !name.startsWith("jacoco_merged_"));
-        if (dumpFiles == null || dumpFiles.length == 0) {
-            throw new IllegalArgumentException("未找到dump文件在目录: " + tagDir.getAbsolutePath());
-        }
+        // 共享锁：合并期间输入文件不会被清理或压缩删除，不同tag之间互不阻塞
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(tagDirPath)) {
+            List<File> inputFiles = listCompleteDumpFiles(tagDirPath);
         
-        logger.info("找到 {} 个dump文件需要合并", dumpFiles.length);
+            logger.info("找到 {} 个dump文件需要合并", inputFiles.size());
         
-        // 如果只有一个文件，直接返回
-        if (dumpFiles.length == 1) {
-            logger.info("只有一个dump文件，无需合并: {}", dumpFiles[0].getAbsolutePath());
-            return dumpFiles[0].getAbsolutePath();
-        }
+            // 如果只有一个文件，直接返回
+            if (inputFiles.size() == 1) {
+                File onlyFile = inputFiles.get(0);
+                logger.info("只有一个dump文件，无需合并: {}", onlyFile.getAbsolutePath());
+                return onlyFile.getAbsolutePath();
+            }
         
-        // 合并所有dump文件
-        ExecutionDataStore mergedExecutionDataStore = new ExecutionDataStore();
-        SessionInfoStore mergedSessionInfoStore = new SessionInfoStore();
+            // 生成合并后的文件名
+            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
+            String mergedFileName = String.format("jacoco_merged_%s.exec", timestamp);
+            File mergedFile = new File(tagDir, mergedFileName);
         
-        for (File dumpFile : dumpFiles) {
-            logger.debug("合并文件: {}", dumpFile.getName());
-            
-            try (FileInputStream fis = new FileInputStream(dumpFile)) {
-                org.jacoco.core.data.ExecutionDataReader reader = 
-                    new org.jacoco.core.data.ExecutionDataReader(fis);
-                
-                reader.setSessionInfoVisitor(mergedSessionInfoStore);
-                reader.setExecutionDataVisitor(mergedExecutionDataStore);
-                reader.read();
-                
-            } catch (Exception e) {
-                logger.error("读取dump文件失败: {}", dumpFile.getName(), e);
-                throw new Exception("读取dump文件失败: " + dumpFile.getName(), e);
+            int classCount = coverageMetrics.record(CoverageMetrics.STAGE_MERGE, appName, () -> mergeFiles(inputFiles, mergedFile));
+            dumpIndexService.register(mergedFile, classCount);
+            coverageMetrics.bytesWritten(CoverageMetrics.STAGE_MERGE, appName, mergedFile.length());
+        
+            return mergedFile.getAbsolutePath();
+        }
+    }
+    
+    /**
+     * 在内存中合并同一tag下的所有dump文件（与 {@link #mergeDumpFiles} 选取相同的文件），
+     * 结果直接交给访问者，不写出合并文件也不注册到索引。用于只读的分析：覆盖率快照、差异、classId校验、覆盖率沿用
+     * @param appName 应用名称
+     * @param clusterName 环境名称
+     * @param tag 版本标签
+     * @param executionDataVisitor 接收合并后的class数据，如 ExecutionDataStore
+     * @param sessionInfoVisitor 接收会话信息，可以为null
+     * @return 参与合并的dump文件数
+     * @throws Exception
+     */
+    public int loadMergedExecutionData(String appName, String clusterName, String tag,
+                                       IExecutionDataVisitor executionDataVisitor, ISessionInfoVisitor sessionInfoVisitor) throws Exception {
+        Path tagDirPath = getDumpDirectoryPath(appName, clusterName, tag);
+        if (!Files.isDirectory(tagDirPath)) {
+            throw new FileNotFoundException("目录不存在: " + tagDirPath.toFile().getAbsolutePath());
+        }
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(tagDirPath)) {
+            List<File> inputFiles = listCompleteDumpFiles(tagDirPath);
+            ExecDataMerger merger = coverageMetrics.record(CoverageMetrics.STAGE_MERGE, appName, () -> mergeInMemory(inputFiles));
+            int classCount = merger.accept(executionDataVisitor, sessionInfoVisitor);
+            logger.info("在内存中合并了 {} 个dump文件，{} 个class，应用: {}, 环境: {}, 标签: {}",
+                    inputFiles.size(), classCount, appName, clusterName, tag);
+            return inputFiles.size();
+        }
+    }
+    
+    /**
+     * tag目录下参与合并的dump文件（不含已合并的文件），跳过截断或损坏的文件。
+     * 调用方需持有tag的锁
+     */
+    private List<File> listCompleteDumpFiles(Path tagDirPath) {
+        File tagDir = tagDirPath.toFile();
+        List<DumpFileInfo> dumpFiles = dumpIndexService.listFiles(tagDirPath, false);
+        if (dumpFiles.isEmpty()) {
+            throw new IllegalArgumentException("未找到dump文件在目录: " + tagDir.getAbsolutePath());
+        }
+        List<File> inputFiles = new ArrayList<>();
+        for (DumpFileInfo dumpFileInfo : dumpFiles) {
+            File dumpFile = new File(tagDir, dumpFileInfo.getFileName());
+            if (ensureComplete(dumpFile)) {
+                inputFiles.add(dumpFile);
             }
         }
-        
-        // 生成合并后的文件名
-        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
-        String mergedFileName = String.format("jacoco_merged_%s.exec", timestamp);
-        File mergedFile = new File(tagDir, mergedFileName);
+        if (inputFiles.isEmpty()) {
+            throw new IllegalArgumentException("目录中没有完整可用的dump文件: " + tagDir.getAbsolutePath());
+        }
+        return inputFiles;
+    }
+    
+    /**
+     * 确认dump文件结构完整。索引中已确认且大小未变的文件直接通过，其余文件校验一次。
+     * 只读取不修改文件，持有tag读锁即可调用；被截断的文件本次跳过，由压缩在写锁下修复。
+     * @param dumpFile dump文件
+     * @return 文件是否可以安全读取
+     */
+    public boolean ensureComplete(File dumpFile) {
+        return ensureComplete(dumpFile, false);
+    }
+    
+    /**
+     * 确认dump文件结构完整，repair为true时把被截断的文件截断到最后一个完整块后继续使用。
+     * 修复会原地改写文件，调用方需持有tag的写锁
+     * @param dumpFile dump文件
+     * @param repair 是否修复被截断的文件
+     * @return 文件是否可以安全读取
+     */
+    public boolean ensureComplete(File dumpFile, boolean repair) {
+        DumpFileInfo info = dumpIndexService.find(dumpFile);
+        if (info != null && info.isVerified() && info.getSize() == dumpFile.length()) {
+            return true;
+        }
+        try {
+            ExecFileValidator.Result result = ExecFileValidator.validate(dumpFile);
+            if (!result.isValid() && result.isRepairable()) {
+                if (!repair) {
+                    logger.warn("Skipping truncated dump file {} until the next compaction repairs it: {}",
+                            dumpFile.getAbsolutePath(), result.getError());
+                    return false;
+                }
+                long originalLength = result.getFileLength();
+                result = ExecFileValidator.repair(dumpFile);
+                if (result.isValid()) {
+                    logger.warn("Repaired truncated dump file {}: kept {} of {} bytes, {} classes",
+                            dumpFile.getAbsolutePath(), result.getValidLength(), originalLength, result.getClassCount());
+                }
+            }
+            if (!result.isValid()) {
+                logger.warn("Skipping invalid dump file {}: {}", dumpFile.getAbsolutePath(), result.getError());
+                return false;
+            }
+            dumpIndexService.register(dumpFile, result.getClassCount());
+            return true;
+        } catch (IOException e) {
+            logger.warn("Failed to validate dump file {}", dumpFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * 将多个dump文件合并写入目标文件（先写临时文件再原子重命名）。
+     * 使用 {@link ExecDataMerger} 按块合并，不为每个文件的每个class分配对象，输出与JaCoCo合并的结果逐字节相同。
+     * 文件较多时由 {@link ParallelExecDataMerger} 分组并行读取，各组结果两两归并后一次写出。
+     * @param inputFiles 待合并的dump文件
+     * @param outputFile 合并结果文件
+     * @return 合并结果中的class数量
+     * @throws Exception
+     */
+    public int mergeFiles(List<File> inputFiles, File outputFile) throws Exception {
+        ForkJoinPool pool = getMergePool();
+        int parallelism = pool != null && inputFiles.size() > coverageConfig.getMerge().getFilesPerTask() ? pool.getParallelism() : 1;
+        ExecDataMerger merger = mergeInMemory(inputFiles);
         
         // 保存合并后的数据
-        try (FileOutputStream fos = new FileOutputStream(mergedFile)) {
-            org.jacoco.core.data.ExecutionDataWriter writer = 
-                new org.jacoco.core.data.ExecutionDataWriter(fos);
-            
-            // 写入合并后的session信息和执行数据
-            mergedSessionInfoStore.accept(writer);
-            mergedExecutionDataStore.accept(writer);
-            
-            logger.info("合并后的dump文件已保存: {}", mergedFile.getAbsolutePath());
+        int[] writtenClasses = new int[1];
+        try {
+            AtomicFileWriter.write(outputFile, out -> writtenClasses[0] = merger.writeTo(out));
+            logger.info("合并后的dump文件已保存: {}", outputFile.getAbsolutePath());
             
         } catch (Exception e) {
             logger.error("保存合并后的dump文件失败", e);
             throw new Exception("保存合并后的dump文件失败: " + e.getMessage(), e);
         }
         
-        return mergedFile.getAbsolutePath();
+        // 在合并阶段内调用时，把规模记到阶段的span和JFR事件上（压缩时的合并不在合并阶段内）
+        CoverageMetrics.Stage stage = CoverageMetrics.currentStage();
+        if (stage != null && stage.is(CoverageMetrics.STAGE_MERGE)) {
+            stage.attribute("files", inputFiles.size())
+                    .attribute("classes", writtenClasses[0])
+                    .attribute("probes", merger.getProbeCount())
+                    .attribute("bytes", outputFile.length())
+                    .attribute("parallelism", parallelism);
+        }
+        return writtenClasses[0];
+    }
+    
+    /**
+     * 读取并合并dump文件，文件较多时分组并行读取
+     */
+    private ExecDataMerger mergeInMemory(List<File> inputFiles) throws Exception {
+        ProgressTracker.Progress progress = ProgressTracker.current();
+        progress.addTotal(ProgressTracker.MERGED_FILES, inputFiles.size());
+        try {
+            return ParallelExecDataMerger.merge(inputFiles, getMergePool(), coverageConfig.getMerge().getFilesPerTask(),
+                    expectedClassCount(inputFiles), () -> progress.increment(ProgressTracker.MERGED_FILES));
+        } catch (ParallelExecDataMerger.FileMergeException e) {
+            logger.error("读取dump文件失败: {}", e.getFile().getName(), e.getCause());
+            throw new Exception("读取dump文件失败: " + e.getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * 并行合并使用的线程池，首次合并时按配置创建；并行度为1时返回null（顺序合并）
+     */
+    private synchronized ForkJoinPool getMergePool() {
+        if (mergePool == null) {
+            int parallelism = coverageConfig.getMerge().getParallelism();
+            if (parallelism <= 0) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            }
+            if (parallelism <= 1) {
+                return null;
+            }
+            mergePool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("dump-merge-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return mergePool;
+    }
+    
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (mergePool != null) {
+            mergePool.shutdownNow();
+        }
+    }
+    
+    /**
+     * 按索引中记录的各文件class数估计合并结果的大小，用于预分配
+     */
+    private int expectedClassCount(List<File> inputFiles) {
+        int expected = 0;
+        for (File inputFile : inputFiles) {
+            DumpFileInfo info = dumpIndexService.find(inputFile);
+            if (info != null) {
+                expected = Math.max(expected, info.getClassCount());
+            }
+        }
+        return expected;
     }
     
     /**
@@ -114,22 +297,12 @@ public class DumpMergeService {
      * @param appName 应用名称
      * @param clusterName 环境名称
      * @param tag 版本标签
-     * @return dump文件列表
+     * @return dump文件列表（按文件名中的时间戳从旧到新）
      */
     public List<String> getDumpFiles(String appName, String clusterName, String tag) {
-        File tagDir = getDumpDirectoryPath(appName, clusterName, tag).toFile();
-        if (!tagDir.exists() || !tagDir.isDirectory()) {
-            return Collections.emptyList();
-        }
-        
-        File[] dumpFiles = tagDir.listFiles((dir, name) -> name.endsWith(".exec"));
-        if (dumpFiles == null) {
-            return Collections.emptyList();
-        }
-        
-        return Arrays.stream(dumpFiles)
-                .map(File::getAbsolutePath)
-                .sorted()
+        Path tagDirPath = getDumpDirectoryPath(appName, clusterName, tag);
+        return dumpIndexService.listFiles(tagDirPath).stream()
+                .map(info -> tagDirPath.resolve(info.getFileName()).toFile().getAbsolutePath())
                 .collect(Collectors.toList());
     }
     
@@ -141,44 +314,53 @@ public class DumpMergeService {
      * @return 最新的dump文件路径，如果不存在则返回null
      */
     public String getLatestDumpFile(String appName, String clusterName, String tag) {
-        List<String> dumpFiles = getDumpFiles(appName, clusterName, tag);
-        if (dumpFiles.isEmpty()) {
+        // 索引按文件名中的时间戳排序，没有时间戳的文件视为最早的文件；跳过损坏的文件
+        Path tagDirPath = getDumpDirectoryPath(appName, clusterName, tag);
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(tagDirPath)) {
+            DumpFileInfo latest = dumpIndexService.getLatest(tagDirPath);
+            if (latest != null && ensureComplete(tagDirPath.resolve(latest.getFileName()).toFile())) {
+                return tagDirPath.resolve(latest.getFileName()).toFile().getAbsolutePath();
+            }
+            List<DumpFileInfo> files = dumpIndexService.listFiles(tagDirPath);
+            for (int i = files.size() - 1; i >= 0; i--) {
+                File candidate = tagDirPath.resolve(files.get(i).getFileName()).toFile();
+                if (ensureComplete(candidate)) {
+                    return candidate.getAbsolutePath();
+                }
+            }
             return null;
         }
-        
-        // 按文件名排序，获取最新的文件（文件名包含时间戳）
-//        return dumpFiles.stream()
-//                .filter(s -> s.contains("jacoco_merged_"))
-//                .max(String::compareTo)
-//                .orElseGet(() -> dumpFiles.stream()
-//                                .filter(s -> !s.contains("jacoco_merged_"))
-//                                .max(String::compareTo)
-//                                .orElse(null));
-        // 使用自定义比较器，该比较器提取并比较每个文件名的时间戳
-        return dumpFiles.stream()
-                .max(Comparator.comparing(this::extractTimestamp))
-                .orElse(null);
     }
 
     /**
-     * 从文件名中提取时间戳字符串。
-     * @param fileName 文件名
-     * @return 提取到的时间戳字符串，如果未找到则返回空字符串。
+     * dump数据的指纹，用于判断基于dump的分析结果（覆盖率快照）是否可以复用。
+     * 合并模式取所有参与合并的dump文件，否则取最新的dump文件；包含文件名、大小和修改时间。
+     * @return 指纹，没有可用的dump文件时返回null
      */
-    private String extractTimestamp(String fileName) {
-        if (fileName == null) {
-            return "";
+    public String getDumpFingerprint(String appName, String clusterName, String tag, boolean mergeAllDumps) {
+        Path tagDirPath = getDumpDirectoryPath(appName, clusterName, tag);
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(tagDirPath)) {
+            if (!mergeAllDumps) {
+                String latest = getLatestDumpFile(appName, clusterName, tag);
+                return latest != null ? "latest|" + fingerprintOf(new File(latest)) : null;
+            }
+            List<DumpFileInfo> dumpFiles = dumpIndexService.listFiles(tagDirPath, false);
+            if (dumpFiles.isEmpty()) {
+                return null;
+            }
+            StringBuilder fingerprint = new StringBuilder("merge|");
+            for (DumpFileInfo dumpFileInfo : dumpFiles) {
+                fingerprint.append(fingerprintOf(tagDirPath.resolve(dumpFileInfo.getFileName()).toFile())).append(';');
+            }
+            return fingerprint.toString();
         }
-        Pattern TIMESTAMP_PATTERN = Pattern.compile("_(\\d{8}_\\d{6}_\\d{3})");
+    }
 
-        Matcher matcher = TIMESTAMP_PATTERN.matcher(fileName);
-        if (matcher.find()) {
-            // group(1) 返回第一个捕获组的内容，即括号内的部分
-            return matcher.group(1);
-        }
-        // 如果文件名中没有匹配到时间戳，返回空字符串
-        // 这将使没有时间戳的文件在排序中被视为“最早的”
-        return "";
+    /**
+     * 单个文件的指纹：文件名、大小和修改时间
+     */
+    public static String fingerprintOf(File file) {
+        return file.getName() + ":" + file.length() + ":" + file.lastModified();
     }
 
     /**
@@ -189,36 +371,31 @@ public class DumpMergeService {
      * @param keepCount 保留的文件数量
      */
     public void cleanupOldDumpFiles(String appName, String clusterName, String tag, int keepCount) {
-        File tagDir = getDumpDirectoryPath(appName, clusterName, tag).toFile();
-        if (!tagDir.exists() || !tagDir.isDirectory()) {
-            logger.warn("Dump directory for cleanup not found: {}", tagDir.getAbsolutePath());
+        Path tagDirPath = getDumpDirectoryPath(appName, clusterName, tag);
+        if (!Files.isDirectory(tagDirPath)) {
+            logger.warn("Dump directory for cleanup not found: {}", tagDirPath.toAbsolutePath());
             return;
         }
         
-        // Cleanup non-merged files first
-        File[] individualDumpFiles = tagDir.listFiles((dir, name) -> name.endsWith(".exec") && !name.startsWith("jacoco_merged_"));
-        if (individualDumpFiles != null && individualDumpFiles.length > keepCount) {
-            Arrays.sort(individualDumpFiles, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified())); // Newest first
-            for (int i = keepCount; i < individualDumpFiles.length; i++) {
-                if (individualDumpFiles[i].delete()) {
-                    logger.info("Deleted old individual dump file: {}", individualDumpFiles[i].getAbsolutePath());
-                } else {
-                    logger.warn("Failed to delete old individual dump file: {}", individualDumpFiles[i].getAbsolutePath());
-                }
-            }
+        // 独占锁：等待正在进行的合并和报告读取完成后再删除
+        try (TagLockManager.LockHandle ignored = tagLockManager.writeLock(tagDirPath)) {
+            // Cleanup non-merged files first
+            deleteDumpFiles(tagDirPath, dumpIndexService.getExpired(tagDirPath, false, keepCount), "individual");
+            
+            // Cleanup merged files, keep a smaller number, e.g., keep 2 merged files
+            int keepMergedCount = Math.max(1, keepCount / 2); // Keep at least 1 merged file
+            deleteDumpFiles(tagDirPath, dumpIndexService.getExpired(tagDirPath, true, keepMergedCount), "merged");
         }
-        
-        // Cleanup merged files, keep a smaller number, e.g., keep 2 merged files
-        int keepMergedCount = Math.max(1, keepCount / 2); // Keep at least 1 merged file
-        File[] mergedDumpFiles = tagDir.listFiles((dir, name) -> name.startsWith("jacoco_merged_") && name.endsWith(".exec"));
-        if (mergedDumpFiles != null && mergedDumpFiles.length > keepMergedCount) {
-            Arrays.sort(mergedDumpFiles, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified())); // Newest first
-            for (int i = keepMergedCount; i < mergedDumpFiles.length; i++) {
-                if (mergedDumpFiles[i].delete()) {
-                    logger.info("Deleted old merged dump file: {}", mergedDumpFiles[i].getAbsolutePath());
-                } else {
-                    logger.warn("Failed to delete old merged dump file: {}", mergedDumpFiles[i].getAbsolutePath());
-                }
+    }
+
+    private void deleteDumpFiles(Path tagDirPath, List<DumpFileInfo> expiredFiles, String kind) {
+        for (DumpFileInfo info : expiredFiles) {
+            File dumpFile = tagDirPath.resolve(info.getFileName()).toFile();
+            if (dumpFile.delete() || !dumpFile.exists()) {
+                dumpIndexService.unregister(dumpFile);
+                logger.info("Deleted old {} dump file: {}", kind, dumpFile.getAbsolutePath());
+            } else {
+                logger.warn("Failed to delete old {} dump file: {}", kind, dumpFile.getAbsolutePath());
             }
         }
     }
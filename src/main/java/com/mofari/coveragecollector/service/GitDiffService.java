@@ -1,5 +1,6 @@
 package com.mofari.coveragecollector.service;
 
+import com.mofari.coveragecollector.model.diff.FileLineMapping;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -8,8 +9,10 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -29,6 +32,13 @@ public class GitDiffService {
     // function context or other information after the "@@".
     private static final Pattern HUNK_HEADER_PATTERN = Pattern.compile("^@@\\s+-[0-9]+(?:,[0-9]+)?\\s+\\+([0-9]+)(?:,([0-9]+))?\\s+@@.*");
 
+    // "--- a/path" / "+++ b/path", or /dev/null for added and deleted files
+    private static final Pattern OLD_FILE_PATTERN = Pattern.compile("^---\\s+(?:a/(.*)|/dev/null)\\s*$");
+    private static final Pattern NEW_FILE_PATTERN = Pattern.compile("^\\+\\+\\+\\s+(?:b/(.*)|/dev/null)\\s*$");
+
+    // Full hunk header; an omitted count means one line
+    private static final Pattern FULL_HUNK_HEADER_PATTERN = Pattern.compile("^@@\\s+-([0-9]+)(?:,([0-9]+))?\\s+\\+([0-9]+)(?:,([0-9]+))?\\s+@@.*");
+
     public Map<String, Set<Integer>> getChangedLines(String projectPath, String baseRef, String newRef) throws IOException, InterruptedException {
         Map<String, Set<Integer>> changedLinesMap = new HashMap<>();
 
@@ -106,4 +116,90 @@ public class GitDiffService {
         logger.info("Found changes in {} files. Total changed lines tracked: {}", changedLinesMap.size(), changedLinesMap.values().stream().mapToLong(Set::size).sum());
         return changedLinesMap;
     }
+
+    /**
+     * Line mappings of every Java file that changed between two refs, with renames detected.
+     * Files that are not returned are identical in both refs.
+     * @return one mapping per changed file; paths are relative to the repository root
+     */
+    public List<FileLineMapping> getLineMappings(String projectPath, String baseRef, String newRef) throws IOException, InterruptedException {
+        File workingDir = new File(projectPath);
+        if (!workingDir.exists() || !workingDir.isDirectory()) {
+            logger.error("Project path for git diff does not exist or is not a directory: {}", projectPath);
+            throw new IOException("Invalid project path: " + projectPath);
+        }
+
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                "git", "diff", "--unified=0", "-M", baseRef + ".." + newRef
+        );
+        processBuilder.directory(workingDir);
+        processBuilder.redirectErrorStream(true);
+
+        logger.info("Executing git diff command in {}: {}", projectPath, String.join(" ", processBuilder.command()));
+
+        Process process = processBuilder.start();
+
+        List<FileLineMapping> mappings = new ArrayList<>();
+        String oldPath = null;
+        FileLineMapping current = null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("diff --git ")) {
+                    oldPath = null;
+                    current = null;
+                    continue;
+                }
+                if (line.startsWith("rename from ")) {
+                    oldPath = line.substring("rename from ".length());
+                    continue;
+                }
+                if (line.startsWith("rename to ") && oldPath != null) {
+                    // A pure rename has no ---/+++ lines or hunks; an edited rename reuses this mapping below
+                    String newPath = line.substring("rename to ".length());
+                    if (oldPath.endsWith(".java") || newPath.endsWith(".java")) {
+                        current = new FileLineMapping(oldPath, newPath);
+                        mappings.add(current);
+                    }
+                    continue;
+                }
+                Matcher oldFileMatcher = OLD_FILE_PATTERN.matcher(line);
+                if (current == null && oldFileMatcher.matches()) {
+                    oldPath = oldFileMatcher.group(1);
+                    continue;
+                }
+                Matcher newFileMatcher = NEW_FILE_PATTERN.matcher(line);
+                if (current == null && newFileMatcher.matches()) {
+                    String newPath = newFileMatcher.group(1);
+                    if ((oldPath != null && oldPath.endsWith(".java")) || (newPath != null && newPath.endsWith(".java"))) {
+                        current = new FileLineMapping(oldPath, newPath);
+                        mappings.add(current);
+                    }
+                    continue;
+                }
+                if (current == null) {
+                    continue;
+                }
+                Matcher hunkMatcher = FULL_HUNK_HEADER_PATTERN.matcher(line);
+                if (hunkMatcher.matches()) {
+                    current.addHunk(Integer.parseInt(hunkMatcher.group(1)), countOf(hunkMatcher.group(2)),
+                            Integer.parseInt(hunkMatcher.group(3)), countOf(hunkMatcher.group(4)));
+                }
+            }
+        }
+
+        int exitCode = process.waitFor();
+        if (exitCode != 0 && exitCode != 1) {
+            logger.error("Git diff command failed with a critical exit code {}. Path: {}. Command: {}", exitCode, projectPath, String.join(" ", processBuilder.command()));
+            throw new IOException("Git diff command failed with exit code " + exitCode + ". Check refs and project path.");
+        }
+
+        logger.info("Found {} changed Java files between {} and {}", mappings.size(), baseRef, newRef);
+        return mappings;
+    }
+
+    private static int countOf(String group) {
+        return group == null ? 1 : Integer.parseInt(group);
+    }
 }
@@ -1,6 +1,9 @@
 package com.mofari.coveragecollector.service;
 
 import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import com.mofari.coveragecollector.util.CountingInputStream;
 import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.SessionInfoStore;
 import org.jacoco.core.runtime.RemoteControlReader;
@@ -23,6 +26,15 @@ public class JaCoCoClientService {
     @Autowired
     private CoverageConfig coverageConfig;
     
+    @Autowired
+    private DumpIndexService dumpIndexService;
+    
+    @Autowired
+    private TagLockManager tagLockManager;
+    
+    @Autowired
+    private CoverageMetrics coverageMetrics;
+    
     /**
      * 从JaCoCo agent收集执行数据并保存dump文件
      * @param appName 应用名称
@@ -44,6 +56,20 @@ public class JaCoCoClientService {
      * @throws Exception
      */
     public String collectCoverageData(String appName, String tag, String agentHost, Integer agentPort) throws Exception {
+        return collectCoverageData(appName, tag, agentHost, agentPort, false);
+    }
+    
+    /**
+     * 从JaCoCo agent收集执行数据并保存dump文件，可选择在dump的同时重置agent
+     * @param appName 应用名称
+     * @param tag 版本标签
+     * @param agentHost JaCoCo agent主机地址（可选）
+     * @param agentPort JaCoCo agent端口（可选）
+     * @param reset dump后是否重置agent，用于按会话收集时划分前后两段数据
+     * @return dump文件路径
+     * @throws Exception
+     */
+    public String collectCoverageData(String appName, String tag, String agentHost, Integer agentPort, boolean reset) throws Exception {
         // 确定连接参数
         String host = agentHost != null ? agentHost : getAgentHost(appName);
         int port = agentPort != null ? agentPort : getAgentPort(appName);
@@ -66,17 +92,20 @@ public class JaCoCoClientService {
         SessionInfoStore sessionInfoStore = new SessionInfoStore();
         
         // 连接到JaCoCo agent
-        try (Socket socket = new Socket(host, port)) {
+        try (CoverageMetrics.Stage dumpStage = coverageMetrics.start(CoverageMetrics.STAGE_AGENT_DUMP, appName)
+                     .attribute("endpoint", host + ":" + port);
+             Socket socket = new Socket(host, port)) {
             logger.info("成功连接到JaCoCo agent {}:{}", host, port);
             
             RemoteControlWriter writer = new RemoteControlWriter(socket.getOutputStream());
-            RemoteControlReader reader = new RemoteControlReader(socket.getInputStream());
+            CountingInputStream received = new CountingInputStream(socket.getInputStream());
+            RemoteControlReader reader = new RemoteControlReader(received);
             
             reader.setSessionInfoVisitor(sessionInfoStore);
             reader.setExecutionDataVisitor(executionDataStore);
             
-            // 请求dump数据
-            writer.visitDumpCommand(true, false);
+            // 请求dump数据（dump和重置在agent端原子完成，两次收集之间不会丢失或重复计数）
+            writer.visitDumpCommand(true, reset);
             
             // 读取响应
             if (!reader.read()) {
@@ -84,27 +113,36 @@ public class JaCoCoClientService {
             }
             
             logger.info("成功从agent收集到执行数据");
+            dumpStage.success()
+                    .attribute("classes", executionDataStore.getContents().size())
+                    .attribute("bytes", received.getCount());
             
         } catch (Exception e) {
             logger.error("连接JaCoCo agent失败: {}", e.getMessage());
             throw new Exception("连接JaCoCo agent失败: " + e.getMessage(), e);
         }
         
-        // 将数据写入dump文件
-        try (FileOutputStream fos = new FileOutputStream(dumpFile)) {
-            org.jacoco.core.data.ExecutionDataWriter writer = 
-                new org.jacoco.core.data.ExecutionDataWriter(fos);
-            
-            // 写入session信息
-            sessionInfoStore.accept(writer);
-            // 写入执行数据
-            executionDataStore.accept(writer);
+        // 将数据写入dump文件（先写临时文件再原子重命名），写入时持有tag共享锁，与清理、压缩互斥
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(dumpDir.toPath())) {
+            try {
+                AtomicFileWriter.write(dumpFile, out -> {
+                    org.jacoco.core.data.ExecutionDataWriter writer = 
+                        new org.jacoco.core.data.ExecutionDataWriter(out);
+                
+                    // 写入session信息
+                    sessionInfoStore.accept(writer);
+                    // 写入执行数据
+                    executionDataStore.accept(writer);
+                });
             
-            logger.info("dump文件已保存到: {}", dumpFile.getAbsolutePath());
+                logger.info("dump文件已保存到: {}", dumpFile.getAbsolutePath());
+                coverageMetrics.bytesWritten(CoverageMetrics.STAGE_AGENT_DUMP, appName, dumpFile.length());
             
-        } catch (Exception e) {
-            logger.error("保存dump文件失败: {}", e.getMessage());
-            throw new Exception("保存dump文件失败: " + e.getMessage(), e);
+            } catch (Exception e) {
+                logger.error("保存dump文件失败: {}", e.getMessage());
+                throw new Exception("保存dump文件失败: " + e.getMessage(), e);
+            }
+            dumpIndexService.register(dumpFile, executionDataStore.getContents().size());
         }
         
         return dumpFile.getAbsolutePath();
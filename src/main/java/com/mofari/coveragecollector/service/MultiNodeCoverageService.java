@@ -1,6 +1,12 @@
 package com.mofari.coveragecollector.service;
 
 import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import com.mofari.coveragecollector.observability.ProgressTracker;
+import com.mofari.coveragecollector.observability.Tracer;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import com.mofari.coveragecollector.util.CollectionScope;
+import com.mofari.coveragecollector.util.CountingInputStream;
 import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.SessionInfoStore;
 import org.jacoco.core.runtime.RemoteControlReader;
@@ -11,9 +17,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class MultiNodeCoverageService {
@@ -26,15 +36,60 @@ public class MultiNodeCoverageService {
     @Autowired
     private NacosDiscoveryService nacosDiscoveryService;
     
+    @Autowired
+    private DumpIndexService dumpIndexService;
+    
+    @Autowired
+    private DumpMergeService dumpMergeService;
+    
+    @Autowired
+    private TagLockManager tagLockManager;
+    
+    @Autowired
+    private CoverageMetrics coverageMetrics;
+    
+    @Autowired
+    private Tracer tracer;
+    
+    @Autowired
+    private CollectionExecutor collectionExecutor;
+    
     /**
      * 从所有节点收集覆盖率数据
      */
     public MultiNodeCollectionResult collectFromAllNodes(String appName, String clusterName, String tag) throws Exception {
+        return collectFromAllNodes(appName, clusterName, tag, false);
+    }
+    
+    /**
+     * 从所有节点收集覆盖率数据，可选择在dump的同时重置各节点
+     * @param reset dump后是否重置agent。重置的dump一旦发出就不会因截止时间被取消（否则数据已在agent上清空），
+     *              这些节点会在截止时间之后完成，读超时仍按 collection-timeout-seconds 计算
+     */
+    public MultiNodeCollectionResult collectFromAllNodes(String appName, String clusterName, String tag, boolean reset) throws Exception {
+        return collectFromAllNodes(appName, clusterName, tag, reset, null);
+    }
+    
+    /**
+     * 从所有节点收集覆盖率数据，每个节点完成（成功、失败或超时）时立即通知listener
+     * @param listener 节点结果回调，可以为null；在收集线程上调用，可能并发
+     */
+    public MultiNodeCollectionResult collectFromAllNodes(String appName, String clusterName, String tag, boolean reset,
+                                                         NodeCollectionListener listener) throws Exception {
+        return coverageMetrics.record(CoverageMetrics.STAGE_MULTI_NODE_COLLECT, appName,
+                () -> doCollectFromAllNodes(appName, clusterName, tag, reset, listener));
+    }
+    
+    private MultiNodeCollectionResult doCollectFromAllNodes(String appName, String clusterName, String tag, boolean reset,
+                                                            NodeCollectionListener listener) throws Exception {
         logger.info("开始从所有节点收集覆盖率数据，应用: {}, 集群: {}, 标签: {}", appName, clusterName, tag);
         
         // 从Nacos获取节点信息
-        List<NacosDiscoveryService.ApplicationInstance> instances = 
-                nacosDiscoveryService.getApplicationInstances(appName, clusterName);
+        List<NacosDiscoveryService.ApplicationInstance> instances;
+        try (Tracer.Span span = tracer.span("discovery")) {
+            instances = nacosDiscoveryService.getApplicationInstances(appName, clusterName);
+            span.attribute("nodes", instances.size());
+        }
         
         MultiNodeCollectionResult result = new MultiNodeCollectionResult();
         result.setAppName(appName);
@@ -54,29 +109,57 @@ public class MultiNodeCoverageService {
         List<String> successfulDumps = new ArrayList<>();
         List<String> failedNodes = new ArrayList<>();
         
-        // 并行收集各节点数据
-        for (NacosDiscoveryService.ApplicationInstance instance : instances) {
-            try {
-                logger.info("正在从节点收集数据: {} ({}:{})", 
-                           instance.getNodeId(), instance.getIp(), instance.getJacocoPort());
-                
-                String dumpFilePath = collectFromSingleNode(appName, clusterName, tag, instance);
-                successfulDumps.add(dumpFilePath);
-                
+        // 并行收集各节点数据：每个节点一个子任务，共用一个截止时间，超时未完成的节点被取消并记为失败
+        Tracer.Span parentSpan = tracer.currentSpan();
+        ProgressTracker.Progress progress = ProgressTracker.current();
+        progress.addTotal(ProgressTracker.NODES, instances.size());
+        NodeNotifier notifier = new NodeNotifier(listener, progress);
+        List<CollectionScope.Subtask<String>> subtasks = new ArrayList<>();
+        try (CollectionScope<String> scope = collectionExecutor.openScope()) {
+            for (NacosDiscoveryService.ApplicationInstance instance : instances) {
+                subtasks.add(scope.fork(() -> {
+                    String dumpFilePath;
+                    try (Tracer.Span ignored = tracer.span(parentSpan, "node").attribute("node", instance.getNodeId())) {
+                        logger.info("正在从节点收集数据: {} ({}:{})", 
+                                   instance.getNodeId(), instance.getIp(), instance.getJacocoPort());
+                        dumpFilePath = collectFromSingleNode(appName, clusterName, tag, instance, reset, scope.remainingMillis());
+                    } catch (Exception e) {
+                        notifier.notify(instance, null, e);
+                        throw e;
+                    }
+                    notifier.notify(instance, dumpFilePath, null);
+                    return dumpFilePath;
+                }));
+            }
+            if (!scope.join()) {
+                logger.warn("多节点收集超过截止时间 {} 秒，未完成的节点已取消（已发出重置dump的节点等待其完成）", coverageConfig.getThreads().getCollectionTimeoutSeconds());
+            }
+        }
+        
+        for (int i = 0; i < instances.size(); i++) {
+            NacosDiscoveryService.ApplicationInstance instance = instances.get(i);
+            CollectionScope.Subtask<String> subtask = subtasks.get(i);
+            if (subtask.state() == CollectionScope.State.SUCCESS) {
+                successfulDumps.add(subtask.get());
+                coverageMetrics.nodeCollected(appName, true);
                 logger.info("节点 {} 数据收集成功", instance.getNodeId());
-                
-            } catch (Exception e) {
-                String errorMsg = String.format("节点 %s 数据收集失败: %s", 
-                                               instance.getNodeId(), e.getMessage());
-                logger.error(errorMsg, e);
-                failedNodes.add(instance.getNodeId());
+                continue;
+            }
+            if (subtask.state() == CollectionScope.State.FAILED) {
+                Throwable e = subtask.exception();
+                logger.error(String.format("节点 %s 数据收集失败: %s", instance.getNodeId(), e.getMessage()), e);
+            } else {
+                logger.error("节点 {} 数据收集超时，已取消", instance.getNodeId());
+                notifier.notify(instance, null, new TimeoutException("超过收集截止时间，已取消"));
             }
+            failedNodes.add(instance.getNodeId());
+            coverageMetrics.nodeCollected(appName, false);
         }
 
         //如果有多个节点成功，需要合并各个节点最新的文件，不然后续获得最新的dump文件就只有一个节点
         if (successfulDumps.size() > 1) {
             logger.info("Merging all node dump files");
-            String mergedPath = MultiNodeCollectionResult.getMergedAllNodeLatestDumpFilePath(successfulDumps);
+            String mergedPath = mergeNodeDumps(appName, successfulDumps);
             result.setMergedAllNodeDumpFilePath(mergedPath);
         }
         
@@ -95,7 +178,8 @@ public class MultiNodeCoverageService {
      * 从单个节点收集数据
      */
     private String collectFromSingleNode(String appName, String clusterName, String tag, 
-                                        NacosDiscoveryService.ApplicationInstance instance) throws Exception {
+                                        NacosDiscoveryService.ApplicationInstance instance, boolean reset,
+                                        long timeoutMillis) throws Exception {
         // 创建dump目录
         File dumpDir = new File(coverageConfig.getDumpDirectory(), 
                                appName + "/" + clusterName + "/" + tag);
@@ -112,31 +196,77 @@ public class MultiNodeCoverageService {
         SessionInfoStore sessionInfoStore = new SessionInfoStore();
         
         // 连接到JaCoCo agent
-        try (Socket socket = new Socket(instance.getIp(), instance.getJacocoPort())) {
+        try (CoverageMetrics.Stage dumpStage = coverageMetrics.start(CoverageMetrics.STAGE_AGENT_DUMP, appName)
+                     .attribute("node", instance.getNodeId())
+                     .attribute("endpoint", instance.getIp() + ":" + instance.getJacocoPort());
+             Socket socket = new Socket()) {
+            // 连接和读取都不超过收集的剩余时间，平台线程阻塞在socket上时不响应中断
+            int timeout = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMillis));
+            socket.connect(new InetSocketAddress(instance.getIp(), instance.getJacocoPort()), timeout);
+            socket.setSoTimeout(timeout);
             RemoteControlWriter writer = new RemoteControlWriter(socket.getOutputStream());
-            RemoteControlReader reader = new RemoteControlReader(socket.getInputStream());
+            CountingInputStream received = new CountingInputStream(socket.getInputStream());
+            RemoteControlReader reader = new RemoteControlReader(received);
             
             reader.setSessionInfoVisitor(sessionInfoStore);
             reader.setExecutionDataVisitor(executionDataStore);
             
-            writer.visitDumpCommand(true, false);
+            if (reset) {
+                // agent收到命令后立即重置，之后中断传输会永久丢失这部分覆盖率：
+                // 截止时间只限制连接，命令发出后不再取消，读超时只用于发现停止响应的agent
+                if (!CollectionScope.shield()) {
+                    throw new TimeoutException("超过收集截止时间，未发送dump命令");
+                }
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+                        TimeUnit.SECONDS.toMillis(coverageConfig.getThreads().getCollectionTimeoutSeconds())));
+            }
+            writer.visitDumpCommand(true, reset);
             
             if (!reader.read()) {
                 throw new IOException("读取数据失败");
             }
+            dumpStage.success()
+                    .attribute("classes", executionDataStore.getContents().size())
+                    .attribute("bytes", received.getCount());
         }
         
-        // 保存dump文件
-        try (FileOutputStream fos = new FileOutputStream(dumpFile)) {
-            org.jacoco.core.data.ExecutionDataWriter writer = 
-                new org.jacoco.core.data.ExecutionDataWriter(fos);
-            sessionInfoStore.accept(writer);
-            executionDataStore.accept(writer);
+        // 保存dump文件（先写临时文件再原子重命名，读者不会看到写了一半的文件）
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(dumpDir.toPath())) {
+            AtomicFileWriter.write(dumpFile, out -> {
+                org.jacoco.core.data.ExecutionDataWriter writer = 
+                    new org.jacoco.core.data.ExecutionDataWriter(out);
+                sessionInfoStore.accept(writer);
+                executionDataStore.accept(writer);
+            });
+            dumpIndexService.register(dumpFile, executionDataStore.getContents().size());
         }
+        coverageMetrics.bytesWritten(CoverageMetrics.STAGE_AGENT_DUMP, appName, dumpFile.length());
         
         return dumpFile.getAbsolutePath();
     }
     
+    /**
+     * 合并本次各节点的dump文件，文件名中只记录节点数量，避免节点较多时文件名超长
+     */
+    private String mergeNodeDumps(String appName, List<String> successfulDumps) throws Exception {
+        List<File> inputFiles = new ArrayList<>();
+        for (String dumpPath : successfulDumps) {
+            inputFiles.add(new File(dumpPath));
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
+        String mergedFileName = String.format("jacoco_merged_%s_%dnodes.exec", timestamp, inputFiles.size());
+        File mergedFile = new File(inputFiles.get(0).getParentFile(), mergedFileName);
+        
+        // 共享锁：合并期间本次写入的节点文件不会被清理或压缩删除
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(mergedFile.getParentFile().toPath())) {
+            int classCount = coverageMetrics.record(CoverageMetrics.STAGE_MERGE, appName,
+                    () -> dumpMergeService.mergeFiles(inputFiles, mergedFile));
+            dumpIndexService.register(mergedFile, classCount);
+        }
+        coverageMetrics.bytesWritten(CoverageMetrics.STAGE_MERGE, appName, mergedFile.length());
+        return mergedFile.getAbsolutePath();
+    }
+    
     /**
      * 重置所有节点的覆盖率数据
      */
@@ -193,6 +323,50 @@ public class MultiNodeCoverageService {
         return result;
     }
     
+    /**
+     * 单个节点的收集结果回调
+     */
+    public interface NodeCollectionListener {
+        /**
+         * @param instance 节点
+         * @param dumpFilePath 保存的dump文件，失败时为null
+         * @param error 失败原因（超时为 {@link TimeoutException}），成功时为null
+         */
+        void onNodeCollected(NacosDiscoveryService.ApplicationInstance instance, String dumpFilePath, Throwable error);
+    }
+    
+    /**
+     * 每个节点只通知一次（被取消的子任务可能在取消后才抛出异常），回调的异常不影响收集；同时更新任务进度
+     */
+    private static final class NodeNotifier {
+        private final NodeCollectionListener listener;
+        private final ProgressTracker.Progress progress;
+        private final Set<String> notified = ConcurrentHashMap.newKeySet();
+        
+        NodeNotifier(NodeCollectionListener listener, ProgressTracker.Progress progress) {
+            this.listener = listener;
+            this.progress = progress;
+        }
+        
+        void notify(NacosDiscoveryService.ApplicationInstance instance, String dumpFilePath, Throwable error) {
+            if (!notified.add(instance.getNodeId())) {
+                return;
+            }
+            progress.increment(ProgressTracker.NODES);
+            if (error != null) {
+                progress.increment(ProgressTracker.FAILED_NODES);
+            }
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.onNodeCollected(instance, dumpFilePath, error);
+            } catch (RuntimeException e) {
+                logger.warn("节点 {} 的收集结果回调失败", instance.getNodeId(), e);
+            }
+        }
+    }
+    
     // 结果类定义
     public static class MultiNodeCollectionResult {
         private String appName;
@@ -225,62 +399,6 @@ public class MultiNodeCoverageService {
             this.mergedAllNodeDumpFilePath = mergedAllNodeDumpFilePath;}
         public List<String> getFailedNodes() { return failedNodes; }
         public void setFailedNodes(List<String> failedNodes) { this.failedNodes = failedNodes; }
-
-        public static  String getMergedAllNodeLatestDumpFilePath(List<String> successfulDumps) throws Exception {
-
-            // 合并所有dump文件
-            ExecutionDataStore mergedExecutionDataStore = new ExecutionDataStore();
-            SessionInfoStore mergedSessionInfoStore = new SessionInfoStore();
-            StringBuilder stringBuilder = new StringBuilder();
-            for (String dumpPath : successfulDumps) {
-                stringBuilder.append(getIpFromDumpPath(dumpPath)).append("_");
-                try (FileInputStream fis = new FileInputStream(dumpPath)) {
-                    org.jacoco.core.data.ExecutionDataReader reader =
-                            new org.jacoco.core.data.ExecutionDataReader(fis);
-
-                    reader.setSessionInfoVisitor(mergedSessionInfoStore);
-                    reader.setExecutionDataVisitor(mergedExecutionDataStore);
-                    reader.read();
-
-                } catch (Exception e) {
-                    throw new Exception("读取dump文件失败: " + dumpPath, e);
-                }
-            }
-
-            // 生成合并后的文件名
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
-            String mergedFileName = String.format("jacoco_merged_%s.exec_" + stringBuilder + "%s.exec", timestamp);
-            File mergedFile = new File(new File(successfulDumps.get(0)).getParent(), mergedFileName);
-
-            // 保存合并后的数据
-            try (FileOutputStream fos = new FileOutputStream(mergedFile)) {
-                org.jacoco.core.data.ExecutionDataWriter writer =
-                        new org.jacoco.core.data.ExecutionDataWriter(fos);
-
-                // 写入合并后的session信息和执行数据
-                mergedSessionInfoStore.accept(writer);
-                mergedExecutionDataStore.accept(writer);
-
-                logger.info("合并后的dump文件已保存: {}", mergedFile.getAbsolutePath());
-
-            } catch (Exception e) {
-                logger.error("保存合并后的dump文件失败", e);
-                throw new Exception("保存合并后的dump文件失败: " + e.getMessage(), e);
-            }
-
-            return mergedFile.getAbsolutePath();
-        }
-
-        private static String getIpFromDumpPath(String dumpPath) {
-            String fileName = new File(dumpPath).getName();
-            String[] parts = fileName.split("_");
-            if (parts.length > 4) {
-                String[] ipParts = Arrays.copyOfRange(parts, 1,5);
-                return String.join("_", ipParts);
-            }else {
-                return null;
-            }
-        }
     }
 
 
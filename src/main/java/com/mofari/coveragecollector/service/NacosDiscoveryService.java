@@ -1,6 +1,7 @@
 package com.mofari.coveragecollector.service;
 
 import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,6 +42,9 @@ public class NacosDiscoveryService {
     @Autowired
     private CoverageConfig coverageConfig;
     
+    @Autowired
+    private CoverageMetrics coverageMetrics;
+    
     private RestTemplate restTemplate;
     private ObjectMapper objectMapper;
     
@@ -77,7 +81,11 @@ public class NacosDiscoveryService {
             
             // 解析响应
             JsonNode jsonNode = objectMapper.readTree(responseBody);
-            return parseNacosResponse(jsonNode, clusterName, appName);
+            List<ApplicationInstance> instances = parseNacosResponse(jsonNode, clusterName, appName);
+            if (!instances.isEmpty()) {
+                coverageMetrics.appDiscovered(appName);
+            }
+            return instances;
             
         } catch (Exception e) {
             logger.error("从Nacos获取应用实例失败，appName: {}, clusterName: {}", appName, clusterName, e);
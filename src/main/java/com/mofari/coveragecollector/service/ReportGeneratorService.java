@@ -3,18 +3,25 @@ package com.mofari.coveragecollector.service;
 import com.mofari.coveragecollector.config.CoverageConfig;
 import com.mofari.coveragecollector.model.incremental.*;
 import com.mofari.coveragecollector.model.FullCoverageReport;
+import com.mofari.coveragecollector.model.diff.FileLineMapping;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.verification.ClassIdMismatch;
+import com.mofari.coveragecollector.model.verification.ClassIdVerification;
+import com.mofari.coveragecollector.observability.CoverageMetrics;
+import com.mofari.coveragecollector.observability.ProgressTracker;
+import com.mofari.coveragecollector.observability.Tracer;
 import com.mofari.coveragecollector.service.SonarQubeIntegrationService.SonarAnalysisResult;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
 import com.mofari.coveragecollector.util.ReportUrlGenerator;
 import org.jacoco.core.analysis.Analyzer;
 import org.jacoco.core.analysis.CoverageBuilder;
 import org.jacoco.core.analysis.IBundleCoverage;
 import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.SessionInfoStore;
-import org.jacoco.report.DirectorySourceFileLocator;
 import org.jacoco.report.FileMultiReportOutput;
+import org.jacoco.report.IMultiReportOutput;
 import org.jacoco.report.IReportVisitor;
 import org.jacoco.report.ISourceFileLocator;
-import org.jacoco.report.MultiSourceFileLocator;
 import org.jacoco.report.html.HTMLFormatter;
 import org.jacoco.report.xml.XMLFormatter;
 import org.slf4j.Logger;
@@ -23,6 +30,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PreDestroy;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -42,11 +50,16 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 
 @Service
@@ -61,6 +74,37 @@ public class ReportGeneratorService {
     @Autowired
     private DumpMergeService dumpMergeService;
 
+    @Autowired
+    private TagLockManager tagLockManager;
+
+    @Autowired
+    private ClassFileService classFileService;
+
+    @Autowired
+    private SourceClassIndexService sourceClassIndexService;
+
+    @Autowired
+    private SourceLocatorService sourceLocatorService;
+
+    @Autowired
+    private CoverageSnapshotService coverageSnapshotService;
+
+    @Autowired
+    private ClassIdVerificationService classIdVerificationService;
+
+    @Autowired
+    private CoverageMetrics coverageMetrics;
+
+    @Autowired
+    private Tracer tracer;
+
+    private final ExecutorService snapshotRefreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "coverage-snapshot-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<String> pendingSnapshotRefreshes = ConcurrentHashMap.newKeySet();
+
     @Autowired
     private GitDiffService gitDiffService;
 
@@ -101,6 +145,200 @@ public class ReportGeneratorService {
     }
 
     // Helper method to load execution data and session info from a dump file
+    /**
+     * Pick the dump file and read it while holding the tag's shared lock, so cleanup or
+     * compaction cannot delete it in between. The lock is released before analysis starts.
+     */
+    private ExecutionDataStore loadDumpData(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                            boolean mergeAllDumps, SessionInfoStore sessionInfoStore) throws IOException {
+        try (Tracer.Span span = tracer.span("load_dump");
+             TagLockManager.LockHandle ignored = tagLockManager.readLock(appName, clusterName, tag)) {
+            File actualDumpFile = determineDumpFileToUse(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
+            ExecutionDataStore executionDataStore = loadExecutionData(actualDumpFile, sessionInfoStore);
+            span.attribute("file", actualDumpFile.getName()).attribute("classes", executionDataStore.getContents().size());
+            return executionDataStore;
+        }
+    }
+
+    /**
+     * Same selection as loadDumpData, but the tag's dumps are merged in memory instead of being written
+     * to a new merged file, so read-only analysis leaves the dump directory and its index untouched.
+     */
+    private ExecutionDataStore loadDumpDataInMemory(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                                    boolean mergeAllDumps, SessionInfoStore sessionInfoStore) throws IOException {
+        if (!mergeAllDumps || (specificDumpFilePath != null && !specificDumpFilePath.trim().isEmpty())) {
+            return loadDumpData(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, sessionInfoStore);
+        }
+        try (Tracer.Span span = tracer.span("load_dump")) {
+            ExecutionDataStore executionDataStore = new ExecutionDataStore();
+            int fileCount;
+            try {
+                fileCount = dumpMergeService.loadMergedExecutionData(appName, clusterName, tag, executionDataStore, sessionInfoStore);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Error merging dump files in memory for app: " + appName + ", env: " + clusterName + ", tag: " + tag + ": " + e.getMessage(), e);
+            }
+            span.attribute("files", fileCount).attribute("classes", executionDataStore.getContents().size());
+            return executionDataStore;
+        }
+    }
+
+    /**
+     * Fingerprint of the dump data a report would be built from, matching the selection made by
+     * determineDumpFileToUse. Used to decide whether a stored coverage snapshot is still current.
+     */
+    private String dumpFingerprint(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                   boolean mergeAllDumps) throws FileNotFoundException {
+        if (specificDumpFilePath != null && !specificDumpFilePath.trim().isEmpty()) {
+            File specificFile = new File(specificDumpFilePath);
+            if (!specificFile.exists()) {
+                throw new FileNotFoundException("Specified dump file does not exist: " + specificDumpFilePath);
+            }
+            return "file|" + specificFile.getAbsolutePath() + "|" + DumpMergeService.fingerprintOf(specificFile);
+        }
+        String fingerprint = dumpMergeService.getDumpFingerprint(appName, clusterName, tag, mergeAllDumps);
+        if (fingerprint == null) {
+            throw new FileNotFoundException("No dump file found for app: " + appName + ", env: " + clusterName + ", tag: " + tag);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the stored coverage snapshot if it was built from the current dump data and class files, otherwise null
+     */
+    private CoverageSnapshot findCurrentSnapshot(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                                 boolean mergeAllDumps, List<String> classDirs) throws IOException {
+        try (Tracer.Span span = tracer.span("snapshot_lookup")) {
+            String classStamp = sourceClassIndexService.getIndex(appName, tag, classDirs).getStamp();
+            String fingerprint = dumpFingerprint(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
+            CoverageSnapshot snapshot = coverageSnapshotService.find(appName, clusterName, tag, fingerprint, classStamp);
+            span.attribute("hit", snapshot != null);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Returns the coverage snapshot for the given dump selection, analysing the classes and storing
+     * a new snapshot only when the dump data or the class files changed since the last one.
+     * Merged dumps are combined in memory; no merged dump file is written.
+     */
+    public CoverageSnapshot getCoverageSnapshot(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                                boolean mergeAllDumps) throws IOException {
+        List<String> classDirs = getClassDirectories(appName, tag);
+        CoverageSnapshot snapshot = findCurrentSnapshot(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, classDirs);
+        if (snapshot != null) {
+            logger.info("Using stored coverage snapshot for app: {}, env: {}, tag: {}", appName, clusterName, tag);
+            return snapshot;
+        }
+        logger.info("No current coverage snapshot for app: {}, env: {}, tag: {}; analysing classes", appName, clusterName, tag);
+        String fingerprint;
+        ExecutionDataStore executionDataStore;
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(appName, clusterName, tag)) {
+            fingerprint = dumpFingerprint(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
+            executionDataStore = loadDumpDataInMemory(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, new SessionInfoStore());
+        }
+        checkClassIds(appName, tag, classDirs, executionDataStore);
+        IBundleCoverage bundleCoverage = analyzeCoverage(appName, executionDataStore, classDirs, classFileService.filterFor(appName), appName + " Coverage Snapshot");
+        String classStamp = sourceClassIndexService.getIndex(appName, tag, classDirs).getStamp();
+        return coverageSnapshotService.save(appName, clusterName, tag, fingerprint, classStamp, bundleCoverage, null);
+    }
+
+    /**
+     * Coverage snapshot of a single dump file. It is analysed on every call and never stored, so it
+     * does not replace the tag's snapshot or add a point to the coverage trend.
+     */
+    public CoverageSnapshot analyzeDumpSnapshot(String appName, String clusterName, String tag, String dumpFilePath) throws IOException {
+        List<String> classDirs = getClassDirectories(appName, tag);
+        ExecutionDataStore executionDataStore = loadDumpData(appName, clusterName, tag, dumpFilePath, false, new SessionInfoStore());
+        IBundleCoverage bundleCoverage = analyzeCoverage(appName, executionDataStore, classDirs, classFileService.filterFor(appName), appName + " Dump Snapshot");
+        CoverageSnapshot snapshot = CoverageSnapshotService.build(bundleCoverage);
+        snapshot.setAppName(appName);
+        snapshot.setClusterName(clusterName);
+        snapshot.setTag(tag);
+        snapshot.setCreatedAt(System.currentTimeMillis());
+        return snapshot;
+    }
+
+    /**
+     * Loads the execution data a report would be built from: the specific dump file when given,
+     * otherwise the tag's dumps merged in memory (no merged dump file is written).
+     */
+    public ExecutionDataStore loadTagExecutionData(String appName, String clusterName, String tag, String specificDumpFilePath)
+            throws IOException {
+        return loadDumpDataInMemory(appName, clusterName, tag, specificDumpFilePath, true, new SessionInfoStore());
+    }
+
+    /**
+     * Cross-checks the class ids in the dump data against the class files that would be analysed.
+     * Diagnostic only: merged dumps are combined in memory and nothing is written.
+     */
+    public ClassIdVerification verifyClassIds(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                              boolean mergeAllDumps) throws IOException {
+        List<String> classDirs = getClassDirectories(appName, tag);
+        ExecutionDataStore executionDataStore = loadDumpDataInMemory(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, new SessionInfoStore());
+        return classIdVerificationService.verify(executionDataStore, sourceClassIndexService.getIndex(appName, tag, classDirs),
+                classFileService.filterFor(appName));
+    }
+
+    /**
+     * Verification stage before analysis: logs classes whose probes would be silently dropped because
+     * the class files differ from what the agent instrumented, and fails early when configured to.
+     */
+    private void checkClassIds(String appName, String tag, List<String> classDirs, ExecutionDataStore executionDataStore) throws IOException {
+        CoverageConfig.VerificationConfig config = coverageConfig.getVerification();
+        if (!config.isEnabled()) {
+            return;
+        }
+        ClassIdVerification verification;
+        try (Tracer.Span span = tracer.span("verify_class_ids")) {
+            verification = classIdVerificationService.verify(executionDataStore,
+                    sourceClassIndexService.getIndex(appName, tag, classDirs), classFileService.filterFor(appName));
+            span.attribute("mismatched", verification.getMismatchedClasses());
+        }
+        if (verification.getMismatchedClasses() == 0) {
+            return;
+        }
+        StringBuilder examples = new StringBuilder();
+        List<ClassIdMismatch> mismatches = verification.getMismatches();
+        for (int i = 0; i < Math.min(5, mismatches.size()); i++) {
+            examples.append(i > 0 ? ", " : "").append(mismatches.get(i).getClassName());
+        }
+        String message = String.format("%d of %d classes in the dump do not match the class files of app %s, tag %s "
+                        + "(%d classes with %d hit probes lose their coverage), e.g. %s",
+                verification.getMismatchedClasses(), verification.getTotalClasses(), appName, tag,
+                verification.getLostCoverageClasses(), verification.getLostHitProbes(), examples);
+        if (config.isFailOnMismatch() && verification.hasLostCoverage()) {
+            throw new IllegalStateException(message);
+        }
+        logger.warn(message);
+    }
+
+    /**
+     * Rebuilds the merged-dump coverage snapshot in the background after a collection, so the
+     * coverage trend gets a point per collection. Requests for a tag that is already queued are coalesced.
+     * The dumps are merged in memory, so a collection does not leave an extra merged dump file behind.
+     */
+    public void refreshSnapshotAsync(String appName, String clusterName, String tag) {
+        String key = appName + "/" + (clusterName != null ? clusterName : "") + "/" + tag;
+        if (!pendingSnapshotRefreshes.add(key)) {
+            return;
+        }
+        snapshotRefreshExecutor.execute(() -> {
+            pendingSnapshotRefreshes.remove(key);
+            try {
+                getCoverageSnapshot(appName, clusterName, tag, null, true);
+            } catch (Exception e) {
+                logger.warn("Background coverage snapshot refresh failed for app: {}, env: {}, tag: {}", appName, clusterName, tag, e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshotRefreshExecutor.shutdownNow();
+    }
+
     private ExecutionDataStore loadExecutionData(File dumpFile, SessionInfoStore sessionInfoStore) throws IOException {
         ExecutionDataStore executionDataStore = new ExecutionDataStore();
         try (FileInputStream fis = new FileInputStream(dumpFile)) {
@@ -115,19 +353,23 @@ public class ReportGeneratorService {
         return executionDataStore;
     }
 
-    // Helper method to analyze coverage
-    private IBundleCoverage analyzeCoverage(ExecutionDataStore executionDataStore, List<String> classDirectories, String bundleName) throws IOException {
+    // Helper method to analyze coverage (package-private for the JMH benchmarks)
+    IBundleCoverage analyzeCoverage(String appName, ExecutionDataStore executionDataStore, List<String> classDirectories,
+                                    ClassFileService.ClassFilter classFilter, String bundleName) throws IOException {
         CoverageBuilder coverageBuilder = new CoverageBuilder();
-        Analyzer analyzer = new Analyzer(executionDataStore, coverageBuilder);
+        ProgressTracker.Progress progress = ProgressTracker.current();
+        Analyzer analyzer = new Analyzer(executionDataStore, classCoverage -> {
+            coverageBuilder.visitCoverage(classCoverage);
+            progress.increment(ProgressTracker.ANALYZED_CLASSES);
+        });
         if (classDirectories != null) {
-            for (String classDirStr : classDirectories) {
-                File classDir = new File(classDirStr);
-                if (classDir.exists()) {
-                    analyzer.analyzeAll(classDir);
-                    logger.info("Analyzed class directory: {}", classDirStr);
-                } else {
-                    logger.warn("Class directory not found, skipping: {}", classDirStr);
-                }
+            // Class directories, plain jars, Spring Boot fat jars and wars are all read in place
+            try (CoverageMetrics.Stage stage = coverageMetrics.start(CoverageMetrics.STAGE_ANALYSIS, appName)) {
+                long start = System.nanoTime();
+                int classCount = classFileService.analyzeAll(analyzer, classDirectories, classFilter);
+                stage.success().attribute("classes", classCount);
+                coverageMetrics.classesAnalyzed(appName, classCount, System.nanoTime() - start);
+                logger.info("Analyzed {} classes from {} class locations", classCount, classDirectories.size());
             }
         } else {
             logger.warn("Class directories list is null for bundle: {}. Analysis might be incomplete.", bundleName);
@@ -136,6 +378,11 @@ public class ReportGeneratorService {
     }
 
     public FullCoverageReport generateReport(String appName, String clusterName, String tag, String specificDumpFilePath, boolean mergeAllDumps) throws Exception {
+        return coverageMetrics.record(CoverageMetrics.STAGE_REPORT, appName,
+                () -> doGenerateReport(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps));
+    }
+
+    private FullCoverageReport doGenerateReport(String appName, String clusterName, String tag, String specificDumpFilePath, boolean mergeAllDumps) throws Exception {
         logger.info("Generating full JaCoCo report for app: {}, env: {}, tag: {}, mergeDumps: {}", appName, clusterName, tag, mergeAllDumps);
 
         CoverageConfig.ApplicationConfig appConfig = coverageConfig.getApplicationConfig(appName);
@@ -154,20 +401,42 @@ public class ReportGeneratorService {
         } else {
             reportOutputDirPath = Paths.get(coverageConfig.getReportOutputDirectory(), appName, tag).resolve(reportDirName);
         }
-        Files.createDirectories(reportOutputDirPath);
         File reportOutputDir = reportOutputDirPath.toFile();
 
-        File actualDumpFile = determineDumpFileToUse(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
-
         SessionInfoStore sessionInfoStore = new SessionInfoStore();
-        ExecutionDataStore executionDataStore = loadExecutionData(actualDumpFile, sessionInfoStore);
-        IBundleCoverage bundleCoverage = analyzeCoverage(executionDataStore, classDirs, appName + " Coverage Report");
-        ISourceFileLocator sourceLocator = createMultiSourceFileLocator(sourceDirs);
-
-        generateHtmlReport(bundleCoverage, sourceLocator, reportOutputDir, sessionInfoStore, executionDataStore);
-        generateXmlReport(bundleCoverage, sourceLocator, reportOutputDir, sessionInfoStore, executionDataStore);
+        String dumpFingerprint;
+        ExecutionDataStore executionDataStore;
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock(appName, clusterName, tag)) {
+            dumpFingerprint = dumpFingerprint(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
+            executionDataStore = loadDumpData(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, sessionInfoStore);
+        }
+        checkClassIds(appName, tag, classDirs, executionDataStore);
+        IBundleCoverage bundleCoverage = analyzeCoverage(appName, executionDataStore, classDirs, classFileService.filterFor(appName), appName + " Coverage Report");
+        ISourceFileLocator sourceLocator = sourceLocatorService.getLocator(sourceDirs);
+
+        // Render into a hidden sibling directory and rename it into place once complete,
+        // so a crash never leaves a half-written report behind the published path.
+        Path stagingDirPath = reportOutputDirPath.resolveSibling("." + reportDirName + AtomicFileWriter.TEMP_SUFFIX);
+        Files.createDirectories(stagingDirPath);
+        try {
+            try (CoverageMetrics.Stage htmlStage = coverageMetrics.start(CoverageMetrics.STAGE_HTML_REPORT, appName)) {
+                generateHtmlReport(bundleCoverage, sourceLocator, stagingDirPath.toFile(), sessionInfoStore, executionDataStore);
+                htmlStage.success();
+            }
+            generateXmlReport(appName, bundleCoverage, sourceLocator, stagingDirPath.toFile(), sessionInfoStore, executionDataStore, "jacoco.xml");
+            AtomicFileWriter.publishDirectory(stagingDirPath, reportOutputDirPath);
+        } finally {
+            deleteRecursively(stagingDirPath);
+        }
 
         logger.info("Full JaCoCo reports generated at: {}", reportOutputDir.getAbsolutePath());
+        coverageMetrics.bytesWritten(CoverageMetrics.STAGE_REPORT, appName, new File(reportOutputDir, "jacoco.xml").length());
+
+        // Keep the per-line results so later queries and incremental reports skip the analysis
+        try (Tracer.Span ignored = tracer.span("snapshot_save")) {
+            String classStamp = sourceClassIndexService.getIndex(appName, tag, classDirs).getStamp();
+            coverageSnapshotService.save(appName, clusterName, tag, dumpFingerprint, classStamp, bundleCoverage, reportOutputDir.getAbsolutePath());
+        }
 
         // Create and populate the full coverage report
         FullCoverageReport report = new FullCoverageReport();
@@ -190,20 +459,15 @@ public class ReportGeneratorService {
         return report;
     }
 
-    private ISourceFileLocator createMultiSourceFileLocator(List<String> sourceDirectories) {
-        MultiSourceFileLocator multiLocator = new MultiSourceFileLocator(4); // tabWidth = 4
-        if (sourceDirectories != null) {
-            for (String sourceDirectory : sourceDirectories) {
-                File sourceDir = new File(sourceDirectory);
-                if (sourceDir.exists()) {
-                    multiLocator.add(new DirectorySourceFileLocator(sourceDir, "utf-8", 4));
-                    logger.debug("Added source directory to locator: {}", sourceDirectory);
-                } else {
-                    logger.warn("Source directory not found for locator, skipping: {}", sourceDirectory);
-                }
-            }
+    private void deleteRecursively(Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            logger.warn("Failed to delete staging report directory: {}", dir, e);
         }
-        return multiLocator;
     }
 
     private void validateDirectories(List<String> sourceDirectories, List<String> classDirectories) throws FileNotFoundException {
@@ -253,7 +517,7 @@ public class ReportGeneratorService {
         IReportVisitor visitor = null;
         try {
             multiReportOutput = new FileMultiReportOutput(htmlReportDir);
-            visitor = htmlFormatter.createVisitor(multiReportOutput);
+            visitor = htmlFormatter.createVisitor(countingPages(multiReportOutput, ProgressTracker.current()));
             visitor.visitInfo(sessionInfoStore.getInfos(), executionDataStore.getContents());
             visitor.visitBundle(bundleCoverage, sourceLocator);
             visitor.visitEnd();
@@ -269,6 +533,26 @@ public class ReportGeneratorService {
         logger.info("HTML report generated at: {}", htmlReportDir.getAbsolutePath());
     }
 
+    /**
+     * Counts rendered HTML pages into the job progress; resources (css, images) are not counted.
+     */
+    private static IMultiReportOutput countingPages(IMultiReportOutput output, ProgressTracker.Progress progress) {
+        return new IMultiReportOutput() {
+            @Override
+            public OutputStream createFile(String path) throws IOException {
+                if (path.endsWith(".html")) {
+                    progress.increment(ProgressTracker.RENDERED_PAGES);
+                }
+                return output.createFile(path);
+            }
+
+            @Override
+            public void close() throws IOException {
+                output.close();
+            }
+        };
+    }
+
     public IncrementalCoverageReport generateIncrementalReport(
             String appName,
             String clusterName,
@@ -278,6 +562,17 @@ public class ReportGeneratorService {
             String specificDumpFilePath,
             boolean mergeAllDumps)
             throws IOException, InterruptedException, ParserConfigurationException, SAXException {
+        try (CoverageMetrics.Stage stage = coverageMetrics.start(CoverageMetrics.STAGE_INCREMENTAL_REPORT, appName)) {
+            IncrementalCoverageReport report = doGenerateIncrementalReport(appName, clusterName, tag, baseRef, newRef,
+                    specificDumpFilePath, mergeAllDumps);
+            stage.success();
+            return report;
+        }
+    }
+
+    private IncrementalCoverageReport doGenerateIncrementalReport(String appName, String clusterName, String tag, String baseRef,
+                                                                  String newRef, String specificDumpFilePath, boolean mergeAllDumps)
+            throws IOException, InterruptedException, ParserConfigurationException, SAXException {
 
         logger.info("Generating incremental JaCoCo report for app: {}, cluster: {}, tag: {}, baseRef: {}, newRef/Tag: {}, mergeDumps: {}",
                 appName, clusterName, tag, baseRef, newRef, mergeAllDumps);
@@ -287,47 +582,8 @@ public class ReportGeneratorService {
             throw new IllegalArgumentException("Application configuration not found for appName: " + appName);
         }
 
-        // Determine project path for git diff
-        String projectPath = coverageConfig.getBaseProjectPath();
-        if (!StringUtils.hasText(projectPath)) {
-            throw new IllegalArgumentException("coverage.base-project-path is not configured. It's required for Git diff operations.");
-        }
-        Path gitRepoPath = Paths.get(projectPath, appName + "-" + tag);
-        if (!Files.isDirectory(gitRepoPath) || !Files.exists(gitRepoPath.resolve(".git"))) {
-            throw new FileNotFoundException("Git repository not found for app '" + appName + "' at expected path: " + gitRepoPath +
-                    ". Ensure coverage.base-project-path is set correctly and contains the '<appName>' git project.");
-        }
-
-
-        logger.info("Getting changed lines for app: {}, base: {}, new: {}", appName, baseRef, newRef);
-        // Use newRefAsTag for the git diff operation
-        Map<String, Set<Integer>> changedLinesMap = gitDiffService.getChangedLines(gitRepoPath.toString(), baseRef, newRef);
-
-        // *** START: NEW CODE TO NORMALIZE FILE PATHS ***
+        Map<String, Set<Integer>> jacocoFormattedChangedLines = getChangedLines(appName, tag, baseRef, newRef);
         List<String> sourceDirs = getSourceDirectories(appName, tag);
-        logger.info("Normalizing Git diff paths to match JaCoCo's package-based paths...");
-        Map<String, Set<Integer>> jacocoFormattedChangedLines = new HashMap<>();
-
-        for (Map.Entry<String, Set<Integer>> entry : changedLinesMap.entrySet()) {
-            String gitRelativePath = entry.getKey().replace("\\", "/");
-            Path absoluteGitFilePath = gitRepoPath.resolve(gitRelativePath).normalize();
-            boolean foundMatch = false;
-
-            for (String sourceDirStr : sourceDirs) {
-                Path sourceDirPath = Paths.get(sourceDirStr).normalize();
-                if (absoluteGitFilePath.startsWith(sourceDirPath)) {
-                    String jacocoPath = sourceDirPath.relativize(absoluteGitFilePath).toString().replace("\\", "/");
-                    jacocoFormattedChangedLines.put(jacocoPath, entry.getValue());
-                    logger.debug("Transformed path: '{}' -> '{}'", gitRelativePath, jacocoPath);
-                    foundMatch = true;
-                    break; // Found the correct source root for this file, move to the next file
-                }
-            }
-            if (!foundMatch) {
-                logger.warn("Could not find a matching source directory for changed file: {}. It will not be included in the incremental report.", gitRelativePath);
-            }
-        }
-        // *** END: NEW CODE TO NORMALIZE FILE PATHS ***
 
         IncrementalCoverageReport report = new IncrementalCoverageReport();
         report.setAppName(appName);
@@ -356,37 +612,26 @@ public class ReportGeneratorService {
             File jsonReportFile = reportOutputDirPath.resolve("incremental_coverage.json").toFile();
             report.setReportPath(jsonReportFile.getAbsolutePath());
             // Save the empty/minimal report as JSON
-            String jsonReport = convertReportToJson(report);
-            try (FileOutputStream fos = new FileOutputStream(jsonReportFile);
-                 OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-                 BufferedWriter writer = new BufferedWriter(osw)) {
-                writer.write(jsonReport);
-            }
+            writeJsonReport(appName, report, jsonReportFile);
             logger.info("Empty incremental report (no changes) saved to: {}", jsonReportFile.getAbsolutePath());
             return report;
         }
 
-        // Use tag as the 'tag' for locating dump files
-        File actualDumpFile = determineDumpFileToUse(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
-
-        SessionInfoStore sessionInfoStore = new SessionInfoStore(); // Needed for XML report generation context
-        ExecutionDataStore executionDataStore = loadExecutionData(actualDumpFile, sessionInfoStore);
-
         List<String> classDirs = getClassDirectories(appName,tag);
         validateDirectories(sourceDirs, classDirs); // Ensure dirs exist before analysis
 
-        IBundleCoverage bundleCoverage = analyzeCoverage(executionDataStore, classDirs, appName + " Incremental Base Analysis");
-        ISourceFileLocator sourceLocator = createMultiSourceFileLocator(sourceDirs);
-
-        // Generate a full XML report to a temporary location first
-        Path tempReportDir = Files.createTempDirectory("jacoco_temp_xml_");
-        File tempXmlFile = new File(tempReportDir.toFile(), "jacoco_temp.xml");
-
-        generateXmlReport(bundleCoverage, sourceLocator, tempReportDir.toFile(), sessionInfoStore, executionDataStore, tempXmlFile.getName());
-
-        // Parse the temporary XML and filter based on changed lines
-        // Pass the new, normalized map to the parsing method
-        IncrementalCoverageReport populatedReport = parseJaCoCoXmlAndFilter(tempXmlFile, jacocoFormattedChangedLines, appName, baseRef, tag);
+        // A current coverage snapshot already holds every line's counters; otherwise analyse only the changed classes
+        IncrementalCoverageReport populatedReport;
+        CoverageSnapshot snapshot = findCurrentSnapshot(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, classDirs);
+        if (snapshot != null) {
+            logger.info("Computing incremental coverage from stored snapshot for app: {}, tag: {}", appName, tag);
+            try (Tracer.Span ignored = tracer.span("snapshot_filter")) {
+                populatedReport = coverageSnapshotService.filterChangedLines(snapshot, jacocoFormattedChangedLines);
+            }
+        } else {
+            populatedReport = analyzeChangedLines(appName, clusterName, tag, baseRef, specificDumpFilePath, mergeAllDumps,
+                    sourceDirs, classDirs, jacocoFormattedChangedLines);
+        }
         // Preserve fields already set on 'report'
         populatedReport.setAppName(report.getAppName());
         populatedReport.setBaseRef(report.getBaseRef());
@@ -411,28 +656,149 @@ public class ReportGeneratorService {
         populatedReport.setReportPath(jsonReportFile.getAbsolutePath());
 
         // Convert final IncrementalCoverageReport to JSON and save it
-        String jsonReport = convertReportToJson(populatedReport);
-        try (FileOutputStream fos = new FileOutputStream(jsonReportFile);
-             OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-             BufferedWriter writer = new BufferedWriter(osw)) {
-            writer.write(jsonReport);
-        }
+        writeJsonReport(appName, populatedReport, jsonReportFile);
 
         logger.info("Incremental JaCoCo report (JSON) generated at: {}", jsonReportFile.getAbsolutePath());
+        coverageMetrics.bytesWritten(CoverageMetrics.STAGE_INCREMENTAL_REPORT, appName, jsonReportFile.length());
 
-        // Cleanup temporary XML report directory
-        try {
-            Files.deleteIfExists(tempXmlFile.toPath());
-            Files.deleteIfExists(tempReportDir);
-            logger.debug("Cleaned up temporary XML report directory: {}", tempReportDir);
-        } catch (IOException e) {
-            logger.warn("Failed to cleanup temporary XML report directory: {}", tempReportDir, e);
+        return populatedReport;
+    }
+
+    /**
+     * Lines changed between two git refs of the app's project, keyed by JaCoCo's package-relative
+     * source path (e.g. com/foo/Bar.java). Files outside the configured source directories are dropped.
+     */
+    public Map<String, Set<Integer>> getChangedLines(String appName, String tag, String baseRef, String newRef)
+            throws IOException, InterruptedException {
+        Path gitRepoPath = resolveGitRepoPath(appName, tag);
+
+        logger.info("Getting changed lines for app: {}, base: {}, new: {}", appName, baseRef, newRef);
+        // Use newRefAsTag for the git diff operation
+        Map<String, Set<Integer>> changedLinesMap;
+        try (CoverageMetrics.Stage stage = coverageMetrics.start(CoverageMetrics.STAGE_GIT_DIFF, appName)) {
+            changedLinesMap = gitDiffService.getChangedLines(gitRepoPath.toString(), baseRef, newRef);
+            stage.success().attribute("files", changedLinesMap.size());
         }
 
-        return populatedReport;
+        // *** START: NEW CODE TO NORMALIZE FILE PATHS ***
+        List<String> sourceDirs = getSourceDirectories(appName, tag);
+        logger.info("Normalizing Git diff paths to match JaCoCo's package-based paths...");
+        Map<String, Set<Integer>> jacocoFormattedChangedLines = new HashMap<>();
+
+        for (Map.Entry<String, Set<Integer>> entry : changedLinesMap.entrySet()) {
+            String jacocoPath = toJacocoPath(gitRepoPath, sourceDirs, entry.getKey());
+            if (jacocoPath != null) {
+                jacocoFormattedChangedLines.put(jacocoPath, entry.getValue());
+            } else {
+                logger.warn("Could not find a matching source directory for changed file: {}. It will not be included in the incremental report.", entry.getKey());
+            }
+        }
+        // *** END: NEW CODE TO NORMALIZE FILE PATHS ***
+        return jacocoFormattedChangedLines;
+    }
+
+    /**
+     * Line mappings of the Java files changed between two git refs, with both paths in JaCoCo's
+     * package-relative form. A side outside the configured source directories is reported as null.
+     */
+    public List<FileLineMapping> getLineMappings(String appName, String tag, String baseRef, String newRef)
+            throws IOException, InterruptedException {
+        Path gitRepoPath = resolveGitRepoPath(appName, tag);
+        List<String> sourceDirs = getSourceDirectories(appName, tag);
+        List<FileLineMapping> gitMappings;
+        try (CoverageMetrics.Stage stage = coverageMetrics.start(CoverageMetrics.STAGE_GIT_DIFF, appName)) {
+            gitMappings = gitDiffService.getLineMappings(gitRepoPath.toString(), baseRef, newRef);
+            stage.success().attribute("files", gitMappings.size());
+        }
+        List<FileLineMapping> mappings = new ArrayList<>();
+        for (FileLineMapping mapping : gitMappings) {
+            mapping.setOldPath(mapping.getOldPath() != null ? toJacocoPath(gitRepoPath, sourceDirs, mapping.getOldPath()) : null);
+            mapping.setNewPath(mapping.getNewPath() != null ? toJacocoPath(gitRepoPath, sourceDirs, mapping.getNewPath()) : null);
+            if (mapping.getOldPath() != null || mapping.getNewPath() != null) {
+                mappings.add(mapping);
+            }
+        }
+        return mappings;
+    }
+
+    private Path resolveGitRepoPath(String appName, String tag) throws FileNotFoundException {
+        // Determine project path for git diff
+        String projectPath = coverageConfig.getBaseProjectPath();
+        if (!StringUtils.hasText(projectPath)) {
+            throw new IllegalArgumentException("coverage.base-project-path is not configured. It's required for Git diff operations.");
+        }
+        Path gitRepoPath = Paths.get(projectPath, appName + "-" + tag);
+        if (!Files.isDirectory(gitRepoPath) || !Files.exists(gitRepoPath.resolve(".git"))) {
+            throw new FileNotFoundException("Git repository not found for app '" + appName + "' at expected path: " + gitRepoPath +
+                    ". Ensure coverage.base-project-path is set correctly and contains the '<appName>' git project.");
+        }
+        return gitRepoPath;
+    }
+
+    /**
+     * @return the git path relative to the source directory containing it, or null when no source directory matches
+     */
+    private String toJacocoPath(Path gitRepoPath, List<String> sourceDirs, String gitPath) {
+        String gitRelativePath = gitPath.replace("\\", "/");
+        Path absoluteGitFilePath = gitRepoPath.resolve(gitRelativePath).normalize();
+        for (String sourceDirStr : sourceDirs) {
+            Path sourceDirPath = Paths.get(sourceDirStr).normalize();
+            if (absoluteGitFilePath.startsWith(sourceDirPath)) {
+                String jacocoPath = sourceDirPath.relativize(absoluteGitFilePath).toString().replace("\\", "/");
+                logger.debug("Transformed path: '{}' -> '{}'", gitRelativePath, jacocoPath);
+                return jacocoPath; // Found the correct source root for this file
+            }
+        }
+        return null;
     }
 
-    private IncrementalCoverageReport parseJaCoCoXmlAndFilter(
+    /**
+     * Fallback when no current snapshot exists: analyse the classes compiled from the changed
+     * source files, render them to a temporary JaCoCo XML and filter it by the changed lines.
+     */
+    private IncrementalCoverageReport analyzeChangedLines(String appName, String clusterName, String tag, String baseRef,
+                                                          String specificDumpFilePath, boolean mergeAllDumps,
+                                                          List<String> sourceDirs, List<String> classDirs,
+                                                          Map<String, Set<Integer>> jacocoFormattedChangedLines)
+            throws IOException, ParserConfigurationException, SAXException {
+        // Use tag as the 'tag' for locating dump files
+        SessionInfoStore sessionInfoStore = new SessionInfoStore(); // Needed for XML report generation context
+        ExecutionDataStore executionDataStore = loadDumpData(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps, sessionInfoStore);
+
+        // Only analyse the classes compiled from the changed source files (including inner and anonymous classes)
+        SourceClassIndexService.SourceClassIndex sourceClassIndex = sourceClassIndexService.getIndex(appName, tag, classDirs);
+        Set<String> changedClasses = sourceClassIndex.getClasses(jacocoFormattedChangedLines.keySet());
+        logger.info("{} changed source files map to {} classes", jacocoFormattedChangedLines.size(), changedClasses.size());
+        ClassFileService.ClassFilter changedClassFilter = classFileService.filterFor(appName)
+                .restrictTo(sourceClassIndex.getLocations(changedClasses));
+        IBundleCoverage bundleCoverage = analyzeCoverage(appName, executionDataStore, classDirs, changedClassFilter, appName + " Incremental Base Analysis");
+        ISourceFileLocator sourceLocator = sourceLocatorService.getLocator(sourceDirs);
+
+        // Generate a full XML report to a temporary location first
+        Path tempReportDir = Files.createTempDirectory("jacoco_temp_xml_");
+        File tempXmlFile = new File(tempReportDir.toFile(), "jacoco_temp.xml");
+        try {
+            generateXmlReport(appName, bundleCoverage, sourceLocator, tempReportDir.toFile(), sessionInfoStore, executionDataStore, tempXmlFile.getName());
+
+            // Parse the temporary XML and filter based on changed lines
+            // Pass the new, normalized map to the parsing method
+            try (Tracer.Span span = tracer.span("xml_parse")) {
+                span.attribute("bytes", tempXmlFile.length());
+                return parseJaCoCoXmlAndFilter(tempXmlFile, jacocoFormattedChangedLines, appName, baseRef, tag);
+            }
+        } finally {
+            // Cleanup temporary XML report directory
+            try {
+                Files.deleteIfExists(tempXmlFile.toPath());
+                Files.deleteIfExists(tempReportDir);
+                logger.debug("Cleaned up temporary XML report directory: {}", tempReportDir);
+            } catch (IOException e) {
+                logger.warn("Failed to cleanup temporary XML report directory: {}", tempReportDir, e);
+            }
+        }
+    }
+
+    IncrementalCoverageReport parseJaCoCoXmlAndFilter(
             File jacocoXmlFile,
             Map<String, Set<Integer>> changedLinesMap, // This map now contains JaCoCo-style paths
             String appName,
@@ -555,7 +921,15 @@ public class ReportGeneratorService {
         return sb.toString();
     }
 
-    private String convertReportToJson(IncrementalCoverageReport report) {
+    private void writeJsonReport(String appName, IncrementalCoverageReport report, File jsonReportFile) throws IOException {
+        try (CoverageMetrics.Stage stage = coverageMetrics.start(CoverageMetrics.STAGE_JSON_WRITE, appName)) {
+            byte[] jsonReport = convertReportToJson(report).getBytes(StandardCharsets.UTF_8);
+            AtomicFileWriter.write(jsonReportFile, out -> out.write(jsonReport));
+            stage.success().attribute("bytes", jsonReport.length);
+        }
+    }
+
+    String convertReportToJson(IncrementalCoverageReport report) {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
         sb.append("\"appName\": ").append(escapeJson(report.getAppName())).append(",");
@@ -622,10 +996,19 @@ public class ReportGeneratorService {
     }
 
     // --- Methods for Full Report (HTML/XML) and Incremental Temp XML ---
-    // This is the 6-argument version, used by incremental flow for specific temp file.
-    private void generateXmlReport(IBundleCoverage bundleCoverage, ISourceFileLocator sourceLocator,
+    // Used by the full report (jacoco.xml) and by the incremental flow for its temp file.
+    private void generateXmlReport(String appName, IBundleCoverage bundleCoverage, ISourceFileLocator sourceLocator,
                                    File reportDir, SessionInfoStore sessionInfoStore,
                                    ExecutionDataStore executionDataStore, String outputFileName) throws IOException {
+        try (CoverageMetrics.Stage stage = coverageMetrics.start(CoverageMetrics.STAGE_XML_REPORT, appName)) {
+            File xmlFile = writeXmlReport(bundleCoverage, sourceLocator, reportDir, sessionInfoStore, executionDataStore, outputFileName);
+            stage.success().attribute("bytes", xmlFile.length());
+        }
+    }
+
+    private File writeXmlReport(IBundleCoverage bundleCoverage, ISourceFileLocator sourceLocator,
+                                File reportDir, SessionInfoStore sessionInfoStore,
+                                ExecutionDataStore executionDataStore, String outputFileName) throws IOException {
         File xmlFile = new File(reportDir, outputFileName);
         XMLFormatter xmlFormatter = new XMLFormatter();
         FileMultiReportOutput multiReportOutput = null;
@@ -646,14 +1029,7 @@ public class ReportGeneratorService {
             }
         }
         logger.info("XML report data written to: {}", xmlFile.getAbsolutePath());
-    }
-
-    // This is the 5-argument overload, used by the main full report flow (generateReport)
-    // It calls the 6-argument version with a default filename "jacoco.xml"
-    private void generateXmlReport(IBundleCoverage bundleCoverage, ISourceFileLocator sourceLocator,
-                                   File reportDir, SessionInfoStore sessionInfoStore,
-                                   ExecutionDataStore executionDataStore) throws IOException {
-        generateXmlReport(bundleCoverage, sourceLocator, reportDir, sessionInfoStore, executionDataStore, "jacoco.xml");
+        return xmlFile;
     }
 
     // --- Deprecated Methods ---
@@ -685,14 +1061,8 @@ public class ReportGeneratorService {
                                                                                        String specificDumpFilePath, boolean mergeAllDumps) throws Exception {
         logger.info("Starting full report generation for SonarQube integration for app: {}", appName);
 
-        // 1. Generate the full JaCoCo XML report first
-        FullCoverageReport fullReport = generateReport(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
-        Path reportPath = Paths.get(fullReport.getReportPath());
-        File jacocoXmlFile = reportPath.resolve("jacoco.xml").toFile();
-
-        if (!jacocoXmlFile.exists()) {
-            throw new IOException("jacoco.xml was not generated at the expected path: " + jacocoXmlFile.getAbsolutePath());
-        }
+        // 1. Generate the full JaCoCo XML report first (reused when the dump data has not changed)
+        File jacocoXmlFile = resolveJacocoXmlReport(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
 
         // 2. Prepare parameters for SonarScanner
         String projectPath = coverageConfig.getBaseProjectPath();
@@ -707,9 +1077,32 @@ public class ReportGeneratorService {
 //        sonarParams.put("sonar.branch.name", tag);
 
         // 3. Run SonarScanner
-        return sonarQubeIntegrationService.runScannerAndGetCoverage(
+        return coverageMetrics.record(CoverageMetrics.STAGE_SONAR, appName, () -> sonarQubeIntegrationService.runScannerAndGetCoverage(
                 projectKey, gitRepoPath, sourceDirs, classDirs, jacocoXmlFile.toPath(), null
-        );
+        ));
+    }
+
+    /**
+     * Returns the jacoco.xml of the full report recorded in the current coverage snapshot, or
+     * generates a new full report when the dump data or classes changed since then.
+     */
+    private File resolveJacocoXmlReport(String appName, String clusterName, String tag, String specificDumpFilePath,
+                                        boolean mergeAllDumps) throws Exception {
+        CoverageSnapshot snapshot = findCurrentSnapshot(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps,
+                getClassDirectories(appName, tag));
+        if (snapshot != null && snapshot.getReportPath() != null) {
+            File existingXmlFile = Paths.get(snapshot.getReportPath()).resolve("jacoco.xml").toFile();
+            if (existingXmlFile.isFile()) {
+                logger.info("Dump data unchanged since last full report, reusing: {}", existingXmlFile.getAbsolutePath());
+                return existingXmlFile;
+            }
+        }
+        FullCoverageReport fullReport = generateReport(appName, clusterName, tag, specificDumpFilePath, mergeAllDumps);
+        File jacocoXmlFile = Paths.get(fullReport.getReportPath()).resolve("jacoco.xml").toFile();
+        if (!jacocoXmlFile.exists()) {
+            throw new IOException("jacoco.xml was not generated at the expected path: " + jacocoXmlFile.getAbsolutePath());
+        }
+        return jacocoXmlFile;
     }
 
     // --- NEW METHOD FOR INCREMENTAL SONARQUBE INTEGRATION ---
@@ -737,13 +1130,7 @@ public class ReportGeneratorService {
         // For now, let's assume generateIncrementalReport already creates a jacoco.xml.
         // A better approach would be to refactor generateIncrementalReport to return the XML path.
         // Let's first generate the full report to get the XML, which is a prerequisite.
-        FullCoverageReport fullReport = generateReport(appName, clusterName, newRefAsTag, specificDumpFilePath, mergeAllDumps);
-        Path reportPath = Paths.get(fullReport.getReportPath());
-        File jacocoXmlFile = reportPath.resolve("jacoco.xml").toFile();
-
-        if (!jacocoXmlFile.exists()) {
-            throw new IOException("jacoco.xml was not generated at the expected path: " + jacocoXmlFile.getAbsolutePath());
-        }
+        File jacocoXmlFile = resolveJacocoXmlReport(appName, clusterName, newRefAsTag, specificDumpFilePath, mergeAllDumps);
 
         // 2. Prepare parameters for SonarScanner
         String projectPath = coverageConfig.getBaseProjectPath();
@@ -758,9 +1145,9 @@ public class ReportGeneratorService {
         sonarParams.put("sonar.pullrequest.base", baseRef);
 
         // 3. Run SonarScanner
-        return sonarQubeIntegrationService.runScannerAndGetCoverage(
+        return coverageMetrics.record(CoverageMetrics.STAGE_SONAR, appName, () -> sonarQubeIntegrationService.runScannerAndGetCoverage(
                 projectKey, gitRepoPath, sourceDirs, classDirs, jacocoXmlFile.toPath(), sonarParams
-        );
+        ));
     }
 
 }
@@ -3,6 +3,7 @@ package com.mofari.coveragecollector.service;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.observability.ProgressTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -127,6 +128,8 @@ public class SonarQubeIntegrationService {
         processBuilder.directory(projectBaseDir.toFile());
         processBuilder.redirectErrorStream(true);
 
+        ProgressTracker.Progress progress = ProgressTracker.current();
+        progress.status(ProgressTracker.SONAR_TASK, "SCANNING");
         Process process = processBuilder.start();
         String taskId = null;
 
@@ -147,6 +150,7 @@ public class SonarQubeIntegrationService {
             logger.error("SonarScanner execution failed with exit code: {}", exitCode);
             throw new IOException("SonarScanner execution failed. Check logs for details.");
         }
+        progress.status(ProgressTracker.SONAR_TASK, "SUBMITTED");
 
         if (taskId == null) {
             logger.warn("Could not find SonarQube task ID in scanner output. Skipping wait for completion. Metrics might be stale.");
@@ -169,6 +173,7 @@ public class SonarQubeIntegrationService {
             if (taskResponse != null && taskResponse.getTask() != null) {
                 String status = taskResponse.getTask().getStatus();
                 logger.info("Polling SonarQube task '{}'. Current status: {}", taskId, status);
+                ProgressTracker.current().status(ProgressTracker.SONAR_TASK, status);
                 switch (status) {
                     case "SUCCESS":
                         return; // Task completed successfully
@@ -0,0 +1,395 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import org.jacoco.core.internal.data.CRC64;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 源文件 ↔ class ↔ classId 索引，每个应用的每个tag构建一次。
+ * 通过class文件的SourceFile属性建立映射，内部类、匿名类以及同一源文件中的其他顶层类都能对应到源文件；
+ * classId与JaCoCo agent的计算方式相同（class字节的CRC64），可以直接与exec文件中的数据对照。
+ * 索引常驻内存并持久化到索引目录，class位置的修改戳变化时重建。
+ */
+@Service
+public class SourceClassIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceClassIndexService.class);
+
+    private static final String INDEX_FILE_NAME = "source-class-index.json";
+    private static final long STAMP_CHECK_INTERVAL_MS = 5000L;
+
+    @Autowired
+    private ClassFileService classFileService;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, SourceClassIndex> indexes = new ConcurrentHashMap<>();
+
+    // 每个 appName/tag 一个锁：同一个索引只构建一次，不同应用、不同tag的构建互不阻塞
+    private final Map<String, Object> buildLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 获取应用某个tag的源文件/class索引
+     * @param appName 应用名称
+     * @param tag 版本标签
+     * @param classLocations class目录或jar/war（由 CoverageConfig.discoverApplicationPaths 解析）
+     */
+    public SourceClassIndex getIndex(String appName, String tag, List<String> classLocations) throws IOException {
+        String key = appName + "/" + tag;
+        SourceClassIndex index = indexes.get(key);
+        // 短时间内的重复请求不再检查修改戳，避免每次都遍历class目录
+        if (index != null && System.currentTimeMillis() - index.checkedAt < STAMP_CHECK_INTERVAL_MS) {
+            return index;
+        }
+        // 遍历class目录计算修改戳不需要持有锁；过滤规则决定索引包含哪些class，也计入修改戳
+        String classFilter = describeFilter(coverageConfig.getClassFilterConfig(appName));
+        String stamp = classFilter + "#" + computeStamp(classLocations);
+        if (index != null && index.stamp.equals(stamp)) {
+            index.checkedAt = System.currentTimeMillis();
+            return index;
+        }
+        synchronized (buildLocks.computeIfAbsent(key, k -> new Object())) {
+            // 等锁期间其他请求可能已经用相同的class文件构建好了
+            index = indexes.get(key);
+            if (index == null) {
+                index = loadPersisted(appName, tag, classFilter, stamp);
+            }
+            if (index == null || !index.stamp.equals(stamp)) {
+                index = buildIndex(appName, classLocations, stamp);
+                persist(appName, tag, classFilter, index);
+            }
+            index.checkedAt = System.currentTimeMillis();
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    private SourceClassIndex buildIndex(String appName, List<String> classLocations, String stamp) throws IOException {
+        long start = System.currentTimeMillis();
+        List<IndexEntry> entries = new ArrayList<>();
+        SourceFileReader sourceFileReader = new SourceFileReader();
+        classFileService.forEachClass(classLocations, classFileService.filterFor(appName),
+                (className, classBytes, location) -> {
+                    ClassReader reader = new ClassReader(classBytes);
+                    IndexEntry entry = new IndexEntry();
+                    entry.setClassName(reader.getClassName());
+                    entry.setSourcePath(sourcePathOf(reader.getClassName(), sourceFileReader.read(reader)));
+                    entry.setClassId(CRC64.classId(classBytes));
+                    entry.setLocation(location);
+                    entries.add(entry);
+                });
+        SourceClassIndex index = new SourceClassIndex(stamp, entries);
+        logger.info("Built source-class index for app {}: {} classes from {} source files in {} ms",
+                appName, entries.size(), index.getSourceFileCount(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private Path indexFile(String appName, String tag) {
+        return Paths.get(coverageConfig.getIndexDirectory(), appName, tag, INDEX_FILE_NAME);
+    }
+
+    private SourceClassIndex loadPersisted(String appName, String tag, String classFilter, String stamp) {
+        File file = indexFile(appName, tag).toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            PersistedIndex persisted = objectMapper.readValue(file, PersistedIndex.class);
+            if (!classFilter.equals(persisted.getClassFilter()) || !stamp.equals(persisted.getStamp()) || persisted.getEntries() == null
+                    || persisted.getEntries().stream().anyMatch(entry -> entry.getLocation() == null)) {
+                logger.info("Source-class index for {}/{} is stale, rebuilding", appName, tag);
+                return null;
+            }
+            return new SourceClassIndex(persisted.getStamp(), persisted.getEntries());
+        } catch (IOException e) {
+            logger.warn("Failed to read source-class index {}, rebuilding", file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private void persist(String appName, String tag, String classFilter, SourceClassIndex index) {
+        PersistedIndex persisted = new PersistedIndex();
+        persisted.setClassFilter(classFilter);
+        persisted.setStamp(index.stamp);
+        persisted.setEntries(index.entries);
+        File file = indexFile(appName, tag).toFile();
+        try {
+            AtomicFileWriter.write(file, out -> objectMapper.writeValue(out, persisted));
+        } catch (IOException e) {
+            logger.warn("Failed to persist source-class index {}", file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 源文件的包路径，与JaCoCo报告中 package/sourcefile 的形式一致，如 com/foo/Bar.java；
+     * 没有SourceFile属性（-g:none编译）时按外部类名推断
+     */
+    static String sourcePathOf(String className, String sourceFile) {
+        int slash = className.lastIndexOf('/');
+        String packagePath = slash >= 0 ? className.substring(0, slash + 1) : "";
+        if (sourceFile == null) {
+            String simpleName = className.substring(slash + 1);
+            int dollar = simpleName.indexOf('$');
+            sourceFile = (dollar > 0 ? simpleName.substring(0, dollar) : simpleName) + ".java";
+        }
+        return packagePath + sourceFile;
+    }
+
+    /**
+     * 生效的过滤规则：includes、excludes和是否扫描嵌套依赖
+     */
+    static String describeFilter(CoverageConfig.ClassFilterConfig config) {
+        return "includes=" + join(config.getIncludes()) + ";excludes=" + join(config.getExcludes())
+                + ";scanNestedLibraries=" + config.isScanNestedLibraries();
+    }
+
+    private static String join(List<String> patterns) {
+        return patterns == null ? "" : String.join(":", patterns);
+    }
+
+    /**
+     * class位置的修改戳：归档取修改时间和大小，目录取所有class文件的数量和修改时间
+     */
+    private static String computeStamp(List<String> classLocations) throws IOException {
+        StringBuilder stamp = new StringBuilder();
+        if (classLocations == null) {
+            return "";
+        }
+        for (String location : classLocations) {
+            File file = new File(location);
+            stamp.append(location).append('|');
+            if (file.isDirectory()) {
+                long[] counters = new long[2];
+                Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        if (path.getFileName().toString().endsWith(".class")) {
+                            counters[0]++;
+                            counters[1] = counters[1] * 31 + attrs.lastModifiedTime().toMillis();
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                stamp.append(counters[0]).append(':').append(counters[1]);
+            } else {
+                stamp.append(file.lastModified()).append(':').append(file.length());
+            }
+            stamp.append(';');
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * 只读取class头部和SourceFile属性，跳过方法体
+     */
+    private static final class SourceFileReader extends ClassVisitor {
+        private String sourceFile;
+
+        SourceFileReader() {
+            super(Opcodes.ASM9);
+        }
+
+        String read(ClassReader reader) {
+            sourceFile = null;
+            reader.accept(this, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+            return sourceFile;
+        }
+
+        @Override
+        public void visitSource(String source, String debug) {
+            this.sourceFile = source;
+        }
+    }
+
+    /**
+     * 源文件（包路径形式，如 com/foo/Bar.java）、class内部名称和classId之间的映射，查询均为O(1)
+     */
+    public static final class SourceClassIndex {
+        private final String stamp;
+        private final List<IndexEntry> entries;
+        private final Map<String, List<IndexEntry>> bySource = new HashMap<>();
+        private final Map<String, IndexEntry> byClassName = new HashMap<>();
+        private final Map<Long, IndexEntry> byClassId = new HashMap<>();
+        private volatile long checkedAt;
+
+        SourceClassIndex(String stamp, List<IndexEntry> entries) {
+            this.stamp = stamp;
+            this.entries = entries;
+            for (IndexEntry entry : entries) {
+                bySource.computeIfAbsent(entry.getSourcePath(), k -> new ArrayList<>()).add(entry);
+                byClassName.put(entry.getClassName(), entry);
+                byClassId.put(entry.getClassId(), entry);
+            }
+        }
+
+        /**
+         * @param sourcePath 如 com/foo/Bar.java
+         * @return 该源文件编译出的所有class，包括内部类和匿名类
+         */
+        public List<String> getClasses(String sourcePath) {
+            List<IndexEntry> classEntries = bySource.get(sourcePath);
+            if (classEntries == null) {
+                return Collections.emptyList();
+            }
+            List<String> classes = new ArrayList<>(classEntries.size());
+            for (IndexEntry entry : classEntries) {
+                classes.add(entry.getClassName());
+            }
+            return classes;
+        }
+
+        public Set<String> getClasses(Collection<String> sourcePaths) {
+            Set<String> classes = new HashSet<>();
+            for (String sourcePath : sourcePaths) {
+                classes.addAll(getClasses(sourcePath));
+            }
+            return classes;
+        }
+
+        /**
+         * class所在的位置，用于直接读取这些class而不遍历class目录（见 ClassFileService.ClassFilter#restrictTo）
+         * @return class内部名称到位置的映射，不在索引中的class不包含在内
+         */
+        public Map<String, String> getLocations(Collection<String> classNames) {
+            Map<String, String> locations = new HashMap<>();
+            for (String className : classNames) {
+                IndexEntry entry = byClassName.get(className);
+                if (entry != null) {
+                    locations.put(className, entry.getLocation());
+                }
+            }
+            return locations;
+        }
+
+        /**
+         * @return 该源文件编译出的所有class的classId
+         */
+        public Set<Long> getClassIds(String sourcePath) {
+            List<IndexEntry> classEntries = bySource.get(sourcePath);
+            if (classEntries == null) {
+                return Collections.emptySet();
+            }
+            Set<Long> classIds = new HashSet<>();
+            for (IndexEntry entry : classEntries) {
+                classIds.add(entry.getClassId());
+            }
+            return classIds;
+        }
+
+        /**
+         * @return class对应的源文件，不在索引中时返回null
+         */
+        public String getSourcePath(String className) {
+            IndexEntry entry = byClassName.get(className);
+            return entry != null ? entry.getSourcePath() : null;
+        }
+
+        /**
+         * @return class的classId，不在索引中时返回null
+         */
+        public Long getClassId(String className) {
+            IndexEntry entry = byClassName.get(className);
+            return entry != null ? entry.getClassId() : null;
+        }
+
+        /**
+         * @return classId对应的class内部名称，不在索引中时返回null
+         */
+        public String getClassName(long classId) {
+            IndexEntry entry = byClassId.get(classId);
+            return entry != null ? entry.getClassName() : null;
+        }
+
+        public boolean containsClassId(long classId) {
+            return byClassId.containsKey(classId);
+        }
+
+        /**
+         * @return 构建索引时class位置的修改戳，class文件有变化时随之改变
+         */
+        public String getStamp() {
+            return stamp;
+        }
+
+        public Set<String> getSourcePaths() {
+            return Collections.unmodifiableSet(bySource.keySet());
+        }
+
+        public List<IndexEntry> getEntries() {
+            return Collections.unmodifiableList(entries);
+        }
+
+        public int getSourceFileCount() {
+            return bySource.size();
+        }
+
+        public int getClassCount() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 索引中的一条记录
+     */
+    public static class IndexEntry {
+        private String className;
+        private String sourcePath;
+        private long classId;
+        private String location; // class文件路径，或 归档@entry、归档@嵌套jar@entry
+
+        public String getClassName() { return className; }
+        public void setClassName(String className) { this.className = className; }
+        public String getSourcePath() { return sourcePath; }
+        public void setSourcePath(String sourcePath) { this.sourcePath = sourcePath; }
+        public long getClassId() { return classId; }
+        public void setClassId(long classId) { this.classId = classId; }
+        public String getLocation() { return location; }
+        public void setLocation(String location) { this.location = location; }
+    }
+
+    /**
+     * 持久化到磁盘的索引结构
+     */
+    public static class PersistedIndex {
+        private String classFilter; // 构建索引时生效的过滤规则
+        private String stamp;
+        private List<IndexEntry> entries;
+
+        public String getClassFilter() { return classFilter; }
+        public void setClassFilter(String classFilter) { this.classFilter = classFilter; }
+        public String getStamp() { return stamp; }
+        public void setStamp(String stamp) { this.stamp = stamp; }
+        public List<IndexEntry> getEntries() { return entries; }
+        public void setEntries(List<IndexEntry> entries) { this.entries = entries; }
+    }
+}
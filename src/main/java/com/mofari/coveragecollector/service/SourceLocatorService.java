@@ -0,0 +1,230 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.jacoco.report.ISourceFileLocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 报告渲染使用的源码定位。
+ * 每组源码目录预先建立 "包路径/文件名 → 文件" 的索引，定位源文件只需一次哈希查找，
+ * 不再像 MultiSourceFileLocator 那样逐个目录探测；源码内容放在按内存占用限制的LRU缓存中，
+ * 多次生成报告时不必重复读取。
+ */
+@Service
+public class SourceLocatorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceLocatorService.class);
+
+    private static final int TAB_WIDTH = 4;
+    private static final int MAX_CACHED_INDEXES = 32;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    private final Map<List<String>, SourceIndex> indexes = Collections.synchronizedMap(
+            new LinkedHashMap<List<String>, SourceIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, SourceIndex> eldest) {
+                    return size() > MAX_CACHED_INDEXES;
+                }
+            });
+
+    private volatile SourceContentCache contentCache;
+
+    /**
+     * 获取源码目录对应的定位器，目录顺序决定同名文件的优先级（与 MultiSourceFileLocator 一致）
+     */
+    public ISourceFileLocator getLocator(List<String> sourceDirectories) {
+        List<String> key = sourceDirectories != null ? new ArrayList<>(sourceDirectories) : Collections.<String>emptyList();
+        SourceIndex index = indexes.get(key);
+        if (index == null || !index.isUpToDate()) {
+            index = buildIndex(key);
+            indexes.put(key, index);
+        }
+        return new IndexedSourceFileLocator(index, getContentCache());
+    }
+
+    private SourceContentCache getContentCache() {
+        SourceContentCache cache = contentCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (contentCache == null) {
+                    CoverageConfig.SourceCacheConfig config = coverageConfig.getSourceCache();
+                    contentCache = new SourceContentCache(config.getMaxBytes());
+                }
+                cache = contentCache;
+            }
+        }
+        return cache;
+    }
+
+    private SourceIndex buildIndex(List<String> sourceDirectories) {
+        long start = System.currentTimeMillis();
+        SourceIndex index = new SourceIndex();
+        for (String sourceDirectory : sourceDirectories) {
+            Path root = Paths.get(sourceDirectory);
+            index.visitedDirectories.put(root, root.toFile().lastModified());
+            if (!Files.isDirectory(root)) {
+                logger.warn("Source directory not found for locator, skipping: {}", sourceDirectory);
+                continue;
+            }
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        index.visitedDirectories.put(dir, attrs.lastModifiedTime().toMillis());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile()) {
+                            String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+                            index.files.putIfAbsent(relative, file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("Failed to index source directory: {}", sourceDirectory, e);
+            }
+        }
+        logger.info("Indexed {} source files from {} source directories in {} ms",
+                index.files.size(), sourceDirectories.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * 一组源码目录的文件索引，记录遍历过的目录修改时间，目录有增删时重建
+     */
+    private static final class SourceIndex {
+        private final Map<String, File> files = new HashMap<>();
+        private final Map<Path, Long> visitedDirectories = new HashMap<>();
+
+        boolean isUpToDate() {
+            for (Map.Entry<Path, Long> entry : visitedDirectories.entrySet()) {
+                if (entry.getKey().toFile().lastModified() != entry.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 基于索引的 ISourceFileLocator 实现
+     */
+    public static final class IndexedSourceFileLocator implements ISourceFileLocator {
+        private final SourceIndex index;
+        private final SourceContentCache contentCache;
+
+        private IndexedSourceFileLocator(SourceIndex index, SourceContentCache contentCache) {
+            this.index = index;
+            this.contentCache = contentCache;
+        }
+
+        @Override
+        public Reader getSourceFile(String packageName, String fileName) throws IOException {
+            String path = packageName.isEmpty() ? fileName : packageName + "/" + fileName;
+            File file = index.files.get(path);
+            if (file == null) {
+                return null;
+            }
+            String content = contentCache.get(file);
+            return content != null ? new StringReader(content) : null;
+        }
+
+        @Override
+        public int getTabWidth() {
+            return TAB_WIDTH;
+        }
+    }
+
+    /**
+     * 源码内容的LRU缓存，按文件修改时间和大小校验。
+     * 缓存的是解码后的字符串，总量按其UTF-16占用（字符数×2）限制，而不是磁盘上的字节数
+     */
+    private static final class SourceContentCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, CachedSource> entries = new LinkedHashMap<>(256, 0.75f, true);
+        private long usedBytes;
+
+        SourceContentCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        String get(File file) throws IOException {
+            long lastModified = file.lastModified();
+            long length = file.length();
+            if (lastModified == 0L) {
+                return null; // 文件已被删除
+            }
+            String key = file.getPath();
+            synchronized (this) {
+                CachedSource cached = entries.get(key);
+                if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+                    return cached.content;
+                }
+            }
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            long size = content.length() * 2L;
+            // 单个文件超过缓存的1/4时不缓存，避免挤掉大量小文件
+            if (maxBytes > 0 && size <= maxBytes / 4) {
+                synchronized (this) {
+                    CachedSource previous = entries.put(key, new CachedSource(lastModified, length, content));
+                    if (previous != null) {
+                        usedBytes -= previous.size();
+                    }
+                    usedBytes += size;
+                    Iterator<CachedSource> iterator = entries.values().iterator();
+                    while (usedBytes > maxBytes && iterator.hasNext()) {
+                        usedBytes -= iterator.next().size();
+                        iterator.remove();
+                    }
+                }
+            }
+            return content;
+        }
+    }
+
+    private static final class CachedSource {
+        private final long lastModified;
+        private final long length;
+        private final String content;
+
+        CachedSource(long lastModified, long length, String content) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+        }
+
+        /**
+         * 缓存中的字符串占用的字节数
+         */
+        long size() {
+            return content.length() * 2L;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按tag目录分段的读写锁。
+ * 读取或新增dump文件（收集、合并、生成报告）获取共享锁，删除或替换dump文件（清理、压缩）获取独占锁。
+ * 不同tag映射到不同的分段，互不阻塞；分段数量固定，内存占用不随tag数量增长。
+ * 注意：持有共享锁时不能再获取同一tag的独占锁（ReentrantReadWriteLock不支持升级）。
+ */
+@Service
+public class TagLockManager {
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    public TagLockManager(@Value("${coverage.lock.stripes:256}") int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 获取tag目录的共享锁
+     */
+    public LockHandle readLock(Path tagDir) {
+        return acquire(stripeFor(tagDir).readLock());
+    }
+
+    /**
+     * 获取tag目录的独占锁
+     */
+    public LockHandle writeLock(Path tagDir) {
+        return acquire(stripeFor(tagDir).writeLock());
+    }
+
+    /**
+     * 在超时时间内尝试获取tag目录的独占锁，用于后台任务，避免长时间阻塞调度线程
+     * @return 锁句柄，超时返回null
+     */
+    public LockHandle tryWriteLock(Path tagDir, long timeout, TimeUnit unit) throws InterruptedException {
+        Lock lock = stripeFor(tagDir).writeLock();
+        return lock.tryLock(timeout, unit) ? new LockHandle(lock) : null;
+    }
+
+    public LockHandle readLock(String appName, String clusterName, String tag) {
+        return readLock(tagDirectory(appName, clusterName, tag));
+    }
+
+    public LockHandle writeLock(String appName, String clusterName, String tag) {
+        return writeLock(tagDirectory(appName, clusterName, tag));
+    }
+
+    private Path tagDirectory(String appName, String clusterName, String tag) {
+        Path basePath = Paths.get(coverageConfig.getDumpDirectory(), appName);
+        return StringUtils.hasText(clusterName) ? basePath.resolve(clusterName).resolve(tag) : basePath.resolve(tag);
+    }
+
+    private ReentrantReadWriteLock stripeFor(Path tagDir) {
+        int hash = tagDir.toAbsolutePath().normalize().hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[hash & mask];
+    }
+
+    private static LockHandle acquire(Lock lock) {
+        lock.lock();
+        return new LockHandle(lock);
+    }
+
+    /**
+     * 锁句柄，配合 try-with-resources 使用
+     */
+    public static final class LockHandle implements AutoCloseable {
+        private Lock lock;
+
+        private LockHandle(Lock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() {
+            if (lock != null) {
+                lock.unlock();
+                lock = null;
+            }
+        }
+    }
+}
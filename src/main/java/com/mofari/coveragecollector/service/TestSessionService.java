@@ -0,0 +1,500 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.session.SessionHits;
+import com.mofari.coveragecollector.model.session.TestSession;
+import com.mofari.coveragecollector.util.AtomicFileWriter;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.ISourceFileCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfoStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 按测试会话收集覆盖率。
+ * 开始会话时dump并重置agent（会话前的数据照常作为tag的dump保存），结束时再dump并重置，
+ * 这次dump就是会话期间的探针增量，除了作为普通dump参与汇总外，有命中的class另存到会话目录
+ * （会话目录下 app/[cluster/]tag/&lt;sessionId&gt;.exec，会话列表在同目录的 sessions.json）。
+ * 查询时先用 classId → 会话 的倒排索引筛出命中过相关class的会话，再只分析这些class判断行是否被覆盖。
+ */
+@Service
+public class TestSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TestSessionService.class);
+
+    private static final String SESSIONS_FILE_NAME = "sessions.json";
+    private static final String SESSION_DATA_SUFFIX = ".exec";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final Pattern INVALID_NAME_CHARS = Pattern.compile("[^A-Za-z0-9._-]+");
+
+    @Autowired
+    private CoverageConfig coverageConfig;
+
+    @Autowired
+    private JaCoCoClientService jaCoCoClientService;
+
+    @Autowired
+    private MultiNodeCoverageService multiNodeCoverageService;
+
+    @Autowired
+    private SourceClassIndexService sourceClassIndexService;
+
+    @Autowired
+    private ClassFileService classFileService;
+
+    @Autowired
+    private ReportGeneratorService reportGeneratorService;
+
+    @Autowired
+    private TagLockManager tagLockManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 正在进行的会话，key为 app/cluster：agent的探针是进程级的，同一应用（集群）同时只能有一个会话
+    private final Map<String, TestSession> activeSessions = new ConcurrentHashMap<>();
+    private final Map<String, Object> sessionLocks = new ConcurrentHashMap<>();
+
+    private final Map<String, SessionIndex> indexes = Collections.synchronizedMap(
+            new LinkedHashMap<String, SessionIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SessionIndex> eldest) {
+                    return size() > coverageConfig.getSession().getMaxCachedIndexes();
+                }
+            });
+
+    /**
+     * 开始会话：dump并重置agent，之后的执行都归属该会话
+     * @param clusterName 集群名，指定时从Nacos发现的所有节点收集，否则按单节点处理
+     * @param agentHost 单节点模式的agent地址（可选）
+     * @param agentPort 单节点模式的agent端口（可选）
+     */
+    public TestSession startSession(String appName, String clusterName, String tag, String name,
+                                    String agentHost, Integer agentPort) throws Exception {
+        String sessionName = normalizeName(name);
+        String activeKey = activeKey(appName, clusterName);
+        synchronized (sessionLocks.computeIfAbsent(activeKey, k -> new Object())) {
+            TestSession active = findActiveSession(appName, clusterName, tag);
+            if (active != null) {
+                throw new IllegalStateException("应用 " + appName + " 已有进行中的会话: " + active.getSessionId());
+            }
+
+            TestSession session = new TestSession();
+            session.setName(sessionName);
+            session.setAppName(appName);
+            session.setClusterName(StringUtils.hasText(clusterName) ? clusterName : null);
+            session.setTag(tag);
+            session.setAgentHost(agentHost);
+            session.setAgentPort(agentPort);
+
+            // 会话开始前的数据照常保存为tag的dump，不会因为重置而丢失
+            CollectedDumps collected = collect(session);
+            session.setStartedAt(System.currentTimeMillis());
+            session.setSessionId(sessionName + "_" + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date(session.getStartedAt())));
+            session.setStatus(TestSession.STATUS_ACTIVE);
+            session.getFailedNodes().addAll(collected.failedNodes);
+
+            List<TestSession> sessions = loadSessions(appName, clusterName, tag);
+            sessions.add(session);
+            saveSessions(appName, clusterName, tag, sessions);
+            activeSessions.put(activeKey, session);
+            logger.info("Test session {} started for {}/{}/{}", session.getSessionId(), appName, clusterName, tag);
+            return session;
+        }
+    }
+
+    /**
+     * 结束当前会话：dump并重置agent，把会话期间有命中的class探针另存
+     */
+    public TestSession endSession(String appName, String clusterName, String tag) throws Exception {
+        String activeKey = activeKey(appName, clusterName);
+        synchronized (sessionLocks.computeIfAbsent(activeKey, k -> new Object())) {
+            TestSession session = findActiveSession(appName, clusterName, tag);
+            if (session == null || !tag.equals(session.getTag())) {
+                throw new IllegalStateException("应用 " + appName + " 在tag " + tag + " 下没有进行中的会话");
+            }
+
+            // 开始时已重置，这次dump就是会话期间的探针；失败时会话保持进行中，可以重试
+            CollectedDumps collected = collect(session);
+            ExecutionDataStore executionDataStore = new ExecutionDataStore();
+            SessionInfoStore sessionInfoStore = new SessionInfoStore();
+            for (File dumpFile : collected.dumpFiles) {
+                try (TagLockManager.LockHandle ignored = tagLockManager.readLock(dumpFile.getParentFile().toPath())) {
+                    readExecutionData(dumpFile, executionDataStore, sessionInfoStore);
+                }
+            }
+
+            List<ExecutionData> hitClasses = new ArrayList<>();
+            for (ExecutionData data : executionDataStore.getContents()) {
+                if (data.hasHits()) {
+                    hitClasses.add(data);
+                }
+            }
+            File dataFile = sessionDataFile(appName, clusterName, tag, session.getSessionId());
+            AtomicFileWriter.write(dataFile, out -> {
+                ExecutionDataWriter writer = new ExecutionDataWriter(out);
+                sessionInfoStore.accept(writer);
+                for (ExecutionData data : hitClasses) {
+                    writer.visitClassExecution(data);
+                }
+            });
+
+            session.setStatus(TestSession.STATUS_COMPLETED);
+            session.setEndedAt(System.currentTimeMillis());
+            session.setClassCount(hitClasses.size());
+            for (String failedNode : collected.failedNodes) {
+                if (!session.getFailedNodes().contains(failedNode)) {
+                    session.getFailedNodes().add(failedNode);
+                }
+            }
+
+            List<TestSession> sessions = loadSessions(appName, clusterName, tag);
+            boolean replaced = false;
+            for (int i = 0; i < sessions.size(); i++) {
+                if (sessions.get(i).getSessionId().equals(session.getSessionId())) {
+                    sessions.set(i, session);
+                    replaced = true;
+                }
+            }
+            if (!replaced) {
+                sessions.add(session);
+            }
+            saveSessions(appName, clusterName, tag, sessions);
+            activeSessions.remove(activeKey);
+            indexes.remove(tagKey(appName, clusterName, tag));
+            logger.info("Test session {} ended: {} classes hit", session.getSessionId(), hitClasses.size());
+            return session;
+        }
+    }
+
+    /**
+     * @return tag下的所有会话，按开始时间升序
+     */
+    public List<TestSession> listSessions(String appName, String clusterName, String tag) throws IOException {
+        return loadSessions(appName, clusterName, tag);
+    }
+
+    /**
+     * 查询哪些会话覆盖了指定的行
+     * @param linesByFile 源文件路径（如 com/foo/Bar.java）到行号的映射
+     */
+    public SessionHits findSessionsForLines(String appName, String clusterName, String tag,
+                                            Map<String, Set<Integer>> linesByFile) throws IOException {
+        SessionIndex index = getIndex(appName, clusterName, tag);
+        SessionHits hits = new SessionHits();
+        hits.setTotalSessions(index.sessionIds.size());
+        if (index.sessionIds.isEmpty() || linesByFile.isEmpty()) {
+            return hits;
+        }
+
+        List<String> classDirs = coverageConfig.discoverApplicationPaths(appName, tag).getClassDirectories();
+        SourceClassIndexService.SourceClassIndex sourceClassIndex = sourceClassIndexService.getIndex(appName, tag, classDirs);
+        ClassFileService.ClassFilter filter = classFileService.filterFor(appName);
+        Set<String> impactedSessions = new TreeSet<>();
+        Set<Integer> allCandidates = new HashSet<>();
+
+        // 先找出每个文件的候选会话，再一次读取所有候选文件的class
+        Map<String, Set<Integer>> candidatesByFile = new LinkedHashMap<>();
+        Set<String> candidateClasses = new HashSet<>();
+        for (String path : linesByFile.keySet()) {
+            Set<Integer> candidates = new TreeSet<>();
+            for (long classId : sourceClassIndex.getClassIds(path)) {
+                List<Integer> sessions = index.sessionsByClassId.get(classId);
+                if (sessions != null) {
+                    candidates.addAll(sessions);
+                }
+            }
+            if (!candidates.isEmpty()) {
+                candidatesByFile.put(path, candidates);
+                candidateClasses.addAll(sourceClassIndex.getClasses(path));
+            }
+        }
+        Map<String, Map<String, byte[]>> classBytesByFile = new HashMap<>();
+        if (!candidateClasses.isEmpty()) {
+            classFileService.forEachClass(classDirs, filter.restrictTo(sourceClassIndex.getLocations(candidateClasses)),
+                    (className, bytes, location) -> classBytesByFile
+                            .computeIfAbsent(sourceClassIndex.getSourcePath(className), k -> new HashMap<>())
+                            .put(className, bytes));
+        }
+
+        for (Map.Entry<String, Set<Integer>> entry : candidatesByFile.entrySet()) {
+            String path = entry.getKey();
+            Set<Integer> candidates = entry.getValue();
+            long[] classIds = toSortedArray(sourceClassIndex.getClassIds(path));
+            allCandidates.addAll(candidates);
+            Map<String, byte[]> classBytes = classBytesByFile.getOrDefault(path, Collections.emptyMap());
+
+            // 探针完全相同的会话只分析一次
+            Map<ProbePattern, List<Integer>> patterns = new LinkedHashMap<>();
+            for (int ordinal : candidates) {
+                patterns.computeIfAbsent(new ProbePattern(classIds, index.probes.get(ordinal)), k -> new ArrayList<>()).add(ordinal);
+            }
+
+            Map<Integer, List<String>> lineHits = new TreeMap<>();
+            for (Map.Entry<ProbePattern, List<Integer>> pattern : patterns.entrySet()) {
+                ISourceFileCoverage sourceFile = analyze(path, pattern.getKey(), sourceClassIndex, classBytes);
+                if (sourceFile == null) {
+                    continue;
+                }
+                for (int lineNumber : linesByFile.get(path)) {
+                    if (sourceFile.getLine(lineNumber).getInstructionCounter().getCoveredCount() == 0) {
+                        continue;
+                    }
+                    List<String> sessionIds = lineHits.computeIfAbsent(lineNumber, k -> new ArrayList<>());
+                    for (int ordinal : pattern.getValue()) {
+                        sessionIds.add(index.sessionIds.get(ordinal));
+                    }
+                }
+            }
+            if (!lineHits.isEmpty()) {
+                for (List<String> sessionIds : lineHits.values()) {
+                    Collections.sort(sessionIds);
+                    impactedSessions.addAll(sessionIds);
+                }
+                hits.getFiles().put(path, lineHits);
+            }
+        }
+        hits.setCandidateSessions(allCandidates.size());
+        hits.setSessions(new ArrayList<>(impactedSessions));
+        return hits;
+    }
+
+    /**
+     * 查询覆盖了两个git引用之间变更行的会话，即变更后需要重新执行的用例
+     */
+    public SessionHits findImpactedSessions(String appName, String clusterName, String tag, String baseRef, String newRef)
+            throws IOException, InterruptedException {
+        Map<String, Set<Integer>> changedLines = reportGeneratorService.getChangedLines(appName, tag, baseRef, newRef);
+        return findSessionsForLines(appName, clusterName, tag, changedLines);
+    }
+
+    private ISourceFileCoverage analyze(String path, ProbePattern pattern, SourceClassIndexService.SourceClassIndex sourceClassIndex,
+                                        Map<String, byte[]> classBytes) throws IOException {
+        ExecutionDataStore executionDataStore = new ExecutionDataStore();
+        for (int i = 0; i < pattern.classIds.length; i++) {
+            if (pattern.probes[i] != null) {
+                executionDataStore.put(new ExecutionData(pattern.classIds[i],
+                        sourceClassIndex.getClassName(pattern.classIds[i]), pattern.probes[i]));
+            }
+        }
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        Analyzer analyzer = new Analyzer(executionDataStore, coverageBuilder);
+        for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+            analyzer.analyzeClass(entry.getValue(), entry.getKey());
+        }
+        for (ISourceFileCoverage sourceFile : coverageBuilder.getSourceFiles()) {
+            String packageName = sourceFile.getPackageName();
+            String sourcePath = packageName.isEmpty() ? sourceFile.getName() : packageName + "/" + sourceFile.getName();
+            if (sourcePath.equals(path)) {
+                return sourceFile;
+            }
+        }
+        return null;
+    }
+
+    private SessionIndex getIndex(String appName, String clusterName, String tag) throws IOException {
+        String key = tagKey(appName, clusterName, tag);
+        SessionIndex index = indexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        long start = System.currentTimeMillis();
+        index = new SessionIndex();
+        for (TestSession session : loadSessions(appName, clusterName, tag)) {
+            if (!TestSession.STATUS_COMPLETED.equals(session.getStatus())) {
+                continue;
+            }
+            File dataFile = sessionDataFile(appName, clusterName, tag, session.getSessionId());
+            if (!dataFile.isFile()) {
+                logger.warn("Data file of test session {} is missing: {}", session.getSessionId(), dataFile.getAbsolutePath());
+                continue;
+            }
+            ExecutionDataStore executionDataStore = new ExecutionDataStore();
+            readExecutionData(dataFile, executionDataStore, new SessionInfoStore());
+            int ordinal = index.sessionIds.size();
+            Map<Long, boolean[]> probes = new HashMap<>();
+            for (ExecutionData data : executionDataStore.getContents()) {
+                probes.put(data.getId(), data.getProbes());
+                index.sessionsByClassId.computeIfAbsent(data.getId(), k -> new ArrayList<>()).add(ordinal);
+            }
+            index.sessionIds.add(session.getSessionId());
+            index.probes.add(probes);
+        }
+        logger.info("Built test session index for {}: {} sessions, {} classes in {} ms", key, index.sessionIds.size(),
+                index.sessionsByClassId.size(), System.currentTimeMillis() - start);
+        indexes.put(key, index);
+        return index;
+    }
+
+    /**
+     * 进行中的会话；服务重启后从会话列表中恢复
+     */
+    private TestSession findActiveSession(String appName, String clusterName, String tag) throws IOException {
+        String activeKey = activeKey(appName, clusterName);
+        TestSession active = activeSessions.get(activeKey);
+        if (active != null) {
+            return active;
+        }
+        for (TestSession session : loadSessions(appName, clusterName, tag)) {
+            if (TestSession.STATUS_ACTIVE.equals(session.getStatus())) {
+                activeSessions.put(activeKey, session);
+                return session;
+            }
+        }
+        return null;
+    }
+
+    private CollectedDumps collect(TestSession session) throws Exception {
+        CollectedDumps collected = new CollectedDumps();
+        if (StringUtils.hasText(session.getClusterName())) {
+            MultiNodeCoverageService.MultiNodeCollectionResult result = multiNodeCoverageService.collectFromAllNodes(
+                    session.getAppName(), session.getClusterName(), session.getTag(), true);
+            if (result.getSuccessCount() == 0) {
+                throw new IllegalStateException("没有节点收集成功，集群: " + session.getClusterName()
+                        + "，节点数: " + result.getTotalNodes());
+            }
+            for (String dumpPath : result.getSuccessfulDumps()) {
+                collected.dumpFiles.add(new File(dumpPath));
+            }
+            collected.failedNodes.addAll(result.getFailedNodes());
+        } else {
+            String dumpPath = jaCoCoClientService.collectCoverageData(session.getAppName(), session.getTag(),
+                    session.getAgentHost(), session.getAgentPort(), true);
+            collected.dumpFiles.add(new File(dumpPath));
+        }
+        return collected;
+    }
+
+    private static void readExecutionData(File file, ExecutionDataStore executionDataStore, SessionInfoStore sessionInfoStore)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE)) {
+            ExecutionDataReader reader = new ExecutionDataReader(in);
+            reader.setExecutionDataVisitor(executionDataStore);
+            reader.setSessionInfoVisitor(sessionInfoStore);
+            reader.read();
+        }
+    }
+
+    private List<TestSession> loadSessions(String appName, String clusterName, String tag) throws IOException {
+        File file = sessionDirectory(appName, clusterName, tag).resolve(SESSIONS_FILE_NAME).toFile();
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        return objectMapper.readValue(file, new TypeReference<List<TestSession>>() {});
+    }
+
+    private void saveSessions(String appName, String clusterName, String tag, List<TestSession> sessions) throws IOException {
+        File file = sessionDirectory(appName, clusterName, tag).resolve(SESSIONS_FILE_NAME).toFile();
+        AtomicFileWriter.write(file, out -> objectMapper.writeValue(out, sessions));
+    }
+
+    private File sessionDataFile(String appName, String clusterName, String tag, String sessionId) {
+        return sessionDirectory(appName, clusterName, tag).resolve(sessionId + SESSION_DATA_SUFFIX).toFile();
+    }
+
+    private Path sessionDirectory(String appName, String clusterName, String tag) {
+        Path basePath = Paths.get(coverageConfig.getSession().getDirectory(), appName);
+        return StringUtils.hasText(clusterName) ? basePath.resolve(clusterName).resolve(tag) : basePath.resolve(tag);
+    }
+
+    private static String normalizeName(String name) {
+        String normalized = name == null ? "" : INVALID_NAME_CHARS.matcher(name.trim()).replaceAll("-");
+        if (normalized.isEmpty() || normalized.replace("-", "").isEmpty()) {
+            throw new IllegalArgumentException("会话名称不能为空");
+        }
+        return normalized;
+    }
+
+    private static long[] toSortedArray(Set<Long> values) {
+        long[] array = new long[values.size()];
+        int i = 0;
+        for (Long value : values) {
+            array[i++] = value;
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static String activeKey(String appName, String clusterName) {
+        return appName + "/" + (clusterName != null ? clusterName : "");
+    }
+
+    private static String tagKey(String appName, String clusterName, String tag) {
+        return activeKey(appName, clusterName) + "/" + tag;
+    }
+
+    private static final class CollectedDumps {
+        private final List<File> dumpFiles = new ArrayList<>();
+        private final List<String> failedNodes = new ArrayList<>();
+    }
+
+    /**
+     * classId → 会话的倒排索引，以及每个会话有命中的class的探针
+     */
+    private static final class SessionIndex {
+        private final List<String> sessionIds = new ArrayList<>();
+        private final List<Map<Long, boolean[]>> probes = new ArrayList<>();
+        private final Map<Long, List<Integer>> sessionsByClassId = new HashMap<>();
+    }
+
+    /**
+     * 一个会话在某个源文件的所有class上的探针，用于合并探针相同的会话
+     */
+    private static final class ProbePattern {
+        private final long[] classIds;
+        private final boolean[][] probes;
+        private final int hash;
+
+        ProbePattern(long[] classIds, Map<Long, boolean[]> sessionProbes) {
+            this.classIds = classIds;
+            this.probes = new boolean[classIds.length][];
+            for (int i = 0; i < classIds.length; i++) {
+                probes[i] = sessionProbes.get(classIds[i]);
+            }
+            this.hash = Arrays.deepHashCode(probes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ProbePattern && Arrays.deepEquals(probes, ((ProbePattern) other).probes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
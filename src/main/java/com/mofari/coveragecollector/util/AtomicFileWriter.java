@@ -0,0 +1,97 @@
+package com.mofari.coveragecollector.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 崩溃安全的文件写入：先写同目录下的隐藏临时文件并fsync，再原子重命名为目标文件。
+ * 读者要么看不到文件，要么看到完整的文件；进程崩溃只会留下以 .tmp 结尾的临时文件。
+ */
+public final class AtomicFileWriter {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private AtomicFileWriter() {
+    }
+
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 原子地写入目标文件
+     * @param target 目标文件
+     * @param contentWriter 向输出流写入内容
+     */
+    public static void write(File target, ContentWriter contentWriter) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("无法创建目录: " + dir.getAbsolutePath());
+        }
+        File tempFile = File.createTempFile("." + target.getName() + ".", TEMP_SUFFIX, dir);
+        boolean published = false;
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tempFile);
+                 BufferedOutputStream out = new BufferedOutputStream(fos, BUFFER_SIZE)) {
+                // 写入方（如Jackson）可能会关闭传入的流，这里屏蔽close以便之后fsync
+                contentWriter.write(new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                });
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            published = true;
+            syncDirectory(dir.toPath());
+        } finally {
+            if (!published) {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+    }
+
+    /**
+     * 原子地把已写好的临时目录发布为目标目录（用于包含大量文件的HTML报告）
+     */
+    public static void publishDirectory(Path tempDir, Path targetDir) throws IOException {
+        Files.move(tempDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(targetDir.toAbsolutePath().getParent());
+    }
+
+    /**
+     * 判断文件名是否为本类产生的临时文件
+     */
+    public static boolean isTempFile(String fileName) {
+        return fileName.startsWith(".") && fileName.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * fsync目录本身，保证重命名持久化；部分平台（如Windows）不支持打开目录，忽略即可
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
+            // best effort
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.mofari.coveragecollector.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 结构化的并发收集：在一个作用域内fork多个子任务，{@link #join()} 等待全部完成或到达截止时间，
+ * 超时未完成的子任务被取消（中断），作用域关闭时不会留下仍在运行的子任务。
+ * 单个子任务失败不影响其他子任务，结果按子任务逐个读取（与JDK 21的 StructuredTaskScope 用法相同，可在Java 8上运行）。
+ * <p>
+ * 子任务在执行不可重复的操作（如dump并重置agent）之前调用 {@link #shield()}，之后不会再被取消：
+ * 到达截止时间时 join 取消其余子任务，但会等这些子任务自己完成。
+ * <p>
+ * fork、join和close只能由创建作用域的线程调用。
+ */
+public final class CollectionScope<T> implements AutoCloseable {
+
+    public enum State {
+        /** 尚未完成 */
+        UNAVAILABLE,
+        /** 正常完成 */
+        SUCCESS,
+        /** 抛出了异常 */
+        FAILED,
+        /** 超时或作用域关闭时被取消 */
+        CANCELLED
+    }
+
+    private static final ThreadLocal<Subtask<?>> CURRENT_SUBTASK = new ThreadLocal<>();
+
+    private static final int PHASE_ACTIVE = 0;
+    private static final int PHASE_SHIELDED = 1;
+    private static final int PHASE_CANCELLED = 2;
+
+    private final ExecutorService executor;
+    private final long deadlineNanos;
+    private final Thread owner = Thread.currentThread();
+    private final List<Subtask<T>> subtasks = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @param executor 执行子任务的执行器，由调用方管理生命周期
+     * @param timeout 截止时间（从现在起），所有子任务共用
+     */
+    public CollectionScope(ExecutorService executor, long timeout, TimeUnit unit) {
+        this.executor = executor;
+        this.deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    /**
+     * 提交一个子任务
+     */
+    public Subtask<T> fork(Callable<? extends T> task) {
+        checkOwner();
+        if (closed) {
+            throw new IllegalStateException("作用域已关闭");
+        }
+        Subtask<T> subtask = new Subtask<>();
+        subtask.future = executor.submit(() -> {
+            CURRENT_SUBTASK.set(subtask);
+            try {
+                return task.call();
+            } finally {
+                CURRENT_SUBTASK.remove();
+            }
+        });
+        subtasks.add(subtask);
+        return subtask;
+    }
+
+    /**
+     * 由子任务调用：之后到达截止时间或作用域关闭时不再取消当前子任务。不在子任务中调用时直接返回true
+     * @return false表示子任务已经被取消，不应再开始不可重复的操作
+     */
+    public static boolean shield() {
+        Subtask<?> subtask = CURRENT_SUBTASK.get();
+        if (subtask == null) {
+            return true;
+        }
+        return subtask.phase.compareAndSet(PHASE_ACTIVE, PHASE_SHIELDED) || subtask.phase.get() == PHASE_SHIELDED;
+    }
+
+    /**
+     * 等待所有子任务完成；到达截止时间时取消未完成的子任务，再等待已调用 {@link #shield()} 的子任务完成后返回
+     * @return 是否所有子任务都在截止时间前完成
+     * @throws InterruptedException 等待时被中断，所有未完成且未shield的子任务已被取消
+     */
+    public boolean join() throws InterruptedException {
+        checkOwner();
+        try {
+            for (Subtask<T> subtask : subtasks) {
+                long remaining = deadlineNanos - System.nanoTime();
+                try {
+                    subtask.future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | CancellationException e) {
+                    // 结果由 Subtask 读取
+                } catch (TimeoutException e) {
+                    cancelUnfinished();
+                    awaitShielded();
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            cancelUnfinished();
+            throw e;
+        }
+    }
+
+    /**
+     * 距截止时间的剩余毫秒数，已超时返回0
+     */
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * 关闭作用域，取消仍未完成的子任务，并等待已shield的子任务完成（等待时被中断则不再等待）
+     */
+    @Override
+    public void close() {
+        checkOwner();
+        closed = true;
+        cancelUnfinished();
+        try {
+            awaitShielded();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cancelUnfinished() {
+        for (Subtask<T> subtask : subtasks) {
+            if (subtask.phase.compareAndSet(PHASE_ACTIVE, PHASE_CANCELLED)) {
+                subtask.future.cancel(true);
+            }
+        }
+    }
+
+    private void awaitShielded() throws InterruptedException {
+        for (Subtask<T> subtask : subtasks) {
+            if (subtask.phase.get() != PHASE_SHIELDED) {
+                continue;
+            }
+            try {
+                subtask.future.get();
+            } catch (ExecutionException | CancellationException e) {
+                // 结果由 Subtask 读取
+            }
+        }
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("只能由创建作用域的线程调用: " + owner.getName());
+        }
+    }
+
+    /**
+     * fork返回的子任务句柄
+     */
+    public static final class Subtask<T> {
+        private Future<? extends T> future;
+        private final AtomicInteger phase = new AtomicInteger(PHASE_ACTIVE);
+
+        private Subtask() {
+        }
+
+        public State state() {
+            if (!future.isDone()) {
+                return State.UNAVAILABLE;
+            }
+            if (future.isCancelled()) {
+                return State.CANCELLED;
+            }
+            try {
+                future.get();
+                return State.SUCCESS;
+            } catch (ExecutionException e) {
+                return State.FAILED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return State.UNAVAILABLE;
+            }
+        }
+
+        /**
+         * 子任务的结果
+         * @throws IllegalStateException 子任务没有正常完成
+         */
+        public T get() {
+            if (state() != State.SUCCESS) {
+                throw new IllegalStateException("子任务没有正常完成: " + state());
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 子任务抛出的异常
+         * @throws IllegalStateException 子任务不是失败状态
+         */
+        public Throwable exception() {
+            if (state() != State.FAILED) {
+                throw new IllegalStateException("子任务没有失败: " + state());
+            }
+            try {
+                future.get();
+                throw new IllegalStateException("子任务没有失败");
+            } catch (ExecutionException e) {
+                return e.getCause();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.mofari.coveragecollector.util;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 覆盖率快照的二进制格式。
+ * 文件头为魔数和格式版本，之后依次是元数据、汇总计数器和每个源文件的计数器与行数据；
+ * 整数使用变长编码，行号按与上一行的差值存储，典型项目的快照只有几百KB。
+ * 格式变化时递增 FORMAT_VERSION，旧版本的快照读取时报错，由调用方重新生成。
+ */
+public final class CoverageSnapshotCodec {
+
+    public static final int MAGIC_NUMBER = 0x43534E50; // "CSNP"
+    public static final int FORMAT_VERSION = 1;
+
+    private CoverageSnapshotCodec() {
+    }
+
+    public static void write(CoverageSnapshot snapshot, OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC_NUMBER);
+        out.writeShort(FORMAT_VERSION);
+        writeString(out, snapshot.getAppName());
+        writeString(out, snapshot.getClusterName());
+        writeString(out, snapshot.getTag());
+        writeString(out, snapshot.getDumpFingerprint());
+        writeString(out, snapshot.getClassStamp());
+        writeString(out, snapshot.getReportPath());
+        out.writeLong(snapshot.getCreatedAt());
+        writeCounter(out, snapshot.getInstructions());
+        writeCounter(out, snapshot.getBranches());
+        writeCounter(out, snapshot.getLines());
+        writeCounter(out, snapshot.getMethods());
+
+        writeVarInt(out, snapshot.getFiles().size());
+        for (SourceFileSnapshot file : snapshot.getFiles()) {
+            writeString(out, file.getPackageName());
+            writeString(out, file.getFileName());
+            writeCounter(out, file.getInstructions());
+            writeCounter(out, file.getBranches());
+            writeCounter(out, file.getLines());
+            writeCounter(out, file.getMethods());
+            int lineCount = file.getLineCount();
+            writeVarInt(out, lineCount);
+            int previousLine = 0;
+            for (int i = 0; i < lineCount; i++) {
+                writeVarInt(out, file.getLineNumber(i) - previousLine);
+                previousLine = file.getLineNumber(i);
+                out.writeByte(file.getLineStatus(i));
+                writeVarInt(out, file.getMissedInstructions(i));
+                writeVarInt(out, file.getCoveredInstructions(i));
+                writeVarInt(out, file.getMissedBranches(i));
+                writeVarInt(out, file.getCoveredBranches(i));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @throws IOException 文件不是快照格式、版本不支持或内容不完整
+     */
+    public static CoverageSnapshot read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC_NUMBER) {
+            throw new IOException("Not a coverage snapshot file");
+        }
+        int version = in.readUnsignedShort();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported coverage snapshot version: " + version);
+        }
+        CoverageSnapshot snapshot = new CoverageSnapshot();
+        snapshot.setAppName(readString(in));
+        snapshot.setClusterName(readString(in));
+        snapshot.setTag(readString(in));
+        snapshot.setDumpFingerprint(readString(in));
+        snapshot.setClassStamp(readString(in));
+        snapshot.setReportPath(readString(in));
+        snapshot.setCreatedAt(in.readLong());
+        snapshot.setInstructions(readCounter(in));
+        snapshot.setBranches(readCounter(in));
+        snapshot.setLines(readCounter(in));
+        snapshot.setMethods(readCounter(in));
+
+        int fileCount = readVarInt(in);
+        for (int f = 0; f < fileCount; f++) {
+            String packageName = readString(in);
+            String fileName = readString(in);
+            CoverageCounter instructions = readCounter(in);
+            CoverageCounter branches = readCounter(in);
+            CoverageCounter lines = readCounter(in);
+            CoverageCounter methods = readCounter(in);
+            int lineCount = readVarInt(in);
+            int[] lineNumbers = new int[lineCount];
+            byte[] statuses = new byte[lineCount];
+            int[] missedInstructions = new int[lineCount];
+            int[] coveredInstructions = new int[lineCount];
+            int[] missedBranches = new int[lineCount];
+            int[] coveredBranches = new int[lineCount];
+            int line = 0;
+            for (int i = 0; i < lineCount; i++) {
+                line += readVarInt(in);
+                lineNumbers[i] = line;
+                statuses[i] = in.readByte();
+                missedInstructions[i] = readVarInt(in);
+                coveredInstructions[i] = readVarInt(in);
+                missedBranches[i] = readVarInt(in);
+                coveredBranches[i] = readVarInt(in);
+            }
+            snapshot.addFile(new SourceFileSnapshot(packageName, fileName, instructions, branches, lines, methods,
+                    lineNumbers, statuses, missedInstructions, coveredInstructions, missedBranches, coveredBranches));
+        }
+        return snapshot;
+    }
+
+    static void writeCounter(DataOutputStream out, CoverageCounter counter) throws IOException {
+        writeVarInt(out, counter.getMissed());
+        writeVarInt(out, counter.getCovered());
+    }
+
+    static CoverageCounter readCounter(DataInputStream in) throws IOException {
+        int missed = readVarInt(in);
+        int covered = readVarInt(in);
+        return new CoverageCounter(missed, covered);
+    }
+
+    /**
+     * 字符串：长度+1（0表示null）+ UTF-8字节，不受 writeUTF 的64KB限制
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer in coverage snapshot");
+    }
+}
@@ -0,0 +1,227 @@
+package com.mofari.coveragecollector.util;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.trend.CoverageTrendPoint;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 覆盖率趋势的追加写日志文件。
+ * 文件头为魔数和格式版本，之后每次记录追加一帧：[负载长度][时间戳][负载CRC32][负载]，
+ * 负载包含来源以及应用/包/文件各范围的计数器。帧只追加不修改；写入中途崩溃留下的不完整帧
+ * 在下一次追加前截掉，读取时遇到不完整或校验失败的帧即停止。
+ * 帧头带时间戳，按时间范围查询时不在范围内的帧直接跳过，不解析负载。
+ * <p>
+ * 进程内记录每个文件上次追加后的长度，长度未变时直接在末尾追加；只有进程内第一次追加或文件被外部修改时
+ * 才从头扫描帧头找出完整帧的结束位置，追加的开销不随日志增长。同一文件的追加由调用方串行化。
+ */
+public final class CoverageTrendLog {
+
+    public static final int MAGIC_NUMBER = 0x43545244; // "CTRD"
+    public static final int FORMAT_VERSION = 1;
+
+    public static final byte SCOPE_APP = 0;
+    public static final byte SCOPE_PACKAGE = 1;
+    public static final byte SCOPE_FILE = 2;
+
+    private static final int HEADER_LENGTH = 6;
+    private static final int FRAME_HEADER_LENGTH = 4 + 8 + 8;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // 文件绝对路径 -> 本进程上次追加后的文件长度（即最后一个完整帧的结束位置）
+    private static final Map<String, Long> APPENDED_LENGTHS = new ConcurrentHashMap<>();
+
+    private CoverageTrendLog() {
+    }
+
+    /**
+     * 一个范围的计数器
+     */
+    public static final class Entry {
+        private final byte scope;
+        private final String name;
+        private final CoverageCounter instructions;
+        private final CoverageCounter branches;
+        private final CoverageCounter lines;
+        private final CoverageCounter methods;
+
+        public Entry(byte scope, String name, CoverageCounter instructions, CoverageCounter branches,
+                     CoverageCounter lines, CoverageCounter methods) {
+            this.scope = scope;
+            this.name = name;
+            this.instructions = instructions;
+            this.branches = branches;
+            this.lines = lines;
+            this.methods = methods;
+        }
+    }
+
+    /**
+     * 追加一帧并刷到磁盘
+     */
+    public static void append(File file, long timestamp, String source, List<Entry> entries) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64 + entries.size() * 48);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        CoverageSnapshotCodec.writeString(payload, source);
+        CoverageSnapshotCodec.writeVarInt(payload, entries.size());
+        for (Entry entry : entries) {
+            payload.writeByte(entry.scope);
+            CoverageSnapshotCodec.writeString(payload, entry.name);
+            CoverageSnapshotCodec.writeCounter(payload, entry.instructions);
+            CoverageSnapshotCodec.writeCounter(payload, entry.branches);
+            CoverageSnapshotCodec.writeCounter(payload, entry.lines);
+            CoverageSnapshotCodec.writeCounter(payload, entry.methods);
+        }
+        payload.flush();
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Failed to create directory: " + dir.getAbsolutePath());
+        }
+        String key = file.getAbsolutePath();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            Long appended = APPENDED_LENGTHS.get(key);
+            long end = appended != null && appended == channel.size() ? appended : validLength(raf);
+            if (end < HEADER_LENGTH) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC_NUMBER).putShort((short) FORMAT_VERSION).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                end = HEADER_LENGTH;
+            } else if (end < channel.size()) {
+                channel.truncate(end);
+            }
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_LENGTH + bytes.length);
+            frame.putInt(bytes.length).putLong(timestamp).putLong(crc.getValue()).put(bytes).flip();
+            while (frame.hasRemaining()) {
+                end += channel.write(frame, end);
+            }
+            channel.force(true);
+            APPENDED_LENGTHS.put(key, end);
+        } catch (IOException | RuntimeException e) {
+            APPENDED_LENGTHS.remove(key);
+            throw e;
+        }
+    }
+
+    /**
+     * 读取某个范围在时间区间内的数据点
+     * @param scope SCOPE_APP、SCOPE_PACKAGE 或 SCOPE_FILE
+     * @param name 包名或文件路径，应用范围为空字符串
+     * @param from 起始时间（包含）
+     * @param to 结束时间（包含）
+     * @param points 匹配的数据点按写入顺序追加到该列表
+     */
+    public static void read(File file, byte scope, String name, long from, long to, List<CoverageTrendPoint> points) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE))) {
+            if (fileLength < HEADER_LENGTH || in.readInt() != MAGIC_NUMBER) {
+                throw new IOException("Not a coverage trend file: " + file.getAbsolutePath());
+            }
+            int version = in.readUnsignedShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported coverage trend version: " + version);
+            }
+            long position = HEADER_LENGTH;
+            byte[] buffer = new byte[4096];
+            while (position + FRAME_HEADER_LENGTH <= fileLength) {
+                int length = in.readInt();
+                long timestamp = in.readLong();
+                long checksum = in.readLong();
+                if (length < 0 || position + FRAME_HEADER_LENGTH + length > fileLength) {
+                    return; // 不完整的尾帧
+                }
+                position += FRAME_HEADER_LENGTH + length;
+                if (timestamp < from || timestamp > to) {
+                    skipFully(in, length);
+                    continue;
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                in.readFully(buffer, 0, length);
+                CRC32 crc = new CRC32();
+                crc.update(buffer, 0, length);
+                if (crc.getValue() != checksum) {
+                    return;
+                }
+                readFrame(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)), timestamp, scope, name, points);
+            }
+        }
+    }
+
+    private static void readFrame(DataInputStream payload, long timestamp, byte scope, String name,
+                                  List<CoverageTrendPoint> points) throws IOException {
+        String source = CoverageSnapshotCodec.readString(payload);
+        int entryCount = CoverageSnapshotCodec.readVarInt(payload);
+        for (int i = 0; i < entryCount; i++) {
+            byte entryScope = payload.readByte();
+            String entryName = CoverageSnapshotCodec.readString(payload);
+            CoverageCounter instructions = CoverageSnapshotCodec.readCounter(payload);
+            CoverageCounter branches = CoverageSnapshotCodec.readCounter(payload);
+            CoverageCounter lines = CoverageSnapshotCodec.readCounter(payload);
+            CoverageCounter methods = CoverageSnapshotCodec.readCounter(payload);
+            if (entryScope == scope && name.equals(entryName)) {
+                points.add(new CoverageTrendPoint(timestamp, source, instructions, branches, lines, methods));
+                return; // 每帧中一个范围只有一条记录
+            }
+        }
+    }
+
+    /**
+     * 最后一个完整帧的结束位置；文件比文件头还短时返回0，文件头无效时抛出IOException
+     */
+    private static long validLength(RandomAccessFile raf) throws IOException {
+        long fileLength = raf.length();
+        if (fileLength < HEADER_LENGTH) {
+            return 0;
+        }
+        raf.seek(0);
+        if (raf.readInt() != MAGIC_NUMBER || raf.readUnsignedShort() != FORMAT_VERSION) {
+            throw new IOException("Not a coverage trend file or unsupported version");
+        }
+        long position = HEADER_LENGTH;
+        while (position + FRAME_HEADER_LENGTH <= fileLength) {
+            raf.seek(position);
+            int length = raf.readInt();
+            if (length < 0 || position + FRAME_HEADER_LENGTH + length > fileLength) {
+                break;
+            }
+            position += FRAME_HEADER_LENGTH + length;
+        }
+        return position;
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = (int) in.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+}
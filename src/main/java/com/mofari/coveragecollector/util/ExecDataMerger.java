@@ -0,0 +1,559 @@
+package com.mofari.coveragecollector.util;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.jacoco.core.data.ISessionInfoVisitor;
+import org.jacoco.core.data.SessionInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 合并 .exec 文件的专用编解码器，代替 ExecutionDataReader + ExecutionDataStore + ExecutionDataWriter。
+ * <p>
+ * JaCoCo的读取方式对每个文件中的每个class都会分配 ExecutionData、类名String和 boolean[]；这里按块直接解析，
+ * 探针保持文件中的打包格式（每字节8个，低位在前），重复出现的class把探针字节直接按位或到已有的数组上，
+ * 类名只在class第一次出现时保存一次。读取缓冲区和哈希表在所有文件之间复用，合并N个文件的分配量只与class数有关。
+ * <p>
+ * 输出与 ExecutionDataStore 合并后用 ExecutionDataWriter 写出的结果逐字节相同：相同的头部、按dump时间排序的会话、
+ * 跳过没有命中的class，并按 ExecutionDataStore 内部HashMap的遍历顺序写出class。
+ * 同一个classId的类名或探针数不一致时与JaCoCo一样抛出 IllegalStateException。
+ */
+public final class ExecDataMerger {
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_EXPECTED_CLASSES = 1024;
+
+    // 按首次出现的顺序保存的class
+    private long[] ids;
+    private byte[][] names;          // 类名的modified UTF-8字节（writeUTF格式，不含长度前缀）
+    private int[] probeCounts;
+    private byte[][] probes;         // 打包的探针位
+    private int size;
+
+    // 开放寻址哈希表：classId -> 槽位下标 + 1（0表示空）
+    private long[] tableIds;
+    private int[] tableSlots;
+
+    private final List<SessionInfo> sessions = new ArrayList<>();
+
+    // 读取缓冲区，所有文件共用
+    private final byte[] buffer = new byte[IO_BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private InputStream source;
+
+    public ExecDataMerger() {
+        this(DEFAULT_EXPECTED_CLASSES);
+    }
+
+    /**
+     * @param expectedClasses 预计的class数量，用于预分配，超出时自动扩容
+     */
+    public ExecDataMerger(int expectedClasses) {
+        int capacity = Math.max(16, expectedClasses);
+        ids = new long[capacity];
+        names = new byte[capacity][];
+        probeCounts = new int[capacity];
+        probes = new byte[capacity][];
+        allocateTable(tableCapacityFor(capacity));
+    }
+
+    /**
+     * 合并一个 .exec 文件
+     */
+    public void merge(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            merge(in);
+        }
+    }
+
+    /**
+     * 合并一个 .exec 数据流，流由调用方关闭
+     */
+    public void merge(InputStream in) throws IOException {
+        source = in;
+        position = 0;
+        limit = 0;
+        try {
+            boolean headerSeen = false;
+            int type;
+            while ((type = readBlockType()) != -1) {
+                if (!headerSeen && type != ExecutionDataWriter.BLOCK_HEADER) {
+                    throw new IOException("Invalid execution data file.");
+                }
+                switch (type) {
+                    case ExecutionDataWriter.BLOCK_HEADER:
+                        readHeader();
+                        headerSeen = true;
+                        break;
+                    case ExecutionDataWriter.BLOCK_SESSIONINFO:
+                        readSessionInfo();
+                        break;
+                    case ExecutionDataWriter.BLOCK_EXECUTIONDATA:
+                        readExecutionData();
+                        break;
+                    default:
+                        throw new IOException(String.format("Unknown block type %x.", Byte.valueOf((byte) type)));
+                }
+            }
+        } finally {
+            source = null;
+        }
+    }
+
+    /**
+     * 合并另一个合并器的结果，用于并行合并时两两归并各组的部分结果。
+     * 先合并的在前：this 对应先读取的文件、other 对应后读取的文件时，结果与顺序读取所有文件相同（包括写出顺序）。
+     * other 之后仍可使用，探针数组会复制而不是共享。
+     */
+    public void merge(ExecDataMerger other) {
+        for (int otherSlot = 0; otherSlot < other.size; otherSlot++) {
+            long id = other.ids[otherSlot];
+            byte[] name = other.names[otherSlot];
+            int probeCount = other.probeCounts[otherSlot];
+            byte[] packed = other.probes[otherSlot];
+            int slot = findSlot(id);
+            if (slot < 0) {
+                addSlot(id, name, probeCount, packed.clone());
+                continue;
+            }
+            if (!Arrays.equals(names[slot], name)) {
+                throw new IllegalStateException(String.format("Different class names %s and %s for id %016x.",
+                        decodeName(names[slot]), decodeName(name), Long.valueOf(id)));
+            }
+            if (probeCounts[slot] != probeCount) {
+                throw new IllegalStateException(String.format("Incompatible execution data for class %s with id %016x.",
+                        decodeName(names[slot]), Long.valueOf(id)));
+            }
+            byte[] target = probes[slot];
+            for (int i = 0; i < packed.length; i++) {
+                target[i] |= packed[i];
+            }
+        }
+        sessions.addAll(other.sessions);
+    }
+
+    /**
+     * 合并结果中的class数（包括没有命中、写出时会跳过的class）
+     */
+    public int getClassCount() {
+        return size;
+    }
+
+    /**
+     * 合并结果中所有class的探针总数
+     */
+    public long getProbeCount() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += probeCounts[i];
+        }
+        return total;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 清空合并结果，保留已分配的数组供下一次合并使用
+     */
+    public void reset() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(probes, 0, size, null);
+        Arrays.fill(tableSlots, 0);
+        size = 0;
+        sessions.clear();
+    }
+
+    /**
+     * 以JaCoCo格式写出合并结果，流由调用方关闭
+     * @return 写出的class数（有命中的class）
+     */
+    public int writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+        data.writeByte(ExecutionDataWriter.BLOCK_HEADER);
+        data.writeChar(ExecutionDataWriter.MAGIC_NUMBER);
+        data.writeChar(ExecutionDataWriter.FORMAT_VERSION);
+
+        // SessionInfoStore.accept：按dump时间稳定排序
+        List<SessionInfo> sortedSessions = new ArrayList<>(sessions);
+        Collections.sort(sortedSessions);
+        for (SessionInfo session : sortedSessions) {
+            data.writeByte(ExecutionDataWriter.BLOCK_SESSIONINFO);
+            data.writeUTF(session.getId());
+            data.writeLong(session.getStartTimeStamp());
+            data.writeLong(session.getDumpTimeStamp());
+        }
+
+        int written = 0;
+        for (int slot : jacocoStoreOrder()) {
+            byte[] packed = probes[slot];
+            if (!hasHits(packed)) {
+                continue; // ExecutionDataWriter 不写出没有命中的class
+            }
+            data.writeByte(ExecutionDataWriter.BLOCK_EXECUTIONDATA);
+            data.writeLong(ids[slot]);
+            data.writeShort(names[slot].length);
+            data.write(names[slot]);
+            writeVarInt(data, probeCounts[slot]);
+            data.write(packed);
+            written++;
+        }
+        data.flush();
+        return written;
+    }
+
+    /**
+     * 把合并结果交给JaCoCo的访问者（如 ExecutionDataStore / SessionInfoStore），内容与读取 {@link #writeTo} 写出的文件相同：
+     * 会话按dump时间排序，跳过没有命中的class
+     * @param sessionInfoVisitor 可以为null
+     * @return 交出的class数
+     */
+    public int accept(IExecutionDataVisitor executionDataVisitor, ISessionInfoVisitor sessionInfoVisitor) {
+        if (sessionInfoVisitor != null) {
+            List<SessionInfo> sortedSessions = new ArrayList<>(sessions);
+            Collections.sort(sortedSessions);
+            for (SessionInfo session : sortedSessions) {
+                sessionInfoVisitor.visitSessionInfo(session);
+            }
+        }
+        int visited = 0;
+        for (int slot = 0; slot < size; slot++) {
+            byte[] packed = probes[slot];
+            if (!hasHits(packed)) {
+                continue;
+            }
+            boolean[] unpacked = new boolean[probeCounts[slot]];
+            for (int i = 0; i < unpacked.length; i++) {
+                unpacked[i] = (packed[i >>> 3] & (1 << (i & 7))) != 0;
+            }
+            executionDataVisitor.visitClassExecution(new ExecutionData(ids[slot], decodeName(names[slot]), unpacked));
+            visited++;
+        }
+        return visited;
+    }
+
+    // ---- 读取 ----
+
+    private void readHeader() throws IOException {
+        if (readChar() != ExecutionDataWriter.MAGIC_NUMBER) {
+            throw new IOException("Invalid execution data file.");
+        }
+        char version = readChar();
+        if (version != ExecutionDataWriter.FORMAT_VERSION) {
+            throw new IOException(String.format("Incompatible execution data version 0x%x, expected 0x%x.",
+                    (int) version, (int) ExecutionDataWriter.FORMAT_VERSION));
+        }
+    }
+
+    private void readSessionInfo() throws IOException {
+        int length = readUnsignedShort();
+        ensure(length);
+        String id = decodeUtf(buffer, position, length);
+        position += length;
+        long start = readLong();
+        long dump = readLong();
+        sessions.add(new SessionInfo(id, start, dump));
+    }
+
+    private void readExecutionData() throws IOException {
+        long id = readLong();
+        int slot = findSlot(id);
+        // 类名在缓冲区中就地比较或复制，之后的读取可能移动缓冲区内容
+        int nameLength = readUnsignedShort();
+        ensure(nameLength);
+        byte[] name = null;
+        if (slot < 0) {
+            name = Arrays.copyOfRange(buffer, position, position + nameLength);
+        } else if (!sameName(names[slot], buffer, position, nameLength)) {
+            throw new IllegalStateException(String.format("Different class names %s and %s for id %016x.",
+                    decodeUtf(names[slot], 0, names[slot].length), decodeUtf(buffer, position, nameLength), Long.valueOf(id)));
+        }
+        position += nameLength;
+        int probeCount = readVarInt();
+        int byteCount = (probeCount + 7) >>> 3;
+
+        if (slot < 0) {
+            byte[] packed = new byte[byteCount];
+            readBytes(packed);
+            addSlot(id, name, probeCount, packed);
+            return;
+        }
+        if (probeCounts[slot] != probeCount) {
+            throw new IllegalStateException(String.format("Incompatible execution data for class %s with id %016x.",
+                    decodeUtf(names[slot], 0, names[slot].length), Long.valueOf(id)));
+        }
+        orBytes(probes[slot], byteCount);
+    }
+
+    private int readBlockType() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private char readChar() throws IOException {
+        return (char) readUnsignedShort();
+    }
+
+    private int readUnsignedShort() throws IOException {
+        ensure(2);
+        int value = ((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF);
+        position += 2;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        ensure(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[position + i] & 0xFF);
+        }
+        position += 8;
+        return value;
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            ensure(1);
+            int b = buffer[position++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private void readBytes(byte[] target) throws IOException {
+        int offset = 0;
+        while (offset < target.length) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+            int chunk = Math.min(limit - position, target.length - offset);
+            System.arraycopy(buffer, position, target, offset, chunk);
+            position += chunk;
+            offset += chunk;
+        }
+    }
+
+    /**
+     * 把接下来的byteCount个探针字节按位或到target上
+     */
+    private void orBytes(byte[] target, int byteCount) throws IOException {
+        int offset = 0;
+        while (offset < byteCount) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+            int chunk = Math.min(limit - position, byteCount - offset);
+            for (int i = 0; i < chunk; i++) {
+                target[offset + i] |= buffer[position + i];
+            }
+            position += chunk;
+            offset += chunk;
+        }
+    }
+
+    /**
+     * 保证缓冲区中至少有n个字节（n不超过缓冲区大小），文件提前结束时抛出EOFException
+     */
+    private void ensure(int n) throws IOException {
+        if (limit - position >= n) {
+            return;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < n) {
+            int read = source.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            limit += read;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        position = 0;
+        limit = 0;
+        int read;
+        do {
+            read = source.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read == -1) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    // ---- class表 ----
+
+    private int findSlot(long id) {
+        int mask = tableIds.length - 1;
+        for (int index = mix(id) & mask; ; index = (index + 1) & mask) {
+            int slot = tableSlots[index];
+            if (slot == 0) {
+                return -1;
+            }
+            if (tableIds[index] == id) {
+                return slot - 1;
+            }
+        }
+    }
+
+    private void addSlot(long id, byte[] name, int probeCount, byte[] packed) {
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            probeCounts = Arrays.copyOf(probeCounts, capacity);
+            probes = Arrays.copyOf(probes, capacity);
+        }
+        ids[size] = id;
+        names[size] = name;
+        probeCounts[size] = probeCount;
+        probes[size] = packed;
+        size++;
+        if (size * 2 > tableIds.length) {
+            allocateTable(tableIds.length * 2);
+            for (int slot = 0; slot < size; slot++) {
+                insert(ids[slot], slot);
+            }
+        } else {
+            insert(id, size - 1);
+        }
+    }
+
+    private void insert(long id, int slot) {
+        int mask = tableIds.length - 1;
+        int index = mix(id) & mask;
+        while (tableSlots[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        tableIds[index] = id;
+        tableSlots[index] = slot + 1;
+    }
+
+    private void allocateTable(int capacity) {
+        tableIds = new long[capacity];
+        tableSlots = new int[capacity];
+    }
+
+    private static int tableCapacityFor(int classes) {
+        int capacity = 16;
+        while (capacity < classes * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * ExecutionDataStore 用 HashMap&lt;Long, ExecutionData&gt; 保存class，遍历顺序是最终容量下的桶序，同一桶内按插入顺序。
+     * 这里按同样的规则排出写出顺序，使输出与JaCoCo逐字节相同。classId是class字节的CRC64，分布均匀；
+     * 只有一个桶内堆积8个以上id、HashMap把桶转成红黑树时顺序才可能不同，顺序不影响读取结果。
+     */
+    private int[] jacocoStoreOrder() {
+        int capacity = 16;
+        while (size > capacity * 3 / 4) {
+            capacity <<= 1;
+        }
+        long[] keys = new long[size];
+        for (int slot = 0; slot < size; slot++) {
+            int h = Long.hashCode(ids[slot]);
+            int bucket = (h ^ (h >>> 16)) & (capacity - 1);
+            keys[slot] = ((long) bucket << 32) | slot;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    // ---- 工具 ----
+
+    private static boolean hasHits(byte[] packed) {
+        for (byte b : packed) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameName(byte[] name, byte[] data, int offset, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decodeUtf(byte[] data, int offset, int length) throws IOException {
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = data[offset + i] > 0;
+        }
+        if (ascii) {
+            return new String(data, offset, length, StandardCharsets.US_ASCII);
+        }
+        byte[] prefixed = new byte[length + 2];
+        prefixed[0] = (byte) (length >>> 8);
+        prefixed[1] = (byte) length;
+        System.arraycopy(data, offset, prefixed, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(prefixed)).readUTF();
+    }
+
+    /**
+     * 用于异常信息的类名，无法解码时按单字节显示
+     */
+    private static String decodeName(byte[] name) {
+        try {
+            return decodeUtf(name, 0, name.length);
+        } catch (IOException e) {
+            return new String(name, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & 0xFFFFFF80) != 0) {
+            out.writeByte(0x80 | (remaining & 0x7F));
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+}
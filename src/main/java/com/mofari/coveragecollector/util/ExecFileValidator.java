@@ -0,0 +1,171 @@
+package com.mofari.coveragecollector.util;
+
+import org.jacoco.core.data.ExecutionDataWriter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * JaCoCo .exec 文件结构校验。
+ * 按块扫描文件，找出最后一个完整块的结束位置；写入中途崩溃留下的截断文件可以截断到该位置修复。
+ */
+public final class ExecFileValidator {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private ExecFileValidator() {
+    }
+
+    /**
+     * 校验dump文件
+     * @param file dump文件
+     * @return 校验结果，文件无法读取时抛出IOException
+     */
+    public static Result validate(File file) throws IOException {
+        Result result = new Result(file.length());
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), COPY_BUFFER_SIZE))) {
+            DataInputStream in = new DataInputStream(counting);
+            boolean headerSeen = false;
+            byte[] scratch = new byte[1024];
+            while (true) {
+                long blockStart = counting.getCount();
+                int type = in.read();
+                if (type == -1) {
+                    result.validLength = blockStart;
+                    result.valid = headerSeen;
+                    if (!headerSeen) {
+                        result.error = "文件为空或缺少头部";
+                    }
+                    return result;
+                }
+                try {
+                    if (!headerSeen && type != ExecutionDataWriter.BLOCK_HEADER) {
+                        result.error = "文件不是JaCoCo exec格式";
+                        return result;
+                    }
+                    switch (type) {
+                        case ExecutionDataWriter.BLOCK_HEADER:
+                            if (in.readChar() != ExecutionDataWriter.MAGIC_NUMBER) {
+                                result.error = "头部魔数无效";
+                                return result;
+                            }
+                            char version = in.readChar();
+                            if (version != ExecutionDataWriter.FORMAT_VERSION) {
+                                result.error = "不兼容的exec格式版本: 0x" + Integer.toHexString(version);
+                                return result;
+                            }
+                            headerSeen = true;
+                            break;
+                        case ExecutionDataWriter.BLOCK_SESSIONINFO:
+                            in.readUTF();
+                            in.readLong();
+                            in.readLong();
+                            result.sessionCount++;
+                            break;
+                        case ExecutionDataWriter.BLOCK_EXECUTIONDATA:
+                            in.readLong();
+                            in.readUTF();
+                            skipFully(in, (readVarInt(in) + 7) / 8, scratch);
+                            result.classCount++;
+                            break;
+                        default:
+                            result.validLength = blockStart;
+                            result.error = "未知的块类型 0x" + Integer.toHexString(type) + "，位置 " + blockStart;
+                            return result;
+                    }
+                } catch (EOFException e) {
+                    result.validLength = blockStart;
+                    result.truncated = true;
+                    result.error = "文件在位置 " + blockStart + " 之后被截断";
+                    return result;
+                }
+            }
+        }
+    }
+
+    /**
+     * 修复被截断的dump文件：保留最后一个完整块之前的内容并原子替换原文件。
+     * @return 修复后的校验结果；文件本身有效时不做修改，无法修复时返回原结果
+     */
+    public static Result repair(File file) throws IOException {
+        Result result = validate(file);
+        if (result.isValid() || !result.isRepairable()) {
+            return result;
+        }
+        long keep = result.getValidLength();
+        AtomicFileWriter.write(file, out -> copyPrefix(file, keep, out));
+        Result repaired = validate(file);
+        repaired.repairedFrom = result.getFileLength();
+        return repaired;
+    }
+
+    private static void copyPrefix(File file, long length, OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("文件在复制过程中变短: " + file.getAbsolutePath());
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0xFF & in.readByte();
+        if ((value & 0x80) == 0) {
+            return value;
+        }
+        return (value & 0x7F) | (readVarInt(in) << 7);
+    }
+
+    /**
+     * 逐段读取而不是skip：FileInputStream.skip 可以越过文件末尾，无法发现截断
+     */
+    private static void skipFully(DataInputStream in, int length, byte[] scratch) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, scratch.length);
+            in.readFully(scratch, 0, chunk);
+            remaining -= chunk;
+        }
+    }
+
+    /**
+     * 校验结果
+     */
+    public static final class Result {
+        private final long fileLength;
+        private boolean valid;
+        private boolean truncated;
+        private long validLength;
+        private int sessionCount;
+        private int classCount;
+        private long repairedFrom = -1L;
+        private String error;
+
+        private Result(long fileLength) {
+            this.fileLength = fileLength;
+        }
+
+        public boolean isValid() { return valid; }
+        public boolean isTruncated() { return truncated; }
+        /** 截断且至少保留了完整的头部才可以修复 */
+        public boolean isRepairable() { return truncated && validLength > 0; }
+        public long getFileLength() { return fileLength; }
+        public long getValidLength() { return validLength; }
+        public int getSessionCount() { return sessionCount; }
+        public int getClassCount() { return classCount; }
+        public boolean isRepaired() { return repairedFrom >= 0; }
+        public String getError() { return error; }
+    }
+}
@@ -0,0 +1,117 @@
+package com.mofari.coveragecollector.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 并行合并多个 .exec 文件：文件按顺序分成若干组，每组由一个任务用自己的 {@link ExecDataMerger} 顺序读取，
+ * 各组的部分结果沿二叉归并树两两合并（左边的组在前），最后由调用方一次写出。
+ * 读取和解码在多个线程上同时进行，合并结果与按原顺序逐个读取完全相同。
+ */
+public final class ParallelExecDataMerger {
+
+    private ParallelExecDataMerger() {
+    }
+
+    /**
+     * 合并文件，文件数不超过 filesPerTask 或没有线程池时在当前线程顺序合并
+     * @param files 待合并的文件（按合并顺序）
+     * @param pool 执行合并任务的线程池，可以为null
+     * @param filesPerTask 每个任务顺序读取的文件数
+     * @param expectedClasses 预计的class数量，用于各任务的预分配
+     * @return 合并结果
+     * @throws FileMergeException 读取某个文件失败（IOException，包括文件被截断时的EOFException）
+     * @throws IllegalStateException 不同文件中同一个classId的类名或探针数不一致，无论冲突的文件是否在同一组
+     */
+    public static ExecDataMerger merge(List<File> files, ForkJoinPool pool, int filesPerTask, int expectedClasses) {
+        return merge(files, pool, filesPerTask, expectedClasses, null);
+    }
+
+    /**
+     * 合并文件，每读完一个文件调用一次 fileMerged（可能在多个线程上同时调用）
+     * @param fileMerged 进度回调，可以为null
+     */
+    public static ExecDataMerger merge(List<File> files, ForkJoinPool pool, int filesPerTask, int expectedClasses,
+                                       Runnable fileMerged) {
+        MergeTask task = new MergeTask(files, 0, files.size(), Math.max(1, filesPerTask), expectedClasses, fileMerged);
+        if (pool == null || files.size() <= task.filesPerTask) {
+            return task.compute();
+        }
+        try {
+            return pool.invoke(task);
+        } catch (IllegalStateException e) {
+            // ForkJoinTask在调用线程重新抛出其他线程上的异常时，会新建一个同类型的异常包装原异常
+            if (e.getCause() instanceof IllegalStateException) {
+                throw (IllegalStateException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class MergeTask extends RecursiveTask<ExecDataMerger> {
+        private final List<File> files;
+        private final int from;
+        private final int to;
+        private final int filesPerTask;
+        private final int expectedClasses;
+        private final Runnable fileMerged;
+
+        MergeTask(List<File> files, int from, int to, int filesPerTask, int expectedClasses, Runnable fileMerged) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.filesPerTask = filesPerTask;
+            this.expectedClasses = expectedClasses;
+            this.fileMerged = fileMerged;
+        }
+
+        @Override
+        protected ExecDataMerger compute() {
+            if (to - from <= filesPerTask) {
+                return mergeSequentially();
+            }
+            int middle = (from + to) >>> 1;
+            MergeTask right = new MergeTask(files, middle, to, filesPerTask, expectedClasses, fileMerged);
+            right.fork();
+            ExecDataMerger merged = new MergeTask(files, from, middle, filesPerTask, expectedClasses, fileMerged).compute();
+            merged.merge(right.join());
+            return merged;
+        }
+
+        private ExecDataMerger mergeSequentially() {
+            ExecDataMerger merger = new ExecDataMerger(expectedClasses);
+            for (int i = from; i < to; i++) {
+                File file = files.get(i);
+                try {
+                    merger.merge(file);
+                } catch (IOException e) {
+                    // 只包装读取失败；classId冲突与组间归并时一样以 IllegalStateException 抛出，不受分组方式影响
+                    throw new FileMergeException(file, e);
+                }
+                if (fileMerged != null) {
+                    fileMerged.run();
+                }
+            }
+            return merger;
+        }
+    }
+
+    /**
+     * 读取某个文件失败，原因见 {@link #getCause()}
+     */
+    public static final class FileMergeException extends RuntimeException {
+        private final File file;
+
+        FileMergeException(File file, Throwable cause) {
+            super(file.getName() + ": " + cause.getMessage(), cause);
+            this.file = file;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.mofari.coveragecollector.util;
+
+/**
+ * JaCoCo探针数组的公共计算
+ */
+public final class Probes {
+
+    private Probes() {
+    }
+
+    /**
+     * 命中的探针数
+     */
+    public static int countHits(boolean[] probes) {
+        int hits = 0;
+        for (boolean probe : probes) {
+            if (probe) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,169 @@
+package com.mofari.coveragecollector.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 扫描项目目录，一次遍历同时找出所有模块的 src/main/java、target/classes 和 target 下的jar/war。
+ * 遍历按子目录并行，并剪枝：不进入 .git、node_modules 等目录，到达 src、target 后只检查需要的子目录，不再深入。
+ * 扫描结果记录所有访问过的目录及其修改时间，用于判断缓存是否仍然有效。
+ */
+public final class ProjectLayoutScanner {
+
+    private static final Set<String> SKIPPED_DIRECTORIES = new HashSet<>(Arrays.asList(
+            ".git", ".svn", ".hg", ".idea", ".vscode", ".gradle", ".mvn", "node_modules", "build"));
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private ProjectLayoutScanner() {
+    }
+
+    /**
+     * 扫描项目根目录
+     * @param root 项目根目录
+     * @return 扫描结果，根目录不存在时返回空结果
+     */
+    public static Layout scan(Path root) {
+        Layout layout = new Layout();
+        // 根目录不存在时也记录下来，之后创建了目录缓存会失效
+        layout.record(root);
+        if (!Files.isDirectory(root)) {
+            return layout;
+        }
+        POOL.invoke(new ScanTask(root, layout));
+        Collections.sort(layout.sourceDirectories);
+        Collections.sort(layout.classDirectories);
+        Collections.sort(layout.archives);
+        return layout;
+    }
+
+    private static final class ScanTask extends RecursiveAction {
+        private final Path dir;
+        private final Layout layout;
+
+        ScanTask(Path dir, Layout layout) {
+            this.dir = dir;
+            this.layout = layout;
+        }
+
+        @Override
+        protected void compute() {
+            layout.record(dir);
+            List<ScanTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                for (Path child : children) {
+                    String name = child.getFileName().toString();
+                    if (SKIPPED_DIRECTORIES.contains(name) || Files.isSymbolicLink(child)) {
+                        continue;
+                    }
+                    if ("src".equals(name)) {
+                        scanSourceRoot(child);
+                    } else if ("target".equals(name)) {
+                        scanBuildOutput(child);
+                    } else {
+                        subtasks.add(new ScanTask(child, layout));
+                    }
+                }
+            } catch (IOException e) {
+                // 无权限等情况下跳过该目录
+                return;
+            }
+            invokeAll(subtasks);
+        }
+
+        /**
+         * src目录下只关心 src/main/java，不再深入其余子目录
+         */
+        private void scanSourceRoot(Path srcDir) {
+            layout.record(srcDir);
+            Path mainDir = srcDir.resolve("main");
+            if (Files.isDirectory(mainDir, LinkOption.NOFOLLOW_LINKS)) {
+                layout.record(mainDir);
+                Path javaDir = mainDir.resolve("java");
+                if (Files.isDirectory(javaDir)) {
+                    layout.sourceDirectories.add(javaDir.toAbsolutePath().toString());
+                }
+            }
+        }
+
+        /**
+         * target目录下只关心 classes 以及打包产物，不进入class目录本身
+         */
+        private void scanBuildOutput(Path targetDir) {
+            layout.record(targetDir);
+            Path classesDir = targetDir.resolve("classes");
+            if (Files.isDirectory(classesDir)) {
+                layout.classDirectories.add(classesDir.toAbsolutePath().toString());
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(targetDir, ProjectLayoutScanner::isPackagedArchive)) {
+                for (Path file : files) {
+                    layout.archives.add(file.toAbsolutePath().toString());
+                }
+            } catch (IOException ignored) {
+                // 无法读取时视为没有打包产物
+            }
+        }
+    }
+
+    private static boolean isPackagedArchive(Path file) {
+        String name = file.getFileName().toString();
+        return Files.isRegularFile(file)
+                && (name.endsWith(".jar") || name.endsWith(".war"))
+                && !name.endsWith("-sources.jar") && !name.endsWith("-javadoc.jar") && !name.endsWith("-tests.jar");
+    }
+
+    /**
+     * 扫描结果
+     */
+    public static final class Layout {
+        private final List<String> sourceDirectories = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> classDirectories = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> archives = Collections.synchronizedList(new ArrayList<>());
+        private final Map<Path, Long> visitedDirectories = new ConcurrentHashMap<>();
+
+        private void record(Path dir) {
+            visitedDirectories.put(dir, dir.toFile().lastModified());
+        }
+
+        public List<String> getSourceDirectories() {
+            return new ArrayList<>(sourceDirectories);
+        }
+
+        public List<String> getClassDirectories() {
+            return new ArrayList<>(classDirectories);
+        }
+
+        public List<String> getArchives() {
+            return new ArrayList<>(archives);
+        }
+
+        /**
+         * 访问过的目录都没有变化（增删子目录或文件都会改变目录的修改时间）时，扫描结果仍然有效
+         */
+        public boolean isUpToDate() {
+            for (Map.Entry<Path, Long> entry : visitedDirectories.entrySet()) {
+                if (entry.getKey().toFile().lastModified() != entry.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int getVisitedDirectoryCount() {
+            return visitedDirectories.size();
+        }
+    }
+}
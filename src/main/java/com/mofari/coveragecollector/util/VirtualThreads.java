@@ -0,0 +1,101 @@
+package com.mofari.coveragecollector.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程（JDK 21+）。项目按Java 8编译，通过反射创建，运行在旧JDK上时 {@link #isAvailable()} 返回false。
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = lookup("java.lang.Thread", "ofVirtual");
+    private static final Method BUILDER_NAME = lookup("java.lang.Thread$Builder", "name", String.class, long.class);
+    private static final Method BUILDER_FACTORY = lookup("java.lang.Thread$Builder", "factory");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR =
+            lookup("java.util.concurrent.Executors", "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private static final boolean AVAILABLE = probe();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前JVM是否支持虚拟线程（JDK 19/20 需要 --enable-preview）
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * 创建虚拟线程的线程工厂，线程名为 namePrefix + 序号
+     * @throws UnsupportedOperationException 当前JVM不支持虚拟线程
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        if (!AVAILABLE) {
+            throw new UnsupportedOperationException("当前JVM不支持虚拟线程: " + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程工厂失败", e);
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，不需要设置线程池大小
+     * @throws UnsupportedOperationException 当前JVM不支持虚拟线程
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = newThreadFactory(namePrefix);
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程执行器失败", e);
+        }
+    }
+
+    /**
+     * 虚拟线程优先，不支持时使用固定大小的平台线程池（守护线程）
+     */
+    public static ExecutorService newExecutor(boolean preferVirtual, String namePrefix, int platformThreads) {
+        if (preferVirtual && AVAILABLE) {
+            return newThreadPerTaskExecutor(namePrefix);
+        }
+        ThreadFactory platform = new ThreadFactory() {
+            private int sequence;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + sequence++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), platform);
+    }
+
+    private static Method lookup(String className, String methodName, Class<?>... parameterTypes) {
+        try {
+            return Class.forName(className).getMethod(methodName, parameterTypes);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean probe() {
+        if (OF_VIRTUAL == null || BUILDER_NAME == null || BUILDER_FACTORY == null || NEW_THREAD_PER_TASK_EXECUTOR == null) {
+            return false;
+        }
+        try {
+            // 预览版JDK未开启预览特性时在这里抛出 UnsupportedOperationException
+            OF_VIRTUAL.invoke(null);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.util.CoverageTrendLog;
+import com.mofari.coveragecollector.util.ExecDataMerger;
+import com.mofari.coveragecollector.util.ExecFileValidator;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 沿用探针的选择：选中的探针只覆盖可沿用的行；全部行可沿用时选中逐个探针分析选中的全部探针
+ */
+class CarryForwardServiceTest {
+
+    private static final Class<?>[] CLASSES = {Branches.class, ExecFileValidator.class, ExecDataMerger.class,
+            CoverageTrendLog.class};
+
+    @Test
+    void carriesNothingWithoutCarryLines() throws IOException {
+        byte[] classBytes = classBytes(Branches.class);
+
+        boolean[] probes = carryProbes(Branches.class, classBytes, new BitSet());
+
+        for (boolean probe : probes) {
+            assertFalse(probe);
+        }
+    }
+
+    @Test
+    void matchesOneByOneAnalysisWhenEveryLineCarries() throws IOException {
+        BitSet allLines = new BitSet();
+        allLines.set(0, 100_000);
+        for (Class<?> type : CLASSES) {
+            byte[] classBytes = classBytes(type);
+            String className = className(type);
+
+            boolean[] expected = CarryForwardService.carryProbesOneByOne(className, CRC64.classId(classBytes), classBytes, allLines);
+            boolean[] probes = carryProbes(type, classBytes, allLines);
+
+            assertEquals(expected.length, probes.length);
+            for (int p = 0; p < probes.length; p++) {
+                if (expected[p]) {
+                    assertTrue(probes[p], className + " probe " + p);
+                } else if (probes[p]) {
+                    // 多选的只能是被JaCoCo过滤掉的代码（如私有空构造方法）中的探针，不覆盖任何行
+                    boolean[] single = new boolean[probes.length];
+                    single[p] = true;
+                    assertEquals(0, analyze(type, classBytes, single).getLineCounter().getCoveredCount(), className + " probe " + p);
+                }
+            }
+        }
+    }
+
+    @Test
+    void selectedProbesCoverOnlyCarryLines() throws IOException {
+        Random random = new Random(42);
+        for (Class<?> type : CLASSES) {
+            byte[] classBytes = classBytes(type);
+            for (int round = 0; round < 5; round++) {
+                BitSet carryLines = new BitSet();
+                for (int line = 0; line < 2000; line++) {
+                    if (random.nextInt(10) < 7) {
+                        carryLines.set(line);
+                    }
+                }
+
+                boolean[] probes = carryProbes(type, classBytes, carryLines);
+
+                IClassCoverage coverage = analyze(type, classBytes, probes);
+                for (int line = coverage.getFirstLine(); line <= coverage.getLastLine(); line++) {
+                    if (coverage.getLine(line).getInstructionCounter().getCoveredCount() > 0) {
+                        assertTrue(carryLines.get(line), className(type) + " line " + line);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void skipsProbesWhosePathTouchesChangedLine() throws IOException {
+        byte[] classBytes = classBytes(Branches.class);
+        IClassCoverage all = analyze(Branches.class, classBytes, new boolean[0]);
+        BitSet carryLines = new BitSet();
+        carryLines.set(all.getFirstLine(), all.getLastLine() + 1);
+        int changedLine = -1;
+        for (int line = all.getFirstLine(); line <= all.getLastLine(); line++) {
+            if (all.getLine(line).getBranchCounter().getTotalCount() > 0) {
+                changedLine = line;
+                break;
+            }
+        }
+        carryLines.clear(changedLine);
+
+        boolean[] probes = carryProbes(Branches.class, classBytes, carryLines);
+
+        // 构造方法的探针不经过修改的行，仍然沿用；经过分支行的探针都不沿用
+        assertTrue(probes[0]);
+        IClassCoverage coverage = analyze(Branches.class, classBytes, probes);
+        assertFalse(coverage.getLine(changedLine).getInstructionCounter().getCoveredCount() > 0);
+    }
+
+    private static boolean[] carryProbes(Class<?> type, byte[] classBytes, BitSet carryLines) throws IOException {
+        return CarryForwardService.carryProbes(className(type), CRC64.classId(classBytes), classBytes, carryLines);
+    }
+
+    private static IClassCoverage analyze(Class<?> type, byte[] classBytes, boolean[] probes) throws IOException {
+        ExecutionDataStore store = new ExecutionDataStore();
+        if (probes.length > 0) {
+            store.put(new ExecutionData(CRC64.classId(classBytes), className(type), probes));
+        }
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        new Analyzer(store, coverageBuilder).analyzeClass(classBytes, className(type));
+        return coverageBuilder.getClasses().iterator().next();
+    }
+
+    private static String className(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static byte[] classBytes(Class<?> type) throws IOException {
+        String resource = "/" + className(type) + ".class";
+        try (InputStream in = type.getResourceAsStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static class Branches {
+        int sign(int value) {
+            if (value > 0) {
+                return 1;
+            }
+            if (value < 0) {
+                return -1;
+            }
+            return 0;
+        }
+
+        int sum(int[] values) {
+            int sum = 0;
+            for (int value : values) {
+                sum += value;
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.mofari.coveragecollector.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * class读取：遍历时给出的位置可以直接读回同一个class，目录、fat jar中的应用class和嵌套依赖jar都适用
+ */
+class ClassFileServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ClassFileService classFileService = new ClassFileService();
+
+    @Test
+    void readsClassesBackFromTheirLocations() throws IOException {
+        byte[] first = classBytes(First.class);
+        byte[] second = classBytes(Second.class);
+        byte[] third = classBytes(Third.class);
+
+        Path classes = tempDir.resolve("classes");
+        Path firstFile = classes.resolve(className(First.class) + ".class");
+        Files.createDirectories(firstFile.getParent());
+        Files.write(firstFile, first);
+
+        ByteArrayOutputStream library = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(library)) {
+            putEntry(zip, className(Third.class) + ".class", third);
+        }
+        Path fatJar = tempDir.resolve("app.jar");
+        try (OutputStream out = Files.newOutputStream(fatJar); ZipOutputStream zip = new ZipOutputStream(out)) {
+            putEntry(zip, "BOOT-INF/classes/" + className(Second.class) + ".class", second);
+            putEntry(zip, "BOOT-INF/lib/lib.jar", library.toByteArray());
+        }
+        List<String> locations = Arrays.asList(classes.toString(), fatJar.toString());
+        ClassFileService.ClassFilter filter = new ClassFileService.ClassFilter(
+                Arrays.asList("com.mofari.*"), null, true);
+
+        Map<String, String> locationsByClass = new HashMap<>();
+        assertEquals(3, classFileService.forEachClass(locations, filter,
+                (className, bytes, location) -> locationsByClass.put(className, location)));
+        assertEquals(fatJar + "@BOOT-INF/lib/lib.jar@" + className(Third.class) + ".class",
+                locationsByClass.get(className(Third.class)));
+
+        Map<String, byte[]> read = new HashMap<>();
+        int count = classFileService.forEachClass(locations, filter.restrictTo(locationsByClass),
+                (className, bytes, location) -> read.put(className, bytes));
+
+        assertEquals(3, count);
+        assertArrayEquals(first, read.get(className(First.class)));
+        assertArrayEquals(second, read.get(className(Second.class)));
+        assertArrayEquals(third, read.get(className(Third.class)));
+    }
+
+    @Test
+    void readsOnlyTheRequestedLocation() throws IOException {
+        Path classes = tempDir.resolve("classes");
+        for (Class<?> type : new Class<?>[]{First.class, Second.class}) {
+            Path file = classes.resolve(className(type) + ".class");
+            Files.createDirectories(file.getParent());
+            Files.write(file, classBytes(type));
+        }
+        Map<String, String> requested = new HashMap<>();
+        requested.put(className(Second.class), classes.resolve(className(Second.class) + ".class").toString());
+        requested.put(className(Third.class), classes.resolve("missing.class").toString());
+
+        Map<String, byte[]> read = new HashMap<>();
+        int count = classFileService.forEachClass(Arrays.asList(classes.toString()),
+                ClassFileService.ClassFilter.ALL.restrictTo(requested), (className, bytes, location) -> read.put(className, bytes));
+
+        assertEquals(1, count);
+        assertEquals(1, read.size());
+        assertArrayEquals(classBytes(Second.class), read.get(className(Second.class)));
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static String className(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static byte[] classBytes(Class<?> type) throws IOException {
+        try (InputStream in = type.getResourceAsStream("/" + className(type) + ".class")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static class First {
+    }
+
+    static class Second {
+    }
+
+    static class Third {
+    }
+}
@@ -0,0 +1,138 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.DumpFileInfo;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * dump压缩：在独占锁下把旧的原始dump折叠为checkpoint并删除输入；磁盘预算收紧时每个节点仍保留最新的原始dump
+ */
+class DumpCompactionServiceTest {
+
+    private static final String APP = "demo";
+
+    @TempDir
+    Path tempDir;
+
+    private CoverageConfig config;
+    private DumpIndexService dumpIndexService;
+    private TagLockManager tagLockManager;
+    private DumpCompactionService service;
+    private Path tagDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new CoverageConfig();
+        config.setDumpDirectory(tempDir.toString());
+        config.getRetention().setKeepRawFiles(1);
+        config.getRetention().setKeepMergedFiles(1);
+        tagDir = tempDir.resolve(APP).resolve("v1");
+        Files.createDirectories(tagDir);
+
+        dumpIndexService = new DumpIndexService();
+        ReflectionTestUtils.setField(dumpIndexService, "objectMapper", new ObjectMapper());
+        tagLockManager = new TagLockManager(16);
+        DumpMergeService dumpMergeService = new DumpMergeService();
+        ReflectionTestUtils.setField(dumpMergeService, "coverageConfig", config);
+        ReflectionTestUtils.setField(dumpMergeService, "dumpIndexService", dumpIndexService);
+        ReflectionTestUtils.setField(dumpMergeService, "tagLockManager", tagLockManager);
+        service = new DumpCompactionService();
+        ReflectionTestUtils.setField(service, "coverageConfig", config);
+        ReflectionTestUtils.setField(service, "dumpIndexService", dumpIndexService);
+        ReflectionTestUtils.setField(service, "dumpMergeService", dumpMergeService);
+        ReflectionTestUtils.setField(service, "tagLockManager", tagLockManager);
+    }
+
+    @Test
+    void foldsOldDumpsOnlyOnceReadersAreDone() throws Exception {
+        dump("jacoco_10_0_0_1_20250101_000000_000.exec", 1L);
+        dump("jacoco_10_0_0_1_20250101_000001_000.exec", 2L);
+        dump("jacoco_10_0_0_1_20250101_000002_000.exec", 3L);
+        dump("jacoco_merged_20250101_000003_000.exec", 1L);
+        dump("jacoco_merged_20250101_000004_000.exec", 1L);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<DumpCompactionService.CompactionResult> compaction;
+            try (TagLockManager.LockHandle ignored = tagLockManager.readLock(tagDir)) {
+                compaction = executor.submit(() -> service.compactApplication(APP));
+                Thread.sleep(300);
+                assertFalse(compaction.isDone());
+                assertEquals(5, execFiles().size());
+            }
+            DumpCompactionService.CompactionResult result = compaction.get(10, TimeUnit.SECONDS);
+
+            assertEquals(2, result.getFoldedFiles());
+            assertEquals(1, result.getCheckpoints());
+            assertEquals(1, result.getDeletedMergedFiles());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(Arrays.asList(
+                "jacoco_10_0_0_1_20250101_000002_000.exec",
+                "jacoco_checkpoint_20250101_000001_000.exec",
+                "jacoco_merged_20250101_000004_000.exec"), execFiles());
+        DumpFileInfo checkpoint = dumpIndexService.find(tagDir.resolve("jacoco_checkpoint_20250101_000001_000.exec").toFile());
+        assertTrue(checkpoint.isCheckpoint());
+        assertEquals(2, checkpoint.getClassCount());
+    }
+
+    @Test
+    void keepsNewestDumpOfEachNodeUnderBudgetPressure() throws Exception {
+        config.getRetention().setKeepRawFiles(10);
+        config.getRetention().setMaxBytesPerApp(1);
+        dump("jacoco_10_0_0_1_20250101_000000_000.exec", 1L);
+        dump("jacoco_10_0_0_2_20250101_000001_000.exec", 2L);
+        dump("jacoco_10_0_0_1_20250101_000002_000.exec", 3L);
+        dump("jacoco_10_0_0_2_20250101_000003_000.exec", 4L);
+
+        DumpCompactionService.CompactionResult result = service.compactApplication(APP);
+
+        assertEquals(2, result.getFoldedFiles());
+        assertEquals(Arrays.asList(
+                "jacoco_10_0_0_1_20250101_000002_000.exec",
+                "jacoco_10_0_0_2_20250101_000003_000.exec",
+                "jacoco_checkpoint_20250101_000001_000.exec"), execFiles());
+    }
+
+    private void dump(String name, long classId) throws IOException {
+        try (OutputStream out = Files.newOutputStream(tagDir.resolve(name))) {
+            ExecutionDataWriter writer = new ExecutionDataWriter(out);
+            writer.visitSessionInfo(new SessionInfo(name, 0, 1));
+            writer.visitClassExecution(new ExecutionData(classId, "com/example/Class" + classId, new boolean[]{true}));
+        }
+    }
+
+    private List<String> execFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tagDir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".exec"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.model.DumpFileInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * dump索引：登记和移除只追加日志，重启后索引加日志还原同样的内容；对账发现外部增删的文件，目录未变时不重写索引
+ */
+class DumpIndexServiceTest {
+
+    @TempDir
+    Path tagDir;
+
+    @Test
+    void reconcilesExternalFilesOnFirstAccess() throws IOException {
+        dump("jacoco_10_0_0_1_20250101_000000_000.exec");
+        dump("jacoco_10_0_0_2_20250101_000001_000.exec");
+        dump("jacoco_merged_20250101_000002_000.exec");
+
+        DumpIndexService index = newService();
+
+        assertEquals(names("jacoco_10_0_0_1_20250101_000000_000.exec", "jacoco_10_0_0_2_20250101_000001_000.exec"),
+                fileNames(index.listFiles(tagDir, false)));
+        assertEquals(names("jacoco_merged_20250101_000002_000.exec"), fileNames(index.listFiles(tagDir, true)));
+        assertEquals("10_0_0_2", index.listFiles(tagDir, false).get(1).getNodeId());
+        assertFalse(index.listFiles(tagDir, false).get(0).isVerified());
+        assertTrue(Files.isRegularFile(tagDir.resolve(DumpIndexService.INDEX_FILE_NAME)));
+    }
+
+    @Test
+    void registrationsAppendToJournalAndSurviveRestart() throws IOException {
+        File first = dump("jacoco_10_0_0_1_20250101_000000_000.exec");
+        File second = dump("jacoco_10_0_0_1_20250101_000001_000.exec");
+        DumpIndexService index = newService();
+        index.listFiles(tagDir);
+        File indexFile = tagDir.resolve(DumpIndexService.INDEX_FILE_NAME).toFile();
+        String indexContent = read(indexFile);
+
+        index.register(first, 3);
+        index.register(second, 5);
+        index.unregister(first);
+        assertTrue(first.delete());
+
+        // 单次登记不重写索引文件
+        assertEquals(indexContent, read(indexFile));
+        assertEquals(3, Files.readAllLines(tagDir.resolve(DumpIndexService.JOURNAL_FILE_NAME)).size());
+
+        DumpIndexService restarted = newService();
+        List<DumpFileInfo> files = restarted.listFiles(tagDir, false);
+        assertEquals(names(second.getName()), fileNames(files));
+        assertEquals(5, files.get(0).getClassCount());
+        assertTrue(files.get(0).isVerified());
+    }
+
+    @Test
+    void ignoresTornJournalTail() throws IOException {
+        DumpIndexService index = newService();
+        File dumpFile = dump("jacoco_10_0_0_1_20250101_000000_000.exec");
+        index.listFiles(tagDir);
+        index.register(dumpFile, 7);
+        Files.write(tagDir.resolve(DumpIndexService.JOURNAL_FILE_NAME), "{\"put\":{\"fileName\":\"jac".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        DumpFileInfo info = newService().find(dumpFile);
+
+        assertEquals(7, info.getClassCount());
+        assertTrue(info.isVerified());
+    }
+
+    @Test
+    void compactsJournalIntoIndex() throws IOException {
+        DumpIndexService index = newService();
+        index.listFiles(tagDir);
+        for (int i = 0; i < 300; i++) {
+            index.register(dump(String.format("jacoco_10_0_0_1_20250101_000%03d_000.exec", i)), i);
+        }
+
+        assertTrue(Files.readAllLines(tagDir.resolve(DumpIndexService.JOURNAL_FILE_NAME)).size() < 300);
+        assertEquals(300, newService().listFiles(tagDir, false).size());
+    }
+
+    @Test
+    void picksUpFilesAddedAfterTheIndexWasLoaded() throws IOException, InterruptedException {
+        DumpIndexService index = newService();
+        dump("jacoco_10_0_0_1_20250101_000000_000.exec");
+        assertEquals(1, index.listFiles(tagDir).size());
+
+        // 目录修改时间精度可能只有1秒
+        Thread.sleep(1100);
+        File external = dump("jacoco_10_0_0_1_20250101_000001_000.exec");
+        assertTrue(new File(tagDir.toFile(), "jacoco_10_0_0_1_20250101_000000_000.exec").delete());
+
+        assertEquals(names(external.getName()), fileNames(index.listFiles(tagDir)));
+        assertNull(index.find(new File(tagDir.toFile(), "jacoco_10_0_0_1_20250101_000000_000.exec")));
+    }
+
+    @Test
+    void doesNotRewriteIndexWhenDirectoryMatches() throws IOException, InterruptedException {
+        dump("jacoco_10_0_0_1_20250101_000000_000.exec");
+        newService().listFiles(tagDir);
+        File indexFile = tagDir.resolve(DumpIndexService.INDEX_FILE_NAME).toFile();
+        long written = indexFile.lastModified();
+        Thread.sleep(1100);
+
+        assertEquals(1, newService().listFiles(tagDir).size());
+        assertEquals(written, indexFile.lastModified());
+    }
+
+    @Test
+    void carryForwardFilesNeverExpire() throws IOException {
+        dump("jacoco_carryforward_from_v20250101_000000_000_20250101_000005_000.exec");
+        dump("jacoco_10_0_0_1_20250101_000001_000.exec");
+        dump("jacoco_10_0_0_1_20250101_000002_000.exec");
+        DumpIndexService index = newService();
+
+        DumpFileInfo carried = index.listFiles(tagDir, false).get(2);
+        assertTrue(carried.isCarryForward());
+        assertNull(carried.getNodeId());
+        assertEquals("20250101_000005_000", carried.getTimestamp());
+        assertEquals(names("jacoco_10_0_0_1_20250101_000001_000.exec"), fileNames(index.getExpired(tagDir, false, 1)));
+        assertEquals(0, index.getExpired(tagDir, false, 2).size());
+    }
+
+    private DumpIndexService newService() {
+        DumpIndexService service = new DumpIndexService();
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        return service;
+    }
+
+    private File dump(String name) throws IOException {
+        File file = tagDir.resolve(name).toFile();
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        return file;
+    }
+
+    private static List<String> names(String... names) {
+        return Arrays.asList(names);
+    }
+
+    private static List<String> fileNames(List<DumpFileInfo> files) {
+        return files.stream().map(DumpFileInfo::getFileName).collect(Collectors.toList());
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
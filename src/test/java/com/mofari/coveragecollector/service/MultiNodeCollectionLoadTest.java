@@ -0,0 +1,105 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.support.FakeJacocoAgent;
+import com.mofari.coveragecollector.support.FakeJacocoCluster;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多节点收集的负载测试：在本机启动大量模拟节点和本地Nacos，测量MultiNodeCoverageService的收集耗时。
+ * 默认不运行，使用 mvn test -Dtest=MultiNodeCollectionLoadTest -Dcoverage.loadtest=true 启动，
+ * 规模通过 coverage.loadtest.pods / classes / probes / latency / jitter / failure-mode / failure-rate / rounds 调整。
+ */
+@EnabledIfSystemProperty(named = "coverage.loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class MultiNodeCollectionLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultiNodeCollectionLoadTest.class);
+
+    private static final String APP_NAME = "loadtest-service";
+    private static final String CLUSTER_NAME = "loadtest";
+
+    private static final int PODS = Integer.getInteger("coverage.loadtest.pods", 500);
+    private static final int ROUNDS = Integer.getInteger("coverage.loadtest.rounds", 3);
+    private static final double FAILURE_RATE = Double.parseDouble(System.getProperty("coverage.loadtest.failure-rate", "0.02"));
+    private static final FakeJacocoAgent.FailureMode FAILURE_MODE =
+            FakeJacocoAgent.FailureMode.valueOf(System.getProperty("coverage.loadtest.failure-mode", "REFUSE"));
+
+    private static FakeJacocoCluster cluster;
+    private static Path workDirectory;
+
+    @Autowired
+    private MultiNodeCoverageService multiNodeCoverageService;
+
+    @DynamicPropertySource
+    static void coverageProperties(DynamicPropertyRegistry registry) throws IOException {
+        FakeJacocoAgent.Settings settings = new FakeJacocoAgent.Settings()
+                .classes(Integer.getInteger("coverage.loadtest.classes", 1000))
+                .probesPerClass(Integer.getInteger("coverage.loadtest.probes", 32))
+                .latency(Long.getLong("coverage.loadtest.latency", 2L), Long.getLong("coverage.loadtest.jitter", 3L))
+                .failure(FAILURE_MODE, FAILURE_RATE);
+        cluster = FakeJacocoCluster.start(APP_NAME, CLUSTER_NAME, PODS, settings);
+        workDirectory = Files.createTempDirectory("coverage_loadtest_");
+        registry.add("nacos.discovery.server-addr", cluster.getNacos()::getServerAddr);
+        registry.add("coverage.dump-directory", () -> workDirectory.resolve("dumps").toString());
+        registry.add("coverage.report-directory", () -> workDirectory.resolve("reports").toString());
+        registry.add("coverage.index-directory", () -> workDirectory.resolve("index").toString());
+    }
+
+    @AfterAll
+    static void stopCluster() throws IOException {
+        if (cluster != null) {
+            cluster.close();
+        }
+        deleteRecursively(workDirectory);
+    }
+
+    @Test
+    void collectFromAllSimulatedPods() throws Exception {
+        for (int round = 1; round <= ROUNDS; round++) {
+            int failuresBefore = cluster.getTotalFailures();
+            long start = System.nanoTime();
+            MultiNodeCoverageService.MultiNodeCollectionResult result =
+                    multiNodeCoverageService.collectFromAllNodes(APP_NAME, CLUSTER_NAME, "load-" + round);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            int injectedFailures = cluster.getTotalFailures() - failuresBefore;
+
+            logger.info("Load test round {}: {} pods, {} collected, {} failed ({} injected) in {} ms ({} pods/s)",
+                    round, result.getTotalNodes(), result.getSuccessCount(), result.getFailedCount(), injectedFailures,
+                    elapsedMillis, elapsedMillis > 0 ? result.getTotalNodes() * 1000L / elapsedMillis : result.getTotalNodes());
+
+            assertEquals(PODS, result.getTotalNodes());
+            assertEquals(PODS, result.getSuccessCount() + result.getFailedCount());
+            assertEquals(injectedFailures, result.getFailedCount());
+            if (result.getSuccessCount() > 1) {
+                assertTrue(Files.exists(Paths.get(result.getMergedAllNodeDumpFilePath())));
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 源文件/class索引：记录class位置；过滤规则变化后持久化的索引失效并按新规则重建
+ */
+class SourceClassIndexServiceTest {
+
+    private static final String APP = "demo";
+    private static final String TAG = "v1";
+
+    @TempDir
+    Path tempDir;
+
+    private CoverageConfig config;
+    private List<String> classLocations;
+    private String className;
+    private Path classFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new CoverageConfig();
+        config.setIndexDirectory(tempDir.resolve("index").toString());
+        className = Fixture.class.getName().replace('.', '/');
+        Path classes = tempDir.resolve("classes");
+        classFile = classes.resolve(className + ".class");
+        Files.createDirectories(classFile.getParent());
+        try (InputStream in = Fixture.class.getResourceAsStream("/" + className + ".class")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            Files.write(classFile, out.toByteArray());
+        }
+        classLocations = Collections.singletonList(classes.toString());
+    }
+
+    @Test
+    void recordsClassLocations() throws IOException {
+        SourceClassIndexService.SourceClassIndex index = newService().getIndex(APP, TAG, classLocations);
+
+        assertEquals(Collections.singletonMap(className, classFile.toString()),
+                index.getLocations(Collections.singleton(className)));
+        assertEquals("com/mofari/coveragecollector/service/SourceClassIndexServiceTest.java", index.getSourcePath(className));
+    }
+
+    @Test
+    void rebuildsPersistedIndexWhenClassFilterChanges() throws IOException {
+        SourceClassIndexService.SourceClassIndex index = newService().getIndex(APP, TAG, classLocations);
+        assertEquals(1, index.getClassCount());
+
+        config.getClassFilter().setExcludes(Collections.singletonList(Fixture.class.getName()));
+        SourceClassIndexService.SourceClassIndex filtered = newService().getIndex(APP, TAG, classLocations);
+
+        assertEquals(0, filtered.getClassCount());
+        assertNull(filtered.getSourcePath(className));
+        assertNotEquals(index.getStamp(), filtered.getStamp());
+        SourceClassIndexService.PersistedIndex persisted = new ObjectMapper().readValue(
+                tempDir.resolve("index").resolve(APP).resolve(TAG).resolve("source-class-index.json").toFile(),
+                SourceClassIndexService.PersistedIndex.class);
+        assertEquals(SourceClassIndexService.describeFilter(config.getClassFilter()), persisted.getClassFilter());
+    }
+
+    private SourceClassIndexService newService() {
+        ClassFileService classFileService = new ClassFileService();
+        ReflectionTestUtils.setField(classFileService, "coverageConfig", config);
+        SourceClassIndexService service = new SourceClassIndexService();
+        ReflectionTestUtils.setField(service, "classFileService", classFileService);
+        ReflectionTestUtils.setField(service, "coverageConfig", config);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        return service;
+    }
+
+    static class Fixture {
+    }
+}
@@ -0,0 +1,94 @@
+package com.mofari.coveragecollector.service;
+
+import com.mofari.coveragecollector.config.CoverageConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * tag锁：同一tag的读锁可以共享、与写锁互斥；按应用/集群/tag获取的锁与按目录获取的是同一把；句柄重复关闭无副作用
+ */
+class TagLockManagerTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private TagLockManager tagLockManager;
+    private Path tagDir;
+
+    @BeforeEach
+    void setUp() {
+        CoverageConfig config = new CoverageConfig();
+        config.setDumpDirectory("/data/dumps");
+        tagLockManager = new TagLockManager(16);
+        ReflectionTestUtils.setField(tagLockManager, "coverageConfig", config);
+        tagDir = Paths.get("/data/dumps", "demo", "cluster-a", "v1");
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void readersShareTheLockAndExcludeWriters() throws Exception {
+        try (TagLockManager.LockHandle first = tagLockManager.readLock(tagDir)) {
+            assertTrue(inOtherThread(() -> {
+                try (TagLockManager.LockHandle second = tagLockManager.readLock(tagDir)) {
+                    return true;
+                }
+            }));
+            assertFalse(inOtherThread(() -> tryWrite(tagDir)));
+        }
+        assertTrue(inOtherThread(() -> tryWrite(tagDir)));
+    }
+
+    @Test
+    void resolvesApplicationTagToTheSameLock() throws Exception {
+        try (TagLockManager.LockHandle ignored = tagLockManager.writeLock("demo", "cluster-a", "v1")) {
+            assertFalse(inOtherThread(() -> tryWrite(tagDir.resolve("../v1"))));
+        }
+        try (TagLockManager.LockHandle ignored = tagLockManager.readLock("demo", null, "v1")) {
+            assertFalse(inOtherThread(() -> tryWrite(Paths.get("/data/dumps", "demo", "v1"))));
+        }
+    }
+
+    @Test
+    void closingTwiceReleasesOnce() throws Exception {
+        TagLockManager.LockHandle read = tagLockManager.readLock(tagDir);
+        TagLockManager.LockHandle other = tagLockManager.readLock(tagDir);
+        read.close();
+        read.close();
+
+        assertFalse(inOtherThread(() -> tryWrite(tagDir)));
+        other.close();
+        assertTrue(inOtherThread(() -> tryWrite(tagDir)));
+    }
+
+    private boolean tryWrite(Path dir) throws InterruptedException {
+        TagLockManager.LockHandle lock = tagLockManager.tryWriteLock(dir, 50, TimeUnit.MILLISECONDS);
+        if (lock == null) {
+            return false;
+        }
+        lock.close();
+        return true;
+    }
+
+    private boolean inOtherThread(Callable<Boolean> task) throws Exception {
+        Future<Boolean> future = executor.submit(task);
+        Boolean result = future.get(5, TimeUnit.SECONDS);
+        assertNotNull(result);
+        return result;
+    }
+}
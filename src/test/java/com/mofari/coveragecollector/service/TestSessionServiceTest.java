@@ -0,0 +1,202 @@
+package com.mofari.coveragecollector.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mofari.coveragecollector.config.CoverageConfig;
+import com.mofari.coveragecollector.model.session.SessionHits;
+import com.mofari.coveragecollector.model.session.TestSession;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 会话查询：倒排索引只把命中过相关class的会话作为候选，探针相同的会话合并分析，按行返回覆盖该行的会话
+ */
+class TestSessionServiceTest {
+
+    private static final String APP = "demo";
+    private static final String TAG = "v1";
+    private static final String SOURCE_PATH = "com/mofari/coveragecollector/service/TestSessionServiceTest.java";
+
+    @TempDir
+    Path tempDir;
+
+    private TestSessionService service;
+    private String className;
+    private long classId;
+    private int firstLine;
+    private int secondLine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        CoverageConfig config = new CoverageConfig();
+        config.setBaseProjectPath(tempDir.resolve("projects").toString());
+        config.setIndexDirectory(tempDir.resolve("index").toString());
+        config.getSession().setDirectory(tempDir.resolve("sessions").toString());
+        CoverageConfig.ApplicationConfig application = new CoverageConfig.ApplicationConfig();
+        application.setSourceDirectories(Collections.singletonList("src/main/java"));
+        application.setClassDirectories(Collections.singletonList("target/classes"));
+        Map<String, CoverageConfig.ApplicationConfig> applications = new HashMap<>();
+        applications.put(APP, application);
+        config.setApplications(applications);
+
+        ClassFileService classFileService = new ClassFileService();
+        ReflectionTestUtils.setField(classFileService, "coverageConfig", config);
+        SourceClassIndexService sourceClassIndexService = new SourceClassIndexService();
+        ReflectionTestUtils.setField(sourceClassIndexService, "classFileService", classFileService);
+        ReflectionTestUtils.setField(sourceClassIndexService, "coverageConfig", config);
+        ReflectionTestUtils.setField(sourceClassIndexService, "objectMapper", new ObjectMapper());
+        service = new TestSessionService();
+        ReflectionTestUtils.setField(service, "coverageConfig", config);
+        ReflectionTestUtils.setField(service, "classFileService", classFileService);
+        ReflectionTestUtils.setField(service, "sourceClassIndexService", sourceClassIndexService);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+
+        className = Fixture.class.getName().replace('.', '/');
+        byte[] classBytes;
+        try (InputStream in = Fixture.class.getResourceAsStream("/" + className + ".class")) {
+            classBytes = readAll(in);
+        }
+        Path classFile = tempDir.resolve("projects/" + APP + "-" + TAG + "/target/classes/" + className + ".class");
+        Files.createDirectories(classFile.getParent());
+        Files.write(classFile, classBytes);
+        classId = CRC64.classId(classBytes);
+
+        // 探针按方法顺序编号：0 构造方法，1 first，2 second
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        new Analyzer(new ExecutionDataStore(), coverageBuilder).analyzeClass(classBytes, className);
+        IClassCoverage coverage = coverageBuilder.getClasses().iterator().next();
+        List<Integer> lines = new ArrayList<>();
+        for (int line = coverage.getFirstLine(); line <= coverage.getLastLine(); line++) {
+            if (coverage.getLine(line).getInstructionCounter().getTotalCount() > 0) {
+                lines.add(line);
+            }
+        }
+        firstLine = lines.get(1);
+        secondLine = lines.get(2);
+    }
+
+    @Test
+    void findsSessionsCoveringEachLine() throws IOException {
+        List<TestSession> sessions = new ArrayList<>();
+        session(sessions, "first", probes(true, true, false));
+        session(sessions, "second", probes(true, false, true));
+        session(sessions, "both", probes(true, true, true));
+        session(sessions, "first-again", probes(true, true, false));
+        session(sessions, "unrelated", null);
+        saveSessions(sessions);
+
+        Map<String, Set<Integer>> lines = new HashMap<>();
+        lines.put(SOURCE_PATH, new TreeSet<>(Arrays.asList(firstLine, secondLine)));
+        lines.put("com/example/Missing.java", Collections.singleton(1));
+        SessionHits hits = service.findSessionsForLines(APP, null, TAG, lines);
+
+        assertEquals(5, hits.getTotalSessions());
+        assertEquals(4, hits.getCandidateSessions());
+        assertEquals(Arrays.asList("both", "first", "first-again", "second"), hits.getSessions());
+        Map<Integer, List<String>> lineHits = hits.getFiles().get(SOURCE_PATH);
+        assertEquals(Arrays.asList("both", "first", "first-again"), lineHits.get(firstLine));
+        assertEquals(Arrays.asList("both", "second"), lineHits.get(secondLine));
+        assertFalse(hits.getFiles().containsKey("com/example/Missing.java"));
+    }
+
+    @Test
+    void ignoresActiveSessionsAndLinesNobodyCovered() throws IOException {
+        List<TestSession> sessions = new ArrayList<>();
+        session(sessions, "first", probes(true, true, false));
+        TestSession active = new TestSession();
+        active.setSessionId("active");
+        active.setStatus(TestSession.STATUS_ACTIVE);
+        sessions.add(active);
+        saveSessions(sessions);
+
+        SessionHits hits = service.findSessionsForLines(APP, null, TAG,
+                Collections.singletonMap(SOURCE_PATH, Collections.singleton(secondLine)));
+
+        assertEquals(1, hits.getTotalSessions());
+        assertEquals(1, hits.getCandidateSessions());
+        assertTrue(hits.getSessions().isEmpty());
+        assertTrue(hits.getFiles().isEmpty());
+    }
+
+    private boolean[] probes(boolean... probes) {
+        return probes;
+    }
+
+    private void session(List<TestSession> sessions, String sessionId, boolean[] probes) throws IOException {
+        TestSession session = new TestSession();
+        session.setSessionId(sessionId);
+        session.setAppName(APP);
+        session.setTag(TAG);
+        session.setStatus(TestSession.STATUS_COMPLETED);
+        sessions.add(session);
+
+        Path dataFile = sessionDirectory().resolve(sessionId + ".exec");
+        Files.createDirectories(dataFile.getParent());
+        try (OutputStream out = Files.newOutputStream(dataFile)) {
+            ExecutionDataWriter writer = new ExecutionDataWriter(out);
+            writer.visitSessionInfo(new SessionInfo(sessionId, 0, 1));
+            if (probes != null) {
+                writer.visitClassExecution(new ExecutionData(classId, className, probes));
+            } else {
+                writer.visitClassExecution(new ExecutionData(42L, "com/example/Other", new boolean[]{true}));
+            }
+        }
+    }
+
+    private void saveSessions(List<TestSession> sessions) throws IOException {
+        Files.createDirectories(sessionDirectory());
+        new ObjectMapper().writeValue(sessionDirectory().resolve("sessions.json").toFile(), sessions);
+    }
+
+    private Path sessionDirectory() {
+        return tempDir.resolve("sessions").resolve(APP).resolve(TAG);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static class Fixture {
+        int first(int value) {
+            return value + 1;
+        }
+
+        int second(int value) {
+            return value * 2;
+        }
+    }
+}
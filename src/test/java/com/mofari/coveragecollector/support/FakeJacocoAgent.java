@@ -0,0 +1,277 @@
+package com.mofari.coveragecollector.support;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.runtime.IRemoteCommandVisitor;
+import org.jacoco.core.runtime.RemoteControlReader;
+import org.jacoco.core.runtime.RemoteControlWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 模拟JaCoCo agent的tcpserver模式，使用真实的remote-control协议返回合成的执行数据。
+ * 每次dump按节点自己的随机序列生成探针，可以配置响应延迟、抖动和故障，用于在一台机器上模拟大量节点。
+ */
+public class FakeJacocoAgent implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeJacocoAgent.class);
+
+    /**
+     * 故障模式
+     */
+    public enum FailureMode {
+        NONE,
+        REFUSE,     // 接受连接后立即关闭
+        HANG,       // 接受连接后不响应，直到客户端超时或关闭
+        TRUNCATE    // 只发送一部分数据后关闭连接
+    }
+
+    private final String nodeName;
+    private final Settings settings;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Random random;
+    private final AtomicInteger dumpCount = new AtomicInteger();
+    private final AtomicInteger resetCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * 在指定地址上启动，port为0时使用随机端口
+     */
+    public FakeJacocoAgent(String nodeName, InetAddress address, int port, Settings settings) throws IOException {
+        this.nodeName = nodeName;
+        this.settings = settings;
+        // 相邻的种子在Random中前几个值高度相关，先把节点名散列开
+        this.random = new Random(settings.seed ^ (nodeName.hashCode() * 0x9E3779B97F4A7C15L));
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(address, port), settings.backlog);
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-jacoco-" + nodeName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connections.execute(this::acceptLoop);
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public int getDumpCount() {
+        return dumpCount.get();
+    }
+
+    public int getResetCount() {
+        return resetCount.get();
+    }
+
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                if (!closed) {
+                    logger.warn("Fake agent {} stopped accepting: {}", nodeName, e.getMessage());
+                }
+                return;
+            } catch (IOException e) {
+                logger.warn("Fake agent {} failed to accept a connection", nodeName, e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket ignored = socket) {
+            FailureMode failure = nextFailure();
+            if (failure == FailureMode.REFUSE) {
+                failureCount.incrementAndGet();
+                return;
+            }
+            OutputStream out = socket.getOutputStream();
+            RemoteControlWriter writer = new RemoteControlWriter(out);
+            RemoteControlReader reader = new RemoteControlReader(socket.getInputStream());
+            reader.setRemoteCommandVisitor(new IRemoteCommandVisitor() {
+                @Override
+                public void visitDumpCommand(boolean dump, boolean reset) throws IOException {
+                    respond(writer, out, failure, dump, reset);
+                }
+            });
+            // 读取客户端命令，直到客户端关闭连接
+            reader.read();
+        } catch (IOException e) {
+            if (!closed) {
+                logger.debug("Fake agent {} connection ended: {}", nodeName, e.getMessage());
+            }
+        }
+    }
+
+    private void respond(RemoteControlWriter writer, OutputStream out, FailureMode failure, boolean dump, boolean reset) throws IOException {
+        sleep(settings.latencyMillis + (settings.jitterMillis > 0 ? nextInt((int) settings.jitterMillis + 1) : 0));
+        if (failure == FailureMode.HANG) {
+            failureCount.incrementAndGet();
+            while (!closed) {
+                sleep(100);
+            }
+            return;
+        }
+        if (dump) {
+            long now = System.currentTimeMillis();
+            writer.visitSessionInfo(new SessionInfo(nodeName, now - 1000, now));
+            int classes = failure == FailureMode.TRUNCATE ? settings.classes / 2 : settings.classes;
+            for (int i = 0; i < classes; i++) {
+                writer.visitClassExecution(new ExecutionData(classId(i), className(i), nextProbes()));
+            }
+            if (failure == FailureMode.TRUNCATE) {
+                failureCount.incrementAndGet();
+                out.flush();
+                throw new IOException("truncated on purpose");
+            }
+            dumpCount.incrementAndGet();
+        }
+        if (reset) {
+            resetCount.incrementAndGet();
+        }
+        writer.sendCmdOk();
+    }
+
+    private synchronized FailureMode nextFailure() {
+        if (settings.failureMode == FailureMode.NONE || random.nextDouble() >= settings.failureRate) {
+            return FailureMode.NONE;
+        }
+        return settings.failureMode;
+    }
+
+    private synchronized int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    private synchronized boolean[] nextProbes() {
+        boolean[] probes = new boolean[settings.probesPerClass];
+        for (int p = 0; p < probes.length; p++) {
+            probes[p] = random.nextDouble() < settings.hitRatio;
+        }
+        return probes;
+    }
+
+    /**
+     * 所有节点使用相同的class集合，id只由class序号决定
+     */
+    static long classId(int index) {
+        return 0x5EED000000000000L | index;
+    }
+
+    static String className(int index) {
+        return "fake/p" + (index / 50) + "/Synthetic" + index;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            serverSocket.close();
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * 节点行为配置
+     */
+    public static class Settings {
+        private int classes = 1000;
+        private int probesPerClass = 32;
+        private double hitRatio = 0.3;
+        private long latencyMillis = 0;
+        private long jitterMillis = 0;
+        private FailureMode failureMode = FailureMode.NONE;
+        private double failureRate = 0;
+        private long seed = 42L;
+        private int backlog = 50;
+
+        public Settings classes(int classes) {
+            this.classes = classes;
+            return this;
+        }
+
+        public Settings probesPerClass(int probesPerClass) {
+            this.probesPerClass = probesPerClass;
+            return this;
+        }
+
+        public Settings hitRatio(double hitRatio) {
+            this.hitRatio = hitRatio;
+            return this;
+        }
+
+        public Settings latency(long latencyMillis, long jitterMillis) {
+            this.latencyMillis = latencyMillis;
+            this.jitterMillis = jitterMillis;
+            return this;
+        }
+
+        /**
+         * 每个连接以failureRate的概率出现指定的故障
+         */
+        public Settings failure(FailureMode failureMode, double failureRate) {
+            this.failureMode = failureMode;
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        public Settings seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Settings backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public int getClasses() {
+            return classes;
+        }
+
+        public int getProbesPerClass() {
+            return probesPerClass;
+        }
+    }
+}
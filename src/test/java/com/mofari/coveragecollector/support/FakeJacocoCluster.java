@@ -0,0 +1,107 @@
+package com.mofari.coveragecollector.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一组模拟节点加一个本地Nacos。
+ * 每个节点绑定在不同的回环地址上（127.0.x.y，Linux上整个127.0.0.0/8都是回环地址），
+ * 这样节点ID（由IP生成）和dump文件名互不冲突；jacoco端口随机分配，通过Nacos元数据下发。
+ */
+public class FakeJacocoCluster implements Closeable {
+
+    private final FakeNacosServer nacos;
+    private final List<FakeJacocoAgent> agents = new ArrayList<>();
+
+    private FakeJacocoCluster(FakeNacosServer nacos) {
+        this.nacos = nacos;
+    }
+
+    /**
+     * 启动nodes个节点并注册为 appName.app / clusterName
+     */
+    public static FakeJacocoCluster start(String appName, String clusterName, int nodes,
+                                          FakeJacocoAgent.Settings settings) throws IOException {
+        FakeJacocoCluster cluster = new FakeJacocoCluster(new FakeNacosServer());
+        try {
+            for (int i = 0; i < nodes; i++) {
+                FakeJacocoAgent agent = new FakeJacocoAgent("node" + i, loopbackAddress(i), 0, settings);
+                cluster.agents.add(agent);
+                cluster.nacos.register(appName, clusterName, agent);
+            }
+        } catch (IOException e) {
+            cluster.close();
+            throw e;
+        }
+        return cluster;
+    }
+
+    /**
+     * 第index个节点的回环地址，从127.0.1.1开始
+     */
+    static InetAddress loopbackAddress(int index) throws IOException {
+        int host = index + 256 + 1;
+        if (host >= 1 << 24) {
+            throw new IllegalArgumentException("Too many nodes: " + index);
+        }
+        return InetAddress.getByAddress(new byte[]{127, (byte) (host >> 16), (byte) (host >> 8), (byte) host});
+    }
+
+    public FakeNacosServer getNacos() {
+        return nacos;
+    }
+
+    public List<FakeJacocoAgent> getAgents() {
+        return Collections.unmodifiableList(agents);
+    }
+
+    public int getTotalDumps() {
+        int total = 0;
+        for (FakeJacocoAgent agent : agents) {
+            total += agent.getDumpCount();
+        }
+        return total;
+    }
+
+    public int getTotalFailures() {
+        int total = 0;
+        for (FakeJacocoAgent agent : agents) {
+            total += agent.getFailureCount();
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        for (FakeJacocoAgent agent : agents) {
+            try {
+                agent.close();
+            } catch (IOException ignored) {
+                // 关闭时的异常不影响其他节点
+            }
+        }
+        nacos.close();
+    }
+
+    /**
+     * 独立运行，供本地启动的收集服务使用：
+     * 参数依次为 应用名 集群名 节点数 [每节点class数] [延迟ms] [抖动ms]
+     */
+    public static void main(String[] args) throws Exception {
+        String appName = args.length > 0 ? args[0] : "demo-service";
+        String clusterName = args.length > 1 ? args[1] : "default";
+        int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        FakeJacocoAgent.Settings settings = new FakeJacocoAgent.Settings()
+                .classes(args.length > 3 ? Integer.parseInt(args[3]) : 1000)
+                .latency(args.length > 4 ? Long.parseLong(args[4]) : 0, args.length > 5 ? Long.parseLong(args[5]) : 0);
+        FakeJacocoCluster cluster = start(appName, clusterName, nodes, settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(cluster::close));
+        System.out.printf("Started %d fake agents for %s.app/%s, use --nacos.discovery.server-addr=%s%n",
+                nodes, appName, clusterName, cluster.getNacos().getServerAddr());
+        Thread.currentThread().join();
+    }
+}
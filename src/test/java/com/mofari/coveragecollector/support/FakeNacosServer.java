@@ -0,0 +1,163 @@
+package com.mofari.coveragecollector.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地的Nacos服务列表接口（/nacos/v1/ns/instance/list），只实现NacosDiscoveryService用到的字段。
+ * 实例注册为 serviceName -> hosts，jacoco端口放在元数据 jacoco.port 中。
+ */
+public class FakeNacosServer implements Closeable {
+
+    private static final String INSTANCE_LIST_PATH = "/nacos/v1/ns/instance/list";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, List<Instance>> services = new ConcurrentHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    public FakeNacosServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(INSTANCE_LIST_PATH, this::handleInstanceList);
+        executor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "fake-nacos");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * nacos.discovery.server-addr 使用的地址
+     */
+    public String getServerAddr() {
+        return server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 注册一个健康的实例，服务名与NacosDiscoveryService一致（appName.app）
+     */
+    public void register(String appName, String clusterName, String ip, int appPort, int jacocoPort) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("jacoco.port", String.valueOf(jacocoPort));
+        services.computeIfAbsent(appName + ".app", key -> new CopyOnWriteArrayList<>())
+                .add(new Instance(ip, appPort, clusterName, true, metadata));
+    }
+
+    public void register(String appName, String clusterName, FakeJacocoAgent agent) {
+        register(appName, clusterName, agent.getHost(), 8080, agent.getPort());
+    }
+
+    /**
+     * 把实例标记为不健康，NacosDiscoveryService会跳过它
+     */
+    public void markUnhealthy(String appName, String ip) {
+        List<Instance> instances = services.get(appName + ".app");
+        if (instances != null) {
+            for (Instance instance : instances) {
+                if (instance.ip.equals(ip)) {
+                    instance.healthy = false;
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        services.clear();
+    }
+
+    private void handleInstanceList(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String serviceName = query.get("serviceName");
+            ObjectNode response = objectMapper.createObjectNode();
+            response.put("name", query.getOrDefault("groupName", "DEFAULT_GROUP") + "@@" + serviceName);
+            response.put("cacheMillis", 10000);
+            ArrayNode hosts = response.putArray("hosts");
+            for (Instance instance : services.getOrDefault(serviceName, new ArrayList<>())) {
+                ObjectNode host = hosts.addObject();
+                host.put("ip", instance.ip);
+                host.put("port", instance.port);
+                host.put("clusterName", instance.clusterName);
+                host.put("healthy", instance.healthy);
+                host.put("enabled", true);
+                host.put("serviceName", serviceName);
+                ObjectNode metadata = host.putObject("metadata");
+                instance.metadata.forEach(metadata::put);
+            }
+            byte[] body = objectMapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, index), StandardCharsets.UTF_8.name()),
+                        URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8.name()));
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class Instance {
+        private final String ip;
+        private final int port;
+        private final String clusterName;
+        private volatile boolean healthy;
+        private final Map<String, String> metadata;
+
+        private Instance(String ip, int port, String clusterName, boolean healthy, Map<String, String> metadata) {
+            this.ip = ip;
+            this.port = port;
+            this.clusterName = clusterName;
+            this.healthy = healthy;
+            this.metadata = metadata;
+        }
+    }
+}
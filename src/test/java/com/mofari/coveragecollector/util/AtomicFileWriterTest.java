@@ -0,0 +1,94 @@
+package com.mofari.coveragecollector.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 原子写入：成功时替换目标文件，失败时目标文件保持原样，且目录中不留下临时文件
+ */
+class AtomicFileWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesAndReplacesTarget() throws IOException {
+        File target = tempDir.resolve("nested/dir/data.bin").toFile();
+
+        AtomicFileWriter.write(target, out -> out.write(bytes("first")));
+        assertEquals("first", read(target));
+        AtomicFileWriter.write(target, out -> out.write(bytes("second")));
+
+        assertEquals("second", read(target));
+        assertEquals(0, tempFileCount(target.getParentFile().toPath()));
+    }
+
+    @Test
+    void toleratesWritersThatCloseTheStream() throws IOException {
+        File target = tempDir.resolve("closed.json").toFile();
+
+        AtomicFileWriter.write(target, out -> {
+            out.write(bytes("{}"));
+            out.close();
+        });
+
+        assertEquals("{}", read(target));
+        assertEquals(0, tempFileCount(tempDir));
+    }
+
+    @Test
+    void keepsTargetAndRemovesTempFileWhenWriterFails() throws IOException {
+        File target = tempDir.resolve("data.exec").toFile();
+        Files.write(target.toPath(), bytes("original"));
+
+        IOException failure = new IOException("disk full");
+        IOException thrown = assertThrows(IOException.class, () -> AtomicFileWriter.write(target, out -> {
+            out.write(bytes("partial content"));
+            throw failure;
+        }));
+        assertSame(failure, thrown);
+        assertEquals("original", read(target));
+        assertEquals(0, tempFileCount(tempDir));
+
+        assertThrows(IllegalStateException.class, () -> AtomicFileWriter.write(target, out -> {
+            out.write(bytes("partial content"));
+            throw new IllegalStateException("encoder failed");
+        }));
+        assertEquals("original", read(target));
+        assertEquals(0, tempFileCount(tempDir));
+    }
+
+    @Test
+    void recognisesTempFileNames() {
+        assertTrue(AtomicFileWriter.isTempFile(".data.exec.12345.tmp"));
+        assertFalse(AtomicFileWriter.isTempFile("data.exec"));
+        assertFalse(AtomicFileWriter.isTempFile("data.tmp"));
+    }
+
+    private static long tempFileCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> AtomicFileWriter.isTempFile(path.getFileName().toString())).count();
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
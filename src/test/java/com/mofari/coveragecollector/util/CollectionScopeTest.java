@@ -0,0 +1,145 @@
+package com.mofari.coveragecollector.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 收集作用域：截止时间到达时取消未完成的子任务，已shield的子任务不被取消且join会等它完成
+ */
+class CollectionScopeTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void joinsAllSubtasksBeforeTheDeadline() throws InterruptedException {
+        try (CollectionScope<String> scope = new CollectionScope<>(executor, 10, TimeUnit.SECONDS)) {
+            CollectionScope.Subtask<String> success = scope.fork(() -> "ok");
+            CollectionScope.Subtask<String> failure = scope.fork(() -> {
+                throw new IOException("refused");
+            });
+
+            assertTrue(scope.join());
+            assertEquals(CollectionScope.State.SUCCESS, success.state());
+            assertEquals("ok", success.get());
+            assertEquals(CollectionScope.State.FAILED, failure.state());
+            assertEquals("refused", failure.exception().getMessage());
+            assertThrows(IllegalStateException.class, failure::get);
+        }
+    }
+
+    @Test
+    void cancelsUnfinishedSubtasksAtTheDeadline() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (CollectionScope<String> scope = new CollectionScope<>(executor, 100, TimeUnit.MILLISECONDS)) {
+            CollectionScope.Subtask<String> fast = scope.fork(() -> "fast");
+            CollectionScope.Subtask<String> slow = scope.fork(() -> {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return "slow";
+            });
+
+            assertFalse(scope.join());
+            assertEquals(0, scope.remainingMillis());
+            assertEquals("fast", fast.get());
+            assertEquals(CollectionScope.State.CANCELLED, slow.state());
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void waitsForShieldedSubtasksPastTheDeadline() throws InterruptedException {
+        AtomicBoolean interrupted = new AtomicBoolean();
+        try (CollectionScope<String> scope = new CollectionScope<>(executor, 50, TimeUnit.MILLISECONDS)) {
+            CollectionScope.Subtask<String> shielded = scope.fork(() -> {
+                assertTrue(CollectionScope.shield());
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                return "dumped";
+            });
+
+            assertFalse(scope.join());
+            assertEquals(CollectionScope.State.SUCCESS, shielded.state());
+            assertEquals("dumped", shielded.get());
+            assertFalse(interrupted.get());
+        }
+    }
+
+    @Test
+    void refusesToShieldAfterCancellation() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Boolean> shielded = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        CollectionScope<String> scope = new CollectionScope<>(executor, 10, TimeUnit.SECONDS);
+        scope.fork(() -> {
+            started.countDown();
+            // 模拟尚未响应中断的子任务：取消之后才尝试进入不可重复的操作
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // 继续等待
+                }
+            }
+            shielded.set(CollectionScope.shield());
+            done.countDown();
+            return "late";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scope.close();
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(shielded.get());
+    }
+
+    @Test
+    void shieldOutsideSubtaskIsNoOp() {
+        assertTrue(CollectionScope.shield());
+    }
+
+    @Test
+    void onlyOwnerMayJoin() throws Exception {
+        try (CollectionScope<String> scope = new CollectionScope<>(executor, 10, TimeUnit.SECONDS)) {
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread other = new Thread(() -> {
+                try {
+                    scope.join();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            other.start();
+            other.join();
+
+            assertTrue(error.get() instanceof IllegalStateException);
+        }
+    }
+}
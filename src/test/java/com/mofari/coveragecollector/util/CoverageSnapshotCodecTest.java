@@ -0,0 +1,174 @@
+package com.mofari.coveragecollector.util;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.snapshot.CoverageSnapshot;
+import com.mofari.coveragecollector.model.snapshot.SourceFileSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 快照编解码：写入后读回内容一致；魔数、版本不对或内容被截断时报错而不是返回残缺快照
+ */
+class CoverageSnapshotCodecTest {
+
+    @Test
+    void roundTripsSnapshot() throws IOException {
+        CoverageSnapshot snapshot = snapshot();
+
+        CoverageSnapshot decoded = CoverageSnapshotCodec.read(new ByteArrayInputStream(encode(snapshot)));
+
+        assertEquals("demo-service", decoded.getAppName());
+        assertEquals("default", decoded.getClusterName());
+        assertEquals("发布-1.0", decoded.getTag());
+        assertEquals("fp", decoded.getDumpFingerprint());
+        assertNull(decoded.getClassStamp());
+        assertEquals("", decoded.getReportPath());
+        assertEquals(snapshot.getCreatedAt(), decoded.getCreatedAt());
+        assertCounter(snapshot.getInstructions(), decoded.getInstructions());
+        assertCounter(snapshot.getBranches(), decoded.getBranches());
+        assertCounter(snapshot.getLines(), decoded.getLines());
+        assertCounter(snapshot.getMethods(), decoded.getMethods());
+
+        assertEquals(snapshot.getFiles().size(), decoded.getFiles().size());
+        for (SourceFileSnapshot expected : snapshot.getFiles()) {
+            SourceFileSnapshot actual = decoded.getFile(expected.getPath());
+            assertNotNull(actual, expected.getPath());
+            assertEquals(expected.getPackageName(), actual.getPackageName());
+            assertEquals(expected.getFileName(), actual.getFileName());
+            assertCounter(expected.getInstructions(), actual.getInstructions());
+            assertCounter(expected.getBranches(), actual.getBranches());
+            assertCounter(expected.getLines(), actual.getLines());
+            assertCounter(expected.getMethods(), actual.getMethods());
+            assertEquals(expected.getLineCount(), actual.getLineCount());
+            for (int i = 0; i < expected.getLineCount(); i++) {
+                assertEquals(expected.getLineNumber(i), actual.getLineNumber(i));
+                assertEquals(expected.getLineStatus(i), actual.getLineStatus(i));
+                assertEquals(expected.getMissedInstructions(i), actual.getMissedInstructions(i));
+                assertEquals(expected.getCoveredInstructions(i), actual.getCoveredInstructions(i));
+                assertEquals(expected.getMissedBranches(i), actual.getMissedBranches(i));
+                assertEquals(expected.getCoveredBranches(i), actual.getCoveredBranches(i));
+            }
+        }
+
+        // 再次编码得到相同的字节
+        assertArrayEquals(encode(snapshot), encode(decoded));
+    }
+
+    @Test
+    void roundTripsVarIntBoundaries() throws IOException {
+        int[] values = {0, 1, 0x7F, 0x80, 0x3FFF, 0x4000, 0x1FFFFF, 0x200000, 0xFFFFFFF, 0x10000000,
+                Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            CoverageSnapshotCodec.writeVarInt(out, value);
+        }
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) {
+            assertEquals(value, CoverageSnapshotCodec.readVarInt(in));
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void rejectsMalformedVarInt() {
+        byte[] bytes = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        assertThrows(IOException.class, () -> CoverageSnapshotCodec.readVarInt(in));
+    }
+
+    @Test
+    void rejectsWrongMagicAndVersion() throws IOException {
+        byte[] bytes = encode(snapshot());
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 0xFF;
+        assertThrows(IOException.class, () -> CoverageSnapshotCodec.read(new ByteArrayInputStream(badMagic)));
+
+        byte[] badVersion = bytes.clone();
+        badVersion[5] = (byte) (CoverageSnapshotCodec.FORMAT_VERSION + 1);
+        IOException e = assertThrows(IOException.class,
+                () -> CoverageSnapshotCodec.read(new ByteArrayInputStream(badVersion)));
+        assertEquals("Unsupported coverage snapshot version: " + (CoverageSnapshotCodec.FORMAT_VERSION + 1), e.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedSnapshotAtEveryOffset() throws IOException {
+        byte[] bytes = encode(snapshot());
+
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(EOFException.class, () -> CoverageSnapshotCodec.read(new ByteArrayInputStream(truncated)),
+                    "truncated at " + length);
+        }
+    }
+
+    private static CoverageSnapshot snapshot() {
+        CoverageSnapshot snapshot = new CoverageSnapshot();
+        snapshot.setAppName("demo-service");
+        snapshot.setClusterName("default");
+        snapshot.setTag("发布-1.0");
+        snapshot.setDumpFingerprint("fp");
+        snapshot.setClassStamp(null);
+        snapshot.setReportPath("");
+        snapshot.setCreatedAt(1760000000123L);
+        snapshot.setInstructions(new CoverageCounter(1234567, 89));
+        snapshot.setBranches(new CoverageCounter(0, 0));
+        snapshot.setLines(new CoverageCounter(128, 127));
+        snapshot.setMethods(new CoverageCounter(16384, 1));
+
+        snapshot.addFile(file("com/example/服务", "Demo.java", new int[]{1, 2, 130, 131, 20000, 2000000}));
+        snapshot.addFile(file("com/example", "Empty.java", new int[0]));
+        snapshot.addFile(file("", "Root.java", new int[]{7}));
+        return snapshot;
+    }
+
+    private static SourceFileSnapshot file(String packageName, String fileName, int[] lineNumbers) {
+        int count = lineNumbers.length;
+        byte[] statuses = new byte[count];
+        int[] missedInstructions = new int[count];
+        int[] coveredInstructions = new int[count];
+        int[] missedBranches = new int[count];
+        int[] coveredBranches = new int[count];
+        byte[] statusCycle = {SourceFileSnapshot.STATUS_NOT_COVERED, SourceFileSnapshot.STATUS_FULLY_COVERED,
+                SourceFileSnapshot.STATUS_PARTLY_COVERED};
+        for (int i = 0; i < count; i++) {
+            statuses[i] = statusCycle[i % statusCycle.length];
+            missedInstructions[i] = i * 200;
+            coveredInstructions[i] = i == 0 ? 0 : 1 << (i * 4);
+            missedBranches[i] = i;
+            coveredBranches[i] = 300 - i;
+        }
+        return new SourceFileSnapshot(packageName, fileName,
+                new CoverageCounter(count, count * 3), new CoverageCounter(count * 2, 0),
+                new CoverageCounter(count, count), new CoverageCounter(1, 200),
+                lineNumbers, statuses, missedInstructions, coveredInstructions, missedBranches, coveredBranches);
+    }
+
+    private static byte[] encode(CoverageSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CoverageSnapshotCodec.write(snapshot, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void assertCounter(CoverageCounter expected, CoverageCounter actual) {
+        assertEquals(expected.getMissed(), actual.getMissed());
+        assertEquals(expected.getCovered(), actual.getCovered());
+    }
+}
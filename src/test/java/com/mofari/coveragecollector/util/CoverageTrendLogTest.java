@@ -0,0 +1,162 @@
+package com.mofari.coveragecollector.util;
+
+import com.mofari.coveragecollector.model.snapshot.CoverageCounter;
+import com.mofari.coveragecollector.model.trend.CoverageTrendPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 趋势日志：追加后按范围和时间读回；崩溃留下的不完整尾帧在读取时被忽略、在下一次追加前被截掉
+ */
+class CoverageTrendLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsBackAppendedFramesByScopeAndTimeRange() throws IOException {
+        File file = tempDir.resolve("trend/demo.bin").toFile();
+        for (int i = 0; i < 5; i++) {
+            CoverageTrendLog.append(file, 1000L + i, i % 2 == 0 ? "REPORT" : "SNAPSHOT", entries(i));
+        }
+
+        List<CoverageTrendPoint> app = read(file, CoverageTrendLog.SCOPE_APP, "", 0, Long.MAX_VALUE);
+        assertEquals(5, app.size());
+        for (int i = 0; i < 5; i++) {
+            assertPoint(app.get(i), 1000L + i, i % 2 == 0 ? "REPORT" : "SNAPSHOT", i);
+        }
+
+        List<CoverageTrendPoint> pkg = read(file, CoverageTrendLog.SCOPE_PACKAGE, "com/example/服务", 1001, 1003);
+        assertEquals(3, pkg.size());
+        assertEquals(1001L, pkg.get(0).getTimestamp());
+        assertEquals(1003L, pkg.get(2).getTimestamp());
+        assertEquals(100 + 1, pkg.get(0).getInstructions().getCovered());
+
+        assertEquals(0, read(file, CoverageTrendLog.SCOPE_FILE, "com/example/Missing.java", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void tornTailIsIgnoredOnReadAndTruncatedOnNextAppend() throws IOException {
+        File file = tempDir.resolve("demo.bin").toFile();
+        CoverageTrendLog.append(file, 1000L, "REPORT", entries(0));
+        long firstFrameEnd = file.length();
+        CoverageTrendLog.append(file, 1001L, "REPORT", entries(1));
+        long secondFrameEnd = file.length();
+        File reference = tempDir.resolve("reference.bin").toFile();
+        CoverageTrendLog.append(reference, 1000L, "REPORT", entries(0));
+        CoverageTrendLog.append(reference, 1002L, "SNAPSHOT", entries(2));
+
+        // 在第二帧的每个位置截断：读取只看到第一帧，追加时截掉残帧并写在第一帧之后
+        for (long cut = firstFrameEnd + 1; cut < secondFrameEnd; cut++) {
+            File torn = tempDir.resolve("torn-" + cut + ".bin").toFile();
+            Files.copy(file.toPath(), torn.toPath());
+            try (RandomAccessFile raf = new RandomAccessFile(torn, "rw")) {
+                raf.setLength(cut);
+            }
+
+            assertEquals(1, read(torn, CoverageTrendLog.SCOPE_APP, "", 0, Long.MAX_VALUE).size());
+
+            CoverageTrendLog.append(torn, 1002L, "SNAPSHOT", entries(2));
+            assertEquals(reference.length(), torn.length());
+            List<CoverageTrendPoint> points = read(torn, CoverageTrendLog.SCOPE_APP, "", 0, Long.MAX_VALUE);
+            assertEquals(2, points.size());
+            assertPoint(points.get(0), 1000L, "REPORT", 0);
+            assertPoint(points.get(1), 1002L, "SNAPSHOT", 2);
+        }
+    }
+
+    @Test
+    void tailTruncatedAfterAppendIsRepairedByNextAppend() throws IOException {
+        File file = tempDir.resolve("demo.bin").toFile();
+        CoverageTrendLog.append(file, 1000L, "REPORT", entries(0));
+        long firstFrameEnd = file.length();
+        CoverageTrendLog.append(file, 1001L, "REPORT", entries(1));
+
+        // 同一进程内文件被外部截断，长度与上次追加后不一致时重新扫描
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(firstFrameEnd + 7);
+        }
+        CoverageTrendLog.append(file, 1002L, "REPORT", entries(2));
+
+        List<CoverageTrendPoint> points = read(file, CoverageTrendLog.SCOPE_APP, "", 0, Long.MAX_VALUE);
+        assertEquals(2, points.size());
+        assertPoint(points.get(1), 1002L, "REPORT", 2);
+    }
+
+    @Test
+    void stopsAtFrameWithBadChecksum() throws IOException {
+        File file = tempDir.resolve("demo.bin").toFile();
+        CoverageTrendLog.append(file, 1000L, "REPORT", entries(0));
+        long firstFrameEnd = file.length();
+        CoverageTrendLog.append(file, 1001L, "REPORT", entries(1));
+        CoverageTrendLog.append(file, 1002L, "REPORT", entries(2));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long payloadStart = firstFrameEnd + 4 + 8 + 8;
+            raf.seek(payloadStart);
+            int b = raf.read();
+            raf.seek(payloadStart);
+            raf.write(b ^ 0xFF);
+        }
+
+        List<CoverageTrendPoint> points = read(file, CoverageTrendLog.SCOPE_APP, "", 0, Long.MAX_VALUE);
+        assertEquals(1, points.size());
+        assertPoint(points.get(0), 1000L, "REPORT", 0);
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        File file = tempDir.resolve("foreign.bin").toFile();
+        Files.write(file.toPath(), "not a trend log".getBytes("UTF-8"));
+
+        assertThrows(IOException.class, () -> read(file, CoverageTrendLog.SCOPE_APP, "", 0, Long.MAX_VALUE));
+        assertThrows(IOException.class, () -> CoverageTrendLog.append(file, 1000L, "REPORT", entries(0)));
+    }
+
+    private static List<CoverageTrendLog.Entry> entries(int seed) {
+        return Arrays.asList(
+                new CoverageTrendLog.Entry(CoverageTrendLog.SCOPE_APP, "",
+                        counter(seed, 0), counter(seed, 1), counter(seed, 2), counter(seed, 3)),
+                new CoverageTrendLog.Entry(CoverageTrendLog.SCOPE_PACKAGE, "com/example/服务",
+                        new CoverageCounter(seed, 100 + seed), counter(seed, 1), counter(seed, 2), counter(seed, 3)),
+                new CoverageTrendLog.Entry(CoverageTrendLog.SCOPE_FILE, "com/example/服务/Demo.java",
+                        counter(seed, 4), counter(seed, 5), counter(seed, 6), counter(seed, 7)));
+    }
+
+    // 覆盖单字节到多字节变长整数
+    private static CoverageCounter counter(int seed, int index) {
+        return new CoverageCounter(seed * 1000 + index, (seed + 1) * 300000 + index);
+    }
+
+    private static void assertPoint(CoverageTrendPoint point, long timestamp, String source, int seed) {
+        assertEquals(timestamp, point.getTimestamp());
+        assertEquals(source, point.getSource());
+        assertCounter(counter(seed, 0), point.getInstructions());
+        assertCounter(counter(seed, 1), point.getBranches());
+        assertCounter(counter(seed, 2), point.getLines());
+        assertCounter(counter(seed, 3), point.getMethods());
+    }
+
+    private static void assertCounter(CoverageCounter expected, CoverageCounter actual) {
+        assertEquals(expected.getMissed(), actual.getMissed());
+        assertEquals(expected.getCovered(), actual.getCovered());
+    }
+
+    private static List<CoverageTrendPoint> read(File file, byte scope, String name, long from, long to) throws IOException {
+        List<CoverageTrendPoint> points = new ArrayList<>();
+        CoverageTrendLog.read(file, scope, name, from, to, points);
+        return points;
+    }
+}
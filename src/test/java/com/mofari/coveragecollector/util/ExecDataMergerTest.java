@@ -0,0 +1,241 @@
+package com.mofari.coveragecollector.util;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.data.SessionInfoStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ExecDataMerger 与JaCoCo的逐字节兼容性：随机生成的dump用 ExecutionDataStore 合并、ExecutionDataWriter 写出的结果为准，
+ * 顺序合并、按不同分组并行合并以及 accept 交出的数据都必须与之相同。
+ */
+class ExecDataMergerTest {
+
+    private static final int CORPORA = 30;
+
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void mergesRandomCorporaLikeJacoco() throws Exception {
+        for (int seed = 0; seed < CORPORA; seed++) {
+            Random random = new Random(seed);
+            List<File> files = writeCorpus(random, "corpus" + seed, 1 + random.nextInt(9));
+            byte[] expected = mergeWithJacoco(files);
+
+            ExecDataMerger sequential = new ExecDataMerger(random.nextInt(64));
+            for (File file : files) {
+                sequential.merge(file);
+            }
+            assertArrayEquals(expected, toBytes(sequential), "sequential merge, seed " + seed);
+
+            for (int filesPerTask = 1; filesPerTask <= 3; filesPerTask++) {
+                ExecDataMerger parallel = ParallelExecDataMerger.merge(files, pool, filesPerTask, 0);
+                assertArrayEquals(expected, toBytes(parallel), "parallel merge, filesPerTask " + filesPerTask + ", seed " + seed);
+            }
+
+            ExecutionDataStore executionDataStore = new ExecutionDataStore();
+            SessionInfoStore sessionInfoStore = new SessionInfoStore();
+            sequential.accept(executionDataStore, sessionInfoStore);
+            ByteArrayOutputStream accepted = new ByteArrayOutputStream();
+            ExecutionDataWriter writer = new ExecutionDataWriter(accepted);
+            sessionInfoStore.accept(writer);
+            executionDataStore.accept(writer);
+            assertArrayEquals(expected, accepted.toByteArray(), "accept, seed " + seed);
+        }
+    }
+
+    @Test
+    void rejectsDifferentClassNamesForSameId() throws Exception {
+        assertConflict(new ExecutionData(0x1234L, "com/example/Foo", new boolean[]{true, false}),
+                new ExecutionData(0x1234L, "com/example/Bar", new boolean[]{false, true}), "Different class names");
+    }
+
+    @Test
+    void rejectsDifferentProbeCountsForSameId() throws Exception {
+        assertConflict(new ExecutionData(0x1234L, "com/example/Foo", new boolean[]{true, false}),
+                new ExecutionData(0x1234L, "com/example/Foo", new boolean[]{false, true, true}), "Incompatible execution data");
+    }
+
+    @Test
+    void failsOnTruncatedInput() throws Exception {
+        List<File> files = writeCorpus(new Random(42), "truncated", 1);
+        byte[] data = Files.readAllBytes(files.get(0).toPath());
+        List<Integer> boundaries = blockBoundaries(data);
+        int truncatedInsideBlock = 0;
+        for (int length = 1; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            if (boundaries.contains(length)) {
+                new ExecDataMerger().merge(new ByteArrayInputStream(truncated));
+                continue;
+            }
+            truncatedInsideBlock++;
+            assertThrows(EOFException.class, () -> new ExecDataMerger().merge(new ByteArrayInputStream(truncated)),
+                    "truncated at " + length);
+        }
+        assertTrue(truncatedInsideBlock > 0);
+
+        File valid = files.get(0);
+        File truncated = tempDir.resolve("truncated_part.exec").toFile();
+        Files.write(truncated.toPath(), Arrays.copyOf(data, data.length - 1));
+        ParallelExecDataMerger.FileMergeException e = assertThrows(ParallelExecDataMerger.FileMergeException.class,
+                () -> ParallelExecDataMerger.merge(Arrays.asList(valid, valid, truncated, valid), pool, 1, 0));
+        assertEquals(truncated, e.getFile());
+        assertTrue(e.getCause() instanceof EOFException);
+    }
+
+    /**
+     * 冲突出现在同一组内和不同组之间时，顺序合并与并行合并都抛出相同的 IllegalStateException
+     */
+    private void assertConflict(ExecutionData first, ExecutionData second, String messagePrefix) throws Exception {
+        File firstFile = writeFile("conflict_a.exec", first);
+        File other = writeFile("conflict_other.exec", new ExecutionData(0x99L, "com/example/Other", new boolean[]{true}));
+        File secondFile = writeFile("conflict_b.exec", second);
+        List<File> files = Arrays.asList(firstFile, other, secondFile, other);
+
+        IllegalStateException expected = assertThrows(IllegalStateException.class, () -> mergeWithJacoco(files));
+        ExecDataMerger sequential = new ExecDataMerger();
+        IllegalStateException actual = assertThrows(IllegalStateException.class, () -> {
+            for (File file : files) {
+                sequential.merge(file);
+            }
+        });
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertTrue(actual.getMessage().startsWith(messagePrefix), actual.getMessage());
+        for (int filesPerTask = 1; filesPerTask <= 4; filesPerTask++) {
+            int groupSize = filesPerTask;
+            IllegalStateException parallel = assertThrows(IllegalStateException.class,
+                    () -> ParallelExecDataMerger.merge(files, pool, groupSize, 0), "filesPerTask " + filesPerTask);
+            assertEquals(expected.getMessage(), parallel.getMessage(), "filesPerTask " + filesPerTask);
+        }
+    }
+
+    /**
+     * 随机的dump文件：class来自同一个池（同一个id的类名和探针数固定），探针随机命中，部分class没有命中，
+     * 会话的dump时间有重复，以覆盖会话的稳定排序
+     */
+    private List<File> writeCorpus(Random random, String prefix, int fileCount) throws IOException {
+        int poolSize = 1 + random.nextInt(300);
+        long[] ids = new long[poolSize];
+        int[] probeCounts = new int[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            ids[i] = random.nextLong();
+            probeCounts[i] = random.nextInt(10) == 0 ? random.nextInt(300) : random.nextInt(20);
+        }
+        List<File> files = new ArrayList<>();
+        for (int f = 0; f < fileCount; f++) {
+            File file = tempDir.resolve(prefix + "_" + f + ".exec").toFile();
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                ExecutionDataWriter writer = new ExecutionDataWriter(out);
+                int sessions = random.nextInt(3);
+                for (int s = 0; s < sessions; s++) {
+                    long start = random.nextInt(5);
+                    writer.visitSessionInfo(new SessionInfo("node-" + random.nextInt(4), start, start + random.nextInt(3)));
+                }
+                for (int i = 0; i < poolSize; i++) {
+                    if (random.nextInt(3) == 0) {
+                        continue;
+                    }
+                    boolean[] probes = new boolean[probeCounts[i]];
+                    boolean hit = random.nextInt(4) != 0;
+                    for (int p = 0; p < probes.length && hit; p++) {
+                        probes[p] = random.nextInt(3) == 0;
+                    }
+                    writer.visitClassExecution(new ExecutionData(ids[i], "com/example/p" + (i % 7) + "/Class" + i, probes));
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private File writeFile(String name, ExecutionData... classes) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            ExecutionDataWriter writer = new ExecutionDataWriter(out);
+            writer.visitSessionInfo(new SessionInfo(name, 1, 2));
+            for (ExecutionData data : classes) {
+                writer.visitClassExecution(data);
+            }
+        }
+        return file;
+    }
+
+    private static byte[] mergeWithJacoco(List<File> files) throws IOException {
+        ExecutionDataStore executionDataStore = new ExecutionDataStore();
+        SessionInfoStore sessionInfoStore = new SessionInfoStore();
+        for (File file : files) {
+            try (InputStream in = new FileInputStream(file)) {
+                ExecutionDataReader reader = new ExecutionDataReader(in);
+                reader.setExecutionDataVisitor(executionDataStore);
+                reader.setSessionInfoVisitor(sessionInfoStore);
+                reader.read();
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExecutionDataWriter writer = new ExecutionDataWriter(out);
+        sessionInfoStore.accept(writer);
+        executionDataStore.accept(writer);
+        return out.toByteArray();
+    }
+
+    private static byte[] toBytes(ExecDataMerger merger) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        merger.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 各个块结束位置的偏移，在这些位置截断得到的仍是完整的文件
+     */
+    private static List<Integer> blockBoundaries(byte[] data) throws IOException {
+        List<Integer> boundaries = new ArrayList<>();
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(data));
+        ExecutionDataReader reader = new ExecutionDataReader(in);
+        reader.setSessionInfoVisitor(info -> boundaries.add((int) in.getCount()));
+        reader.setExecutionDataVisitor(info -> boundaries.add((int) in.getCount()));
+        // 头部块的结束位置：块类型1字节 + magic 2字节 + 版本 2字节
+        boundaries.add(5);
+        reader.read();
+        return boundaries;
+    }
+}
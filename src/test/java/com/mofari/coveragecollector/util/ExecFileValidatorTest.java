@@ -0,0 +1,160 @@
+package com.mofari.coveragecollector.util;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 截断检测与修复：在每个块边界和每个块中间截断一个有效的 .exec 文件，检查校验结果和修复后的文件内容
+ */
+class ExecFileValidatorTest {
+
+    private static final int HEADER_LENGTH = 5;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void acceptsCompleteFile() throws IOException {
+        byte[] data = sampleExecData();
+        File file = write("complete.exec", data);
+
+        ExecFileValidator.Result result = ExecFileValidator.validate(file);
+
+        assertTrue(result.isValid());
+        assertFalse(result.isTruncated());
+        assertEquals(data.length, result.getValidLength());
+        assertEquals(2, result.getSessionCount());
+        assertEquals(20, result.getClassCount());
+        ExecFileValidator.Result repaired = ExecFileValidator.repair(file);
+        assertTrue(repaired.isValid());
+        assertFalse(repaired.isRepaired());
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void detectsAndRepairsTruncationAtEveryOffset() throws IOException {
+        byte[] data = sampleExecData();
+        // 块结束位置 -> 到该位置为止的 [会话数, class数]
+        TreeMap<Integer, int[]> boundaries = blockBoundaries(data);
+        for (int length = 1; length < data.length; length++) {
+            File file = write("truncated_" + length + ".exec", Arrays.copyOf(data, length));
+            ExecFileValidator.Result result = ExecFileValidator.validate(file);
+            Integer boundary = boundaries.floorKey(length);
+
+            if (boundary != null && boundary == length) {
+                assertTrue(result.isValid(), "block boundary " + length);
+                assertEquals(length, result.getValidLength());
+                assertEquals(boundaries.get(length)[1], result.getClassCount(), "classes at " + length);
+                continue;
+            }
+            assertFalse(result.isValid(), "truncated at " + length);
+            assertTrue(result.isTruncated(), "truncated at " + length);
+            assertNotNull(result.getError());
+            if (length < HEADER_LENGTH) {
+                // 头部不完整，没有可以保留的内容
+                assertEquals(0, result.getValidLength());
+                assertFalse(result.isRepairable());
+                assertFalse(ExecFileValidator.repair(file).isRepaired());
+                assertEquals(length, file.length());
+                continue;
+            }
+            assertEquals((long) boundary, result.getValidLength(), "truncated at " + length);
+            assertTrue(result.isRepairable());
+
+            ExecFileValidator.Result repaired = ExecFileValidator.repair(file);
+            assertTrue(repaired.isValid(), "repaired from " + length);
+            assertTrue(repaired.isRepaired());
+            assertEquals((long) boundary, repaired.getValidLength());
+            assertEquals(boundaries.get(boundary)[0], repaired.getSessionCount());
+            assertEquals(boundaries.get(boundary)[1], repaired.getClassCount());
+            assertArrayEquals(Arrays.copyOf(data, boundary), Files.readAllBytes(file.toPath()));
+        }
+        assertNoTempFiles();
+    }
+
+    @Test
+    void rejectsEmptyAndForeignFiles() throws IOException {
+        ExecFileValidator.Result empty = ExecFileValidator.validate(write("empty.exec", new byte[0]));
+        assertFalse(empty.isValid());
+        assertFalse(empty.isRepairable());
+
+        File foreign = write("foreign.exec", "not an exec file".getBytes(StandardCharsets.UTF_8));
+        ExecFileValidator.Result result = ExecFileValidator.validate(foreign);
+        assertFalse(result.isValid());
+        assertFalse(result.isRepairable());
+        assertFalse(ExecFileValidator.repair(foreign).isRepaired());
+        assertEquals("not an exec file", new String(Files.readAllBytes(foreign.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertFalse(files.anyMatch(path -> AtomicFileWriter.isTempFile(path.getFileName().toString())));
+        }
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /**
+     * 两个会话和20个class，探针数从0到300不等，跨越多个varint长度
+     */
+    private static byte[] sampleExecData() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExecutionDataWriter writer = new ExecutionDataWriter(out);
+        writer.visitSessionInfo(new SessionInfo("node-1", 1000L, 2000L));
+        for (int i = 0; i < 20; i++) {
+            if (i == 10) {
+                writer.visitSessionInfo(new SessionInfo("node-2", 3000L, 4000L));
+            }
+            boolean[] probes = new boolean[1 + i * 15];
+            probes[0] = true;
+            for (int p = 1; p < probes.length; p += 3) {
+                probes[p] = true;
+            }
+            writer.visitClassExecution(new ExecutionData(0x1000L + i, "com/example/Class" + i, probes));
+        }
+        return out.toByteArray();
+    }
+
+    private static TreeMap<Integer, int[]> blockBoundaries(byte[] data) throws IOException {
+        TreeMap<Integer, int[]> boundaries = new TreeMap<>();
+        int[] counts = new int[2];
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(data));
+        ExecutionDataReader reader = new ExecutionDataReader(in);
+        reader.setSessionInfoVisitor(info -> {
+            counts[0]++;
+            boundaries.put((int) in.getCount(), counts.clone());
+        });
+        reader.setExecutionDataVisitor(info -> {
+            counts[1]++;
+            boundaries.put((int) in.getCount(), counts.clone());
+        });
+        boundaries.put(HEADER_LENGTH, new int[2]);
+        reader.read();
+        return boundaries;
+    }
+}